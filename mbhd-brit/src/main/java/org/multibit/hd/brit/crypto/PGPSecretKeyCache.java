@@ -0,0 +1,224 @@
+package org.multibit.hd.brit.crypto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchProviderException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Cache to provide the following to PGPUtils:</p>
+ * <ul>
+ * <li>A secret keyring parsed once rather than on every decrypt</li>
+ * <li>Unlocked PGP private keys held by key ID so the passphrase is only applied once per key</li>
+ * <li>Automatic reload when the keyring file changes</li>
+ * </ul>
+ * <p>The keyring file is checked for a change (last modified time or length) at most once per check interval.
+ * A reload discards every unlocked key from the previous keyring. All methods are safe to call from concurrent
+ * request threads.</p>
+ *
+ * @since 0.0.1
+ */
+public class PGPSecretKeyCache {
+
+  private static final Logger log = LoggerFactory.getLogger(PGPSecretKeyCache.class);
+
+  /**
+   * Keeps the cost of noticing a replaced keyring to one file stat per second
+   */
+  public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1_000;
+
+  /**
+   * The secret keyring file (null if the keyring was supplied as a stream)
+   */
+  private final File secretKeyringFile;
+
+  /**
+   * The credentials to use to unlock the secret keys
+   */
+  private final char[] password;
+
+  private final long checkIntervalMillis;
+
+  private volatile KeyRing keyRing;
+
+  private volatile long nextCheckMillis = 0;
+
+  /**
+   * @param secretKeyringFile The secret keyring file (not read until the first key is requested)
+   * @param password          The credentials to unlock the secret keys
+   */
+  public PGPSecretKeyCache(File secretKeyringFile, char[] password) {
+    this(secretKeyringFile, password, DEFAULT_CHECK_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param secretKeyringFile   The secret keyring file (not read until the first key is requested)
+   * @param password            The credentials to unlock the secret keys
+   * @param checkIntervalMillis The minimum interval between checks of the file for a change
+   */
+  public PGPSecretKeyCache(File secretKeyringFile, char[] password, long checkIntervalMillis) {
+
+    Preconditions.checkNotNull(secretKeyringFile, "'secretKeyringFile' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+    Preconditions.checkArgument(checkIntervalMillis >= 0, "'checkIntervalMillis' must not be negative");
+
+    this.secretKeyringFile = secretKeyringFile;
+    this.password = Arrays.copyOf(password, password.length);
+    this.checkIntervalMillis = checkIntervalMillis;
+
+    PGPUtils.addProvider();
+  }
+
+  /**
+   * @param keyRing  The parsed keyring
+   * @param password The credentials to unlock the secret keys
+   */
+  private PGPSecretKeyCache(KeyRing keyRing, char[] password) {
+
+    this.secretKeyringFile = null;
+    this.password = Arrays.copyOf(password, password.length);
+    this.checkIntervalMillis = 0;
+    this.keyRing = keyRing;
+  }
+
+  /**
+   * @param keyIn    The secret keyring (read fully but not closed)
+   * @param password The credentials to unlock the secret keys
+   *
+   * @return A cache over the keyring with no reload
+   *
+   * @throws IOException  If the keyring cannot be read
+   * @throws PGPException If the keyring cannot be parsed
+   */
+  static PGPSecretKeyCache newInstance(InputStream keyIn, char[] password) throws IOException, PGPException {
+    return new PGPSecretKeyCache(KeyRing.parse(keyIn, 0, 0), password);
+  }
+
+  /**
+   * @param keyID The key ID we want
+   *
+   * @return The unlocked PGP private key matching the key ID, or null if the keyring does not contain it
+   *
+   * @throws IOException             If the keyring cannot be read
+   * @throws PGPException            If the keyring cannot be parsed or the key cannot be unlocked
+   * @throws NoSuchProviderException If the Bouncy Castle provider is not installed
+   */
+  public PGPPrivateKey findPrivateKey(long keyID) throws IOException, PGPException, NoSuchProviderException {
+
+    KeyRing current = currentKeyRing();
+
+    PGPPrivateKey privateKey = current.privateKeys.get(keyID);
+    if (privateKey != null) {
+      return privateKey;
+    }
+
+    PGPSecretKey secretKey = current.secretKeys.getSecretKey(keyID);
+    if (secretKey == null) {
+      return null;
+    }
+
+    // Unlocking is expensive so only the first thread's key is kept
+    privateKey = secretKey.extractPrivateKey(password, "BC");
+    PGPPrivateKey existing = current.privateKeys.putIfAbsent(keyID, privateKey);
+
+    return existing == null ? privateKey : existing;
+  }
+
+  /**
+   * <p>Read the keyring file now, discarding any unlocked keys</p>
+   *
+   * @throws IOException  If the keyring cannot be read
+   * @throws PGPException If the keyring cannot be parsed
+   */
+  public synchronized void reload() throws IOException, PGPException {
+
+    if (secretKeyringFile == null) {
+      return;
+    }
+
+    keyRing = load();
+    nextCheckMillis = System.currentTimeMillis() + checkIntervalMillis;
+  }
+
+  /**
+   * @return The current keyring, reloading it first if the file has changed
+   */
+  private KeyRing currentKeyRing() throws IOException, PGPException {
+
+    KeyRing current = keyRing;
+    if (secretKeyringFile == null || (current != null && System.currentTimeMillis() < nextCheckMillis)) {
+      return current;
+    }
+
+    synchronized (this) {
+
+      long now = System.currentTimeMillis();
+      current = keyRing;
+      if (current != null && now < nextCheckMillis) {
+        return current;
+      }
+
+      if (current == null
+        || current.lastModified != secretKeyringFile.lastModified()
+        || current.length != secretKeyringFile.length()) {
+        current = load();
+        keyRing = current;
+      }
+      nextCheckMillis = now + checkIntervalMillis;
+
+      return current;
+    }
+
+  }
+
+  private KeyRing load() throws IOException, PGPException {
+
+    // Take the file attributes first so a change during the read triggers another reload
+    long lastModified = secretKeyringFile.lastModified();
+    long length = secretKeyringFile.length();
+
+    try (InputStream keyIn = new FileInputStream(secretKeyringFile)) {
+      KeyRing loaded = KeyRing.parse(keyIn, lastModified, length);
+      log.debug("Loaded secret keyring '{}'", secretKeyringFile.getAbsolutePath());
+      return loaded;
+    }
+
+  }
+
+  /**
+   * <p>A parsed keyring and the keys unlocked from it so far</p>
+   */
+  private static class KeyRing {
+
+    private final PGPSecretKeyRingCollection secretKeys;
+    private final ConcurrentMap<Long, PGPPrivateKey> privateKeys = Maps.newConcurrentMap();
+    private final long lastModified;
+    private final long length;
+
+    private KeyRing(PGPSecretKeyRingCollection secretKeys, long lastModified, long length) {
+      this.secretKeys = secretKeys;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+
+    private static KeyRing parse(InputStream keyIn, long lastModified, long length) throws IOException, PGPException {
+
+      PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(
+        org.bouncycastle.openpgp.PGPUtil.getDecoderStream(keyIn));
+
+      return new KeyRing(secretKeys, lastModified, length);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.multibit.hd.brit.crypto;
 
+import com.google.common.io.ByteStreams;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.*;
@@ -106,11 +107,29 @@ public class PGPUtils {
    *
    * @throws Exception TODO This is too general (many exceptions wrapped up into one)
    */
-  @SuppressWarnings("unchecked")
   public static void decryptFile(InputStream encryptedInputStream, OutputStream decryptedOutputStream, InputStream keyInputStream, char[] password)
     throws Exception {
 
-    Security.addProvider(new BouncyCastleProvider());
+    addProvider();
+
+    // Parse the key ring once for all the encrypted data objects
+    decryptFile(encryptedInputStream, decryptedOutputStream, PGPSecretKeyCache.newInstance(keyInputStream, password));
+  }
+
+  /**
+   * Decrypt the passed in message stream using previously unlocked keys
+   *
+   * @param encryptedInputStream  The input stream
+   * @param decryptedOutputStream The output stream
+   * @param secretKeyCache        The secret key cache
+   *
+   * @throws Exception TODO This is too general (many exceptions wrapped up into one)
+   */
+  @SuppressWarnings("unchecked")
+  public static void decryptFile(InputStream encryptedInputStream, OutputStream decryptedOutputStream, PGPSecretKeyCache secretKeyCache)
+    throws Exception {
+
+    addProvider();
 
     encryptedInputStream = PGPUtil.getDecoderStream(encryptedInputStream);
 
@@ -135,7 +154,7 @@ public class PGPUtils {
     while (privateKey == null && it.hasNext()) {
       pbe = it.next();
 
-      privateKey = findPrivateKey(keyInputStream, pbe.getKeyID(), password);
+      privateKey = secretKeyCache.findPrivateKey(pbe.getKeyID());
     }
 
     if (privateKey == null) {
@@ -158,12 +177,7 @@ public class PGPUtils {
     if (message instanceof PGPLiteralData) {
       PGPLiteralData ld = (PGPLiteralData) message;
 
-      InputStream unc = ld.getInputStream();
-      int ch;
-
-      while ((ch = unc.read()) >= 0) {
-        decryptedOutputStream.write(ch);
-      }
+      ByteStreams.copy(ld.getInputStream(), decryptedOutputStream);
     } else if (message instanceof PGPOnePassSignatureList) {
       throw new PGPException("Encrypted message contains a signed message - not literal data.");
     } else {
@@ -193,7 +207,7 @@ public class PGPUtils {
                                  PGPPublicKey encKey)
     throws IOException, NoSuchProviderException, PGPException {
 
-    Security.addProvider(new BouncyCastleProvider());
+    addProvider();
 
     // Armored output
     armoredOut = new ArmoredOutputStream(armoredOut);
@@ -231,5 +245,16 @@ public class PGPUtils {
     armoredOut.close();
   }
 
+  /**
+   * <p>Install the Bouncy Castle provider if it is not already present</p>
+   */
+  static void addProvider() {
+
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+  }
+
 
 }
\ No newline at end of file
@@ -1,11 +1,12 @@
 package org.multibit.hd.brit.matcher;
 
 import org.bitcoinj.core.Address;
+import org.bitcoinj.params.MainNetParams;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Sets;
 import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPSecretKeyCache;
 import org.multibit.hd.brit.crypto.PGPUtils;
 import org.multibit.hd.brit.dto.*;
 import org.slf4j.Logger;
@@ -14,18 +15,23 @@ import org.spongycastle.crypto.params.KeyParameter;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Date;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>Class to provide the following to BRIT API:</p>
  * <ul>
  * <li>Ability to match Redeemers and Payers</li>
+ * <li>Concurrent request handling: a single instance can serve many Payers at once</li>
  * </ul>
+ * <p>Each request is handled entirely on the calling thread through {@link #handle(EncryptedPayerRequest)}.
+ * Today's Bitcoin addresses are held in an immutable snapshot that is read without locking and only
+ * replaced (under a lock) when the UTC day changes.</p>
  *
  * @since 0.0.1
  */
@@ -35,6 +41,14 @@ public class BasicMatcher implements Matcher {
 
   private final MatcherConfig matcherConfig;
 
+  /**
+   * The Matcher secret keyring with its private keys unlocked on first use
+   */
+  private final PGPSecretKeyCache secretKeyCache;
+
+  /**
+   * Guards the selection of a new day's Bitcoin addresses (shared since instances may share a store)
+   */
   private static final Object lockObject = new Object();
 
   /**
@@ -42,13 +56,19 @@ public class BasicMatcher implements Matcher {
    */
   private static final int NUMBER_OF_ADDRESSES_PER_DAY = 50;
 
-  private SecureRandom secureRandom;
+  private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+  private final SecureRandom secureRandom;
 
   /**
-   * The last payerRequest received.
-   * (Having a single last payerRequest won't work in a multi-threaded environment)
+   * The last payerRequest processed on each thread (only used by the deprecated single argument encryptMatcherResponse)
    */
-  private PayerRequest lastPayerRequest;
+  private final ThreadLocal<PayerRequest> lastPayerRequest = new ThreadLocal<>();
+
+  /**
+   * The Bitcoin addresses for the current UTC day
+   */
+  private final AtomicReference<DailyAddresses> todaysAddresses = new AtomicReference<>();
 
   /**
    * The matcher store containing all the bitcoin address information
@@ -63,6 +83,7 @@ public class BasicMatcher implements Matcher {
 
     this.matcherConfig = matcherConfig;
     this.matcherStore = matcherStore;
+    this.secretKeyCache = new PGPSecretKeyCache(matcherConfig.getMatcherSecretKeyringFile(), matcherConfig.getPassword());
 
     secureRandom = new SecureRandom();
   }
@@ -72,6 +93,18 @@ public class BasicMatcher implements Matcher {
     return matcherConfig;
   }
 
+  @Override
+  public EncryptedMatcherResponse handle(EncryptedPayerRequest encryptedPayerRequest) throws Exception {
+
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    // The decrypted request is the only per-request context and never leaves this thread
+    PayerRequest payerRequest = decryptPayerRequest(encryptedPayerRequest);
+    MatcherResponse matcherResponse = processRequest(payerRequest);
+
+    return encryptMatcherResponse(payerRequest, matcherResponse);
+  }
+
   @Override
   public PayerRequest decryptPayerRequest(EncryptedPayerRequest encryptedPayerRequest) throws Exception {
     log.trace("Attempting to decrypt payload:\n{}\n", new String(encryptedPayerRequest.getPayload(), Charsets.UTF_8));
@@ -80,9 +113,8 @@ public class BasicMatcher implements Matcher {
 
     ByteArrayOutputStream serialisedPayerRequestOutputStream = new ByteArrayOutputStream(1024);
 
-    // PGP encrypt the file
-    PGPUtils.decryptFile(serialisedPayerRequestEncryptedInputStream, serialisedPayerRequestOutputStream,
-            new FileInputStream(matcherConfig.getMatcherSecretKeyringFile()), matcherConfig.getPassword());
+    // PGP decrypt the payload (the keyring is only read again if it changes)
+    PGPUtils.decryptFile(serialisedPayerRequestEncryptedInputStream, serialisedPayerRequestOutputStream, secretKeyCache);
 
     return PayerRequest.parse(serialisedPayerRequestOutputStream.toByteArray());
   }
@@ -90,88 +122,156 @@ public class BasicMatcher implements Matcher {
   @Override
   public MatcherResponse process(PayerRequest payerRequest) {
 
-    lastPayerRequest = payerRequest;
+    lastPayerRequest.set(payerRequest);
+
+    return processRequest(payerRequest);
+  }
+
+  @Override
+  @Deprecated
+  public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException {
+
+    PayerRequest payerRequest = lastPayerRequest.get();
+    Preconditions.checkState(payerRequest != null, "'process' must be called on this thread before 'encryptMatcherResponse'");
+
+    return encryptMatcherResponse(payerRequest, matcherResponse);
+  }
+
+  @Override
+  public EncryptedMatcherResponse encryptMatcherResponse(PayerRequest payerRequest, MatcherResponse matcherResponse) throws NoSuchAlgorithmException {
+    // Stretch the 20 byte britWalletId to 32 bytes (256 bits)
+    byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(payerRequest.getBritWalletId().getBytes());
+
+    // Create an AES key from the stretchedBritWalletId and the sessionKey and decrypt the payload
+    byte[] encryptedMatcherResponsePayload = AESUtils.encrypt(matcherResponse.serialise(), new KeyParameter(stretchedBritWalletId), payerRequest.getSessionKey());
+
+    return new EncryptedMatcherResponse(encryptedMatcherResponsePayload);
+  }
+
+  @Override
+  public MatcherStore getMatcherStore() {
+    return matcherStore;
+  }
+
+  /**
+   * @param payerRequest The decrypted PayerRequest
+   *
+   * @return The MatcherResponse (no state is retained)
+   */
+  private MatcherResponse processRequest(PayerRequest payerRequest) {
+
+    Date now = new Date();
 
     WalletToEncounterDateLink previousEncounter = matcherStore.lookupWalletToEncounterDateLink(payerRequest.getBritWalletId());
 
+    // If this wallet has not been seen before then record this encounter
+    // Concurrent first requests from the same wallet all end up with the single stored link
+    if (previousEncounter == null) {
+      Date firstReplayDate = earliest(now, payerRequest.getFirstTransactionDate());
+      WalletToEncounterDateLink thisEncounter = new WalletToEncounterDateLink(payerRequest.getBritWalletId(), Optional.of(now), Optional.of(firstReplayDate));
+      WalletToEncounterDateLink existing = matcherStore.storeWalletToEncounterDateLinkIfAbsent(thisEncounter);
+      previousEncounter = existing == null ? thisEncounter : existing;
+    }
+
     // The replay date is the earliest of:
     // + the payerRequest.firstTreatmentDate in the PayerRequest (if available)
     // + the firstTransactionDate in the previousEncounter (which would have been supplied in the past for this wallet)
     // + the previousEncounterDate (the first time this wallet was seen by the Matcher
     // BRITWalletId
-    Date replayDate = new Date();   // If this is a brand new wallet, never used or seen before by the matcher you can replay from now.
-    if (previousEncounter != null && previousEncounter.getEncounterDateOptional().isPresent()) {
-      replayDate = previousEncounter.getEncounterDateOptional().get();
-    }
-    if (previousEncounter != null && previousEncounter.getFirstTransactionDate().isPresent()) {
-      replayDate = previousEncounter.getFirstTransactionDate().get().before(replayDate) ? previousEncounter.getFirstTransactionDate().get() : replayDate;
-    }
-    if (payerRequest.getFirstTransactionDate().isPresent()) {
-      replayDate = payerRequest.getFirstTransactionDate().get().before(replayDate) ? payerRequest.getFirstTransactionDate().get() : replayDate;
-    }
+    Date replayDate = previousEncounter.getEncounterDateOptional().or(now);
+    replayDate = earliest(replayDate, previousEncounter.getFirstTransactionDate());
+    replayDate = earliest(replayDate, payerRequest.getFirstTransactionDate());
 
     // TODO update record if replay date coming in is earlier than the one on the existing record (or if it is absent)
 
-    // If the previousEncounter was null then store this encounter
-    if (previousEncounter == null) {
-      WalletToEncounterDateLink thisEncounter = new WalletToEncounterDateLink(payerRequest.getBritWalletId(), Optional.of(new Date()), Optional.of(replayDate));
-      matcherStore.storeWalletToEncounterDateLink(thisEncounter);
-    }
     // Lookup the current valid set of Bitcoin addresses to return to the payer
-    Date now = new Date();
-    Set<Address> currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
-
-    if (currentBitcoinAddressList == null || currentBitcoinAddressList.isEmpty()) {
-
-      // No Bitcoin addresses have been set up for this date - create some addresses, store it and return it
-      currentBitcoinAddressList = Sets.newHashSet();
-      Set<Address> allAddresses = matcherStore.getAllBitcoinAddresses();
-
-      if (allAddresses != null && !allAddresses.isEmpty()) {
-        // Create a subset of all addresses for use today
-        Address[] randomAccessAllAddresses = allAddresses.toArray(new Address[allAddresses.size()]);
-        // Ensure we create a complete subset (no duplications, no missing entries)
-        while (currentBitcoinAddressList.size() < NUMBER_OF_ADDRESSES_PER_DAY) {
-          // Index should lie between 0 and size() so that array is safe
-          int index = secureRandom.nextInt(allAddresses.size());
-          currentBitcoinAddressList.add(randomAccessAllAddresses[index]);
-        }
-
-      } else {
-        log.error("Could not produce a new set of Bitcoin addresses for '{}'. There are no Bitcoin addresses to pick from. Check " +
-          "'var/matcher/store/all.txt' is not missing/empty.",now.toString());
+    return new MatcherResponse(Optional.of(replayDate), lookupTodaysBitcoinAddresses(now));
+  }
+
+  /**
+   * @param now The current time
+   *
+   * @return The Bitcoin addresses for today, selecting and storing them if this is the first request of the day
+   */
+  private Set<Address> lookupTodaysBitcoinAddresses(Date now) {
+
+    long day = now.getTime() / MILLIS_PER_DAY;
+
+    // Fast path with no locking
+    DailyAddresses current = todaysAddresses.get();
+    if (current != null && current.day == day) {
+      return current.addresses;
+    }
+
+    // On a Matcher level lock, double check and select the list for today
+    synchronized (lockObject) {
+
+      current = todaysAddresses.get();
+      if (current != null && current.day == day) {
+        return current.addresses;
       }
 
-      // On a Matcher level lock, double check there is no data and write the list for today
-      synchronized (lockObject) {
-        Set<Address> doubleCheckCurrentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
-        if (doubleCheckCurrentBitcoinAddressList == null || doubleCheckCurrentBitcoinAddressList.isEmpty()) {
-          // We're certain that new addresses need to be stored
-          matcherStore.storeBitcoinAddressesForDate(currentBitcoinAddressList, now);
-        }
+      Set<Address> currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
+      if (currentBitcoinAddressList == null || currentBitcoinAddressList.isEmpty()) {
+
+        // No Bitcoin addresses have been set up for this date - create some addresses and store them
+        matcherStore.storeBitcoinAddressesForDate(selectBitcoinAddresses(now), now);
+        currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
+
+        Preconditions.checkNotNull(currentBitcoinAddressList, "'currentBitcoinAddressList' must be present after storage.");
+        Preconditions.checkState(!currentBitcoinAddressList.isEmpty(), "'currentBitcoinAddressList' must not be empty after storage.");
       }
-      currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
 
-      Preconditions.checkNotNull(currentBitcoinAddressList,"'currentBitcoinAddressList' must be present after storage.");
-      Preconditions.checkState(!currentBitcoinAddressList.isEmpty(), "'currentBitcoinAddressList' must not be empty after storage.");
+      DailyAddresses selected = new DailyAddresses(day, PackedAddressSet.copyOf(MainNetParams.get(), currentBitcoinAddressList));
+      todaysAddresses.set(selected);
 
+      return selected.addresses;
     }
-    return new MatcherResponse(Optional.of(replayDate), currentBitcoinAddressList);
+
   }
 
-  @Override
-  public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException {
-    // Stretch the 20 byte britWalletId to 32 bytes (256 bits)
-    byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(lastPayerRequest.getBritWalletId().getBytes());
+  /**
+   * @param now The current time
+   *
+   * @return A random subset of all the Bitcoin addresses (empty if there are none)
+   */
+  private Set<Address> selectBitcoinAddresses(Date now) {
 
-    // Create an AES key from the stretchedBritWalletId and the sessionKey and decrypt the payload
-    byte[] encryptedMatcherResponsePayload = AESUtils.encrypt(matcherResponse.serialise(), new KeyParameter(stretchedBritWalletId), lastPayerRequest.getSessionKey());
+    Set<Address> allAddresses = matcherStore.getAllBitcoinAddresses();
 
-    return new EncryptedMatcherResponse(encryptedMatcherResponsePayload);
+    if (allAddresses != null && !allAddresses.isEmpty()) {
+      // Create a complete subset (no duplications, no missing entries) of all addresses for use today
+      // by sampling record numbers so only the chosen addresses are copied
+      return PackedAddressSet.copyOf(MainNetParams.get(), allAddresses).sample(NUMBER_OF_ADDRESSES_PER_DAY, secureRandom);
+    }
+
+    log.error("Could not produce a new set of Bitcoin addresses for '{}'. There are no Bitcoin addresses to pick from. Check " +
+      "'var/matcher/store/all.txt' is not missing/empty.", now.toString());
+
+    return PackedAddressSet.builder(MainNetParams.get(), 0).build();
   }
 
-  @Override
-  public MatcherStore getMatcherStore() {
-    return matcherStore;
+  /**
+   * @param date     The current earliest date
+   * @param optional A date that may be earlier
+   *
+   * @return The earlier of the two dates
+   */
+  private static Date earliest(Date date, Optional<Date> optional) {
+    return optional.isPresent() && optional.get().before(date) ? optional.get() : date;
+  }
+
+  /**
+   * <p>Immutable snapshot of the Bitcoin addresses selected for a UTC day</p>
+   */
+  private static class DailyAddresses {
+
+    private final long day;
+    private final Set<Address> addresses;
+
+    private DailyAddresses(long day, Set<Address> addresses) {
+      this.day = day;
+      this.addresses = addresses;
+    }
   }
 }
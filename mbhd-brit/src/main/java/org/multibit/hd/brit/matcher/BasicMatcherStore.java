@@ -1,20 +1,9 @@
 package org.multibit.hd.brit.matcher;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
-import com.google.common.io.Files;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bitcoinj.core.Address;
-import org.bitcoinj.core.AddressFormatException;
-import org.bitcoinj.params.MainNetParams;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import org.multibit.hd.brit.dto.BRITWalletId;
 import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
 import org.slf4j.Logger;
@@ -22,8 +11,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.Date;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -33,10 +20,18 @@ import java.util.Set;
  * <li>File store and lookup of wallet to encounter date links. These are stored in a file backingStore/Directory/links.txt</li>
  * <li>File store and lookup of Bitcoin addresses by day. For each date these are stored in a file backingStoreDirectory/by-date/yyyy-mm-dd.txt</li>
  * </ul>
+ * <p>Startup does not depend on the size of the store. The links file is a journal: lookups use a memory mapped
+ * hash index (backingStoreDirectory/links.idx) that is brought up to date with any journal entries it is missing
+ * when the store opens (all of them the first time, which migrates an existing text store). Address files are only
+ * read when first asked for.</p>
+ * <p>Each link is forced to the journal and then to the index before the store returns, so a link that has been
+ * stored is never lost from lookups after a crash. Use GroupCommitMatcherStore to share these writes between
+ * concurrent requests.</p>
+ * <p>Lookups are safe to call from concurrent request threads. Writes to the backing files are serialised.</p>
  *
  * @since 0.0.1
  */
-public class BasicMatcherStore implements MatcherStore {
+public class BasicMatcherStore implements MatcherStore, Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(BasicMatcherStore.class);
 
@@ -49,6 +44,8 @@ public class BasicMatcherStore implements MatcherStore {
 
   public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS = "links.txt";
 
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_INDEX = "links.idx";
+
   public static final String NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE = "by-date";
 
   public static final String LINKS_FILENAME_SUFFIX = ".txt";
@@ -56,29 +53,29 @@ public class BasicMatcherStore implements MatcherStore {
   public static final String COMMENT_PREFIX = "#";
 
   /**
-   * Produces "2000-04-01" for simplified short user date
+   * The index from a BRITWalletId to the previous encounter of this wallet (if available)
    */
-  private static final DateTimeFormatter utcShortDateWithHyphensFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+  private final WalletToEncounterDateIndex encounterIndex;
 
   /**
-   * A map containing the link from a BRITWalletId to the previous encounter of this wallet (if available)
+   * The file to which the wallet to encounter dates are appended
    */
-  private Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newHashMap();
+  private final File walletToEncounterDateFile;
 
   /**
-   * The file to which the wallet to encounter dates are appended
+   * Serialises appends to the wallet to encounter date file and the matching index updates
    */
-  private File walletToEncounterDateFile;
+  private final Object encounterFileLock = new Object();
 
   /**
-   * The set of all the Bitcoin addresses in the MatcherStore
+   * The length of the wallet to encounter date file
    */
-  private Set<Address> allBitcoinAddresses = Sets.newHashSet();
+  private long walletToEncounterDateFileLength;
 
   /**
-   * A map from the date of encounter to the list of Bitcoins used that day
+   * The Bitcoin addresses, all of them and by day
    */
-  private Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+  private final BitcoinAddressStore bitcoinAddressStore;
 
   /**
    * @param backingStoreDirectory The Matcher backing store directory
@@ -86,10 +83,10 @@ public class BasicMatcherStore implements MatcherStore {
   public BasicMatcherStore(File backingStoreDirectory) throws IOException {
 
     this.backingStoreDirectory = backingStoreDirectory;
+    this.bitcoinAddressStore = new BitcoinAddressStore(backingStoreDirectory);
 
-    initialiseAddresses();
-
-    buildEncounterMaps();
+    walletToEncounterDateFile = new File(backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    encounterIndex = new WalletToEncounterDateIndex(new File(backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_INDEX));
 
     buildEncounterFile();
 
@@ -112,16 +109,7 @@ public class BasicMatcherStore implements MatcherStore {
   }
 
   /**
-   * Initialise the Bitcoin addresses
-   */
-  private void initialiseAddresses() {
-    // Load the file containing all the bitcoin addresses
-    String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
-    allBitcoinAddresses = readBitcoinAddresses(allBitcoinAddressesFilename);
-  }
-
-  /**
-   * Initialise the encounter file for persisting new wallet ID encounters
+   * Initialise the encounter file for persisting new wallet ID encounters and bring the index up to date with it
    *
    * @throws IOException If something goes wrong
    */
@@ -134,67 +122,105 @@ public class BasicMatcherStore implements MatcherStore {
       }
     }
 
-    byte[] walletToEncounterDatesAsBytes = Files.toByteArray(walletToEncounterDateFile);
-    String walletToEncounterDates = new String(walletToEncounterDatesAsBytes, Charsets.UTF_8);
+    walletToEncounterDateFileLength = walletToEncounterDateFile.length();
 
-    // Split into lines - each line contains a serialised WalletToEncounterDateLink
-    String[] walletToEncounterDateArray = walletToEncounterDates.split("\n");
-    for (String line : walletToEncounterDateArray) {
-      if (!Strings.isNullOrEmpty(line)) {
-        WalletToEncounterDateLink link = WalletToEncounterDateLink.parse(line);
-        if (link != null) {
-          previousEncounterMap.put(link.getBritWalletId(), link);
-        }
-      }
+    long indexedLength = encounterIndex.getJournalLength();
+    if (indexedLength > walletToEncounterDateFileLength) {
+      // The index is ahead of its journal so cannot be trusted
+      log.warn("Index is ahead of '{}'. Rebuilding.", walletToEncounterDateFile.getAbsolutePath());
+      encounterIndex.clear();
+      indexedLength = 0;
+    }
+
+    if (indexedLength < walletToEncounterDateFileLength) {
+      replayEncounterFile(indexedLength);
     }
 
   }
 
-  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
-  private void buildEncounterMaps() {
-
-    encounterDateToBitcoinAddressesMap = Maps.newHashMap();
-    // Go through all the files in the NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE directory
-    // that have the filename yyyy-mm-dd.txt and add these bitcoin addresses as a list to the map, by the date yyyy-mm-dd
-    String linksDirectory = backingStoreDirectory + File.separator + NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE;
-    File[] linksFiles = (new File(linksDirectory)).listFiles();
-
-    if (linksFiles != null) {
-      for (File linkFile : linksFiles) {
-        String filePart = filePart(linkFile.getAbsolutePath());
-        // Remove any .txt
-        filePart = filePart.replace(LINKS_FILENAME_SUFFIX, "");
-
-        // See if it is a yyyy-mm-dd date
-        try {
-          DateTime parsedDate = utcShortDateWithHyphensFormatter.parseDateTime(filePart);
-          if (parsedDate != null) {
-            // This file contains the bitcoin addresses for this date
-            Set<Address> bitcoinAddressesForDate = readBitcoinAddresses(linkFile.getAbsolutePath());
-            encounterDateToBitcoinAddressesMap.put(parsedDate.toDate(), bitcoinAddressesForDate);
+  /**
+   * Add the links appended to the encounter file since the index was last updated
+   *
+   * @param position The position in the encounter file to start from
+   *
+   * @throws IOException If something goes wrong
+   */
+  private void replayEncounterFile(long position) throws IOException {
+
+    int replayed = 0;
+
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(walletToEncounterDateFile))) {
+
+      ByteStreams.skipFully(inputStream, position);
+
+      // Each line contains a serialised WalletToEncounterDateLink
+      ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+      int b;
+      while ((b = inputStream.read()) != -1) {
+        position++;
+        if (b != '\n') {
+          line.write(b);
+          continue;
+        }
+
+        String serialisedLink = new String(line.toByteArray(), Charsets.UTF_8);
+        line.reset();
+        if (!Strings.isNullOrEmpty(serialisedLink.trim())) {
+          WalletToEncounterDateLink link = WalletToEncounterDateLink.parse(serialisedLink);
+          if (link != null) {
+            encounterIndex.put(link);
+            replayed++;
           }
-        } catch (IllegalArgumentException e) {
-          // File name is not a valid date (could be ".DS_Store" etc)
         }
       }
     }
 
-    // Read in all the existing britWalletId to encounter date links
-    previousEncounterMap = Maps.newHashMap();
-    walletToEncounterDateFile = new File(backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    // Once at the end (an interrupted replay simply starts again from the previous length)
+    encounterIndex.setJournalLength(position);
+
+    log.info("Indexed {} wallet to encounter date links from '{}'", replayed, walletToEncounterDateFile.getAbsolutePath());
   }
 
   @Override
   public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
 
-    // Update the in memory data representation
-    previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+    synchronized (encounterFileLock) {
+      appendToEncounterFile(walletToEncounterDateLink);
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    // Only the first thread for a wallet persists the link
+    synchronized (encounterFileLock) {
+      WalletToEncounterDateLink existing = encounterIndex.lookup(walletToEncounterDateLink.getBritWalletId());
+      if (existing == null) {
+        appendToEncounterFile(walletToEncounterDateLink);
+      }
+
+      return existing;
+    }
 
-    // Require this awkward approach to ensure UTF-8 is used and streams are closed
-    try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(walletToEncounterDateFile, true), Charsets.UTF_8);
-         BufferedWriter bufferWriter = new BufferedWriter(fileWriter)) {
+  }
 
-      bufferWriter.write(walletToEncounterDateLink.serialise() + "\n");
+  /**
+   * Append the link to the wallet to encounter date file (the journal) and then add it to the index
+   *
+   * @param walletToEncounterDateLink The link to append to the wallet to encounter date file
+   */
+  private void appendToEncounterFile(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    byte[] serialisedLink = (walletToEncounterDateLink.serialise() + "\n").getBytes(Charsets.UTF_8);
+
+    try (FileOutputStream outputStream = new FileOutputStream(walletToEncounterDateFile, true)) {
+      outputStream.write(serialisedLink);
+      outputStream.getChannel().force(false);
+      walletToEncounterDateFileLength += serialisedLink.length;
+
+      encounterIndex.put(walletToEncounterDateLink);
+      encounterIndex.setJournalLength(walletToEncounterDateFileLength);
     } catch (IOException e) {
       log.error(e.getMessage(), e);
     }
@@ -208,119 +234,38 @@ public class BasicMatcherStore implements MatcherStore {
 
     // If this is present, return it.
     // If this is null, return a null.
-    return previousEncounterMap.get(britWalletId);
+    return encounterIndex.lookup(britWalletId);
   }
 
   @Override
   public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
-    return encounterDateToBitcoinAddressesMap.get(convertToMidnight(encounterDate));
+    return bitcoinAddressStore.lookupBitcoinAddressListForDate(encounterDate);
   }
 
-  @SuppressFBWarnings({"PATH_TRAVERSAL_IN", "PATH_TRAVERSAL_IN"})
   @Override
   public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
-
-    // Update the in memory data representation
-    encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), bitcoinAddresses);
-
-    // Also write to a file in the by-date directory
-    File linksDirectory = new File(backingStoreDirectory + File.separator + NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
-    if (!linksDirectory.exists()) {
-      Preconditions.checkState(linksDirectory.mkdir(), "Could not create the directory of '" + linksDirectory + "'");
-    }
-    Preconditions.checkState(linksDirectory.isDirectory(), "Incorrectly identified the directory of '" + linksDirectory + " as a file");
-
-    String filename = linksDirectory + File.separator
-      + utcShortDateWithHyphensFormatter.print(new DateTime(encounterDate, DateTimeZone.UTC)) + LINKS_FILENAME_SUFFIX;
-    File file = new File(filename);
-
-    if (file.exists()) {
-      // Cannot overwrite a per day list of bitcoin addresses - it may have been sent back to Payers
-      throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + encounterDate.toString() + "'. It already exists");
-    }
-
-    // Write the Bitcoin addresses to the file
-    try {
-      storeBitcoinAddressesToFile(bitcoinAddresses, filename);
-    } catch (IOException e) {
-      log.error("Failed to store Bitcoin addresses for date", e);
-    }
+    bitcoinAddressStore.storeBitcoinAddressesForDate(bitcoinAddresses, encounterDate);
   }
 
   @Override
   public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
-
-    // Update the in memory data representation
-    this.allBitcoinAddresses = allBitcoinAddresses;
-
-    // Also write out to the all bitcoin addresses file
-    String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
-    try {
-      storeBitcoinAddressesToFile(allBitcoinAddresses, allBitcoinAddressesFilename);
-    } catch (IOException e) {
-      log.error("Failed to store all Bitcoin addresses", e);
-    }
+    bitcoinAddressStore.storeAllBitcoinAddresses(allBitcoinAddresses);
   }
 
   @Override
   public Set<Address> getAllBitcoinAddresses() {
-    return allBitcoinAddresses;
+    return bitcoinAddressStore.getAllBitcoinAddresses();
   }
 
   /**
-   * Convert a compete date into a Date at midnight
+   * <p>Force the index to disk and release it</p>
    */
-  private Date convertToMidnight(Date inputDate) {
-    return (new DateTime(inputDate, DateTimeZone.UTC)).toDateMidnight().toDate();
-  }
-
-  @SuppressFBWarnings({"PATH_TRAVERSAL_OUT"})
-  private void storeBitcoinAddressesToFile(Set<Address> bitcoinAddresses, String filename) throws IOException {
-
-    // Convert the bitcoin addresses to a byte array
-    StringBuilder builder = new StringBuilder();
-    if (bitcoinAddresses != null) {
-      for (Address address : bitcoinAddresses) {
-        builder.append(address.toString()).append("\n");
-      }
-    }
-    byte[] bitcoinAddressesAsBytes = builder.toString().getBytes(Charsets.UTF_8);
-
-    FileOutputStream bitcoinAddressesFileOutputStream = new FileOutputStream(filename);
-    ByteStreams.copy(new ByteArrayInputStream(bitcoinAddressesAsBytes), bitcoinAddressesFileOutputStream);
-
-  }
+  @Override
+  public void close() throws IOException {
 
-  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
-  private Set<Address> readBitcoinAddresses(String filename) {
-
-    Set<Address> addresses = Sets.newHashSet();
-    File addressesFile = new File(filename);
-    if (addressesFile.exists()) {
-      try {
-        List<String> rawAddresses = Files.readLines(addressesFile, Charsets.UTF_8);
-        log.debug("Loaded {} raw addresses", rawAddresses.size());
-
-        int line = 0;
-        for (String rawAddress : rawAddresses) {
-          try {
-            if ("".equals(rawAddress) || rawAddress.startsWith(COMMENT_PREFIX)) {
-              log.debug("Ignoring comment/empty line: {}", rawAddress);
-            } else {
-              addresses.add(new Address(MainNetParams.get(), rawAddress));
-            }
-            line++;
-          } catch (AddressFormatException e) {
-            log.error("Malformed BRIT address in 'all.txt' line: " + line + ". Ignoring.", e);
-          }
-        }
-      } catch (IOException ioe) {
-        log.error(ioe.getMessage(), ioe);
-      }
-    } else {
-      log.error("No 'all.txt' containing addresses to load.");
+    synchronized (encounterFileLock) {
+      encounterIndex.close();
     }
 
-    return addresses;
   }
 }
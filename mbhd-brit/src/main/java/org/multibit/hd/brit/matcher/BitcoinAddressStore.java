@@ -0,0 +1,233 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Store to provide the following to MatcherStore implementations:</p>
+ * <ul>
+ * <li>File store and lookup of all Bitcoin addresses. These are stored in the backingStoreDirectory/all.txt</li>
+ * <li>File store and lookup of Bitcoin addresses by day. For each date these are stored in a file backingStoreDirectory/by-date/yyyy-mm-dd.txt</li>
+ * </ul>
+ * <p>Address files are only read when first asked for and are held as packed records.</p>
+ *
+ * @since 0.0.1
+ */
+class BitcoinAddressStore {
+
+  private static final Logger log = LoggerFactory.getLogger(BitcoinAddressStore.class);
+
+  /**
+   * Produces "2000-04-01" for simplified short user date
+   */
+  private static final DateTimeFormatter utcShortDateWithHyphensFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+
+  /**
+   * The directory in which the backing files reside
+   */
+  private final File backingStoreDirectory;
+
+  /**
+   * The set of all the Bitcoin addresses in the MatcherStore (null until first used)
+   */
+  private volatile PackedAddressSet allBitcoinAddresses = null;
+
+  /**
+   * A map from the date of encounter to the list of Bitcoins used that day (filled as dates are looked up)
+   */
+  private final ConcurrentMap<Date, PackedAddressSet> encounterDateToBitcoinAddressesMap = Maps.newConcurrentMap();
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   */
+  BitcoinAddressStore(File backingStoreDirectory) {
+    this.backingStoreDirectory = backingStoreDirectory;
+  }
+
+  /**
+   * @param encounterDate The date
+   *
+   * @return The file containing the Bitcoin addresses for the date
+   */
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
+  private File bitcoinAddressesFileForDate(Date encounterDate) {
+
+    return new File(backingStoreDirectory + File.separator + BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE + File.separator
+      + utcShortDateWithHyphensFormatter.print(new DateTime(encounterDate, DateTimeZone.UTC)) + BasicMatcherStore.LINKS_FILENAME_SUFFIX);
+  }
+
+  /**
+   * @see MatcherStore#lookupBitcoinAddressListForDate(Date)
+   */
+  Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+
+    Date midnight = convertToMidnight(encounterDate);
+
+    Set<Address> bitcoinAddresses = encounterDateToBitcoinAddressesMap.get(midnight);
+    if (bitcoinAddresses == null) {
+      // Load on first use (only the dates Payers actually ask about are ever read)
+      File file = bitcoinAddressesFileForDate(encounterDate);
+      if (file.exists()) {
+        encounterDateToBitcoinAddressesMap.putIfAbsent(midnight, readBitcoinAddresses(file.getAbsolutePath()));
+        bitcoinAddresses = encounterDateToBitcoinAddressesMap.get(midnight);
+      }
+    }
+
+    return bitcoinAddresses;
+  }
+
+  /**
+   * @see MatcherStore#storeBitcoinAddressesForDate(Set, Date)
+   */
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN", "PATH_TRAVERSAL_IN"})
+  synchronized void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+
+    // Update the in memory data representation (packed to keep the resident size down)
+    encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), PackedAddressSet.copyOf(MainNetParams.get(), bitcoinAddresses));
+
+    // Also write to a file in the by-date directory
+    File linksDirectory = new File(backingStoreDirectory + File.separator + BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
+    if (!linksDirectory.exists()) {
+      Preconditions.checkState(linksDirectory.mkdir(), "Could not create the directory of '" + linksDirectory + "'");
+    }
+    Preconditions.checkState(linksDirectory.isDirectory(), "Incorrectly identified the directory of '" + linksDirectory + " as a file");
+
+    File file = bitcoinAddressesFileForDate(encounterDate);
+    String filename = file.getAbsolutePath();
+
+    if (file.exists()) {
+      // Cannot overwrite a per day list of bitcoin addresses - it may have been sent back to Payers
+      throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + encounterDate.toString() + "'. It already exists");
+    }
+
+    // Write the Bitcoin addresses to the file
+    try {
+      storeBitcoinAddressesToFile(bitcoinAddresses, filename);
+    } catch (IOException e) {
+      log.error("Failed to store Bitcoin addresses for date", e);
+    }
+  }
+
+  /**
+   * @see MatcherStore#storeAllBitcoinAddresses(Set)
+   */
+  synchronized void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+
+    // Update the in memory data representation (packed to keep the resident size down)
+    this.allBitcoinAddresses = PackedAddressSet.copyOf(MainNetParams.get(), allBitcoinAddresses);
+
+    // Also write out to the all bitcoin addresses file
+    String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
+    try {
+      storeBitcoinAddressesToFile(allBitcoinAddresses, allBitcoinAddressesFilename);
+    } catch (IOException e) {
+      log.error("Failed to store all Bitcoin addresses", e);
+    }
+  }
+
+  /**
+   * @see MatcherStore#getAllBitcoinAddresses()
+   */
+  Set<Address> getAllBitcoinAddresses() {
+
+    Set<Address> addresses = allBitcoinAddresses;
+    if (addresses != null) {
+      return addresses;
+    }
+
+    synchronized (this) {
+      if (allBitcoinAddresses == null) {
+        // Load the file containing all the bitcoin addresses on first use
+        String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
+        allBitcoinAddresses = readBitcoinAddresses(allBitcoinAddressesFilename);
+      }
+
+      return allBitcoinAddresses;
+    }
+
+  }
+
+  /**
+   * Convert a compete date into a Date at midnight
+   */
+  private Date convertToMidnight(Date inputDate) {
+    return (new DateTime(inputDate, DateTimeZone.UTC)).toDateMidnight().toDate();
+  }
+
+  @SuppressFBWarnings({"PATH_TRAVERSAL_OUT"})
+  private void storeBitcoinAddressesToFile(Set<Address> bitcoinAddresses, String filename) throws IOException {
+
+    // Convert the bitcoin addresses to a byte array
+    StringBuilder builder = new StringBuilder();
+    if (bitcoinAddresses != null) {
+      for (Address address : bitcoinAddresses) {
+        builder.append(address.toString()).append("\n");
+      }
+    }
+    byte[] bitcoinAddressesAsBytes = builder.toString().getBytes(Charsets.UTF_8);
+
+    try (FileOutputStream bitcoinAddressesFileOutputStream = new FileOutputStream(filename)) {
+      ByteStreams.copy(new ByteArrayInputStream(bitcoinAddressesAsBytes), bitcoinAddressesFileOutputStream);
+    }
+
+  }
+
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
+  private PackedAddressSet readBitcoinAddresses(String filename) {
+
+    File addressesFile = new File(filename);
+    if (addressesFile.exists()) {
+      try {
+        List<String> rawAddresses = Files.readLines(addressesFile, Charsets.UTF_8);
+        log.debug("Loaded {} raw addresses", rawAddresses.size());
+
+        // Decode straight into packed records rather than an Address per line
+        PackedAddressSet.Builder addresses = PackedAddressSet.builder(MainNetParams.get(), rawAddresses.size());
+
+        int line = 0;
+        for (String rawAddress : rawAddresses) {
+          try {
+            if ("".equals(rawAddress) || rawAddress.startsWith(BasicMatcherStore.COMMENT_PREFIX)) {
+              log.debug("Ignoring comment/empty line: {}", rawAddress);
+            } else {
+              addresses.add(rawAddress);
+            }
+            line++;
+          } catch (AddressFormatException e) {
+            log.error("Malformed BRIT address in 'all.txt' line: " + line + ". Ignoring.", e);
+          }
+        }
+
+        return addresses.build();
+      } catch (IOException ioe) {
+        log.error(ioe.getMessage(), ioe);
+      }
+    } else {
+      log.error("No 'all.txt' containing addresses to load.");
+    }
+
+    return PackedAddressSet.builder(MainNetParams.get(), 0).build();
+  }
+}
@@ -0,0 +1,315 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Utils;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Journal to provide the following to GroupCommitMatcherStore:</p>
+ * <ul>
+ * <li>Append-only storage of wallet to encounter date links as fixed length binary records</li>
+ * <li>Many links written with one call and made durable with one force</li>
+ * <li>Replay into a WalletToEncounterDateIndex, dropping a record torn by a crash</li>
+ * </ul>
+ * <p>A 16 byte header is followed by 44 byte records: the 20 byte wallet id, a byte of present flags, 3 bytes of
+ * padding, the encounter and first transaction dates as longs and a CRC32 of the preceding 40 bytes.</p>
+ * <p>Writes are expected to be serialised by the caller.</p>
+ *
+ * @since 0.0.1
+ */
+class EncounterJournal implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(EncounterJournal.class);
+
+  /**
+   * "BRIJ"
+   */
+  private static final int MAGIC = 0x4252494A;
+
+  private static final int VERSION = 1;
+
+  static final int HEADER_LENGTH = 16;
+
+  static final int RECORD_LENGTH = 44;
+
+  private static final int WALLET_ID_LENGTH = 20;
+
+  // Record offsets
+  private static final int PRESENT_OFFSET = WALLET_ID_LENGTH;
+  private static final int ENCOUNTER_DATE_OFFSET = 24;
+  private static final int FIRST_TRANSACTION_DATE_OFFSET = 32;
+  private static final int CHECKSUM_OFFSET = 40;
+
+  private static final int ENCOUNTER_DATE_PRESENT = 1;
+  private static final int FIRST_TRANSACTION_DATE_PRESENT = 2;
+
+  /**
+   * The number of records read at a time during a replay
+   */
+  private static final int REPLAY_RECORDS = 1024;
+
+  private final File journalFile;
+
+  private final FileChannel channel;
+
+  private long length;
+
+  /**
+   * @param journalFile The journal file (created with a header if it does not exist)
+   *
+   * @throws IOException If the journal cannot be opened or is not a journal
+   */
+  EncounterJournal(File journalFile) throws IOException {
+
+    this.journalFile = journalFile;
+
+    channel = new RandomAccessFile(journalFile, "rw").getChannel();
+    length = channel.size();
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    if (length == 0) {
+      header.putInt(MAGIC).putInt(VERSION).putLong(0);
+      header.flip();
+      writeFully(header, 0);
+      channel.force(true);
+      length = HEADER_LENGTH;
+      return;
+    }
+
+    if (length < HEADER_LENGTH) {
+      channel.close();
+      throw new IOException("Journal '" + journalFile.getAbsolutePath() + "' is too short");
+    }
+
+    while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+      // Keep reading until the header is complete
+    }
+    header.flip();
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      channel.close();
+      throw new IOException("'" + journalFile.getAbsolutePath() + "' is not a wallet to encounter date journal");
+    }
+
+  }
+
+  /**
+   * @return The length of the journal including any records written but not yet forced
+   */
+  long length() {
+    return length;
+  }
+
+  /**
+   * @return The number of records in the journal
+   */
+  long size() {
+    return (length - HEADER_LENGTH) / RECORD_LENGTH;
+  }
+
+  /**
+   * <p>Append the links with a single write. They are not durable until {@link #force()} returns.</p>
+   *
+   * @param links The links to append in order
+   *
+   * @return The new length of the journal
+   *
+   * @throws IOException If the write fails (the journal is cut back to its previous length)
+   */
+  long write(List<WalletToEncounterDateLink> links) throws IOException {
+
+    ByteBuffer records = ByteBuffer.allocate(links.size() * RECORD_LENGTH);
+    CRC32 crc32 = new CRC32();
+    for (WalletToEncounterDateLink link : links) {
+      encode(records, link, crc32);
+    }
+    records.flip();
+
+    try {
+      writeFully(records, length);
+    } catch (IOException e) {
+      // Do not leave part of a batch behind for the next batch to follow
+      channel.truncate(length);
+      throw e;
+    }
+
+    length += links.size() * RECORD_LENGTH;
+
+    return length;
+  }
+
+  /**
+   * <p>Discard everything after the given length (e.g. a batch that could not be committed)</p>
+   *
+   * @param previousLength The length to cut the journal back to
+   *
+   * @throws IOException If the journal could not be cut back
+   */
+  void truncate(long previousLength) throws IOException {
+
+    Preconditions.checkArgument(previousLength >= HEADER_LENGTH && previousLength <= length, "'previousLength' must be within the journal");
+
+    // Later writes start here even if the truncate fails
+    length = previousLength;
+    channel.truncate(previousLength);
+    channel.force(false);
+
+  }
+
+  /**
+   * <p>Make everything written so far durable</p>
+   *
+   * @throws IOException If the force fails
+   */
+  void force() throws IOException {
+    channel.force(false);
+  }
+
+  /**
+   * <p>Put every record from the position onwards into the index. A torn or corrupt record ends the journal and is
+   * cut off along with anything after it.</p>
+   *
+   * @param position The journal position the index is up to date with (0 for none)
+   * @param index    The index to update
+   *
+   * @return The number of records replayed
+   *
+   * @throws IOException If the journal cannot be read
+   */
+  int replay(long position, WalletToEncounterDateIndex index) throws IOException {
+
+    Preconditions.checkNotNull(index, "'index' must be present");
+
+    long start = Math.max(position, HEADER_LENGTH);
+    long replayed = start;
+    int count = 0;
+
+    ByteBuffer records = ByteBuffer.allocate(REPLAY_RECORDS * RECORD_LENGTH);
+    CRC32 crc32 = new CRC32();
+
+    read:
+    while (replayed + RECORD_LENGTH <= length) {
+
+      records.clear();
+      records.limit((int) Math.min(records.capacity(), (length - replayed) / RECORD_LENGTH * RECORD_LENGTH));
+      while (records.hasRemaining()) {
+        if (channel.read(records, replayed + records.position()) < 0) {
+          break;
+        }
+      }
+      records.flip();
+
+      while (records.remaining() >= RECORD_LENGTH) {
+        WalletToEncounterDateLink link = decode(records, crc32);
+        if (link == null) {
+          break read;
+        }
+        index.put(link);
+        replayed += RECORD_LENGTH;
+        count++;
+      }
+    }
+    // Once at the end (an interrupted replay simply starts again from the previous position)
+    index.setJournalLength(replayed);
+
+    if (replayed < length) {
+      log.warn("Dropping {} bytes after the last complete record of '{}'", length - replayed, journalFile.getAbsolutePath());
+      channel.truncate(replayed);
+      channel.force(false);
+      length = replayed;
+    }
+
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void writeFully(ByteBuffer source, long position) throws IOException {
+
+    while (source.hasRemaining()) {
+      position += channel.write(source, position);
+    }
+
+  }
+
+  /**
+   * @param target The buffer to append the record to
+   * @param link   The link
+   * @param crc32  A checksum to reuse
+   */
+  private static void encode(ByteBuffer target, WalletToEncounterDateLink link, CRC32 crc32) {
+
+    byte[] walletId = link.getBritWalletId().getBytes();
+    Preconditions.checkArgument(walletId.length == WALLET_ID_LENGTH, "'britWalletId' must be %s bytes", WALLET_ID_LENGTH);
+
+    int present = 0;
+    long encounterDate = 0;
+    long firstTransactionDate = 0;
+    if (link.getEncounterDateOptional().isPresent()) {
+      present |= ENCOUNTER_DATE_PRESENT;
+      encounterDate = link.getEncounterDateOptional().get().getTime();
+    }
+    if (link.getFirstTransactionDate().isPresent()) {
+      present |= FIRST_TRANSACTION_DATE_PRESENT;
+      firstTransactionDate = link.getFirstTransactionDate().get().getTime();
+    }
+
+    int offset = target.position();
+    target.put(walletId);
+    target.put((byte) present);
+    target.put(new byte[ENCOUNTER_DATE_OFFSET - PRESENT_OFFSET - 1]);
+    target.putLong(encounterDate);
+    target.putLong(firstTransactionDate);
+
+    crc32.reset();
+    crc32.update(target.array(), target.arrayOffset() + offset, CHECKSUM_OFFSET);
+    target.putInt((int) crc32.getValue());
+  }
+
+  /**
+   * @param source The buffer positioned at a record
+   * @param crc32  A checksum to reuse
+   *
+   * @return The link or null if the record is corrupt (the position is then undefined)
+   */
+  private static WalletToEncounterDateLink decode(ByteBuffer source, CRC32 crc32) {
+
+    int offset = source.position();
+
+    crc32.reset();
+    crc32.update(source.array(), source.arrayOffset() + offset, CHECKSUM_OFFSET);
+    if (source.getInt(offset + CHECKSUM_OFFSET) != (int) crc32.getValue()) {
+      return null;
+    }
+
+    byte[] walletId = new byte[WALLET_ID_LENGTH];
+    source.get(walletId);
+    byte present = source.get(offset + PRESENT_OFFSET);
+    long encounterDate = source.getLong(offset + ENCOUNTER_DATE_OFFSET);
+    long firstTransactionDate = source.getLong(offset + FIRST_TRANSACTION_DATE_OFFSET);
+    source.position(offset + RECORD_LENGTH);
+
+    return new WalletToEncounterDateLink(
+      new BRITWalletId(Utils.HEX.encode(walletId)),
+      (present & ENCOUNTER_DATE_PRESENT) != 0 ? Optional.of(new Date(encounterDate)) : Optional.<Date>absent(),
+      (present & FIRST_TRANSACTION_DATE_PRESENT) != 0 ? Optional.of(new Date(firstTransactionDate)) : Optional.<Date>absent()
+    );
+  }
+
+}
@@ -0,0 +1,457 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Store to provide the following to Matcher classes:</p>
+ * <ul>
+ * <li>Wallet to encounter date links written by group commit. These are stored in backingStoreDirectory/links.dat</li>
+ * <li>File store and lookup of Bitcoin addresses, all of them and by day, as for BasicMatcherStore</li>
+ * </ul>
+ * <p>New links are queued in memory and a single commit thread writes and forces them in batches: a batch is
+ * committed once it holds the maximum batch size or its oldest link has waited the maximum batch delay. A store
+ * method only returns once its link is durable, so a Matcher never answers a Payer on a link that could be lost,
+ * but a burst of first-time Payers shares one write and one fsync rather than an append each.</p>
+ * <p>Lookups see queued links straight away and otherwise use a memory mapped hash index
+ * (backingStoreDirectory/links.dat.idx). The index is forced after each commit but only records how much of the
+ * journal it reflects, so when the store opens any journal records past that length (a crash between forcing the
+ * journal and the index) are replayed into it.</p>
+ * <p>An existing BasicMatcherStore directory is converted with {@link MatcherStoreMigration}.</p>
+ *
+ * @since 0.0.1
+ */
+public class GroupCommitMatcherStore implements MatcherStore, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(GroupCommitMatcherStore.class);
+
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL = "links.dat";
+
+  public static final String NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL_INDEX = "links.dat.idx";
+
+  /**
+   * The most links written by one commit
+   */
+  public static final int DEFAULT_MAXIMUM_BATCH_SIZE = 256;
+
+  /**
+   * The longest a link waits for others to share its commit
+   */
+  public static final long DEFAULT_MAXIMUM_BATCH_DELAY_MILLIS = 5;
+
+  private final File journalFile;
+
+  private final EncounterJournal journal;
+
+  private final WalletToEncounterDateIndex encounterIndex;
+
+  /**
+   * The Bitcoin addresses, all of them and by day
+   */
+  private final BitcoinAddressStore bitcoinAddressStore;
+
+  private final int maximumBatchSize;
+
+  private final long maximumBatchDelayNanos;
+
+  /**
+   * Guards the queue and the commit state of every pending link
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Signalled when the commit thread may have a batch to write
+   */
+  private final Condition batchReady = lock.newCondition();
+
+  /**
+   * Signalled when a batch has been committed (or has failed)
+   */
+  private final Condition batchCommitted = lock.newCondition();
+
+  /**
+   * The links waiting for the commit thread in the order they were stored
+   */
+  private final List<PendingLink> queue = Lists.newArrayList();
+
+  /**
+   * The most recent uncommitted link for each wallet so lookups see it before it reaches the index
+   */
+  private final ConcurrentMap<BRITWalletId, PendingLink> pendingLinks = Maps.newConcurrentMap();
+
+  private final Thread commitThread;
+
+  private boolean closed = false;
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   */
+  public GroupCommitMatcherStore(File backingStoreDirectory) throws IOException {
+    this(backingStoreDirectory, DEFAULT_MAXIMUM_BATCH_SIZE, DEFAULT_MAXIMUM_BATCH_DELAY_MILLIS);
+  }
+
+  /**
+   * @param backingStoreDirectory   The Matcher backing store directory
+   * @param maximumBatchSize        The most links written by one commit
+   * @param maximumBatchDelayMillis The longest a link waits for others to share its commit (0 to commit whatever has
+   *                                queued while the previous commit was being forced)
+   */
+  public GroupCommitMatcherStore(File backingStoreDirectory, int maximumBatchSize, long maximumBatchDelayMillis) throws IOException {
+
+    Preconditions.checkNotNull(backingStoreDirectory, "'backingStoreDirectory' must be present");
+    Preconditions.checkArgument(maximumBatchSize > 0, "'maximumBatchSize' must be greater than zero");
+    Preconditions.checkArgument(maximumBatchDelayMillis >= 0, "'maximumBatchDelayMillis' must not be negative");
+
+    this.maximumBatchSize = maximumBatchSize;
+    this.maximumBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maximumBatchDelayMillis);
+    this.bitcoinAddressStore = new BitcoinAddressStore(backingStoreDirectory);
+
+    journalFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL);
+    journal = new EncounterJournal(journalFile);
+    encounterIndex = new WalletToEncounterDateIndex(new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL_INDEX));
+
+    replayJournal();
+
+    File textLinksFile = new File(backingStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    if (journal.size() == 0 && textLinksFile.length() > 0) {
+      log.warn("'{}' has links that are not in '{}'. Run MatcherStoreMigration first.", textLinksFile.getAbsolutePath(), journalFile.getAbsolutePath());
+    }
+
+    commitThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        commitBatches();
+      }
+    }, "matcher-store-commit");
+    commitThread.setDaemon(true);
+    commitThread.start();
+
+  }
+
+  /**
+   * Bring the index up to date with the journal
+   *
+   * @throws IOException If something goes wrong
+   */
+  private void replayJournal() throws IOException {
+
+    long indexedLength = encounterIndex.getJournalLength();
+    if (indexedLength > journal.length()) {
+      // The index is ahead of its journal so cannot be trusted
+      log.warn("Index is ahead of '{}'. Rebuilding.", journalFile.getAbsolutePath());
+      encounterIndex.clear();
+      indexedLength = 0;
+    }
+
+    if (indexedLength < journal.length()) {
+      int replayed = journal.replay(indexedLength, encounterIndex);
+      log.info("Indexed {} wallet to encounter date links from '{}'", replayed, journalFile.getAbsolutePath());
+    }
+
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkNotNull(walletToEncounterDateLink, "'walletToEncounterDateLink' must be present");
+
+    lock.lock();
+    try {
+      awaitCommit(enqueue(walletToEncounterDateLink));
+    } finally {
+      lock.unlock();
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkNotNull(walletToEncounterDateLink, "'walletToEncounterDateLink' must be present");
+
+    lock.lock();
+    try {
+      // Only the first thread for a wallet queues the link
+      PendingLink pendingLink = pendingLinks.get(walletToEncounterDateLink.getBritWalletId());
+      if (pendingLink != null) {
+        // Another thread got here first so answer with its link once it is durable
+        awaitCommit(pendingLink);
+        return pendingLink.link;
+      }
+
+      WalletToEncounterDateLink existing = encounterIndex.lookup(walletToEncounterDateLink.getBritWalletId());
+      if (existing == null) {
+        awaitCommit(enqueue(walletToEncounterDateLink));
+      }
+
+      return existing;
+    } finally {
+      lock.unlock();
+    }
+
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+
+    // A pending link is only removed once it is in the index so check in this order
+    PendingLink pendingLink = pendingLinks.get(britWalletId);
+    if (pendingLink != null) {
+      return pendingLink.link;
+    }
+
+    return encounterIndex.lookup(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return bitcoinAddressStore.lookupBitcoinAddressListForDate(encounterDate);
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    bitcoinAddressStore.storeBitcoinAddressesForDate(bitcoinAddresses, encounterDate);
+  }
+
+  @Override
+  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+    bitcoinAddressStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    return bitcoinAddressStore.getAllBitcoinAddresses();
+  }
+
+  /**
+   * <p>Commit any queued links then stop the commit thread and close the journal</p>
+   */
+  @Override
+  public void close() throws IOException {
+
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      batchReady.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      commitThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    journal.close();
+    encounterIndex.close();
+
+  }
+
+  /**
+   * <p>Queue the link for the commit thread. The lock must be held.</p>
+   *
+   * @param walletToEncounterDateLink The link to queue
+   *
+   * @return The pending link to wait on
+   */
+  private PendingLink enqueue(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkState(!closed, "Matcher store is closed");
+
+    PendingLink pendingLink = new PendingLink(walletToEncounterDateLink, System.nanoTime());
+    queue.add(pendingLink);
+    pendingLinks.put(walletToEncounterDateLink.getBritWalletId(), pendingLink);
+
+    // Wake the commit thread when a batch starts or fills (not for every link in between)
+    if (queue.size() == 1 || queue.size() >= maximumBatchSize) {
+      batchReady.signal();
+    }
+
+    return pendingLink;
+  }
+
+  /**
+   * <p>Wait for the link to be committed. The lock must be held.</p>
+   *
+   * @param pendingLink The pending link
+   *
+   * @throws MatcherStoreException If the link could not be committed
+   */
+  private void awaitCommit(PendingLink pendingLink) {
+
+    while (!pendingLink.committed) {
+      batchCommitted.awaitUninterruptibly();
+    }
+
+    if (pendingLink.failure != null) {
+      throw new MatcherStoreException("Could not store wallet to encounter date link", pendingLink.failure);
+    }
+
+  }
+
+  /**
+   * <p>The body of the commit thread: take batches from the queue and commit them until closed</p>
+   */
+  private void commitBatches() {
+
+    while (true) {
+
+      List<PendingLink> batch;
+
+      lock.lock();
+      try {
+        while (queue.isEmpty() && !closed) {
+          batchReady.awaitUninterruptibly();
+        }
+        if (queue.isEmpty()) {
+          // Closed with nothing left to commit
+          return;
+        }
+
+        // Let more links join until the batch is full or its oldest link has waited long enough
+        long deadline = queue.get(0).queuedNanos + maximumBatchDelayNanos;
+        long remaining;
+        while (queue.size() < maximumBatchSize && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+          try {
+            batchReady.awaitNanos(remaining);
+          } catch (InterruptedException e) {
+            // Stop waiting and commit what is queued (the interrupt is not kept as it would close the journal)
+            break;
+          }
+        }
+
+        List<PendingLink> taken = queue.subList(0, Math.min(queue.size(), maximumBatchSize));
+        batch = Lists.newArrayList(taken);
+        taken.clear();
+      } finally {
+        lock.unlock();
+      }
+
+      // Write outside the lock so request threads can keep queueing the next batch
+      Throwable failure = null;
+      try {
+        commit(batch);
+      } catch (Throwable t) {
+        // Anything escaping would end the commit thread and leave every request thread waiting
+        log.error("Failed to commit " + batch.size() + " wallet to encounter date links", t);
+        failure = t;
+      }
+
+      lock.lock();
+      try {
+        for (PendingLink pendingLink : batch) {
+          pendingLink.committed = true;
+          pendingLink.failure = failure;
+          pendingLinks.remove(pendingLink.link.getBritWalletId(), pendingLink);
+        }
+        batchCommitted.signalAll();
+      } finally {
+        lock.unlock();
+      }
+
+    }
+
+  }
+
+  /**
+   * <p>Write the batch to the journal, force it to disk and then add it to the index. If any step fails the batch
+   * is removed again so a later batch can never mark it as indexed.</p>
+   *
+   * @param batch The links to commit in order
+   *
+   * @throws IOException If the batch could not be made durable
+   */
+  private void commit(List<PendingLink> batch) throws IOException {
+
+    List<WalletToEncounterDateLink> links = Lists.newArrayListWithCapacity(batch.size());
+    for (PendingLink pendingLink : batch) {
+      links.add(pendingLink.link);
+    }
+
+    long previousLength = journal.length();
+    boolean indexChanged = false;
+    try {
+      long journalLength = journal.write(links);
+      journal.force();
+
+      indexChanged = true;
+      for (WalletToEncounterDateLink link : links) {
+        encounterIndex.put(link);
+      }
+      // Forces the index so a restart only replays what a crash interrupted
+      encounterIndex.setJournalLength(journalLength);
+    } catch (Throwable t) {
+      rollBack(previousLength, indexChanged);
+      throw t;
+    }
+
+  }
+
+  /**
+   * <p>Remove a failed batch from the journal and, if it reached the index, rebuild the index from the journal</p>
+   *
+   * @param previousLength The journal length before the batch
+   * @param indexChanged   True if the batch may have been added to the index
+   */
+  private void rollBack(long previousLength, boolean indexChanged) {
+
+    try {
+      journal.truncate(previousLength);
+      if (indexChanged) {
+        encounterIndex.clear();
+        journal.replay(0, encounterIndex);
+      }
+    } catch (Throwable t) {
+      log.error("Failed to roll back a failed commit to '" + journalFile.getAbsolutePath() + "'", t);
+    }
+
+  }
+
+  /**
+   * <p>A link waiting to be committed</p>
+   */
+  private static class PendingLink {
+
+    private final WalletToEncounterDateLink link;
+
+    private final long queuedNanos;
+
+    /**
+     * True once the commit holding this link has finished (guarded by the store lock)
+     */
+    private boolean committed = false;
+
+    /**
+     * The reason the commit failed (guarded by the store lock)
+     */
+    private Throwable failure = null;
+
+    private PendingLink(WalletToEncounterDateLink link, long queuedNanos) {
+      this.link = link;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+}
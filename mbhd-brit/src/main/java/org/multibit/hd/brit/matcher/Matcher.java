@@ -54,9 +54,35 @@ public interface Matcher {
    * @return The encrypted MatcherResponse
    *
    * @throws NoSuchAlgorithmException
+   * @deprecated Relies on the last PayerRequest processed on the calling thread. Use {@link #encryptMatcherResponse(PayerRequest, MatcherResponse)}
    */
+  @Deprecated
   public EncryptedMatcherResponse encryptMatcherResponse(MatcherResponse matcherResponse) throws NoSuchAlgorithmException;
 
+  /**
+   * Encrypt the matcherResponse with an AES key derived from the Payer's BRITWalletId and sessionId
+   *
+   * @param payerRequest    The PayerRequest the response answers
+   * @param matcherResponse The unencrypted Matcher Response
+   *
+   * @return The encrypted MatcherResponse
+   *
+   * @throws NoSuchAlgorithmException
+   */
+  public EncryptedMatcherResponse encryptMatcherResponse(PayerRequest payerRequest, MatcherResponse matcherResponse) throws NoSuchAlgorithmException;
+
+  /**
+   * Decrypt, process and encrypt a single request in one call.
+   * All state for the request is held on the calling thread so one Matcher can serve concurrent Payers.
+   *
+   * @param encryptedPayerRequest The encrypted PayerRequest from the Payer
+   *
+   * @return The encrypted MatcherResponse to send back to the Payer
+   *
+   * @throws Exception If the request cannot be decrypted or the response cannot be encrypted
+   */
+  public EncryptedMatcherResponse handle(EncryptedPayerRequest encryptedPayerRequest) throws Exception;
+
 
   /**
    * Get the MatcherStore used to persist the Matcher information
@@ -26,6 +26,16 @@ public interface MatcherStore {
    */
   public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink);
 
+  /**
+   * Store the link between the wallet and the encounter date unless a link for the wallet is already stored.
+   * Safe to call from concurrent threads: exactly one link per britWalletId is kept.
+   *
+   * @param walletToEncounterDateLink The wallet to encounter date link object
+   *
+   * @return The link already stored for this britWalletId, or null if the given link was stored
+   */
+  public WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink);
+
   /**
    * Lookup the Wallet to encounter date that is previously stored, if available
    *
@@ -0,0 +1,122 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * <p>Tool to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Conversion of a BasicMatcherStore directory for use by a GroupCommitMatcherStore</li>
+ * </ul>
+ * <p>The text links (links.txt) are copied in order to a new binary journal (links.dat) which only replaces any
+ * existing journal once it is complete and on disk. The text files and the Bitcoin address files are left as they
+ * are since both stores read the same address layout. Stop the Matcher before migrating.</p>
+ * <p>Usage: <code>java org.multibit.hd.brit.matcher.MatcherStoreMigration &lt;backingStoreDirectory&gt;</code></p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherStoreMigration {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherStoreMigration.class);
+
+  /**
+   * The number of links written at a time
+   */
+  private static final int BATCH_SIZE = 4096;
+
+  /**
+   * Private constructor for utility classes
+   */
+  private MatcherStoreMigration() {
+  }
+
+  public static void main(String[] args) throws IOException {
+
+    if (args.length != 1) {
+      log.error("Usage: MatcherStoreMigration <backingStoreDirectory>");
+      System.exit(1);
+    }
+
+    migrateTextLinks(new File(args[0]));
+
+  }
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @return The number of links migrated
+   *
+   * @throws IOException If the text links cannot be read or the journal cannot be written
+   */
+  public static int migrateTextLinks(File backingStoreDirectory) throws IOException {
+
+    Preconditions.checkNotNull(backingStoreDirectory, "'backingStoreDirectory' must be present");
+
+    File textLinksFile = new File(backingStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    File journalFile = new File(backingStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL);
+    File journalIndexFile = new File(backingStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL_INDEX);
+    File migrationFile = new File(backingStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL + ".tmp");
+
+    if (!textLinksFile.exists()) {
+      throw new IOException("No '" + textLinksFile.getAbsolutePath() + "' to migrate");
+    }
+
+    Files.deleteIfExists(migrationFile.toPath());
+
+    int migrated = 0;
+    int lineNumber = 0;
+    List<WalletToEncounterDateLink> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+    try (EncounterJournal journal = new EncounterJournal(migrationFile);
+         BufferedReader reader = Files.newBufferedReader(textLinksFile.toPath(), Charsets.UTF_8)) {
+
+      // Each line contains a serialised WalletToEncounterDateLink
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (Strings.isNullOrEmpty(line.trim())) {
+          continue;
+        }
+
+        try {
+          batch.add(WalletToEncounterDateLink.parse(line));
+        } catch (MatcherStoreException | IllegalArgumentException e) {
+          throw new IOException("Malformed link in '" + textLinksFile.getAbsolutePath() + "' line: " + lineNumber, e);
+        }
+
+        if (batch.size() == BATCH_SIZE) {
+          journal.write(batch);
+          migrated += batch.size();
+          batch.clear();
+        }
+      }
+      journal.write(batch);
+      migrated += batch.size();
+
+      // One force for the whole journal
+      journal.force();
+    }
+
+    // Swap in the new journal and let the store index it from scratch when it next opens
+    Files.move(migrationFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    Files.deleteIfExists(journalIndexFile.toPath());
+
+    log.info("Migrated {} wallet to encounter date links from '{}' to '{}'", migrated, textLinksFile.getAbsolutePath(), journalFile.getAbsolutePath());
+
+    return migrated;
+  }
+
+}
@@ -27,4 +27,26 @@ public class MatcherStores {
   public static MatcherStore newBasicMatcherStore(File matcherStoreDirectory) throws IOException {
     return new BasicMatcherStore(matcherStoreDirectory);
   }
+
+  /**
+   * @param matcherStoreDirectory The directory the matcher store backing files are stored in
+   *
+   * @return The Matcher store committing wallet to encounter date links in batches with the default batch limits
+   * @throws java.io.IOException If the matcher backing store cannot be opened
+   */
+  public static GroupCommitMatcherStore newGroupCommitMatcherStore(File matcherStoreDirectory) throws IOException {
+    return new GroupCommitMatcherStore(matcherStoreDirectory);
+  }
+
+  /**
+   * @param matcherStoreDirectory   The directory the matcher store backing files are stored in
+   * @param maximumBatchSize        The most wallet to encounter date links written by one commit
+   * @param maximumBatchDelayMillis The longest a link waits for others to share its commit
+   *
+   * @return The Matcher store committing wallet to encounter date links in batches
+   * @throws java.io.IOException If the matcher backing store cannot be opened
+   */
+  public static GroupCommitMatcherStore newGroupCommitMatcherStore(File matcherStoreDirectory, int maximumBatchSize, long maximumBatchDelayMillis) throws IOException {
+    return new GroupCommitMatcherStore(matcherStoreDirectory, maximumBatchSize, maximumBatchDelayMillis);
+  }
 }
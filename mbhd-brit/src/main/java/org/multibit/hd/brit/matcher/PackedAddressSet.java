@@ -0,0 +1,387 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.Base58;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.WrongNetworkException;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * <p>Set to provide the following to MatcherStore:</p>
+ * <ul>
+ * <li>Compact, immutable storage of large numbers of Bitcoin addresses</li>
+ * <li>Constant time membership tests without Address objects</li>
+ * <li>Random subsets drawn by index without copying the whole set</li>
+ * </ul>
+ * <p>Each address is a packed 21 byte record (version then hash160) in a single flat array with an open addressed
+ * index of record numbers alongside. <code>Address</code> objects are only created as the set is iterated, which for
+ * a MatcherResponse is when it is serialised.</p>
+ *
+ * @since 0.0.1
+ */
+public class PackedAddressSet extends AbstractSet<Address> {
+
+  /**
+   * The version byte followed by the hash160
+   */
+  public static final int RECORD_LENGTH = 21;
+
+  private static final int HASH160_LENGTH = RECORD_LENGTH - 1;
+
+  private final NetworkParameters networkParameters;
+
+  private final byte[] records;
+
+  private final int size;
+
+  /**
+   * Record number plus one at each slot (zero for empty)
+   */
+  private final int[] index;
+
+  private PackedAddressSet(NetworkParameters networkParameters, byte[] records, int size, int[] index) {
+    this.networkParameters = networkParameters;
+    this.records = records;
+    this.size = size;
+    this.index = index;
+  }
+
+  /**
+   * @param networkParameters The network parameters for the addresses
+   * @param addresses         The addresses (duplicates are ignored)
+   *
+   * @return The addresses as a packed set (the argument itself if it is already packed for the same network)
+   */
+  public static PackedAddressSet copyOf(NetworkParameters networkParameters, Collection<Address> addresses) {
+
+    Preconditions.checkNotNull(addresses, "'addresses' must be present");
+
+    if (addresses instanceof PackedAddressSet && ((PackedAddressSet) addresses).networkParameters.equals(networkParameters)) {
+      return (PackedAddressSet) addresses;
+    }
+
+    Builder builder = builder(networkParameters, addresses.size());
+    for (Address address : addresses) {
+      builder.add(address);
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * @param networkParameters The network parameters for the addresses
+   * @param expectedSize      The expected number of addresses
+   *
+   * @return A builder for a new packed set
+   */
+  public static Builder builder(NetworkParameters networkParameters, int expectedSize) {
+    return new Builder(networkParameters, expectedSize);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+
+    if (!(o instanceof Address)) {
+      return false;
+    }
+
+    Address address = (Address) o;
+
+    return find(records, index, address.getVersion(), address.getHash160()) >= 0;
+  }
+
+  @Override
+  public Iterator<Address> iterator() {
+
+    return new Iterator<Address>() {
+
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public Address next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(next++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException("PackedAddressSet is immutable");
+      }
+    };
+  }
+
+  /**
+   * @param recordNumber The record number (0 to size() - 1)
+   *
+   * @return A new Address for the record
+   */
+  public Address get(int recordNumber) {
+
+    Preconditions.checkElementIndex(recordNumber, size);
+
+    int offset = recordNumber * RECORD_LENGTH;
+    try {
+      return new Address(networkParameters, records[offset] & 0xff, Arrays.copyOfRange(records, offset + 1, offset + RECORD_LENGTH));
+    } catch (WrongNetworkException e) {
+      // Versions are checked as records are added
+      throw new IllegalStateException(e);
+    }
+
+  }
+
+  /**
+   * Draw a random subset by sampling record numbers (Floyd's algorithm) so only the chosen records are copied
+   *
+   * @param count  The number of addresses wanted
+   * @param random The source of randomness
+   *
+   * @return A packed set of the requested number of distinct addresses (all of them if there are not enough)
+   */
+  public PackedAddressSet sample(int count, Random random) {
+
+    Preconditions.checkArgument(count >= 0, "'count' must not be negative");
+    Preconditions.checkNotNull(random, "'random' must be present");
+
+    int target = Math.min(count, size);
+
+    int[] chosen = new int[target];
+    int chosenCount = 0;
+    for (int j = size - target; j < size; j++) {
+      int candidate = random.nextInt(j + 1);
+      if (contains(chosen, chosenCount, candidate)) {
+        candidate = j;
+      }
+      chosen[chosenCount] = candidate;
+      chosenCount++;
+    }
+
+    Builder builder = builder(networkParameters, target);
+    for (int recordNumber : chosen) {
+      builder.add(records, recordNumber * RECORD_LENGTH);
+    }
+
+    return builder.build();
+  }
+
+  private static boolean contains(int[] values, int length, int value) {
+
+    for (int i = 0; i < length; i++) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @return The record number or -1 if not present
+   */
+  private static int find(byte[] records, int[] index, int version, byte[] hash160) {
+
+    int mask = index.length - 1;
+    int slot = hash(hash160, 0) & mask;
+
+    while (index[slot] != 0) {
+      int recordNumber = index[slot] - 1;
+      if (matches(records, recordNumber * RECORD_LENGTH, version, hash160, 0)) {
+        return recordNumber;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  private static boolean matches(byte[] records, int offset, int version, byte[] hash160, int hash160Offset) {
+
+    if ((records[offset] & 0xff) != version) {
+      return false;
+    }
+    for (int i = 0; i < HASH160_LENGTH; i++) {
+      if (records[offset + 1 + i] != hash160[hash160Offset + i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * The hash160 is already uniformly distributed so its first bytes are a good enough hash
+   */
+  private static int hash(byte[] hash160, int offset) {
+
+    return (hash160[offset] & 0xff) << 24
+      | (hash160[offset + 1] & 0xff) << 16
+      | (hash160[offset + 2] & 0xff) << 8
+      | (hash160[offset + 3] & 0xff);
+  }
+
+  private static int indexCapacity(int expectedSize) {
+
+    // Keep the index no more than half full
+    int capacity = 16;
+    while (capacity < 2 * expectedSize) {
+      capacity <<= 1;
+    }
+
+    return capacity;
+  }
+
+  /**
+   * <p>Builder to provide the following to PackedAddressSet:</p>
+   * <ul>
+   * <li>Accumulation of packed records with duplicates removed as they are added</li>
+   * </ul>
+   */
+  public static class Builder {
+
+    private final NetworkParameters networkParameters;
+
+    private byte[] records;
+    private int size = 0;
+    private int[] index;
+
+    private Builder(NetworkParameters networkParameters, int expectedSize) {
+
+      Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+
+      this.networkParameters = networkParameters;
+      this.records = new byte[Math.max(expectedSize, 1) * RECORD_LENGTH];
+      this.index = new int[indexCapacity(expectedSize)];
+    }
+
+    /**
+     * @param address The address to add
+     *
+     * @return The builder
+     */
+    public Builder add(Address address) {
+
+      Preconditions.checkNotNull(address, "'address' must be present");
+
+      Preconditions.checkArgument(isAcceptable(address.getVersion()), "'address' must be for %s", networkParameters.getId());
+
+      add(address.getVersion(), address.getHash160(), 0);
+
+      return this;
+    }
+
+    /**
+     * Add an address without creating an Address object
+     *
+     * @param base58Address The address in Base58 form
+     *
+     * @return The builder
+     *
+     * @throws AddressFormatException If the address is malformed or for a different network
+     */
+    public Builder add(String base58Address) throws AddressFormatException {
+
+      // The checked payload is exactly the packed record
+      byte[] versionAndHash160 = Base58.decodeChecked(base58Address);
+      if (versionAndHash160.length != RECORD_LENGTH) {
+        throw new AddressFormatException("Wrong number of bytes for an address: " + versionAndHash160.length);
+      }
+      int version = versionAndHash160[0] & 0xff;
+      if (!isAcceptable(version)) {
+        throw new WrongNetworkException(version, networkParameters.getAcceptableAddressCodes());
+      }
+      add(version, versionAndHash160, 1);
+
+      return this;
+    }
+
+    /**
+     * @return The immutable packed set (the builder cannot be used again)
+     */
+    public PackedAddressSet build() {
+
+      Preconditions.checkState(index != null, "'build' has already been called");
+
+      PackedAddressSet packedAddressSet = new PackedAddressSet(networkParameters, Arrays.copyOf(records, size * RECORD_LENGTH), size, index);
+      records = null;
+      index = null;
+
+      return packedAddressSet;
+    }
+
+    private void add(byte[] source, int offset) {
+      add(source[offset] & 0xff, source, offset + 1);
+    }
+
+    private void add(int version, byte[] hash160, int hash160Offset) {
+
+      Preconditions.checkState(index != null, "'build' has already been called");
+
+      if (2 * (size + 1) > index.length) {
+        rebuildIndex(index.length * 2);
+      }
+
+      int mask = index.length - 1;
+      int slot = hash(hash160, hash160Offset) & mask;
+      while (index[slot] != 0) {
+        if (matches(records, (index[slot] - 1) * RECORD_LENGTH, version, hash160, hash160Offset)) {
+          // Already present
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      if ((size + 1) * RECORD_LENGTH > records.length) {
+        records = Arrays.copyOf(records, records.length * 2);
+      }
+      int offset = size * RECORD_LENGTH;
+      records[offset] = (byte) version;
+      System.arraycopy(hash160, hash160Offset, records, offset + 1, HASH160_LENGTH);
+
+      index[slot] = ++size;
+    }
+
+    private void rebuildIndex(int capacity) {
+
+      int[] newIndex = new int[capacity];
+      int mask = capacity - 1;
+      for (int recordNumber = 0; recordNumber < size; recordNumber++) {
+        int slot = hash(records, recordNumber * RECORD_LENGTH + 1) & mask;
+        while (newIndex[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        newIndex[slot] = recordNumber + 1;
+      }
+      index = newIndex;
+    }
+
+    private boolean isAcceptable(int version) {
+
+      for (int acceptableVersion : networkParameters.getAcceptableAddressCodes()) {
+        if (acceptableVersion == version) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+}
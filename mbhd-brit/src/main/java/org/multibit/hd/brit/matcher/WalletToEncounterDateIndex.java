@@ -0,0 +1,406 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Index to provide the following to BasicMatcherStore and GroupCommitMatcherStore:</p>
+ * <ul>
+ * <li>Constant time lookup of wallet to encounter date links by BRITWalletId</li>
+ * <li>Constant time startup regardless of the number of wallets seen</li>
+ * </ul>
+ * <p>The index is a memory mapped, open addressed hash table. A 4KB header page is followed by 64 byte slots so
+ * 64 slots share a page. A BRITWalletId is already a hash (SHA256 then RIPEMD160) so its first 8 bytes choose the
+ * slot and collisions probe linearly, which almost always stays on the same page. The table doubles when half full.</p>
+ * <p>The header records how much of the append-only journal (<code>links.txt</code> or <code>links.dat</code>) is reflected in the
+ * index so the store can replay only what is missing after a crash, or all of it when migrating. The slots are
+ * forced to disk before the journal length is advanced and the header is then forced, so after a crash the header
+ * never covers a link that is missing from the slots.</p>
+ * <p>Lookups share a read lock. Writes are expected to be serialised by the caller.</p>
+ *
+ * @since 0.0.1
+ */
+class WalletToEncounterDateIndex implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(WalletToEncounterDateIndex.class);
+
+  /**
+   * "BRIX"
+   */
+  private static final int MAGIC = 0x42524958;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = 4096;
+
+  private static final int SLOT_LENGTH = 64;
+
+  private static final int WALLET_ID_LENGTH = 20;
+
+  /**
+   * 1MB on disk and room for 8K wallets before the first resize
+   */
+  static final int INITIAL_CAPACITY = 1 << 14;
+
+  /**
+   * Keeps the mapping below the 2GB limit of a single buffer
+   */
+  private static final int MAXIMUM_CAPACITY = 1 << 24;
+
+  // Header offsets
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int COUNT_OFFSET = 12;
+  private static final int JOURNAL_LENGTH_OFFSET = 16;
+
+  // Slot offsets
+  private static final int STATE_OFFSET = WALLET_ID_LENGTH;
+  private static final int PRESENT_OFFSET = STATE_OFFSET + 1;
+  private static final int ENCOUNTER_DATE_OFFSET = 24;
+  private static final int FIRST_TRANSACTION_DATE_OFFSET = 32;
+
+  private static final byte STATE_USED = 1;
+
+  private static final int ENCOUNTER_DATE_PRESENT = 1;
+  private static final int FIRST_TRANSACTION_DATE_PRESENT = 2;
+
+  private final File indexFile;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private int capacity;
+  private int count;
+
+  /**
+   * @param indexFile The index file (created if it does not exist, rebuilt empty if it is not a valid index)
+   *
+   * @throws IOException If the index file cannot be opened
+   */
+  WalletToEncounterDateIndex(File indexFile) throws IOException {
+
+    this.indexFile = indexFile;
+
+    channel = new RandomAccessFile(indexFile, "rw").getChannel();
+    long length = channel.size();
+
+    if (length >= HEADER_LENGTH) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+      capacity = buffer.getInt(CAPACITY_OFFSET);
+      count = buffer.getInt(COUNT_OFFSET);
+      if (isValid(length)) {
+        return;
+      }
+      log.warn("Index '{}' is not valid and will be rebuilt", indexFile.getAbsolutePath());
+    }
+
+    format(INITIAL_CAPACITY);
+  }
+
+  /**
+   * @return The number of wallets in the index
+   */
+  int size() {
+
+    lock.readLock().lock();
+    try {
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+  }
+
+  /**
+   * @return The length of the journal reflected in the index
+   */
+  long getJournalLength() {
+
+    lock.readLock().lock();
+    try {
+      return buffer.getLong(JOURNAL_LENGTH_OFFSET);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+  }
+
+  /**
+   * <p>Record the journal length once the slots it covers are durable (the journal itself must already be durable)</p>
+   *
+   * @param journalLength The length of the journal now reflected in the index
+   */
+  void setJournalLength(long journalLength) {
+
+    lock.writeLock().lock();
+    try {
+      // Slots first so the header never covers a link that did not reach the disk
+      buffer.force();
+      buffer.putLong(JOURNAL_LENGTH_OFFSET, journalLength);
+      buffer.force();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+  }
+
+  /**
+   * @param britWalletId The BRIT wallet id
+   *
+   * @return The link for the wallet or null if it has not been seen
+   */
+  WalletToEncounterDateLink lookup(BRITWalletId britWalletId) {
+
+    byte[] walletId = checkWalletId(britWalletId);
+
+    lock.readLock().lock();
+    try {
+      int offset = slotOffset(walletId);
+      if (buffer.get(offset + STATE_OFFSET) != STATE_USED) {
+        return null;
+      }
+
+      byte present = buffer.get(offset + PRESENT_OFFSET);
+      Optional<Date> encounterDate = (present & ENCOUNTER_DATE_PRESENT) != 0
+        ? Optional.of(new Date(buffer.getLong(offset + ENCOUNTER_DATE_OFFSET)))
+        : Optional.<Date>absent();
+      Optional<Date> firstTransactionDate = (present & FIRST_TRANSACTION_DATE_PRESENT) != 0
+        ? Optional.of(new Date(buffer.getLong(offset + FIRST_TRANSACTION_DATE_OFFSET)))
+        : Optional.<Date>absent();
+
+      return new WalletToEncounterDateLink(britWalletId, encounterDate, firstTransactionDate);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+  }
+
+  /**
+   * @param link The link to add or replace
+   *
+   * @throws IOException If the index needs to grow and cannot
+   */
+  void put(WalletToEncounterDateLink link) throws IOException {
+
+    byte[] walletId = checkWalletId(link.getBritWalletId());
+
+    lock.writeLock().lock();
+    try {
+      if (2 * (count + 1) > capacity) {
+        grow();
+      }
+
+      int offset = slotOffset(walletId);
+      boolean added = buffer.get(offset + STATE_OFFSET) != STATE_USED;
+
+      writeSlot(buffer, offset, walletId, link);
+
+      if (added) {
+        count++;
+        buffer.putInt(COUNT_OFFSET, count);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+  }
+
+  /**
+   * <p>Remove every link and reset the journal length</p>
+   *
+   * @throws IOException If the index cannot be formatted
+   */
+  void clear() throws IOException {
+
+    lock.writeLock().lock();
+    try {
+      format(INITIAL_CAPACITY);
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+  }
+
+  /**
+   * <p>Write the mapped pages to disk and release the file</p>
+   */
+  @Override
+  public void close() throws IOException {
+
+    lock.writeLock().lock();
+    try {
+      buffer.force();
+      channel.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+  }
+
+  /**
+   * @param walletId The 20 byte wallet id
+   *
+   * @return The offset of the slot holding the wallet id or the empty slot where it belongs
+   */
+  private int slotOffset(byte[] walletId) {
+
+    int mask = capacity - 1;
+    int slot = (int) (Longs.fromByteArray(walletId) & mask);
+
+    while (true) {
+      int offset = HEADER_LENGTH + slot * SLOT_LENGTH;
+      if (buffer.get(offset + STATE_OFFSET) != STATE_USED || matches(offset, walletId)) {
+        return offset;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+  }
+
+  private boolean matches(int offset, byte[] walletId) {
+
+    for (int i = 0; i < WALLET_ID_LENGTH; i++) {
+      if (buffer.get(offset + i) != walletId[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * <p>Double the capacity by rehashing into a new file that replaces the current one</p>
+   */
+  private void grow() throws IOException {
+
+    Preconditions.checkState(capacity < MAXIMUM_CAPACITY, "Index '%s' is full", indexFile.getAbsolutePath());
+
+    int newCapacity = capacity * 2;
+    File growFile = new File(indexFile.getAbsolutePath() + ".tmp");
+
+    FileChannel newChannel = new RandomAccessFile(growFile, "rw").getChannel();
+    newChannel.truncate(0);
+    MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) newCapacity * SLOT_LENGTH);
+
+    byte[] walletId = new byte[WALLET_ID_LENGTH];
+    int mask = newCapacity - 1;
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = HEADER_LENGTH + slot * SLOT_LENGTH;
+      if (buffer.get(offset + STATE_OFFSET) != STATE_USED) {
+        continue;
+      }
+      for (int i = 0; i < WALLET_ID_LENGTH; i++) {
+        walletId[i] = buffer.get(offset + i);
+      }
+      int newSlot = (int) (Longs.fromByteArray(walletId) & mask);
+      while (newBuffer.get(HEADER_LENGTH + newSlot * SLOT_LENGTH + STATE_OFFSET) == STATE_USED) {
+        newSlot = (newSlot + 1) & mask;
+      }
+      int newOffset = HEADER_LENGTH + newSlot * SLOT_LENGTH;
+      for (int i = 0; i < SLOT_LENGTH; i++) {
+        newBuffer.put(newOffset + i, buffer.get(offset + i));
+      }
+    }
+
+    writeHeader(newBuffer, newCapacity, count, buffer.getLong(JOURNAL_LENGTH_OFFSET));
+    newBuffer.force();
+
+    Files.move(growFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    channel.close();
+    channel = newChannel;
+    buffer = newBuffer;
+    capacity = newCapacity;
+
+    log.debug("Index '{}' grown to {} slots", indexFile.getAbsolutePath(), newCapacity);
+  }
+
+  /**
+   * @param newCapacity The number of slots in the empty index
+   */
+  private void format(int newCapacity) throws IOException {
+
+    channel.truncate(0);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) newCapacity * SLOT_LENGTH);
+    capacity = newCapacity;
+    count = 0;
+
+    writeHeader(buffer, capacity, count, 0);
+  }
+
+  private boolean isValid(long length) {
+
+    return buffer.getInt(MAGIC_OFFSET) == MAGIC
+      && buffer.getInt(VERSION_OFFSET) == VERSION
+      && capacity > 0
+      && capacity <= MAXIMUM_CAPACITY
+      && Integer.bitCount(capacity) == 1
+      && count >= 0
+      && count < capacity
+      && length == HEADER_LENGTH + (long) capacity * SLOT_LENGTH;
+  }
+
+  private static void writeHeader(MappedByteBuffer target, int capacity, int count, long journalLength) {
+
+    target.putInt(MAGIC_OFFSET, MAGIC);
+    target.putInt(VERSION_OFFSET, VERSION);
+    target.putInt(CAPACITY_OFFSET, capacity);
+    target.putInt(COUNT_OFFSET, count);
+    target.putLong(JOURNAL_LENGTH_OFFSET, journalLength);
+  }
+
+  private static void writeSlot(MappedByteBuffer target, int offset, byte[] walletId, WalletToEncounterDateLink link) {
+
+    int present = 0;
+    long encounterDate = 0;
+    long firstTransactionDate = 0;
+    if (link.getEncounterDateOptional().isPresent()) {
+      present |= ENCOUNTER_DATE_PRESENT;
+      encounterDate = link.getEncounterDateOptional().get().getTime();
+    }
+    if (link.getFirstTransactionDate().isPresent()) {
+      present |= FIRST_TRANSACTION_DATE_PRESENT;
+      firstTransactionDate = link.getFirstTransactionDate().get().getTime();
+    }
+
+    for (int i = 0; i < WALLET_ID_LENGTH; i++) {
+      target.put(offset + i, walletId[i]);
+    }
+    target.put(offset + PRESENT_OFFSET, (byte) present);
+    target.putLong(offset + ENCOUNTER_DATE_OFFSET, encounterDate);
+    target.putLong(offset + FIRST_TRANSACTION_DATE_OFFSET, firstTransactionDate);
+
+    // Mark the slot as used last (a link interrupted by a crash is recovered from the journal)
+    target.put(offset + STATE_OFFSET, STATE_USED);
+  }
+
+  private static byte[] checkWalletId(BRITWalletId britWalletId) {
+
+    Preconditions.checkNotNull(britWalletId, "'britWalletId' must be present");
+
+    byte[] walletId = britWalletId.getBytes();
+    Preconditions.checkArgument(walletId.length == WALLET_ID_LENGTH, "'britWalletId' must be %s bytes", WALLET_ID_LENGTH);
+
+    return walletId;
+  }
+
+}
@@ -33,4 +33,12 @@ public class BRITServices {
     log.debug("Creating new fee service");
     return new FeeService(matcherPublicKey, matcherURL);
   }
+
+  /**
+   * @return A new FeeService using the given transport to reach the Matcher
+   */
+  public static FeeService newFeeService(PGPPublicKey matcherPublicKey, MatcherTransport matcherTransport) {
+    log.debug("Creating new fee service");
+    return new FeeService(matcherPublicKey, matcherTransport);
+  }
 }
@@ -3,18 +3,16 @@ package org.multibit.hd.brit.services;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
-import org.bitcoinj.core.ScriptException;
 import org.bitcoinj.core.Transaction;
-import org.bitcoinj.core.TransactionOutput;
 import org.bitcoinj.core.Wallet;
 import org.bitcoinj.core.WalletExtension;
 import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.utils.Threading;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.dto.BRITWalletId;
@@ -34,19 +32,14 @@ import org.multibit.hd.brit.payer.Payers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URL;
-import java.net.URLConnection;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -77,7 +70,7 @@ public class FeeService {
   private static final NetworkParameters networkParameters = MainNetParams.get();
 
   private final PGPPublicKey matcherPublicKey;
-  private final URL matcherURL;
+  private final MatcherTransport matcherTransport;
 
   /**
    * BRIT fee charged per send.
@@ -107,19 +100,29 @@ public class FeeService {
    * @param matcherURL       the HTTP URL to send PayerRequests to
    */
   public FeeService(PGPPublicKey matcherPublicKey, URL matcherURL) {
+    this(matcherPublicKey, new MatcherTransport(matcherURL));
+  }
+
+  /**
+   * Construct a fee service
+   *
+   * @param matcherPublicKey The PGP public key of the matcher service to perform exchanges with
+   * @param matcherTransport The transport to send PayerRequests over (shared so connections are reused)
+   */
+  public FeeService(PGPPublicKey matcherPublicKey, MatcherTransport matcherTransport) {
 
     Preconditions.checkNotNull(matcherPublicKey);
-    Preconditions.checkNotNull(matcherURL);
+    Preconditions.checkNotNull(matcherTransport);
 
     this.matcherPublicKey = matcherPublicKey;
-    this.matcherURL = matcherURL;
+    this.matcherTransport = matcherTransport;
     this.secureRandom = new SecureRandom();
 
     // Use a default provider which uses the transaction confidence.
     // This works ok but the user can do a repair wallet and all transaction become not sent by self.
     transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
 
-    log.debug("Creating FeeService with matcherURL: {}", matcherURL);
+    log.debug("Creating FeeService with matcherURL: {}", matcherTransport.getMatcherURL());
   }
 
   public void setTransactionSentBySelfProvider(TransactionSentBySelfProvider transactionSentBySelfProvider) {
@@ -159,8 +162,8 @@ public class FeeService {
       // Encrypt the PayerRequest with the Matcher PGP public key.
       EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
 
-      // Do the HTTP(S) post which, if successful, returns an EncryptedMatcherResponse as a byte array
-      EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(doPost(matcherURL, encryptedPayerRequest.getPayload()));
+      // Do the HTTP(S) post which, if successful, returns an EncryptedMatcherResponse
+      EncryptedMatcherResponse encryptedMatcherResponse = matcherTransport.exchange(encryptedPayerRequest);
 
       log.debug("Matcher response (encrypted):{} bytes", encryptedMatcherResponse.getPayload().length);
 
@@ -194,49 +197,22 @@ public class FeeService {
 
     //log.debug("Wallet at beginning of calculateFeeState = {}", wallet.toString(false, true, true, null));
 
-    // Get all the send transactions sent by me, ordered by date
-    List<Transaction> sendTransactions = getSentBySelfTransactionList(wallet);
-    int currentNumberOfSends = sendTransactions.size();
+    // Get the previous persisted MatcherResponse from the wallet, if available
+    MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
+
+    // Get the sends by me, ordered by date, and work out which of them actually send money to a fee address.
+    // These are tracked from wallet events so only the transactions changed since the last calculation are examined
+    FeeStateTracker.Snapshot feeStateSnapshot = getOrCreateFeeStateTracker(wallet, matcherResponseFromWallet).snapshot();
+    int currentNumberOfSends = feeStateSnapshot.getNumberOfSends();
     log.debug("The wallet send count is {}", currentNumberOfSends);
 
     // Work out the total amount that should be paid by the Payer for this wallet
     Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
 
-    // Get the previous persisted MatcherResponse from the wallet, if available
-    MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
-
-    // Calculate all the possible fee addresses
-    Set<Address> feeAddressesUniverse = Sets.newHashSet(getHardwiredFeeAddresses());
-    if (matcherResponseFromWallet != null && matcherResponseFromWallet.getBitcoinAddresses() != null) {
-      feeAddressesUniverse.addAll(matcherResponseFromWallet.getBitcoinAddresses());
-    }
-
-    // Work out which of the sends actually send money to a fee address.
-    // Keep track of the amount sent as fees and the count of the last send to fees made
-    int lastFeePayingSendCount = 0;
-    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
-    Optional<Integer> lastFeePayingSendingCountOptional = Optional.absent();
-    Coin feePaid = Coin.ZERO;
-
-    for (Transaction sendTransaction : sendTransactions) {
-      List<TransactionOutput> sendTransactionOutputList = sendTransaction.getOutputs();
-      if (sendTransactionOutputList != null) {
-        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
-          try {
-            Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
-            if (feeAddressesUniverse.contains(toAddress)) {
-              // It pays some fee
-              feePaid = feePaid.add(sendTransactionOutput.getValue());
-              lastFeePayingSendAddressOptional = Optional.of(toAddress.toString());
-              lastFeePayingSendingCountOptional = Optional.of(lastFeePayingSendCount);
-            }
-          } catch (ScriptException se) {
-            log.debug("Cannot cast script to Address for transaction: {}", sendTransaction.getHash().toString());
-          }
-        }
-      }
-      lastFeePayingSendCount++;
-    }
+    // The amount sent as fees and the count of the last send to fees made
+    Optional<String> lastFeePayingSendAddressOptional = feeStateSnapshot.getLastFeePayingSendAddress();
+    Optional<Integer> lastFeePayingSendingCountOptional = feeStateSnapshot.getLastFeePayingSendIndex();
+    Coin feePaid = feeStateSnapshot.getFeePaid();
 
     // The net amount fee still to be paid is the gross amount minus the amount paid so far
     // This could be negative if the user has overpaid
@@ -253,7 +229,7 @@ public class FeeService {
     // If the persisted next fee send count is in the future and the last send is NOT a fee payment then reuse the persisted info
     boolean usePersistedData = false;
     if (sendFeeDto != null && sendFeeDto.getSendFeeCount().isPresent()) {
-      if ((sendFeeDto.getSendFeeCount().get() >= lastFeePayingSendCount) &&
+      if ((sendFeeDto.getSendFeeCount().get() >= currentNumberOfSends) &&
         !((lastFeePayingSendingCountOptional.isPresent()) && (lastFeePayingSendingCountOptional.get().equals(sendFeeDto.getSendFeeCount().get())))) {
         usePersistedData = true;
       }
@@ -375,32 +351,38 @@ public class FeeService {
   }
 
   /**
-   * Get all the send transactions in the wallet that are sent by self
+   * Get the tracker of the sends in the wallet that are sent by self
    * (Sends that originate from another copy of this HD have no client fee attached)
    *
-   * @param wallet the wallet to look for sends for
+   * @param wallet          the wallet to look for sends for
+   * @param matcherResponse the persisted MatcherResponse giving the fee addresses (null if there is none)
    *
-   * @return List of the transactions in this wallet sent by self
+   * @return The tracker cached on the wallet, replaced if the fee addresses or sent by self provider have changed
    */
-  private List<Transaction> getSentBySelfTransactionList(Wallet wallet) {
+  private FeeStateTracker getOrCreateFeeStateTracker(Wallet wallet, MatcherResponse matcherResponse) {
 
-    // Get all the wallets transactions and sort by date
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    Collections.sort(transactions, new TransactionUpdateTimeComparator());
+    WalletExtension walletExtension = wallet.getExtensions().get(FeeStateTracker.FEE_STATE_TRACKER_WALLET_EXTENSION_ID);
+    if (walletExtension instanceof FeeStateTracker) {
+      FeeStateTracker feeStateTracker = (FeeStateTracker) walletExtension;
+      if (feeStateTracker.isTracking(transactionSentBySelfProvider, matcherResponse)) {
+        return feeStateTracker;
+      }
+      wallet.removeEventListener(feeStateTracker);
+    }
 
-    // Iterate over all transactions sorted by date, looking for transaction outputs that are sends
-    List<Transaction> sendTransactions = Lists.newArrayList();
+    // Calculate all the possible fee addresses
+    Set<Address> feeAddressesUniverse = Sets.newHashSet(getHardwiredFeeAddresses());
+    if (matcherResponse != null && matcherResponse.getBitcoinAddresses() != null) {
+      feeAddressesUniverse.addAll(matcherResponse.getBitcoinAddresses());
+    }
 
-    for (Transaction transaction : transactions) {
-      boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+    FeeStateTracker feeStateTracker = new FeeStateTracker(wallet, transactionSentBySelfProvider, matcherResponse, feeAddressesUniverse);
 
-      if (sentBySelf) {
-        // This transaction sends from self - this will exclude unconfirmed tx
-        sendTransactions.add(transaction);
-      }
-    }
+    // The listener only notes changed transactions so it is safe to run under the wallet lock, and nothing is missed
+    wallet.addEventListener(feeStateTracker, Threading.SAME_THREAD);
+    wallet.addOrUpdateExtension(feeStateTracker);
 
-    return sendTransactions;
+    return feeStateTracker;
   }
 
   public static MatcherResponse getMatcherResponseFromWallet(Wallet wallet) {
@@ -461,57 +443,6 @@ public class FeeService {
     return hardwiredFeeAddresses;
   }
 
-  /**
-   * Perform a post of the specified bytes to the specified URL
-   *
-   * @param url     The URL to post to
-   * @param payload the bytes to post
-   */
-  private byte[] doPost(URL url, byte[] payload) throws IOException {
-    // Send the encrypted request to the Matcher
-    log.debug("Attempting to post {} bytes to URL {}", payload.length, url);
-    URLConnection connection;
-
-    // URL connection channel
-    connection = url.openConnection();
-
-    connection.setRequestProperty("Content-Length", String.valueOf(payload.length));
-    // Let the server know that we want input
-    connection.setDoInput(true);
-    // Let the server know that we want to do output
-    connection.setDoOutput(true);
-    // No caching, we want the real thing
-    connection.setUseCaches(false);
-    // Specify the content type
-    connection.setRequestProperty("Content-Type", "application/octet-stream");
-
-    // Try to send the POST output
-    try (DataOutputStream postOutputStream = new DataOutputStream(connection.getOutputStream())) {
-      postOutputStream.write(payload);
-      postOutputStream.flush();
-    }
-
-    // Try to GET the response data
-    try (DataInputStream responseInputStream = new DataInputStream(connection.getInputStream());
-         ByteArrayOutputStream responseOutputStream = new ByteArrayOutputStream(1024)) {
-
-      byte readByte;
-
-      boolean keepGoing = true;
-      while (keepGoing) {
-        try {
-          readByte = responseInputStream.readByte();
-          responseOutputStream.write(readByte);
-        } catch (IOException ioe) {
-          // response is all read (EOFException) or has fallen over
-          keepGoing = false;
-        }
-      }
-      return responseOutputStream.toByteArray();
-    }
-
-  }
-
   /**
    * Calculate the date of the first transaction in the Wallet
    *
@@ -0,0 +1,411 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.AbstractWalletEventListener;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Wallet extension to provide the following to FeeService:</p>
+ * <ul>
+ * <li>The sends (transactions sent by self) of a wallet in update time order</li>
+ * <li>The total paid to fee addresses and the last send to pay a fee</li>
+ * </ul>
+ * <p>The tracker listens to the wallet but the listener only notes which transactions have changed (it runs under
+ * the wallet lock). The changes are applied on the next query, each costing the outputs of that transaction, so
+ * there is no copy and sort of the whole wallet on every fee calculation.</p>
+ * <p>The state is derived from the wallet so it is not persisted. The extension serialises to nothing and a tracker
+ * is rebuilt with a single scan after the wallet is loaded, after a reorganisation or if the fee addresses or the
+ * sent by self provider change.</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeStateTracker extends AbstractWalletEventListener implements WalletExtension {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeStateTracker.class);
+
+  public static final String FEE_STATE_TRACKER_WALLET_EXTENSION_ID = "org.multibit.hd.brit.FeeStateTracker";
+
+  /**
+   * Always work with MainNet in BRIT (no access to wallet configuration)
+   */
+  private static final NetworkParameters networkParameters = MainNetParams.get();
+
+  private static final Comparator<Entry> SEND_ORDER = new SendOrderComparator();
+
+  private final Wallet wallet;
+
+  private final TransactionSentBySelfProvider transactionSentBySelfProvider;
+
+  /**
+   * The Matcher response the fee addresses came from (null if there was none)
+   */
+  private final MatcherResponse matcherResponse;
+
+  private final Set<Address> feeAddresses;
+
+  /**
+   * Every transaction applied so far (read by the listener so it is concurrent)
+   */
+  private final ConcurrentMap<Sha256Hash, Entry> entries = Maps.newConcurrentMap();
+
+  /**
+   * Transactions changed since the last query
+   */
+  private final Set<Sha256Hash> changedTransactions = Sets.newConcurrentHashSet();
+
+  private volatile boolean rebuildRequired = true;
+
+  /**
+   * The sends in update time order (guarded by this)
+   */
+  private final List<Entry> sends = Lists.newArrayList();
+
+  private Coin feePaid = Coin.ZERO;
+
+  private int lastFeePayingSendIndex = -1;
+
+  /**
+   * @param wallet                        The wallet to track
+   * @param transactionSentBySelfProvider The provider deciding which transactions are sends
+   * @param matcherResponse               The Matcher response the fee addresses came from (null if there was none)
+   * @param feeAddresses                  All the addresses a fee can be paid to
+   */
+  public FeeStateTracker(Wallet wallet, TransactionSentBySelfProvider transactionSentBySelfProvider, MatcherResponse matcherResponse, Set<Address> feeAddresses) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+    Preconditions.checkNotNull(transactionSentBySelfProvider, "'transactionSentBySelfProvider' must be present");
+    Preconditions.checkNotNull(feeAddresses, "'feeAddresses' must be present");
+
+    this.wallet = wallet;
+    this.transactionSentBySelfProvider = transactionSentBySelfProvider;
+    this.matcherResponse = matcherResponse;
+    this.feeAddresses = ImmutableSet.copyOf(feeAddresses);
+  }
+
+  /**
+   * @param transactionSentBySelfProvider The provider now in use
+   * @param matcherResponse               The Matcher response now on the wallet (null if there is none)
+   *
+   * @return True if this tracker was built with the same provider and fee addresses
+   */
+  public boolean isTracking(TransactionSentBySelfProvider transactionSentBySelfProvider, MatcherResponse matcherResponse) {
+    return this.transactionSentBySelfProvider == transactionSentBySelfProvider && this.matcherResponse == matcherResponse;
+  }
+
+  /**
+   * @return The current sends and fees paid (applying any wallet changes first)
+   */
+  public synchronized Snapshot snapshot() {
+
+    refresh();
+
+    Optional<Integer> lastFeePayingSendIndexOptional = Optional.absent();
+    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
+    if (lastFeePayingSendIndex >= 0) {
+      lastFeePayingSendIndexOptional = Optional.of(lastFeePayingSendIndex);
+      lastFeePayingSendAddressOptional = sends.get(lastFeePayingSendIndex).lastFeeAddress;
+    }
+
+    return new Snapshot(sends.size(), feePaid, lastFeePayingSendIndexOptional, lastFeePayingSendAddressOptional);
+  }
+
+  @Override
+  public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+    changedTransactions.add(tx.getHash());
+  }
+
+  @Override
+  public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+    changedTransactions.add(tx.getHash());
+  }
+
+  @Override
+  public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+
+    // Called for every transaction on every block so only note the changes that matter
+    Entry entry = entries.get(tx.getHash());
+    TransactionConfidence confidence = tx.getConfidence();
+    boolean dead = TransactionConfidence.ConfidenceType.DEAD == confidence.getConfidenceType();
+
+    if (entry == null
+      || entry.dead != dead
+      || (!entry.send && TransactionConfidence.Source.SELF == confidence.getSource())
+      || (entry.send && entry.updateTime != tx.getUpdateTime().getTime())) {
+      changedTransactions.add(tx.getHash());
+    }
+
+  }
+
+  @Override
+  public void onReorganize(Wallet wallet) {
+    rebuildRequired = true;
+  }
+
+  @Override
+  public String getWalletExtensionID() {
+    return FEE_STATE_TRACKER_WALLET_EXTENSION_ID;
+  }
+
+  @Override
+  public boolean isWalletExtensionMandatory() {
+    return false;
+  }
+
+  @Override
+  public byte[] serializeWalletExtension() {
+    // Derived state is rebuilt after loading
+    return new byte[0];
+  }
+
+  @Override
+  public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
+    // Nothing is persisted
+  }
+
+  /**
+   * Apply the wallet changes noted by the listener (guarded by this)
+   */
+  private void refresh() {
+
+    if (rebuildRequired) {
+
+      // Clear first so changes arriving during the scan are applied again next time (applying is idempotent)
+      rebuildRequired = false;
+      changedTransactions.clear();
+      entries.clear();
+      sends.clear();
+      feePaid = Coin.ZERO;
+      lastFeePayingSendIndex = -1;
+
+      for (Transaction transaction : wallet.getTransactions(false)) {
+        apply(transaction.getHash(), transaction);
+      }
+      log.debug("Rebuilt fee state with {} sends", sends.size());
+
+      return;
+    }
+
+    Iterator<Sha256Hash> iterator = changedTransactions.iterator();
+    while (iterator.hasNext()) {
+      Sha256Hash hash = iterator.next();
+      iterator.remove();
+      apply(hash, wallet.getTransaction(hash));
+    }
+
+  }
+
+  /**
+   * @param hash        The transaction hash
+   * @param transaction The transaction (null if it is no longer in the wallet)
+   */
+  private void apply(Sha256Hash hash, Transaction transaction) {
+
+    Entry previous = entries.remove(hash);
+    if (previous != null && previous.send) {
+      removeSend(previous);
+    }
+
+    if (transaction == null) {
+      return;
+    }
+
+    Entry entry;
+    if (TransactionConfidence.ConfidenceType.DEAD == transaction.getConfidence().getConfidenceType()) {
+      // Dead transactions are not counted (as with getTransactions(false))
+      entry = new Entry(hash, false, true, 0, Coin.ZERO, false, Optional.<String>absent());
+    } else if (transactionSentBySelfProvider.isSentBySelf(wallet, transaction)) {
+      entry = newSendEntry(hash, transaction);
+      addSend(entry);
+    } else {
+      entry = new Entry(hash, false, false, 0, Coin.ZERO, false, Optional.<String>absent());
+    }
+
+    entries.put(hash, entry);
+  }
+
+  /**
+   * @return An entry with the amount the send paid to fee addresses
+   */
+  private Entry newSendEntry(Sha256Hash hash, Transaction transaction) {
+
+    Coin paid = Coin.ZERO;
+    boolean paysFee = false;
+    Optional<String> lastFeeAddress = Optional.absent();
+
+    List<TransactionOutput> outputs = transaction.getOutputs();
+    if (outputs != null) {
+      for (TransactionOutput output : outputs) {
+        try {
+          Address toAddress = output.getScriptPubKey().getToAddress(networkParameters);
+          if (feeAddresses.contains(toAddress)) {
+            paid = paid.add(output.getValue());
+            paysFee = true;
+            lastFeeAddress = Optional.of(toAddress.toString());
+          }
+        } catch (ScriptException se) {
+          log.debug("Cannot cast script to Address for transaction: {}", hash);
+        }
+      }
+    }
+
+    return new Entry(hash, true, false, transaction.getUpdateTime().getTime(), paid, paysFee, lastFeeAddress);
+  }
+
+  private void addSend(Entry entry) {
+
+    int position = Collections.binarySearch(sends, entry, SEND_ORDER);
+    Preconditions.checkState(position < 0, "Send is already tracked");
+    position = -(position + 1);
+
+    // Usually the newest so this is an append
+    sends.add(position, entry);
+    feePaid = feePaid.add(entry.feePaid);
+
+    if (position <= lastFeePayingSendIndex) {
+      lastFeePayingSendIndex++;
+    } else if (entry.paysFee) {
+      lastFeePayingSendIndex = position;
+    }
+
+  }
+
+  private void removeSend(Entry entry) {
+
+    int position = Collections.binarySearch(sends, entry, SEND_ORDER);
+    Preconditions.checkState(position >= 0, "Send is not tracked");
+
+    sends.remove(position);
+    feePaid = feePaid.subtract(entry.feePaid);
+
+    if (position < lastFeePayingSendIndex) {
+      lastFeePayingSendIndex--;
+    } else if (position == lastFeePayingSendIndex) {
+      // Look back for the previous fee paying send
+      lastFeePayingSendIndex = -1;
+      for (int i = position - 1; i >= 0; i--) {
+        if (sends.get(i).paysFee) {
+          lastFeePayingSendIndex = i;
+          break;
+        }
+      }
+    }
+
+  }
+
+  /**
+   * <p>Value object to provide the following to FeeService:</p>
+   * <ul>
+   * <li>A consistent view of the tracked sends and fees</li>
+   * </ul>
+   */
+  public static class Snapshot {
+
+    private final int numberOfSends;
+    private final Coin feePaid;
+    private final Optional<Integer> lastFeePayingSendIndex;
+    private final Optional<String> lastFeePayingSendAddress;
+
+    private Snapshot(int numberOfSends, Coin feePaid, Optional<Integer> lastFeePayingSendIndex, Optional<String> lastFeePayingSendAddress) {
+      this.numberOfSends = numberOfSends;
+      this.feePaid = feePaid;
+      this.lastFeePayingSendIndex = lastFeePayingSendIndex;
+      this.lastFeePayingSendAddress = lastFeePayingSendAddress;
+    }
+
+    /**
+     * @return The number of sends in the wallet
+     */
+    public int getNumberOfSends() {
+      return numberOfSends;
+    }
+
+    /**
+     * @return The total sent to fee addresses
+     */
+    public Coin getFeePaid() {
+      return feePaid;
+    }
+
+    /**
+     * @return The index (in update time order) of the last send to pay a fee
+     */
+    public Optional<Integer> getLastFeePayingSendIndex() {
+      return lastFeePayingSendIndex;
+    }
+
+    /**
+     * @return The last fee address paid by that send
+     */
+    public Optional<String> getLastFeePayingSendAddress() {
+      return lastFeePayingSendAddress;
+    }
+  }
+
+  /**
+   * <p>What one transaction contributes to the fee state</p>
+   */
+  private static class Entry {
+
+    private final Sha256Hash hash;
+    private final boolean send;
+    private final boolean dead;
+    private final long updateTime;
+    private final Coin feePaid;
+    private final boolean paysFee;
+    private final Optional<String> lastFeeAddress;
+
+    private Entry(Sha256Hash hash, boolean send, boolean dead, long updateTime, Coin feePaid, boolean paysFee, Optional<String> lastFeeAddress) {
+      this.hash = hash;
+      this.send = send;
+      this.dead = dead;
+      this.updateTime = updateTime;
+      this.feePaid = feePaid;
+      this.paysFee = paysFee;
+      this.lastFeeAddress = lastFeeAddress;
+    }
+  }
+
+  /**
+   * Orders sends by update time with the hash breaking ties
+   */
+  private static class SendOrderComparator implements Comparator<Entry>, Serializable {
+
+    private static final long serialVersionUID = -3471585307473651418L;
+
+    @Override
+    public int compare(Entry e1, Entry e2) {
+
+      if (e1.updateTime != e2.updateTime) {
+        return e1.updateTime < e2.updateTime ? -1 : 1;
+      }
+
+      return e1.hash.compareTo(e2.hash);
+    }
+  }
+}
@@ -0,0 +1,315 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.List;
+
+/**
+ * <p>Transport to provide the following to FeeService:</p>
+ * <ul>
+ * <li>HTTP(S) exchange of an EncryptedPayerRequest for an EncryptedMatcherResponse</li>
+ * <li>Persistent (keep-alive) connections reused across exchanges</li>
+ * <li>Buffered bulk reads of the response sized from the Content-Length</li>
+ * <li>Configurable connect and read timeouts</li>
+ * <li>An optional batch endpoint taking several requests per round trip</li>
+ * </ul>
+ * <p>The JDK only returns a connection to its keep-alive pool once the response body has been read to the end and
+ * the stream closed, so every exchange (including a failed one) drains the body rather than disconnecting.</p>
+ * <p>A batch body is a 4 byte big-endian count followed by that many entries, each a 4 byte big-endian length then
+ * the payload. The batch response uses the same framing with one entry per request, in order, and an empty entry
+ * where the Matcher could not handle that request.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherTransport {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherTransport.class);
+
+  /**
+   * Long enough for a slow TLS handshake but short enough not to hold up wallet creation
+   */
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10_000;
+
+  /**
+   * The Matcher decrypts with its PGP key so allow for a busy server
+   */
+  public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30_000;
+
+  /**
+   * The largest response body accepted (a Matcher response is a few KB so this allows for large batches)
+   */
+  public static final int MAXIMUM_RESPONSE_LENGTH = 16 * 1024 * 1024;
+
+  private static final String CONTENT_TYPE = "application/octet-stream";
+
+  private final URL matcherURL;
+
+  private final Optional<URL> batchURL;
+
+  private final int connectTimeoutMillis;
+
+  private final int readTimeoutMillis;
+
+  /**
+   * @param matcherURL The HTTP(S) URL to post single requests to
+   */
+  public MatcherTransport(URL matcherURL) {
+    this(matcherURL, Optional.<URL>absent(), DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param matcherURL           The HTTP(S) URL to post single requests to
+   * @param batchURL             The HTTP(S) URL to post batches to (absent if the Matcher does not offer one)
+   * @param connectTimeoutMillis The connect timeout (zero for none)
+   * @param readTimeoutMillis    The read timeout (zero for none)
+   */
+  public MatcherTransport(URL matcherURL, Optional<URL> batchURL, int connectTimeoutMillis, int readTimeoutMillis) {
+
+    Preconditions.checkNotNull(matcherURL, "'matcherURL' must be present");
+    Preconditions.checkNotNull(batchURL, "'batchURL' must be present");
+    Preconditions.checkArgument(connectTimeoutMillis >= 0, "'connectTimeoutMillis' must not be negative");
+    Preconditions.checkArgument(readTimeoutMillis >= 0, "'readTimeoutMillis' must not be negative");
+
+    this.matcherURL = matcherURL;
+    this.batchURL = batchURL;
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  /**
+   * @return The URL single requests are posted to
+   */
+  public URL getMatcherURL() {
+    return matcherURL;
+  }
+
+  /**
+   * @return True if several requests can be sent in one round trip
+   */
+  public boolean isBatchSupported() {
+    return batchURL.isPresent();
+  }
+
+  /**
+   * @param encryptedPayerRequest The encrypted Payer request
+   *
+   * @return The encrypted Matcher response
+   *
+   * @throws IOException If the exchange fails or times out
+   */
+  public EncryptedMatcherResponse exchange(EncryptedPayerRequest encryptedPayerRequest) throws IOException {
+
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    return new EncryptedMatcherResponse(post(matcherURL, encryptedPayerRequest.getPayload()));
+  }
+
+  /**
+   * <p>Exchange several requests in one round trip, falling back to one exchange per request if there is no batch
+   * endpoint</p>
+   *
+   * @param encryptedPayerRequests The encrypted Payer requests
+   *
+   * @return The encrypted Matcher responses in request order (an empty payload where the Matcher could not handle
+   * that request)
+   *
+   * @throws IOException If the exchange fails or times out
+   */
+  public List<EncryptedMatcherResponse> exchange(List<EncryptedPayerRequest> encryptedPayerRequests) throws IOException {
+
+    Preconditions.checkNotNull(encryptedPayerRequests, "'encryptedPayerRequests' must be present");
+
+    List<EncryptedMatcherResponse> encryptedMatcherResponses = Lists.newArrayListWithCapacity(encryptedPayerRequests.size());
+
+    if (!batchURL.isPresent()) {
+      for (EncryptedPayerRequest encryptedPayerRequest : encryptedPayerRequests) {
+        encryptedMatcherResponses.add(exchange(encryptedPayerRequest));
+      }
+      return encryptedMatcherResponses;
+    }
+
+    List<byte[]> requestPayloads = Lists.newArrayListWithCapacity(encryptedPayerRequests.size());
+    for (EncryptedPayerRequest encryptedPayerRequest : encryptedPayerRequests) {
+      requestPayloads.add(encryptedPayerRequest.getPayload());
+    }
+
+    List<byte[]> responsePayloads = readBatch(new ByteArrayInputStream(post(batchURL.get(), writeBatch(requestPayloads))));
+    if (responsePayloads.size() != requestPayloads.size()) {
+      throw new IOException("Batch response has " + responsePayloads.size() + " entries for " + requestPayloads.size() + " requests");
+    }
+    for (byte[] responsePayload : responsePayloads) {
+      encryptedMatcherResponses.add(new EncryptedMatcherResponse(responsePayload));
+    }
+
+    return encryptedMatcherResponses;
+  }
+
+  /**
+   * @param payloads The payloads to frame
+   *
+   * @return The batch body
+   */
+  public static byte[] writeBatch(List<byte[]> payloads) {
+
+    Preconditions.checkNotNull(payloads, "'payloads' must be present");
+
+    int length = 4;
+    for (byte[] payload : payloads) {
+      length += 4 + payload.length;
+    }
+
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(length);
+    try (DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream)) {
+      dataOutputStream.writeInt(payloads.size());
+      for (byte[] payload : payloads) {
+        dataOutputStream.writeInt(payload.length);
+        dataOutputStream.write(payload);
+      }
+    } catch (IOException e) {
+      // A byte array cannot fail to write
+      throw new IllegalStateException(e);
+    }
+
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  /**
+   * @param inputStream The batch body (not closed)
+   *
+   * @return The payloads in order
+   *
+   * @throws IOException If the body is truncated or malformed
+   */
+  public static List<byte[]> readBatch(InputStream inputStream) throws IOException {
+
+    Preconditions.checkNotNull(inputStream, "'inputStream' must be present");
+
+    DataInputStream dataInputStream = new DataInputStream(inputStream);
+
+    int count = dataInputStream.readInt();
+    if (count < 0) {
+      throw new IOException("Malformed batch count: " + count);
+    }
+
+    // Do not trust the count for the initial capacity
+    List<byte[]> payloads = Lists.newArrayListWithCapacity(Math.min(count, 64));
+    for (int i = 0; i < count; i++) {
+      int length = dataInputStream.readInt();
+      if (length < 0 || length > MAXIMUM_RESPONSE_LENGTH) {
+        throw new IOException("Malformed batch entry length: " + length);
+      }
+      byte[] payload = new byte[length];
+      dataInputStream.readFully(payload);
+      payloads.add(payload);
+    }
+
+    return payloads;
+  }
+
+  /**
+   * Perform a post of the specified bytes to the specified URL
+   *
+   * @param url     The URL to post to
+   * @param payload The bytes to post
+   *
+   * @return The response body
+   */
+  private byte[] post(URL url, byte[] payload) throws IOException {
+
+    log.debug("Attempting to post {} bytes to URL {}", payload.length, url);
+
+    URLConnection connection = url.openConnection();
+
+    connection.setConnectTimeout(connectTimeoutMillis);
+    connection.setReadTimeout(readTimeoutMillis);
+    // Let the server know that we want input and output
+    connection.setDoInput(true);
+    connection.setDoOutput(true);
+    // No caching, we want the real thing
+    connection.setUseCaches(false);
+    connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+    connection.setRequestProperty("Connection", "keep-alive");
+
+    if (connection instanceof HttpURLConnection) {
+      // Not streaming mode so the headers and the (small) body leave in one write rather than tripping Nagle
+      ((HttpURLConnection) connection).setRequestMethod("POST");
+    }
+
+    try (OutputStream postOutputStream = new BufferedOutputStream(connection.getOutputStream())) {
+      postOutputStream.write(payload);
+    }
+
+    if (connection instanceof HttpURLConnection) {
+      HttpURLConnection httpConnection = (HttpURLConnection) connection;
+      int responseCode = httpConnection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        // Drain the error body so the connection can still be reused
+        InputStream errorStream = httpConnection.getErrorStream();
+        if (errorStream != null) {
+          try (InputStream drained = errorStream) {
+            ByteStreams.copy(drained, ByteStreams.nullOutputStream());
+          }
+        }
+        throw new IOException("Matcher returned HTTP " + responseCode + " from " + url);
+      }
+    }
+
+    // Read the whole body in bulk (closing it returns the connection to the keep-alive pool)
+    try (InputStream responseInputStream = new BufferedInputStream(connection.getInputStream())) {
+      return readBody(responseInputStream, connection.getContentLength());
+    }
+
+  }
+
+  /**
+   * @param inputStream   The response body
+   * @param contentLength The declared length (-1 if not known)
+   *
+   * @return The response body
+   */
+  private static byte[] readBody(InputStream inputStream, int contentLength) throws IOException {
+
+    if (contentLength > MAXIMUM_RESPONSE_LENGTH) {
+      throw new IOException("Response of " + contentLength + " bytes is too large");
+    }
+
+    if (contentLength < 0) {
+      // Chunked so read to the end
+      byte[] body = ByteStreams.toByteArray(ByteStreams.limit(inputStream, MAXIMUM_RESPONSE_LENGTH + 1));
+      if (body.length > MAXIMUM_RESPONSE_LENGTH) {
+        throw new IOException("Response is too large");
+      }
+      return body;
+    }
+
+    byte[] body = new byte[contentLength];
+    try {
+      ByteStreams.readFully(inputStream, body);
+    } catch (EOFException e) {
+      throw new IOException("Response is shorter than its Content-Length of " + contentLength, e);
+    }
+
+    return body;
+  }
+
+}
@@ -0,0 +1,82 @@
+package org.multibit.hd.brit.crypto;
+
+import com.google.common.io.Files;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PGPSecretKeyCacheTest {
+
+  private File secretKeyringFile;
+
+  private long encryptionKeyID;
+
+  @Before
+  public void setUp() throws Exception {
+
+    // Work on a copy so the keyring can be "changed"
+    secretKeyringFile = new File(Files.createTempDir(), "secring.gpg");
+    Files.copy(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE), secretKeyringFile);
+
+    try (FileInputStream publicKeyInputStream = new FileInputStream(PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      encryptionKeyID = PGPUtils.readPublicKey(publicKeyInputStream).getKeyID();
+    }
+
+  }
+
+  @Test
+  public void testUnlockedKeyIsCached() throws Exception {
+
+    PGPSecretKeyCache secretKeyCache = new PGPSecretKeyCache(secretKeyringFile, PGPUtilsTest.TEST_DATA_PASSWORD, 0);
+
+    PGPPrivateKey privateKey = secretKeyCache.findPrivateKey(encryptionKeyID);
+    assertThat(privateKey).isNotNull();
+    assertThat(privateKey.getKeyID()).isEqualTo(encryptionKeyID);
+
+    // Unchanged file so the same unlocked key is returned
+    assertThat(secretKeyCache.findPrivateKey(encryptionKeyID)).isSameAs(privateKey);
+
+    // Unknown key IDs are not an error
+    assertThat(secretKeyCache.findPrivateKey(encryptionKeyID + 1)).isNull();
+
+  }
+
+  @Test
+  public void testReloadOnFileChange() throws Exception {
+
+    PGPSecretKeyCache secretKeyCache = new PGPSecretKeyCache(secretKeyringFile, PGPUtilsTest.TEST_DATA_PASSWORD, 0);
+
+    PGPPrivateKey privateKey = secretKeyCache.findPrivateKey(encryptionKeyID);
+
+    // Replace the keyring (same content, new modification time)
+    assertThat(secretKeyringFile.setLastModified(secretKeyringFile.lastModified() - 10_000)).isTrue();
+
+    PGPPrivateKey reloadedPrivateKey = secretKeyCache.findPrivateKey(encryptionKeyID);
+    assertThat(reloadedPrivateKey).isNotNull();
+    assertThat(reloadedPrivateKey).isNotSameAs(privateKey);
+
+  }
+
+  @Test
+  public void testNoReloadWithinCheckInterval() throws Exception {
+
+    PGPSecretKeyCache secretKeyCache = new PGPSecretKeyCache(secretKeyringFile, PGPUtilsTest.TEST_DATA_PASSWORD, 60_000);
+
+    PGPPrivateKey privateKey = secretKeyCache.findPrivateKey(encryptionKeyID);
+
+    assertThat(secretKeyringFile.setLastModified(secretKeyringFile.lastModified() - 10_000)).isTrue();
+
+    // The change is not seen until the interval has passed or a reload is requested
+    assertThat(secretKeyCache.findPrivateKey(encryptionKeyID)).isSameAs(privateKey);
+
+    secretKeyCache.reload();
+    assertThat(secretKeyCache.findPrivateKey(encryptionKeyID)).isNotSameAs(privateKey);
+
+  }
+
+}
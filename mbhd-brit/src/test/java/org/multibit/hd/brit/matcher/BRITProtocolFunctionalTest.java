@@ -0,0 +1,277 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.dto.PayerRequest;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark of each stage of the BRIT Payer/Matcher exchange and the full round trip against an in-memory
+ * MatcherStore, for Matcher capacity planning</p>
+ * <p>Each stage is run over the same number of operations for every combination of store size (wallet links and
+ * Bitcoin addresses already held) and request threads. Override the defaults with system properties:</p>
+ * <ul>
+ * <li><code>brit.benchmark.storeSizes</code>: comma separated store sizes (default 1000,100000)</li>
+ * <li><code>brit.benchmark.threads</code>: comma separated thread counts (default 1, 2, 4 ... up to twice the cores)</li>
+ * <li><code>brit.benchmark.operations</code>: operations per stage (default 200)</li>
+ * </ul>
+ */
+public class BRITProtocolFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(BRITProtocolFunctionalTest.class);
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private PGPPublicKey matcherPGPPublicKey;
+
+  @Test
+  public void testStagesByStoreSizeAndThreads() throws Exception {
+
+    File matcherPublicKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE);
+    try (FileInputStream matcherPublicKeyInputStream = new FileInputStream(matcherPublicKeyFile)) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+    List<Integer> storeSizes = integers("brit.benchmark.storeSizes", "1000,100000");
+    List<Integer> threadCounts = integers("brit.benchmark.threads", defaultThreadCounts());
+    int operations = Integer.getInteger("brit.benchmark.operations", 200);
+
+    // Warm up so the first measurements do not include class loading and JIT compilation
+    runStages(1_000, 1, Math.max(operations / 4, 10), false);
+
+    log.info(String.format("%10s %8s %-24s %10s %12s", "storeSize", "threads", "stage", "ops/s", "mean us/op"));
+    for (int storeSize : storeSizes) {
+      for (int threads : threadCounts) {
+        runStages(storeSize, threads, operations, true);
+      }
+    }
+
+  }
+
+  /**
+   * @param storeSize  The number of wallet links and Bitcoin addresses already in the store
+   * @param threads    The number of request threads
+   * @param operations The number of operations per stage
+   * @param report     True if the results should be logged
+   */
+  private void runStages(int storeSize, int threads, int operations, boolean report) throws Exception {
+
+    final Matcher matcher = newMatcher(storeSize);
+
+    // Each stage takes its inputs from the outputs of the stage before
+    final Payer[] payers = new Payer[operations];
+    final PayerRequest[] payerRequests = new PayerRequest[operations];
+    final EncryptedPayerRequest[] encryptedPayerRequests = new EncryptedPayerRequest[operations];
+    final PayerRequest[] decryptedPayerRequests = new PayerRequest[operations];
+    final MatcherResponse[] matcherResponses = new MatcherResponse[operations];
+    final EncryptedMatcherResponse[] encryptedMatcherResponses = new EncryptedMatcherResponse[operations];
+
+    for (int i = 0; i < operations; i++) {
+      payers[i] = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+      payerRequests[i] = newPayerRequest(payers[i]);
+    }
+
+    measure(report, storeSize, threads, "payer.encryptRequest", operations, new Stage() {
+      @Override
+      public void run(int i) throws Exception {
+        encryptedPayerRequests[i] = payers[i].encryptPayerRequest(payerRequests[i]);
+      }
+    });
+
+    measure(report, storeSize, threads, "matcher.decryptRequest", operations, new Stage() {
+      @Override
+      public void run(int i) throws Exception {
+        decryptedPayerRequests[i] = matcher.decryptPayerRequest(encryptedPayerRequests[i]);
+      }
+    });
+
+    measure(report, storeSize, threads, "matcher.process", operations, new Stage() {
+      @Override
+      public void run(int i) throws Exception {
+        matcherResponses[i] = matcher.process(decryptedPayerRequests[i]);
+      }
+    });
+
+    measure(report, storeSize, threads, "matcher.encryptResponse", operations, new Stage() {
+      @Override
+      public void run(int i) throws Exception {
+        encryptedMatcherResponses[i] = matcher.encryptMatcherResponse(decryptedPayerRequests[i], matcherResponses[i]);
+      }
+    });
+
+    measure(report, storeSize, threads, "payer.decryptResponse", operations, new Stage() {
+      @Override
+      public void run(int i) throws Exception {
+        assertThat(payers[i].decryptMatcherResponse(encryptedMatcherResponses[i])).isEqualTo(matcherResponses[i]);
+      }
+    });
+
+    measure(report, storeSize, threads, "roundTrip", operations, new Stage() {
+      @Override
+      public void run(int i) throws Exception {
+        // A new wallet each time so every request is a first encounter
+        Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+        EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(newPayerRequest(payer));
+        MatcherResponse matcherResponse = payer.decryptMatcherResponse(matcher.handle(encryptedPayerRequest));
+        assertThat(matcherResponse.getBitcoinAddresses()).isNotEmpty();
+      }
+    });
+
+  }
+
+  /**
+   * @param storeSize The number of wallet links and Bitcoin addresses to preload
+   *
+   * @return A Matcher over an in-memory store of that size
+   */
+  private Matcher newMatcher(int storeSize) throws Exception {
+
+    MatcherStore matcherStore = new InMemoryMatcherStore();
+
+    // Random hash160s are valid addresses and far quicker to make than keys
+    Set<Address> allAddresses = Sets.newHashSetWithExpectedSize(storeSize);
+    Date now = new Date();
+    for (int i = 0; i < storeSize; i++) {
+      allAddresses.add(new Address(MainNetParams.get(), newRandomBytes(20)));
+      matcherStore.storeWalletToEncounterDateLink(new WalletToEncounterDateLink(
+        new BRITWalletId(Utils.HEX.encode(newRandomBytes(20))),
+        Optional.of(now),
+        Optional.<Date>absent()
+      ));
+    }
+    matcherStore.storeAllBitcoinAddresses(allAddresses);
+
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+
+    return Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD), matcherStore);
+  }
+
+  private PayerRequest newPayerRequest(Payer payer) {
+    return payer.newPayerRequest(
+      new BRITWalletId(Utils.HEX.encode(newRandomBytes(20))),
+      newRandomBytes(AESUtils.BLOCK_LENGTH),
+      Optional.of(new Date())
+    );
+  }
+
+  /**
+   * Run a stage over all the operations with the given number of threads and log the throughput and mean latency
+   */
+  private void measure(boolean report, int storeSize, int threads, String name, final int operations, final Stage stage) throws Exception {
+
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            int i;
+            while ((i = next.getAndIncrement()) < operations) {
+              stage.run(i);
+            }
+          } catch (Exception e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    executorService.shutdown();
+    assertThat(executorService.awaitTermination(30, TimeUnit.MINUTES)).isTrue();
+    long elapsed = System.nanoTime() - start;
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+
+    if (report) {
+      long opsPerSecond = operations * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1);
+      // Mean time each thread spends per operation
+      long meanMicros = TimeUnit.NANOSECONDS.toMicros(elapsed * threads / operations);
+      log.info(String.format("%10d %8d %-24s %10d %12d", storeSize, threads, name, opsPerSecond, meanMicros));
+    }
+
+  }
+
+  private byte[] newRandomBytes(int length) {
+
+    byte[] bytes = new byte[length];
+    secureRandom.nextBytes(bytes);
+
+    return bytes;
+  }
+
+  private static String defaultThreadCounts() {
+
+    List<String> threadCounts = Lists.newArrayList();
+    int processors = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+      threadCounts.add(String.valueOf(threads));
+    }
+
+    return Joiner.on(',').join(threadCounts);
+  }
+
+  private static List<Integer> integers(String property, String defaultValue) {
+
+    List<Integer> values = Lists.newArrayList();
+    for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(System.getProperty(property, defaultValue))) {
+      values.add(Integer.parseInt(value));
+    }
+
+    return values;
+  }
+
+  /**
+   * <p>One operation of a protocol stage</p>
+   */
+  private interface Stage {
+
+    /**
+     * @param i The operation index (selects the prepared inputs)
+     */
+    void run(int i) throws Exception;
+  }
+}
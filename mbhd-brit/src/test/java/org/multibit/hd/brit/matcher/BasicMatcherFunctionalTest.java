@@ -0,0 +1,139 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Load test showing Matcher requests per second as the number of request threads grows</p>
+ */
+public class BasicMatcherFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(BasicMatcherFunctionalTest.class);
+
+  private static final int REQUEST_COUNT = 500;
+
+  private static final int ADDRESS_COUNT = 1_000;
+
+  @Test
+  public void testThroughputScalesWithThreads() throws Exception {
+
+    SecureRandom secureRandom = new SecureRandom();
+
+    // Encrypting is the Payer's cost so prepare every request up front
+    File matcherPublicKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE);
+    PGPPublicKey matcherPGPPublicKey;
+    try (FileInputStream matcherPublicKeyInputStream = new FileInputStream(matcherPublicKeyFile)) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+
+    List<EncryptedPayerRequest> encryptedPayerRequests = Lists.newArrayList();
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      byte[] walletIdBytes = new byte[20];
+      byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+      secureRandom.nextBytes(walletIdBytes);
+      secureRandom.nextBytes(sessionKey);
+      BRITWalletId britWalletId = new BRITWalletId(Utils.HEX.encode(walletIdBytes));
+      encryptedPayerRequests.add(payer.encryptPayerRequest(payer.newPayerRequest(britWalletId, sessionKey, Optional.of(new Date()))));
+    }
+
+    Set<Address> allAddresses = Sets.newHashSet();
+    for (int i = 0; i < ADDRESS_COUNT; i++) {
+      allAddresses.add(new ECKey().toAddress(MainNetParams.get()));
+    }
+
+    // Warm up
+    run(1, encryptedPayerRequests.subList(0, REQUEST_COUNT / 10), allAddresses);
+
+    // Go past the core count to show where throughput levels off
+    int processors = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+      long requestsPerSecond = run(threads, encryptedPayerRequests, allAddresses);
+      log.info("{} thread(s): {} requests/s", threads, requestsPerSecond);
+    }
+
+  }
+
+  /**
+   * @param threads                The number of request threads
+   * @param encryptedPayerRequests The requests to handle
+   * @param allAddresses           The Bitcoin addresses to draw from
+   *
+   * @return Requests per second
+   */
+  private long run(int threads, final List<EncryptedPayerRequest> encryptedPayerRequests, Set<Address> allAddresses) throws Exception {
+
+    // A fresh store so every request is a first encounter
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(Files.createTempDir());
+    matcherStore.storeAllBitcoinAddresses(allAddresses);
+    final Matcher matcher = Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD), matcherStore);
+
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger handled = new AtomicInteger();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    for (int i = 0; i < threads; i++) {
+      executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            int index;
+            while ((index = next.getAndIncrement()) < encryptedPayerRequests.size()) {
+              if (matcher.handle(encryptedPayerRequests.get(index)) != null) {
+                handled.incrementAndGet();
+              }
+            }
+          } catch (Exception e) {
+            log.error("Request failed", e);
+          }
+        }
+      });
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    executorService.shutdown();
+    assertThat(executorService.awaitTermination(10, TimeUnit.MINUTES)).isTrue();
+    long elapsed = System.nanoTime() - start;
+
+    assertThat(handled.get()).isEqualTo(encryptedPayerRequests.size());
+
+    return encryptedPayerRequests.size() * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1);
+  }
+
+}
@@ -16,6 +16,7 @@ package org.multibit.hd.brit.matcher;
  * limitations under the License.
  */
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -171,4 +172,48 @@ public class BasicMatcherStoreTest {
     assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId2)).isEqualTo(walletToEncounterLink2);
 
   }
+
+  @Test
+  public void testMigrateTextLinksToIndex() throws Exception {
+
+    // An existing store from before the index only has the text journal
+    File legacyStoreDirectory = Files.createTempDir();
+    BRITWalletId britWalletId1 = new BRITWalletId("4bbd8a749179d65a5f1b0859684f53ba5b761714");
+    BRITWalletId britWalletId2 = new BRITWalletId("7e5218ea0428cbd44de74567fd8af557d8715545");
+    WalletToEncounterDateLink link1 = new WalletToEncounterDateLink(britWalletId1, Optional.of(new Date(1400000000000L)), Optional.of(new Date(1300000000000L)));
+    WalletToEncounterDateLink link2 = new WalletToEncounterDateLink(britWalletId2, Optional.of(new Date(1400000001000L)), Optional.<Date>absent());
+    File linksFile = new File(legacyStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    Files.write(link1.serialise() + "\n" + link2.serialise() + "\n", linksFile, Charsets.UTF_8);
+
+    MatcherStore migratedMatcherStore = MatcherStores.newBasicMatcherStore(legacyStoreDirectory);
+
+    assertThat(new File(legacyStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_INDEX).exists()).isTrue();
+    assertThat(migratedMatcherStore.lookupWalletToEncounterDateLink(britWalletId1)).isEqualTo(link1);
+    assertThat(migratedMatcherStore.lookupWalletToEncounterDateLink(britWalletId2)).isEqualTo(link2);
+
+    // Links appended to the journal behind the index's back (e.g. a crash before the index was updated) are picked up
+    BRITWalletId britWalletId3 = new BRITWalletId("b63b540111bb43710ca1240d14286ee2f551d9e0");
+    WalletToEncounterDateLink link3 = new WalletToEncounterDateLink(britWalletId3, Optional.of(new Date(1400000002000L)), Optional.<Date>absent());
+    Files.append(link3.serialise() + "\n", linksFile, Charsets.UTF_8);
+
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(legacyStoreDirectory);
+    assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId1)).isEqualTo(link1);
+    assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId3)).isEqualTo(link3);
+
+  }
+
+  @Test
+  public void testStoreWalletToEncounterDateLinkIfAbsent() throws Exception {
+
+    BRITWalletId britWalletId = new BRITWalletId("4bbd8a749179d65a5f1b0859684f53ba5b761714");
+    WalletToEncounterDateLink first = new WalletToEncounterDateLink(britWalletId, Optional.of(new Date(1400000000000L)), Optional.<Date>absent());
+    WalletToEncounterDateLink second = new WalletToEncounterDateLink(britWalletId, Optional.of(new Date(1500000000000L)), Optional.<Date>absent());
+
+    assertThat(matcherStore.storeWalletToEncounterDateLinkIfAbsent(first)).isNull();
+    assertThat(matcherStore.storeWalletToEncounterDateLinkIfAbsent(second)).isEqualTo(first);
+
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId)).isEqualTo(first);
+
+  }
 }
@@ -22,6 +22,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
 import org.bitcoinj.params.MainNetParams;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.junit.Before;
@@ -45,6 +46,7 @@ import java.security.SecureRandom;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.*;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -123,7 +125,7 @@ public class BasicMatcherTest {
     assertThat(matcherResponse).isNotNull();
 
     // Encrypt the MatcherResponse with the AES session key
-    EncryptedMatcherResponse encryptedMatcherResponse = matcher.encryptMatcherResponse(matcherResponse);
+    EncryptedMatcherResponse encryptedMatcherResponse = matcher.encryptMatcherResponse(matcherPayerRequest, matcherResponse);
     assertThat(encryptedMatcherResponse).isNotNull();
 
     // In real life the encryptedMatcherResponse is transported from the Matcher to the Payer here
@@ -145,14 +147,70 @@ public class BasicMatcherTest {
     assertThat(replayDate).isNotNull();
   }
 
+  @Test
+  public void testConcurrentHandle() throws Exception {
+
+    final int requestCount = 8;
+
+    File matcherStoreDirectory = Files.createTempDir();
+    final Matcher matcher = createTestMatcher(matcherStoreDirectory);
+
+    // Every request comes from the same new wallet so all of them race to record the first encounter
+    BRITWalletId britWalletId = new BRITWalletId(Utils.HEX.encode(newRandomBytes(20)));
+
+    final List<Payer> payers = Lists.newArrayList();
+    final List<EncryptedPayerRequest> encryptedPayerRequests = Lists.newArrayList();
+    for (int i = 0; i < requestCount; i++) {
+      Payer payer = createTestPayer();
+      PayerRequest payerRequest = payer.newPayerRequest(britWalletId, newRandomBytes(AESUtils.BLOCK_LENGTH), Optional.<Date>absent());
+      payers.add(payer);
+      encryptedPayerRequests.add(payer.encryptPayerRequest(payerRequest));
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(requestCount);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    List<Future<EncryptedMatcherResponse>> futures = Lists.newArrayList();
+    for (final EncryptedPayerRequest encryptedPayerRequest : encryptedPayerRequests) {
+      futures.add(executorService.submit(new Callable<EncryptedMatcherResponse>() {
+        @Override
+        public EncryptedMatcherResponse call() throws Exception {
+          startLatch.await();
+          return matcher.handle(encryptedPayerRequest);
+        }
+      }));
+    }
+    startLatch.countDown();
+
+    // Each Payer can decrypt its own response and all see the same replay date and addresses
+    MatcherResponse firstMatcherResponse = null;
+    for (int i = 0; i < requestCount; i++) {
+      MatcherResponse matcherResponse = payers.get(i).decryptMatcherResponse(futures.get(i).get(30, TimeUnit.SECONDS));
+      if (firstMatcherResponse == null) {
+        firstMatcherResponse = matcherResponse;
+      }
+      assertThat(matcherResponse.getBitcoinAddresses()).isEqualTo(firstMatcherResponse.getBitcoinAddresses());
+      assertThat(matcherResponse.getReplayDate()).isEqualTo(firstMatcherResponse.getReplayDate());
+    }
+    executorService.shutdown();
+
+    // Exactly one encounter is persisted
+    File linksFile = new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    assertThat(Files.readLines(linksFile, Charsets.UTF_8)).hasSize(1);
+
+  }
+
   private Matcher createTestMatcher() throws Exception {
 
+    // Create a random temporary directory for the Matcher store to use
+    return createTestMatcher(Files.createTempDir());
+  }
+
+  private Matcher createTestMatcher(File matcherStoreDirectory) throws Exception {
+
     // Find the example Matcher PGP secret key ring file
     File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
     MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD);
 
-    // Create a random temporary directory for the Matcher store to use
-    File matcherStoreDirectory = Files.createTempDir();
     MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
 
     Matcher matcher = Matchers.newBasicMatcher(matcherConfig, matcherStore);
@@ -170,6 +228,14 @@ public class BasicMatcherTest {
     return matcher;
   }
 
+  private byte[] newRandomBytes(int length) {
+
+    byte[] bytes = new byte[length];
+    secureRandom.nextBytes(bytes);
+
+    return bytes;
+  }
+
   private Payer createTestPayer() throws Exception {
     // Load the example Matcher PGP public key
     File matcherPublicKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE);
@@ -0,0 +1,232 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.exceptions.MatcherStoreException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class GroupCommitMatcherStoreTest {
+
+  private File matcherStoreDirectory;
+
+  private GroupCommitMatcherStore matcherStore;
+
+  @Before
+  public void setUp() throws Exception {
+
+    matcherStoreDirectory = Files.createTempDir();
+
+    // Hold links for long enough that concurrent requests share a commit
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory, 64, 20);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    matcherStore.close();
+  }
+
+  @Test
+  public void testStoreAndLookupWalletToEncounterDateLinks() throws Exception {
+
+    WalletToEncounterDateLink link1 = newLink(1, Optional.of(new Date(1300000000000L)));
+    WalletToEncounterDateLink link2 = newLink(2, Optional.<Date>absent());
+
+    matcherStore.storeWalletToEncounterDateLink(link1);
+    matcherStore.storeWalletToEncounterDateLink(link2);
+
+    // Durable on return so visible straight away
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1);
+
+    // A later link for the same wallet replaces the earlier one
+    WalletToEncounterDateLink link1Again = new WalletToEncounterDateLink(link1.getBritWalletId(), Optional.of(new Date(1500000000000L)), Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link1Again);
+
+    // Bounce the MatcherStore to check everything is being persisted
+    matcherStore.close();
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory);
+
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1Again);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(newLink(3, Optional.<Date>absent()).getBritWalletId())).isNull();
+
+  }
+
+  @Test
+  public void testConcurrentFirstEncountersShareCommits() throws Exception {
+
+    final int walletCount = 200;
+    final CountDownLatch startLatch = new CountDownLatch(1);
+
+    ExecutorService executorService = Executors.newFixedThreadPool(32);
+    List<Future<WalletToEncounterDateLink>> results = Lists.newArrayList();
+    for (int i = 0; i < walletCount; i++) {
+      // Every wallet is asked about twice to race the first encounter
+      for (int j = 0; j < 2; j++) {
+        final WalletToEncounterDateLink link = newLink(i, Optional.of(new Date(1400000000000L + j)));
+        results.add(executorService.submit(new Callable<WalletToEncounterDateLink>() {
+          @Override
+          public WalletToEncounterDateLink call() throws Exception {
+            startLatch.await();
+            return matcherStore.storeWalletToEncounterDateLinkIfAbsent(link);
+          }
+        }));
+      }
+    }
+
+    startLatch.countDown();
+
+    int stored = 0;
+    for (Future<WalletToEncounterDateLink> result : results) {
+      if (result.get() == null) {
+        stored++;
+      }
+    }
+    executorService.shutdown();
+
+    // Exactly one link per wallet was stored
+    assertThat(stored).isEqualTo(walletCount);
+
+    matcherStore.close();
+    File journalFile = new File(matcherStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL);
+    assertThat(journalFile.length()).isEqualTo(EncounterJournal.HEADER_LENGTH + walletCount * EncounterJournal.RECORD_LENGTH);
+
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory);
+    for (int i = 0; i < walletCount; i++) {
+      assertThat(matcherStore.lookupWalletToEncounterDateLink(newLink(i, Optional.<Date>absent()).getBritWalletId())).isNotNull();
+    }
+
+  }
+
+  @Test
+  public void testFailedCommitIsRolledBack() throws Exception {
+
+    WalletToEncounterDateLink link1 = newLink(1, Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link1);
+
+    File journalFile = new File(matcherStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL);
+    long journalLength = journalFile.length();
+
+    // A wallet id of the wrong length cannot be encoded
+    WalletToEncounterDateLink badLink = new WalletToEncounterDateLink(new BRITWalletId("0102030405"), Optional.of(new Date(1400000000000L)), Optional.<Date>absent());
+    try {
+      matcherStore.storeWalletToEncounterDateLink(badLink);
+      fail("Expected MatcherStoreException");
+    } catch (MatcherStoreException e) {
+      // Expected
+    }
+    assertThat(journalFile.length()).isEqualTo(journalLength);
+
+    // The commit thread survives and later links are stored
+    WalletToEncounterDateLink link2 = newLink(2, Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link2);
+    matcherStore.close();
+
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link1.getBritWalletId())).isEqualTo(link1);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+
+  }
+
+  @Test
+  public void testJournalPastTheIndexIsReplayed() throws Exception {
+
+    WalletToEncounterDateLink link = newLink(1, Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link);
+    matcherStore.close();
+
+    // A crash after forcing the journal but before the index leaves records the index does not cover
+    WalletToEncounterDateLink link2 = newLink(2, Optional.<Date>absent());
+    File journalFile = new File(matcherStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL);
+    try (EncounterJournal journal = new EncounterJournal(journalFile)) {
+      journal.write(Lists.newArrayList(link2));
+      journal.force();
+    }
+
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory);
+
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+
+  }
+
+  @Test
+  public void testTornRecordIsDropped() throws Exception {
+
+    WalletToEncounterDateLink link = newLink(1, Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link);
+    matcherStore.close();
+
+    // A crash part way through a write leaves part of a record
+    File journalFile = new File(matcherStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL);
+    try (FileOutputStream outputStream = new FileOutputStream(journalFile, true)) {
+      outputStream.write(new byte[EncounterJournal.RECORD_LENGTH / 2]);
+    }
+    // Lose the index too so the whole journal is replayed
+    assertThat(new File(matcherStoreDirectory, GroupCommitMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_JOURNAL_INDEX).delete()).isTrue();
+
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory);
+
+    assertThat(journalFile.length()).isEqualTo(EncounterJournal.HEADER_LENGTH + EncounterJournal.RECORD_LENGTH);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+
+    // New links follow the last complete record
+    WalletToEncounterDateLink link2 = newLink(2, Optional.<Date>absent());
+    matcherStore.storeWalletToEncounterDateLink(link2);
+    matcherStore.close();
+
+    matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory);
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(link2.getBritWalletId())).isEqualTo(link2);
+
+  }
+
+  @Test
+  public void testStoreAndGetAllBitcoinAddresses() throws Exception {
+
+    Set<Address> allBitcoinAddresses = Sets.newHashSet(
+      new Address(MainNetParams.get(), "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty"),
+      new Address(MainNetParams.get(), "14Ru32Lb4kdLGfAMz1VAtxh3UFku62HaNH")
+    );
+    matcherStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    // The address layout is shared with BasicMatcherStore
+    assertThat(MatcherStores.newBasicMatcherStore(matcherStoreDirectory).getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+
+  }
+
+  /**
+   * @param walletNumber The number that identifies the wallet
+   */
+  private WalletToEncounterDateLink newLink(int walletNumber, Optional<Date> firstTransactionDate) {
+
+    byte[] walletId = new byte[20];
+    Utils.uint32ToByteArrayBE(walletNumber * 2654435761L, walletId, 0);
+    walletId[19] = (byte) walletNumber;
+
+    return new WalletToEncounterDateLink(new BRITWalletId(Utils.HEX.encode(walletId)), Optional.of(new Date(1400000000000L)), firstTransactionDate);
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>MatcherStore to provide the following to benchmarks:</p>
+ * <ul>
+ * <li>The MatcherStore contract with no file system cost so only the protocol stages are measured</li>
+ * </ul>
+ */
+public class InMemoryMatcherStore implements MatcherStore {
+
+  private final ConcurrentMap<BRITWalletId, WalletToEncounterDateLink> links = Maps.newConcurrentMap();
+
+  private final ConcurrentMap<Date, Set<Address>> bitcoinAddressesByDate = Maps.newConcurrentMap();
+
+  private volatile Set<Address> allBitcoinAddresses = null;
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+    links.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+  }
+
+  @Override
+  public WalletToEncounterDateLink storeWalletToEncounterDateLinkIfAbsent(WalletToEncounterDateLink walletToEncounterDateLink) {
+    return links.putIfAbsent(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+    return links.get(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return bitcoinAddressesByDate.get(convertToMidnight(encounterDate));
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    bitcoinAddressesByDate.put(convertToMidnight(encounterDate), PackedAddressSet.copyOf(MainNetParams.get(), bitcoinAddresses));
+  }
+
+  @Override
+  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+    this.allBitcoinAddresses = PackedAddressSet.copyOf(MainNetParams.get(), allBitcoinAddresses);
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    return allBitcoinAddresses;
+  }
+
+  private Date convertToMidnight(Date inputDate) {
+    return (new DateTime(inputDate, DateTimeZone.UTC)).toDateMidnight().toDate();
+  }
+}
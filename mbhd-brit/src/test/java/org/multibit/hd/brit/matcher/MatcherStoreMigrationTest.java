@@ -0,0 +1,45 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+
+import java.io.File;
+import java.util.Date;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MatcherStoreMigrationTest {
+
+  @Test
+  public void testMigrateTextLinks() throws Exception {
+
+    File matcherStoreDirectory = Files.createTempDir();
+
+    BRITWalletId britWalletId1 = new BRITWalletId("4bbd8a749179d65a5f1b0859684f53ba5b761714");
+    BRITWalletId britWalletId2 = new BRITWalletId("7e5218ea0428cbd44de74567fd8af557d8715545");
+    WalletToEncounterDateLink link1 = new WalletToEncounterDateLink(britWalletId1, Optional.of(new Date(1400000000000L)), Optional.of(new Date(1300000000000L)));
+    WalletToEncounterDateLink link2 = new WalletToEncounterDateLink(britWalletId2, Optional.of(new Date(1400000001000L)), Optional.<Date>absent());
+    WalletToEncounterDateLink link1Again = new WalletToEncounterDateLink(britWalletId1, Optional.of(new Date(1400000002000L)), Optional.<Date>absent());
+
+    // A BasicMatcherStore directory has a text journal of links (blank lines are ignored)
+    File linksFile = new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    Files.write(link1.serialise() + "\n" + link2.serialise() + "\n\n" + link1Again.serialise() + "\n", linksFile, Charsets.UTF_8);
+
+    assertThat(MatcherStoreMigration.migrateTextLinks(matcherStoreDirectory)).isEqualTo(3);
+
+    try (GroupCommitMatcherStore matcherStore = MatcherStores.newGroupCommitMatcherStore(matcherStoreDirectory)) {
+      // The last link for a wallet wins as it does in the text journal
+      assertThat(matcherStore.lookupWalletToEncounterDateLink(britWalletId1)).isEqualTo(link1Again);
+      assertThat(matcherStore.lookupWalletToEncounterDateLink(britWalletId2)).isEqualTo(link2);
+    }
+
+    // The text journal is left for a roll back
+    assertThat(linksFile.exists()).isTrue();
+
+  }
+
+}
@@ -0,0 +1,116 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.WrongNetworkException;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.params.TestNet3Params;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PackedAddressSetTest {
+
+  @Test
+  public void testCopyOf() throws Exception {
+
+    Set<Address> addresses = newAddresses(1_000);
+
+    PackedAddressSet packedAddressSet = PackedAddressSet.copyOf(MainNetParams.get(), addresses);
+
+    assertThat(packedAddressSet.size()).isEqualTo(addresses.size());
+    assertThat(packedAddressSet.equals(addresses)).isTrue();
+    assertThat(Sets.newHashSet(packedAddressSet)).isEqualTo(addresses);
+    for (Address address : addresses) {
+      assertThat(packedAddressSet.contains(address)).isTrue();
+    }
+    assertThat(packedAddressSet.contains(new ECKey().toAddress(MainNetParams.get()))).isFalse();
+
+    // Already packed so no copy is made
+    assertThat(PackedAddressSet.copyOf(MainNetParams.get(), packedAddressSet)).isSameAs(packedAddressSet);
+
+  }
+
+  @Test
+  public void testDuplicatesAreIgnored() throws Exception {
+
+    Address address = new ECKey().toAddress(MainNetParams.get());
+
+    PackedAddressSet packedAddressSet = PackedAddressSet.builder(MainNetParams.get(), 1)
+      .add(address)
+      .add(address.toString())
+      .add(new Address(MainNetParams.get(), address.toString()))
+      .build();
+
+    assertThat(packedAddressSet.size()).isEqualTo(1);
+    assertThat(packedAddressSet.get(0)).isEqualTo(address);
+
+  }
+
+  @Test
+  public void testAddBase58() throws Exception {
+
+    // A pay to script hash address has a different version byte
+    Address p2shAddress = new Address(MainNetParams.get(), "35b9vsyH1KoFT5a5KtrKusaCcPLkiSo1tU");
+    Address address = new ECKey().toAddress(MainNetParams.get());
+
+    PackedAddressSet packedAddressSet = PackedAddressSet.builder(MainNetParams.get(), 0)
+      .add(p2shAddress.toString())
+      .add(address.toString())
+      .build();
+
+    assertThat(packedAddressSet).containsOnly(p2shAddress, address);
+    assertThat(packedAddressSet.get(0).isP2SHAddress()).isTrue();
+
+  }
+
+  @Test(expected = WrongNetworkException.class)
+  public void testAddBase58WrongNetwork() throws Exception {
+
+    PackedAddressSet.builder(MainNetParams.get(), 1).add(new ECKey().toAddress(TestNet3Params.get()).toString());
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddWrongNetwork() throws Exception {
+
+    PackedAddressSet.builder(MainNetParams.get(), 1).add(new ECKey().toAddress(TestNet3Params.get()));
+
+  }
+
+  @Test
+  public void testSample() throws Exception {
+
+    SecureRandom secureRandom = new SecureRandom();
+    PackedAddressSet packedAddressSet = PackedAddressSet.copyOf(MainNetParams.get(), newAddresses(200));
+
+    for (int i = 0; i < 20; i++) {
+      PackedAddressSet sample = packedAddressSet.sample(50, secureRandom);
+
+      // Distinct addresses all drawn from the full set
+      assertThat(sample.size()).isEqualTo(50);
+      assertThat(Sets.newHashSet(sample).size()).isEqualTo(50);
+      assertThat(packedAddressSet.containsAll(sample)).isTrue();
+    }
+
+    // Not enough addresses so all are returned
+    assertThat(packedAddressSet.sample(500, secureRandom).equals(packedAddressSet)).isTrue();
+    assertThat(packedAddressSet.sample(0, secureRandom)).isEmpty();
+
+  }
+
+  private Set<Address> newAddresses(int count) {
+
+    Set<Address> addresses = Sets.newHashSet();
+    for (int i = 0; i < count; i++) {
+      addresses.add(new ECKey().toAddress(MainNetParams.get()));
+    }
+
+    return addresses;
+  }
+
+}
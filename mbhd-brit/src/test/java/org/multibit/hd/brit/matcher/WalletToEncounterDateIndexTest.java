@@ -0,0 +1,78 @@
+package org.multibit.hd.brit.matcher;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Utils;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.WalletToEncounterDateLink;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class WalletToEncounterDateIndexTest {
+
+  private File indexFile;
+
+  @Before
+  public void setUp() throws Exception {
+    indexFile = new File(Files.createTempDir(), BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_INDEX);
+  }
+
+  @Test
+  public void testGrowAndReopen() throws Exception {
+
+    WalletToEncounterDateIndex index = new WalletToEncounterDateIndex(indexFile);
+
+    // Enough links to force more than one resize
+    Random random = new Random(42);
+    List<WalletToEncounterDateLink> links = Lists.newArrayList();
+    for (int i = 0; i < 3 * WalletToEncounterDateIndex.INITIAL_CAPACITY; i++) {
+      byte[] walletId = new byte[20];
+      random.nextBytes(walletId);
+      Optional<Date> firstTransactionDate = i % 2 == 0 ? Optional.of(new Date(i)) : Optional.<Date>absent();
+      WalletToEncounterDateLink link = new WalletToEncounterDateLink(new BRITWalletId(Utils.HEX.encode(walletId)), Optional.of(new Date(1_000_000L + i)), firstTransactionDate);
+      links.add(link);
+      index.put(link);
+    }
+    index.setJournalLength(1234);
+
+    assertThat(index.size()).isEqualTo(links.size());
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(index.lookup(link.getBritWalletId())).isEqualTo(link);
+    }
+
+    // Replacing a link does not add one
+    WalletToEncounterDateLink replacement = new WalletToEncounterDateLink(links.get(0).getBritWalletId(), Optional.<Date>absent(), Optional.<Date>absent());
+    index.put(replacement);
+    assertThat(index.size()).isEqualTo(links.size());
+    index.close();
+
+    WalletToEncounterDateIndex reopenedIndex = new WalletToEncounterDateIndex(indexFile);
+    assertThat(reopenedIndex.size()).isEqualTo(links.size());
+    assertThat(reopenedIndex.getJournalLength()).isEqualTo(1234);
+    assertThat(reopenedIndex.lookup(links.get(0).getBritWalletId())).isEqualTo(replacement);
+    assertThat(reopenedIndex.lookup(links.get(links.size() - 1).getBritWalletId())).isEqualTo(links.get(links.size() - 1));
+    assertThat(reopenedIndex.lookup(new BRITWalletId("0000000000000000000000000000000000000000"))).isNull();
+
+  }
+
+  @Test
+  public void testInvalidIndexIsRebuilt() throws Exception {
+
+    Files.write(new byte[100], indexFile);
+
+    WalletToEncounterDateIndex index = new WalletToEncounterDateIndex(indexFile);
+
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.getJournalLength()).isEqualTo(0);
+
+  }
+
+}
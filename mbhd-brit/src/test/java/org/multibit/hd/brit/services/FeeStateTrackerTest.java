@@ -0,0 +1,131 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.PeerAddress;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.bitcoinj.utils.Threading;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Set;
+
+import static org.bitcoinj.core.Coin.parseCoin;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FeeStateTrackerTest {
+
+  private Wallet wallet;
+
+  private Address feeAddress;
+
+  private Address nonFeeAddress;
+
+  private FeeStateTracker feeStateTracker;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(MainNetParams.get());
+
+    feeAddress = new ECKey().toAddress(MainNetParams.get());
+    nonFeeAddress = new ECKey().toAddress(MainNetParams.get());
+
+    Set<Address> feeAddresses = Sets.newHashSet(feeAddress);
+
+    feeStateTracker = new FeeStateTracker(wallet, new TransactionConfidenceSentBySelfProvider(), null, feeAddresses);
+    wallet.addEventListener(feeStateTracker, Threading.SAME_THREAD);
+
+    // Fund the wallet
+    Transaction tx = FakeTxBuilder.createFakeTx(MainNetParams.get(), parseCoin("1.0"), wallet.freshReceiveAddress());
+    tx.getConfidence().setSource(TransactionConfidence.Source.SELF);
+    // Seen by a couple of peers so it can be spent while pending
+    tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{1, 2, 3, 4})));
+    tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{10, 2, 3, 4})));
+    wallet.receivePending(tx, null);
+
+  }
+
+  @Test
+  public void testSendsAreTrackedFromEvents() throws Exception {
+
+    FeeStateTracker.Snapshot snapshot = feeStateTracker.snapshot();
+    assertThat(snapshot.getNumberOfSends()).isEqualTo(0);
+    assertThat(snapshot.getFeePaid()).isEqualTo(Coin.ZERO);
+    assertThat(snapshot.getLastFeePayingSendIndex().isPresent()).isFalse();
+
+    send(parseCoin("0.01"), nonFeeAddress);
+    send(parseCoin("0.002"), feeAddress);
+    send(parseCoin("0.01"), nonFeeAddress);
+
+    snapshot = feeStateTracker.snapshot();
+    assertThat(snapshot.getNumberOfSends()).isEqualTo(3);
+    assertThat(snapshot.getFeePaid()).isEqualTo(parseCoin("0.002"));
+    assertThat(snapshot.getLastFeePayingSendIndex().get()).isEqualTo(1);
+    assertThat(snapshot.getLastFeePayingSendAddress().get()).isEqualTo(feeAddress.toString());
+
+    // Unchanged wallet gives the same answer
+    assertThat(feeStateTracker.snapshot().getNumberOfSends()).isEqualTo(3);
+
+  }
+
+  @Test
+  public void testDeadSendIsRemoved() throws Exception {
+
+    send(parseCoin("0.01"), nonFeeAddress);
+    Transaction feeSend = send(parseCoin("0.002"), feeAddress);
+
+    assertThat(feeStateTracker.snapshot().getLastFeePayingSendIndex().get()).isEqualTo(1);
+
+    // A double spend kills the fee paying send (as the wallet does when it sees the overriding transaction)
+    feeSend.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.DEAD);
+    feeStateTracker.onTransactionConfidenceChanged(wallet, feeSend);
+
+    FeeStateTracker.Snapshot snapshot = feeStateTracker.snapshot();
+    assertThat(snapshot.getNumberOfSends()).isEqualTo(1);
+    assertThat(snapshot.getFeePaid()).isEqualTo(Coin.ZERO);
+    assertThat(snapshot.getLastFeePayingSendIndex().isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testRebuildAfterReorganize() throws Exception {
+
+    send(parseCoin("0.002"), feeAddress);
+    send(parseCoin("0.01"), nonFeeAddress);
+    assertThat(feeStateTracker.snapshot().getNumberOfSends()).isEqualTo(2);
+
+    feeStateTracker.onReorganize(wallet);
+
+    FeeStateTracker.Snapshot snapshot = feeStateTracker.snapshot();
+    assertThat(snapshot.getNumberOfSends()).isEqualTo(2);
+    assertThat(snapshot.getFeePaid()).isEqualTo(parseCoin("0.002"));
+    assertThat(snapshot.getLastFeePayingSendIndex().get()).isEqualTo(0);
+
+  }
+
+  private Transaction send(Coin amount, Address destinationAddress) throws Exception {
+
+    Wallet.SendRequest req = Wallet.SendRequest.to(destinationAddress, amount);
+    req.fee = parseCoin("0.0001");
+    req.ensureMinRequiredFee = false;
+    wallet.completeTx(req);
+
+    req.tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{1, 2, 3, 4})));
+    req.tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{10, 2, 3, 4})));
+    wallet.commitTx(req.tx);
+
+    // Keep the update times distinct so the send order is known
+    Thread.sleep(2);
+
+    return req.tx;
+  }
+
+}
@@ -0,0 +1,195 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.matcher.Matcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Local stand-in for the BRIT server to provide the following to transport tests:</p>
+ * <ul>
+ * <li>Single and batch Matcher endpoints on the loopback interface</li>
+ * <li>A count of the distinct client connections to show keep-alive reuse</li>
+ * <li>Optional added latency and failure responses</li>
+ * </ul>
+ */
+public class MatcherHttpServer implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherHttpServer.class);
+
+  public static final String MATCHER_PATH = "/brit";
+
+  public static final String BATCH_PATH = "/brit/batch";
+
+  private final Matcher matcher;
+
+  private final HttpServer httpServer;
+
+  private final ExecutorService executorService;
+
+  private final Set<InetSocketAddress> clientAddresses = Collections.synchronizedSet(Sets.<InetSocketAddress>newHashSet());
+
+  private final AtomicInteger exchangeCount = new AtomicInteger();
+
+  private volatile long latencyMillis = 0;
+
+  private volatile int responseCode = 200;
+
+  /**
+   * @param matcher The Matcher to handle requests
+   * @param threads The number of request threads
+   */
+  public MatcherHttpServer(Matcher matcher, int threads) throws IOException {
+
+    this.matcher = matcher;
+
+    // Without this the response headers and body are held back by Nagle and add a delayed ACK to every exchange
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    httpServer.createContext(MATCHER_PATH, new MatcherHandler(false));
+    httpServer.createContext(BATCH_PATH, new MatcherHandler(true));
+
+    executorService = Executors.newFixedThreadPool(threads);
+    httpServer.setExecutor(executorService);
+    httpServer.start();
+
+  }
+
+  /**
+   * @return The URL of the single request endpoint
+   */
+  public URL getMatcherURL() throws IOException {
+    return new URL("http", "127.0.0.1", httpServer.getAddress().getPort(), MATCHER_PATH);
+  }
+
+  /**
+   * @return The URL of the batch endpoint
+   */
+  public URL getBatchURL() throws IOException {
+    return new URL("http", "127.0.0.1", httpServer.getAddress().getPort(), BATCH_PATH);
+  }
+
+  /**
+   * @return The number of distinct client connections seen so far
+   */
+  public int getConnectionCount() {
+    return clientAddresses.size();
+  }
+
+  /**
+   * @return The number of HTTP exchanges handled so far
+   */
+  public int getExchangeCount() {
+    return exchangeCount.get();
+  }
+
+  /**
+   * @param latencyMillis The delay to add before every response
+   */
+  public void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  /**
+   * @param responseCode The HTTP status to reply with (anything but 200 sends a short error body)
+   */
+  public void setResponseCode(int responseCode) {
+    this.responseCode = responseCode;
+  }
+
+  @Override
+  public void close() {
+
+    httpServer.stop(0);
+    executorService.shutdownNow();
+
+  }
+
+  /**
+   * @param payload The encrypted Payer request
+   *
+   * @return The encrypted Matcher response (empty if the Matcher could not handle the request)
+   */
+  private byte[] handle(byte[] payload) {
+
+    try {
+      EncryptedMatcherResponse encryptedMatcherResponse = matcher.handle(new EncryptedPayerRequest(payload));
+      return encryptedMatcherResponse == null ? new byte[0] : encryptedMatcherResponse.getPayload();
+    } catch (Exception e) {
+      log.warn("Matcher could not handle request", e);
+      return new byte[0];
+    }
+
+  }
+
+  private class MatcherHandler implements HttpHandler {
+
+    private final boolean batch;
+
+    private MatcherHandler(boolean batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+
+      clientAddresses.add(httpExchange.getRemoteAddress());
+      exchangeCount.incrementAndGet();
+
+      try (InputStream requestBody = httpExchange.getRequestBody()) {
+
+        byte[] responseBody;
+        if (responseCode != 200) {
+          ByteStreams.copy(requestBody, ByteStreams.nullOutputStream());
+          responseBody = "Unavailable".getBytes();
+        } else if (batch) {
+          List<byte[]> responsePayloads = Lists.newArrayList();
+          for (byte[] requestPayload : MatcherTransport.readBatch(requestBody)) {
+            responsePayloads.add(MatcherHttpServer.this.handle(requestPayload));
+          }
+          responseBody = MatcherTransport.writeBatch(responsePayloads);
+        } else {
+          responseBody = MatcherHttpServer.this.handle(ByteStreams.toByteArray(requestBody));
+        }
+
+        if (latencyMillis > 0) {
+          TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        }
+
+        httpExchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        httpExchange.sendResponseHeaders(responseCode, responseBody.length);
+        try (OutputStream responseStream = httpExchange.getResponseBody()) {
+          responseStream.write(responseBody);
+        }
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        httpExchange.close();
+      }
+
+    }
+  }
+}
@@ -0,0 +1,132 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.matcher.MatcherConfig;
+import org.multibit.hd.brit.matcher.MatcherStore;
+import org.multibit.hd.brit.matcher.MatcherStores;
+import org.multibit.hd.brit.matcher.Matchers;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Latency and throughput of the Matcher transport against a local stand-in server with added network latency</p>
+ */
+public class MatcherTransportFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherTransportFunctionalTest.class);
+
+  private static final int REQUEST_COUNT = 200;
+
+  private static final int BATCH_SIZE = 20;
+
+  /**
+   * A typical round trip to the live Matcher
+   */
+  private static final long NETWORK_LATENCY_MILLIS = 50;
+
+  @Test
+  public void testSingleAndBatchExchanges() throws Exception {
+
+    SecureRandom secureRandom = new SecureRandom();
+
+    File matcherPublicKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE);
+    PGPPublicKey matcherPGPPublicKey;
+    try (FileInputStream matcherPublicKeyInputStream = new FileInputStream(matcherPublicKeyFile)) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+
+    List<EncryptedPayerRequest> encryptedPayerRequests = Lists.newArrayList();
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      byte[] walletIdBytes = new byte[20];
+      byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+      secureRandom.nextBytes(walletIdBytes);
+      secureRandom.nextBytes(sessionKey);
+      BRITWalletId britWalletId = new BRITWalletId(Utils.HEX.encode(walletIdBytes));
+      encryptedPayerRequests.add(payer.encryptPayerRequest(payer.newPayerRequest(britWalletId, sessionKey, Optional.of(new Date()))));
+    }
+
+    Set<Address> allAddresses = Sets.newHashSet();
+    for (int i = 0; i < 100; i++) {
+      allAddresses.add(new ECKey().toAddress(MainNetParams.get()));
+    }
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(Files.createTempDir());
+    matcherStore.storeAllBitcoinAddresses(allAddresses);
+
+    try (MatcherHttpServer matcherHttpServer = new MatcherHttpServer(
+      Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD), matcherStore),
+      Runtime.getRuntime().availableProcessors()
+    )) {
+
+      MatcherTransport matcherTransport = new MatcherTransport(
+        matcherHttpServer.getMatcherURL(),
+        Optional.of(matcherHttpServer.getBatchURL()),
+        MatcherTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+        MatcherTransport.DEFAULT_READ_TIMEOUT_MILLIS
+      );
+
+      // Warm up without added latency
+      for (EncryptedPayerRequest encryptedPayerRequest : encryptedPayerRequests.subList(0, BATCH_SIZE)) {
+        matcherTransport.exchange(encryptedPayerRequest);
+      }
+
+      matcherHttpServer.setLatencyMillis(NETWORK_LATENCY_MILLIS);
+
+      // One request per round trip
+      long start = System.nanoTime();
+      for (EncryptedPayerRequest encryptedPayerRequest : encryptedPayerRequests) {
+        EncryptedMatcherResponse encryptedMatcherResponse = matcherTransport.exchange(encryptedPayerRequest);
+        assertThat(encryptedMatcherResponse.getPayload()).isNotEmpty();
+      }
+      long singleElapsed = System.nanoTime() - start;
+
+      // Several requests per round trip
+      start = System.nanoTime();
+      for (List<EncryptedPayerRequest> batch : Lists.partition(encryptedPayerRequests, BATCH_SIZE)) {
+        List<EncryptedMatcherResponse> encryptedMatcherResponses = matcherTransport.exchange(batch);
+        assertThat(encryptedMatcherResponses).hasSize(batch.size());
+      }
+      long batchElapsed = System.nanoTime() - start;
+
+      log.info("Single: {} ms/request, {} requests/s", TimeUnit.NANOSECONDS.toMillis(singleElapsed / REQUEST_COUNT), requestsPerSecond(singleElapsed));
+      log.info("Batch of {}: {} ms/request, {} requests/s", BATCH_SIZE, TimeUnit.NANOSECONDS.toMillis(batchElapsed / REQUEST_COUNT), requestsPerSecond(batchElapsed));
+      log.info("{} connection(s) for {} exchanges", matcherHttpServer.getConnectionCount(), matcherHttpServer.getExchangeCount());
+
+    }
+
+  }
+
+  private long requestsPerSecond(long elapsedNanos) {
+    return REQUEST_COUNT * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsedNanos, 1);
+  }
+
+}
@@ -0,0 +1,222 @@
+package org.multibit.hd.brit.services;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.crypto.PGPUtils;
+import org.multibit.hd.brit.crypto.PGPUtilsTest;
+import org.multibit.hd.brit.dto.BRITWalletId;
+import org.multibit.hd.brit.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.dto.MatcherResponse;
+import org.multibit.hd.brit.matcher.MatcherConfig;
+import org.multibit.hd.brit.matcher.MatcherStore;
+import org.multibit.hd.brit.matcher.MatcherStores;
+import org.multibit.hd.brit.matcher.Matchers;
+import org.multibit.hd.brit.payer.Payer;
+import org.multibit.hd.brit.payer.PayerConfig;
+import org.multibit.hd.brit.payer.Payers;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class MatcherTransportTest {
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private Set<Address> allAddresses;
+
+  private PGPPublicKey matcherPGPPublicKey;
+
+  private MatcherHttpServer matcherHttpServer;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File matcherPublicKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_PUBLIC_KEY_FILE);
+    try (FileInputStream matcherPublicKeyInputStream = new FileInputStream(matcherPublicKeyFile)) {
+      matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+    allAddresses = Sets.newHashSet();
+    for (int i = 0; i < 10; i++) {
+      allAddresses.add(new ECKey().toAddress(MainNetParams.get()));
+    }
+
+    File matcherSecretKeyFile = PGPUtilsTest.makeFile(PGPUtilsTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(Files.createTempDir());
+    matcherStore.storeAllBitcoinAddresses(allAddresses);
+
+    matcherHttpServer = new MatcherHttpServer(
+      Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, PGPUtilsTest.TEST_DATA_PASSWORD), matcherStore),
+      2
+    );
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    matcherHttpServer.close();
+  }
+
+  @Test
+  public void testExchangeReusesConnection() throws Exception {
+
+    MatcherTransport matcherTransport = new MatcherTransport(matcherHttpServer.getMatcherURL());
+
+    for (int i = 0; i < 5; i++) {
+      Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+      EncryptedPayerRequest encryptedPayerRequest = newEncryptedPayerRequest(payer);
+
+      MatcherResponse matcherResponse = payer.decryptMatcherResponse(matcherTransport.exchange(encryptedPayerRequest));
+
+      assertThat(allAddresses.containsAll(matcherResponse.getBitcoinAddresses())).isTrue();
+    }
+
+    assertThat(matcherHttpServer.getExchangeCount()).isEqualTo(5);
+    // Every exchange after the first goes over the kept alive connection
+    assertThat(matcherHttpServer.getConnectionCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testBatchExchange() throws Exception {
+
+    MatcherTransport matcherTransport = new MatcherTransport(
+      matcherHttpServer.getMatcherURL(),
+      Optional.of(matcherHttpServer.getBatchURL()),
+      MatcherTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+      MatcherTransport.DEFAULT_READ_TIMEOUT_MILLIS
+    );
+    assertThat(matcherTransport.isBatchSupported()).isTrue();
+
+    List<Payer> payers = Lists.newArrayList();
+    List<EncryptedPayerRequest> encryptedPayerRequests = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+      payers.add(payer);
+      encryptedPayerRequests.add(newEncryptedPayerRequest(payer));
+    }
+    // A request the Matcher cannot decrypt gets an empty entry rather than failing the batch
+    encryptedPayerRequests.add(new EncryptedPayerRequest(new byte[]{1, 2, 3}));
+
+    List<EncryptedMatcherResponse> encryptedMatcherResponses = matcherTransport.exchange(encryptedPayerRequests);
+
+    // One round trip for the whole batch
+    assertThat(matcherHttpServer.getExchangeCount()).isEqualTo(1);
+    assertThat(encryptedMatcherResponses).hasSize(5);
+
+    for (int i = 0; i < payers.size(); i++) {
+      MatcherResponse matcherResponse = payers.get(i).decryptMatcherResponse(encryptedMatcherResponses.get(i));
+      assertThat(allAddresses.containsAll(matcherResponse.getBitcoinAddresses())).isTrue();
+    }
+    assertThat(encryptedMatcherResponses.get(4).getPayload()).isEmpty();
+
+  }
+
+  @Test
+  public void testBatchFallsBackToSingleExchanges() throws Exception {
+
+    MatcherTransport matcherTransport = new MatcherTransport(matcherHttpServer.getMatcherURL());
+    assertThat(matcherTransport.isBatchSupported()).isFalse();
+
+    Payer payer1 = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+    Payer payer2 = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+
+    List<EncryptedMatcherResponse> encryptedMatcherResponses = matcherTransport.exchange(
+      Arrays.asList(newEncryptedPayerRequest(payer1), newEncryptedPayerRequest(payer2)));
+
+    assertThat(matcherHttpServer.getExchangeCount()).isEqualTo(2);
+    assertThat(payer1.decryptMatcherResponse(encryptedMatcherResponses.get(0))).isNotNull();
+    assertThat(payer2.decryptMatcherResponse(encryptedMatcherResponses.get(1))).isNotNull();
+
+  }
+
+  @Test(expected = SocketTimeoutException.class)
+  public void testReadTimeout() throws Exception {
+
+    matcherHttpServer.setLatencyMillis(2_000);
+
+    MatcherTransport matcherTransport = new MatcherTransport(matcherHttpServer.getMatcherURL(), Optional.<java.net.URL>absent(), 1_000, 200);
+
+    matcherTransport.exchange(newEncryptedPayerRequest(Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey))));
+
+  }
+
+  @Test
+  public void testHttpErrorDoesNotDropConnection() throws Exception {
+
+    MatcherTransport matcherTransport = new MatcherTransport(matcherHttpServer.getMatcherURL());
+    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPGPPublicKey));
+
+    matcherHttpServer.setResponseCode(503);
+    try {
+      matcherTransport.exchange(newEncryptedPayerRequest(payer));
+      throw new AssertionError("Expected an IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("503");
+    }
+
+    matcherHttpServer.setResponseCode(200);
+    assertThat(payer.decryptMatcherResponse(matcherTransport.exchange(newEncryptedPayerRequest(payer)))).isNotNull();
+
+    // The error body was drained so the connection was reused
+    assertThat(matcherHttpServer.getConnectionCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testBatchFraming() throws Exception {
+
+    List<byte[]> payloads = Arrays.asList(new byte[]{1, 2, 3}, new byte[0], new byte[]{4});
+
+    byte[] batch = MatcherTransport.writeBatch(payloads);
+    List<byte[]> readPayloads = MatcherTransport.readBatch(new ByteArrayInputStream(batch));
+
+    assertThat(readPayloads).hasSize(3);
+    for (int i = 0; i < payloads.size(); i++) {
+      assertThat(readPayloads.get(i)).isEqualTo(payloads.get(i));
+    }
+
+    try {
+      MatcherTransport.readBatch(new ByteArrayInputStream(Arrays.copyOf(batch, batch.length - 1)));
+      throw new AssertionError("Expected an EOFException");
+    } catch (EOFException e) {
+      // Expected
+    }
+
+  }
+
+  private EncryptedPayerRequest newEncryptedPayerRequest(Payer payer) throws Exception {
+
+    byte[] walletIdBytes = new byte[20];
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(walletIdBytes);
+    secureRandom.nextBytes(sessionKey);
+    BRITWalletId britWalletId = new BRITWalletId(Utils.HEX.encode(walletIdBytes));
+
+    return payer.encryptPayerRequest(payer.newPayerRequest(britWalletId, sessionKey, Optional.of(new Date())));
+  }
+
+}
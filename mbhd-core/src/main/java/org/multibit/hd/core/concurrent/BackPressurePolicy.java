@@ -0,0 +1,103 @@
+package org.multibit.hd.core.concurrent;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Enum to provide the following to SafeExecutors:</p>
+ * <ul>
+ * <li>Choice of behaviour when a bounded executor queue is full</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public enum BackPressurePolicy {
+
+  /**
+   * Reject the task with a <code>RejectedExecutionException</code> (the caller must handle it)
+   */
+  ABORT {
+    @Override
+    void rejected(Runnable task, ThreadPoolExecutor executor) {
+      throw new RejectedExecutionException("Queue is full for " + executor);
+    }
+  },
+
+  /**
+   * Run the task on the submitting thread which slows the producer to the rate of the pool (not for use from the EDT)
+   */
+  CALLER_RUNS {
+    @Override
+    void rejected(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Executor is shut down");
+      }
+      task.run();
+    }
+  },
+
+  /**
+   * Cancel the oldest queued task to make room (suitable for work that is superseded by later requests)
+   */
+  DISCARD_OLDEST {
+    @Override
+    void rejected(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Executor is shut down");
+      }
+      Runnable oldest = executor.getQueue().poll();
+      if (oldest != null) {
+        // Complete the future of the discarded task so that callbacks are not left waiting
+        Runnable discarded = SafeThreadPoolExecutor.unwrap(oldest);
+        if (discarded instanceof Future) {
+          ((Future<?>) discarded).cancel(false);
+        }
+      }
+      executor.execute(task);
+    }
+  },
+
+  /**
+   * Wait for space in the queue for up to the block timeout before rejecting (not for use from the EDT)
+   */
+  BLOCK {
+    @Override
+    void rejected(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Executor is shut down");
+      }
+      try {
+        if (!executor.getQueue().offer(task, BLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          throw new RejectedExecutionException("Queue remained full for " + BLOCK_TIMEOUT_SECONDS + " seconds");
+        }
+        // Offering directly bypasses the shut down check in execute() so a task queued after shutdownNow() drained
+        // the queue would never run
+        if (executor.isShutdown() && executor.remove(task)) {
+          throw new RejectedExecutionException("Executor was shut down while waiting for queue space");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting for queue space", e);
+      }
+    }
+  },
+
+  // End of enum
+  ;
+
+  /**
+   * The longest a producer will wait for queue space under the BLOCK policy
+   */
+  private static final long BLOCK_TIMEOUT_SECONDS = 30;
+
+  /**
+   * @param task     The task that could not be queued (wrapped for timing)
+   * @param executor The executor
+   *
+   * @throws RejectedExecutionException If the task cannot be accepted
+   */
+  abstract void rejected(Runnable task, ThreadPoolExecutor executor);
+
+}
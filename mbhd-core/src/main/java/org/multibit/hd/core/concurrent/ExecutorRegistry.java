@@ -0,0 +1,218 @@
+package org.multibit.hd.core.concurrent;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Registry to provide the following to SafeExecutors:</p>
+ * <ul>
+ * <li>Tracking of every executor created with telemetry for each</li>
+ * <li>A global thread budget so that growth in the total thread count is reported</li>
+ * <li>Exposure through JMX and on demand output to the log</li>
+ * </ul>
+ * <p>The budget is advisory: a pool that would exceed it is still given the threads it requested (shrinking it could
+ * starve tasks that depend on each other) and a warning is logged. Only pools that have not terminated are counted,
+ * so executors must be shut down when their owner closes. Pools running on virtual threads are not counted against
+ * the budget.</p>
+ *
+ * @since 0.1.0
+ */
+public enum ExecutorRegistry implements ExecutorRegistryMXBean {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(ExecutorRegistry.class);
+
+  /**
+   * The JMX object name
+   */
+  public static final String OBJECT_NAME = "org.multibit.hd:type=ExecutorRegistry";
+
+  /**
+   * Comfortably above the threads used by a running wallet while still bounding a runaway
+   */
+  public static final int DEFAULT_THREAD_BUDGET = 128;
+
+  private final Set<ExecutorStatistics> executors = Sets.newConcurrentHashSet();
+
+  private int threadBudget = DEFAULT_THREAD_BUDGET;
+
+  private boolean registered = false;
+
+  /**
+   * <p>Track the new executor and warn if it takes the allocated threads over the budget</p>
+   *
+   * @param name               The pool name
+   * @param requestedThreads   The number of threads requested
+   * @param queueCapacity      The queue capacity (<code>Integer.MAX_VALUE</code> for unbounded)
+   * @param backPressurePolicy The policy when the queue is full (absent for unbounded)
+   * @param virtual            True if the pool runs on virtual threads
+   *
+   * @return The statistics for the new executor
+   */
+  synchronized ExecutorStatistics register(
+    String name,
+    int requestedThreads,
+    int queueCapacity,
+    Optional<BackPressurePolicy> backPressurePolicy,
+    boolean virtual
+  ) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkArgument(requestedThreads > 0, "'requestedThreads' must be positive");
+
+    registerMBean();
+
+    if (!virtual) {
+      int allocated = getAllocatedThreads();
+      if (allocated + requestedThreads > threadBudget) {
+        log.warn(
+          "Thread budget of {} exceeded. Pool '{}' adds {} threads to {} already allocated.",
+          threadBudget,
+          name,
+          requestedThreads,
+          allocated
+        );
+      }
+    }
+
+    ExecutorStatistics statistics = new ExecutorStatistics(name, requestedThreads, queueCapacity, backPressurePolicy, virtual);
+    executors.add(statistics);
+
+    return statistics;
+  }
+
+  /**
+   * @param statistics The statistics of an executor that has terminated
+   */
+  void deregister(ExecutorStatistics statistics) {
+    executors.remove(statistics);
+  }
+
+  /**
+   * @return The statistics of all live executors ordered by name
+   */
+  public List<ExecutorStatistics> getStatistics() {
+
+    List<ExecutorStatistics> live = Lists.newArrayList();
+    for (ExecutorStatistics statistics : executors) {
+      if (statistics.isLive()) {
+        live.add(statistics);
+      } else {
+        // Terminated before the deregistration
+        executors.remove(statistics);
+      }
+    }
+
+    Collections.sort(live, new Comparator<ExecutorStatistics>() {
+      @Override
+      public int compare(ExecutorStatistics a, ExecutorStatistics b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+
+    return live;
+  }
+
+  @Override
+  public String[] getExecutorStatistics() {
+
+    List<ExecutorStatistics> live = getStatistics();
+
+    String[] lines = new String[live.size()];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = live.get(i).toString();
+    }
+
+    return lines;
+  }
+
+  @Override
+  public synchronized int getThreadBudget() {
+    return threadBudget;
+  }
+
+  @Override
+  public synchronized void setThreadBudget(int threadBudget) {
+
+    Preconditions.checkArgument(threadBudget > 0, "'threadBudget' must be positive");
+
+    this.threadBudget = threadBudget;
+  }
+
+  @Override
+  public int getAllocatedThreads() {
+
+    int allocated = 0;
+    for (ExecutorStatistics statistics : getStatistics()) {
+      if (!statistics.isVirtual()) {
+        allocated += statistics.getThreads();
+      }
+    }
+
+    return allocated;
+  }
+
+  @Override
+  public long getRejectedCount() {
+
+    long rejected = 0;
+    for (ExecutorStatistics statistics : getStatistics()) {
+      rejected += statistics.getRejectedCount();
+    }
+
+    return rejected;
+  }
+
+  @Override
+  public void dumpToLog() {
+
+    StringBuilder sb = new StringBuilder("Executors (threads allocated: ")
+      .append(getAllocatedThreads())
+      .append(" of ")
+      .append(getThreadBudget())
+      .append(", live threads: ")
+      .append(ManagementFactory.getThreadMXBean().getThreadCount())
+      .append(")");
+    for (String line : getExecutorStatistics()) {
+      sb.append("\n").append(line);
+    }
+
+    log.info(sb.toString());
+  }
+
+  /**
+   * <p>Register with the platform MBean server (repeated calls have no effect)</p>
+   */
+  private synchronized void registerMBean() {
+
+    if (registered) {
+      return;
+    }
+    registered = true;
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(OBJECT_NAME);
+      if (!mBeanServer.isRegistered(objectName)) {
+        mBeanServer.registerMBean(this, objectName);
+      }
+    } catch (Exception e) {
+      log.warn("Could not register executor registry with JMX", e);
+    }
+
+  }
+
+}
@@ -0,0 +1,44 @@
+package org.multibit.hd.core.concurrent;
+
+/**
+ * <p>Management interface to provide the following to JMX clients:</p>
+ * <ul>
+ * <li>Task counts, wait and run times for every executor created by SafeExecutors</li>
+ * <li>Control of the global thread budget</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public interface ExecutorRegistryMXBean {
+
+  /**
+   * @return One line per live executor with thread, queue, timing and rejection figures
+   */
+  String[] getExecutorStatistics();
+
+  /**
+   * @return The number of threads across all executors above which new executors are reported
+   */
+  int getThreadBudget();
+
+  /**
+   * @param threadBudget The number of threads across all executors above which new executors are reported
+   */
+  void setThreadBudget(int threadBudget);
+
+  /**
+   * @return The number of platform threads allocated to live executors
+   */
+  int getAllocatedThreads();
+
+  /**
+   * @return The total number of tasks rejected across all executors
+   */
+  long getRejectedCount();
+
+  /**
+   * <p>Write the executor statistics to the log</p>
+   */
+  void dumpToLog();
+
+}
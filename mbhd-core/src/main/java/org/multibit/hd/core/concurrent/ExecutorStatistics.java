@@ -0,0 +1,223 @@
+package org.multibit.hd.core.concurrent;
+
+import com.google.common.base.Optional;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Statistics to provide the following to ExecutorRegistry:</p>
+ * <ul>
+ * <li>Active, queued and completed task counts for a single executor</li>
+ * <li>Task wait (time in queue) and run times</li>
+ * <li>Rejection count</li>
+ * </ul>
+ * <p>An executor remains registered until it terminates (the exiting executor wrappers keep every executor reachable
+ * so reachability cannot be used).</p>
+ *
+ * @since 0.1.0
+ */
+public class ExecutorStatistics {
+
+  private final String name;
+
+  private final int threads;
+
+  private final int queueCapacity;
+
+  private final Optional<BackPressurePolicy> backPressurePolicy;
+
+  private final boolean virtual;
+
+  private volatile ThreadPoolExecutor executor = null;
+
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  private long waitCount = 0;
+  private long totalWaitNanos = 0;
+  private long maxWaitNanos = 0;
+
+  private long runCount = 0;
+  private long totalRunNanos = 0;
+  private long maxRunNanos = 0;
+
+  /**
+   * @param name               The pool name
+   * @param threads            The number of threads in the pool
+   * @param queueCapacity      The queue capacity (<code>Integer.MAX_VALUE</code> for unbounded)
+   * @param backPressurePolicy The policy when the queue is full (absent for unbounded)
+   * @param virtual            True if the pool runs on virtual threads
+   */
+  ExecutorStatistics(String name, int threads, int queueCapacity, Optional<BackPressurePolicy> backPressurePolicy, boolean virtual) {
+    this.name = name;
+    this.threads = threads;
+    this.queueCapacity = queueCapacity;
+    this.backPressurePolicy = backPressurePolicy;
+    this.virtual = virtual;
+  }
+
+  /**
+   * @param executor The executor described by these statistics
+   */
+  void attach(ThreadPoolExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * @return True if the executor has not been attached yet or is still running
+   */
+  boolean isLive() {
+
+    ThreadPoolExecutor threadPoolExecutor = executor;
+
+    // Null while still being created
+    return threadPoolExecutor == null || !threadPoolExecutor.isTerminated();
+  }
+
+  synchronized void recordWait(long nanos) {
+    waitCount++;
+    totalWaitNanos += nanos;
+    maxWaitNanos = Math.max(maxWaitNanos, nanos);
+  }
+
+  synchronized void recordRun(long nanos) {
+    runCount++;
+    totalRunNanos += nanos;
+    maxRunNanos = Math.max(maxRunNanos, nanos);
+  }
+
+  void recordRejection() {
+    rejectedCount.incrementAndGet();
+  }
+
+  /**
+   * @return The pool name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return The number of threads in the pool
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @return The queue capacity (<code>Integer.MAX_VALUE</code> for unbounded)
+   */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * @return The policy applied when the queue is full (absent for unbounded)
+   */
+  public Optional<BackPressurePolicy> getBackPressurePolicy() {
+    return backPressurePolicy;
+  }
+
+  /**
+   * @return True if the pool runs on virtual threads (not counted against the thread budget)
+   */
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+  /**
+   * @return The number of threads currently running tasks
+   */
+  public int getActiveCount() {
+    ThreadPoolExecutor threadPoolExecutor = get();
+    return threadPoolExecutor == null ? 0 : threadPoolExecutor.getActiveCount();
+  }
+
+  /**
+   * @return The number of tasks waiting in the queue
+   */
+  public int getQueuedCount() {
+    ThreadPoolExecutor threadPoolExecutor = get();
+    return threadPoolExecutor == null ? 0 : threadPoolExecutor.getQueue().size();
+  }
+
+  /**
+   * @return The number of threads currently in the pool
+   */
+  public int getPoolSize() {
+    ThreadPoolExecutor threadPoolExecutor = get();
+    return threadPoolExecutor == null ? 0 : threadPoolExecutor.getPoolSize();
+  }
+
+  /**
+   * @return The number of tasks that have completed
+   */
+  public long getCompletedCount() {
+    ThreadPoolExecutor threadPoolExecutor = get();
+    return threadPoolExecutor == null ? 0 : threadPoolExecutor.getCompletedTaskCount();
+  }
+
+  /**
+   * @return The number of tasks rejected (queue full or shut down)
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * @return The mean time a task waited in the queue in milliseconds (scheduled delays are not included)
+   */
+  public synchronized double getMeanWaitMillis() {
+    return waitCount == 0 ? 0 : totalWaitNanos / (double) waitCount / 1_000_000;
+  }
+
+  /**
+   * @return The longest time a task waited in the queue in milliseconds
+   */
+  public synchronized long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+  }
+
+  /**
+   * @return The mean task run time in milliseconds
+   */
+  public synchronized double getMeanRunMillis() {
+    return runCount == 0 ? 0 : totalRunNanos / (double) runCount / 1_000_000;
+  }
+
+  /**
+   * @return The longest task run time in milliseconds
+   */
+  public synchronized long getMaxRunMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxRunNanos);
+  }
+
+  private ThreadPoolExecutor get() {
+    return executor;
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format(
+      Locale.UK,
+      "%s %s threads=%d/%d active=%d queued=%d/%s completed=%d rejected=%d wait(mean=%.3fms max=%dms) run(mean=%.3fms max=%dms)",
+      name,
+      virtual ? "virtual" : "platform",
+      getPoolSize(),
+      threads,
+      getActiveCount(),
+      getQueuedCount(),
+      queueCapacity == Integer.MAX_VALUE ? "unbounded" : String.valueOf(queueCapacity),
+      getCompletedCount(),
+      getRejectedCount(),
+      getMeanWaitMillis(),
+      getMaxWaitMillis(),
+      getMeanRunMillis(),
+      getMaxRunMillis()
+    );
+  }
+
+}
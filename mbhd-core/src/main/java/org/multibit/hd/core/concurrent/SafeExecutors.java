@@ -1,5 +1,7 @@
 package org.multibit.hd.core.concurrent;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -7,14 +9,17 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Factory that partially wraps the standard Java Executors concurrency to allow any runtime exceptions to be passed
  * to the ExceptionHandler.</p>
+ * <p>Every executor is tracked by the ExecutorRegistry which provides telemetry and reports on the global thread budget.</p>
  *
  * @since 0.0.1
  *
@@ -28,6 +33,34 @@ public class SafeExecutors {
    */
   private static final long DURATION_BEFORE_QUIT = 1;
 
+  /**
+   * Set to "true" to opt in to virtual threads for fixed pools on runtimes that support them
+   */
+  public static final String VIRTUAL_THREADS_PROPERTY = "multibit.virtualThreads";
+
+  private static volatile boolean virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+
+  private static boolean virtualThreadsFallbackLogged = false;
+
+  /**
+   * <p>Opt in to virtual threads for fixed thread pools and single thread executors created after this call.</p>
+   * <p>Pools keep their thread count so ordering and concurrency limits are unchanged, but each worker is a
+   * virtual thread which costs little while blocked on I/O. Platform threads are used if the runtime does not
+   * support virtual threads. Scheduled executors always use platform threads.</p>
+   *
+   * @param enabled True to use virtual threads where supported
+   */
+  public static void setVirtualThreads(boolean enabled) {
+    virtualThreads = enabled;
+  }
+
+  /**
+   * @return True if fixed thread pools will be created with virtual threads
+   */
+  public static boolean isVirtualThreads() {
+    return virtualThreads && VirtualThreads.isSupported();
+  }
+
   /**
    * Creates an Executor that uses a single worker thread operating
    * off an unbounded queue. (Note however that if this single
@@ -65,45 +98,85 @@ public class SafeExecutors {
    */
   public static ListeningExecutorService newFixedThreadPool(int nThreads, String poolName) {
 
-    log.debug("New fixed thread pool with {} threads: '{}'", nThreads, poolName);
-
-    ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("safe-fixed-"+poolName+"-%d").build();
-
-    return newFixedThreadPool(nThreads, threadFactory);
+    return newFixedThreadPool(nThreads, poolName, Integer.MAX_VALUE, Optional.<BackPressurePolicy>absent());
   }
 
   /**
    * Creates a thread pool that reuses a fixed number of threads
-   * operating off a shared unbounded queue, using the provided
-   * ThreadFactory to create new threads when needed.  At any point,
-   * at most <tt>nThreads</tt> threads will be active processing
-   * tasks.  If additional tasks are submitted when all threads are
-   * active, they will wait in the queue until a thread is
-   * available.  If any thread terminates due to a failure during
-   * execution prior to shutdown, a new one will take its place if
-   * needed to execute subsequent tasks.  The threads in the pool will
-   * exist until it is explicitly {@link ExecutorService#shutdown
-   * shutdown}.
+   * operating off a shared bounded queue. When the queue is full
+   * the back pressure policy decides whether the task is rejected,
+   * run by the caller, replaces the oldest queued task or waits
+   * for space.
    *
-   * @param nThreads      the number of threads in the pool
-   * @param threadFactory the factory to use when creating new threads
+   * @param nThreads           The number of threads in the pool
+   * @param poolName           The name of the pool (use lowercase hyphenated)
+   * @param queueCapacity      The maximum number of queued tasks
+   * @param backPressurePolicy The policy to apply when the queue is full
    *
    * @return the newly created thread pool
    *
-   * @throws NullPointerException     if threadFactory is null
-   * @throws IllegalArgumentException if {@code nThreads <= 0}
+   * @throws IllegalArgumentException if {@code nThreads <= 0} or {@code queueCapacity <= 0}
    */
-  private static ListeningExecutorService newFixedThreadPool(int nThreads, ThreadFactory threadFactory) {
+  public static ListeningExecutorService newFixedThreadPool(
+    int nThreads,
+    String poolName,
+    int queueCapacity,
+    BackPressurePolicy backPressurePolicy
+  ) {
+
+    Preconditions.checkNotNull(backPressurePolicy, "'backPressurePolicy' must be present");
+
+    return newFixedThreadPool(nThreads, poolName, queueCapacity, Optional.of(backPressurePolicy));
+  }
+
+  /**
+   * @param nThreads           The number of threads in the pool
+   * @param poolName           The name of the pool
+   * @param queueCapacity      The maximum number of queued tasks (<code>Integer.MAX_VALUE</code> for unbounded)
+   * @param backPressurePolicy The policy to apply when the queue is full (absent for unbounded)
+   *
+   * @return the newly created thread pool
+   */
+  private static ListeningExecutorService newFixedThreadPool(
+    int nThreads,
+    String poolName,
+    int queueCapacity,
+    Optional<BackPressurePolicy> backPressurePolicy
+  ) {
+
+    Preconditions.checkArgument(nThreads > 0, "'nThreads' must be positive");
+    Preconditions.checkArgument(queueCapacity > 0, "'queueCapacity' must be positive");
+
+    Optional<ThreadFactory> virtualThreadFactory = newVirtualThreadFactory();
+
+    ExecutorStatistics statistics = ExecutorRegistry.INSTANCE.register(
+      poolName,
+      nThreads,
+      queueCapacity,
+      backPressurePolicy,
+      virtualThreadFactory.isPresent()
+    );
+
+    final ThreadFactory threadFactory;
+    if (virtualThreadFactory.isPresent()) {
+      log.debug("New fixed virtual thread pool with {} threads: '{}'", statistics.getThreads(), poolName);
+      threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("safe-virtual-"+poolName+"-%d")
+        .setThreadFactory(virtualThreadFactory.get())
+        .build();
+    } else {
+      log.debug("New fixed thread pool with {} threads: '{}'", statistics.getThreads(), poolName);
+      threadFactory = new ThreadFactoryBuilder().setNameFormat("safe-fixed-"+poolName+"-%d").build();
+    }
 
     return MoreExecutors.listeningDecorator(
       MoreExecutors.getExitingExecutorService(
         new SafeThreadPoolExecutor(
           nThreads,
-          nThreads,
-          0L,
-          TimeUnit.MILLISECONDS,
-          new LinkedBlockingQueue<Runnable>(),
-          threadFactory
+          new LinkedBlockingQueue<Runnable>(queueCapacity),
+          threadFactory,
+          newRejectedExecutionHandler(statistics),
+          statistics
         ), DURATION_BEFORE_QUIT, TimeUnit.SECONDS
       )
     );
@@ -142,35 +215,74 @@ public class SafeExecutors {
    */
   public static ListeningScheduledExecutorService newScheduledThreadPool(int corePoolSize, String poolName) {
 
-    log.debug("New scheduled thread pool with {} threads: '{}'", corePoolSize, poolName);
+    ExecutorStatistics statistics = ExecutorRegistry.INSTANCE.register(
+      poolName,
+      Math.max(1, corePoolSize),
+      Integer.MAX_VALUE,
+      Optional.<BackPressurePolicy>absent(),
+      false
+    );
+
+    log.debug("New scheduled thread pool with {} threads: '{}'", statistics.getThreads(), poolName);
 
     ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("safe-scheduled-"+poolName+"-%d").build();
 
-    return newScheduledThreadPool(corePoolSize, threadFactory);
+    return MoreExecutors.listeningDecorator(
+      MoreExecutors.getExitingScheduledExecutorService(
+        new SafeScheduledThreadPoolExecutor(
+          statistics.getThreads(),
+          threadFactory,
+          newRejectedExecutionHandler(statistics),
+          statistics
+        ),
+        DURATION_BEFORE_QUIT, TimeUnit.SECONDS
+      )
+    );
   }
 
   /**
-   * Creates a thread pool that can schedule commands to run after a
-   * given delay, or to execute periodically.
-   *
-   * @param corePoolSize  the number of threads to keep in the pool,
-   *                      even if they are idle.
-   * @param threadFactory the factory to use when the executor
-   *                      creates a new thread.
-   *
-   * @return a newly created scheduled thread pool
+   * @return A virtual thread factory if the mode is enabled and supported, otherwise absent
+   */
+  private static Optional<ThreadFactory> newVirtualThreadFactory() {
+
+    if (!virtualThreads) {
+      return Optional.absent();
+    }
+
+    Optional<ThreadFactory> threadFactory = VirtualThreads.newThreadFactory();
+    if (!threadFactory.isPresent()) {
+      synchronized (SafeExecutors.class) {
+        if (!virtualThreadsFallbackLogged) {
+          log.info("Virtual threads requested but not supported by this runtime. Using platform threads.");
+          virtualThreadsFallbackLogged = true;
+        }
+      }
+    }
+
+    return threadFactory;
+  }
+
+  /**
+   * @param statistics The statistics to record rejections against
    *
-   * @throws IllegalArgumentException if {@code corePoolSize < 0}
-   * @throws NullPointerException     if threadFactory is null
+   * @return A handler that counts the rejection before applying the back pressure policy (abort if absent)
    */
-  private static ListeningScheduledExecutorService newScheduledThreadPool(int corePoolSize, ThreadFactory threadFactory) {
+  private static RejectedExecutionHandler newRejectedExecutionHandler(final ExecutorStatistics statistics) {
 
-    return MoreExecutors.listeningDecorator(
-      MoreExecutors.getExitingScheduledExecutorService(
-        new SafeScheduledThreadPoolExecutor(corePoolSize, threadFactory),
-        DURATION_BEFORE_QUIT, TimeUnit.SECONDS
-      )
-    );
+    return new RejectedExecutionHandler() {
+      @Override
+      public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+
+        statistics.recordRejection();
+
+        if (statistics.getBackPressurePolicy().isPresent() && !executor.isShutdown()) {
+          statistics.getBackPressurePolicy().get().rejected(r, executor);
+        } else {
+          throw new RejectedExecutionException("Task rejected by '" + statistics.getName() + "'");
+        }
+
+      }
+    };
   }
 
 }
@@ -1,35 +1,79 @@
 package org.multibit.hd.core.concurrent;
 
+import com.google.common.base.Optional;
+
 import java.util.concurrent.*;
 
 /**
  * <p>Wrapper to provide standard exception handling</p>
+ * <p>If statistics are provided then task run times are recorded for the ExecutorRegistry.</p>
  *
  * @since 0.0.1
  *
  */
 public class SafeScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor {
 
+  private final Optional<ExecutorStatistics> statistics;
+
+  /**
+   * The start of the task on each worker thread
+   */
+  private final ThreadLocal<Long> runStartNanos = new ThreadLocal<>();
+
   public SafeScheduledThreadPoolExecutor(int corePoolSize) {
     super(corePoolSize);
+    this.statistics = Optional.absent();
   }
 
   public SafeScheduledThreadPoolExecutor(int corePoolSize, RejectedExecutionHandler handler) {
     super(corePoolSize, handler);
+    this.statistics = Optional.absent();
   }
 
   public SafeScheduledThreadPoolExecutor(int corePoolSize, ThreadFactory threadFactory) {
     super(corePoolSize, threadFactory);
+    this.statistics = Optional.absent();
   }
 
   public SafeScheduledThreadPoolExecutor(int corePoolSize, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
     super(corePoolSize, threadFactory, handler);
+    this.statistics = Optional.absent();
+  }
+
+  /**
+   * @param corePoolSize  The number of threads
+   * @param threadFactory The thread factory
+   * @param handler       The handler for tasks that cannot be accepted
+   * @param statistics    The statistics to update
+   */
+  public SafeScheduledThreadPoolExecutor(int corePoolSize, ThreadFactory threadFactory, RejectedExecutionHandler handler, ExecutorStatistics statistics) {
+    super(corePoolSize, threadFactory, handler);
+    this.statistics = Optional.of(statistics);
+    statistics.attach(this);
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r) {
+    super.beforeExecute(t, r);
+
+    if (statistics.isPresent()) {
+      runStartNanos.set(System.nanoTime());
+    }
+
   }
 
   @Override
   protected void afterExecute(Runnable r, Throwable t) {
     super.afterExecute(r, t);
 
+    if (statistics.isPresent()) {
+      Long start = runStartNanos.get();
+      if (start != null) {
+        statistics.get().recordRun(System.nanoTime() - start);
+        runStartNanos.remove();
+      }
+    }
+
     if (t == null && r instanceof Future<?>) {
       try {
         Future<?> future = (Future<?>) r;
@@ -47,4 +91,14 @@ public class SafeScheduledThreadPoolExecutor extends ScheduledThreadPoolExecutor
     // We rely on ListenableFuture to handle exceptions from executors
 
   }
+
+  @Override
+  protected void terminated() {
+    super.terminated();
+
+    if (statistics.isPresent()) {
+      ExecutorRegistry.INSTANCE.deregister(statistics.get());
+    }
+
+  }
 }
@@ -1,35 +1,96 @@
 package org.multibit.hd.core.concurrent;
 
+import com.google.common.base.Optional;
+
 import java.util.concurrent.*;
 
 /**
  * <p>Wrapper to provide standard exception handling</p>
+ * <p>If statistics are provided then task wait and run times are recorded for the ExecutorRegistry.</p>
  *
  * @since 0.0.1
  *
  */
 public class SafeThreadPoolExecutor extends ThreadPoolExecutor {
 
+  private final Optional<ExecutorStatistics> statistics;
+
+  /**
+   * The start of the task on each worker thread
+   */
+  private final ThreadLocal<Long> runStartNanos = new ThreadLocal<>();
 
   public SafeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
     super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+    this.statistics = Optional.absent();
   }
 
   public SafeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
     super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
+    this.statistics = Optional.absent();
   }
 
   public SafeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
     super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+    this.statistics = Optional.absent();
   }
 
   public SafeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
     super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+    this.statistics = Optional.absent();
+  }
+
+  /**
+   * @param threads       The number of threads
+   * @param workQueue     The work queue
+   * @param threadFactory The thread factory
+   * @param handler       The handler for tasks that cannot be queued
+   * @param statistics    The statistics to update
+   */
+  public SafeThreadPoolExecutor(int threads, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler, ExecutorStatistics statistics) {
+    super(threads, threads, 0L, TimeUnit.MILLISECONDS, workQueue, threadFactory, handler);
+    this.statistics = Optional.of(statistics);
+    statistics.attach(this);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+
+    if (statistics.isPresent() && !(command instanceof TimedTask)) {
+      super.execute(new TimedTask(command));
+    } else {
+      super.execute(command);
+    }
+
   }
 
   @Override
-  protected void afterExecute(Runnable r, Throwable t) {
-    super.afterExecute(r, t);
+  protected void beforeExecute(Thread t, Runnable r) {
+    super.beforeExecute(t, r);
+
+    if (statistics.isPresent()) {
+      long now = System.nanoTime();
+      if (r instanceof TimedTask) {
+        statistics.get().recordWait(now - ((TimedTask) r).queuedNanos);
+      }
+      runStartNanos.set(now);
+    }
+
+  }
+
+  @Override
+  protected void afterExecute(Runnable task, Throwable t) {
+    super.afterExecute(task, t);
+
+    if (statistics.isPresent()) {
+      Long start = runStartNanos.get();
+      if (start != null) {
+        statistics.get().recordRun(System.nanoTime() - start);
+        runStartNanos.remove();
+      }
+    }
+
+    Runnable r = unwrap(task);
     if (t == null && r instanceof Future<?>) {
       try {
         Future<?> future = (Future<?>) r;
@@ -48,4 +109,42 @@ public class SafeThreadPoolExecutor extends ThreadPoolExecutor {
 
   }
 
+  @Override
+  protected void terminated() {
+    super.terminated();
+
+    if (statistics.isPresent()) {
+      ExecutorRegistry.INSTANCE.deregister(statistics.get());
+    }
+
+  }
+
+  /**
+   * @param task The task as queued
+   *
+   * @return The task as submitted (removing any timing wrapper)
+   */
+  static Runnable unwrap(Runnable task) {
+    return task instanceof TimedTask ? ((TimedTask) task).task : task;
+  }
+
+  /**
+   * <p>A task carrying the time it was queued</p>
+   */
+  private static class TimedTask implements Runnable {
+
+    private final Runnable task;
+    private final long queuedNanos = System.nanoTime();
+
+    private TimedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+
+  }
+
 }
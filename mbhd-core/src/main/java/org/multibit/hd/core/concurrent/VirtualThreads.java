@@ -0,0 +1,84 @@
+package org.multibit.hd.core.concurrent;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Utility to provide the following to SafeExecutors:</p>
+ * <ul>
+ * <li>Detection of virtual thread support in the running JVM</li>
+ * <li>Creation of a virtual thread factory without a compile time dependency on Java 21</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public class VirtualThreads {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+  /**
+   * The <code>Thread.Builder.factory()</code> method (absent if virtual threads are not supported)
+   */
+  private static final Optional<Method> factoryMethod;
+
+  /**
+   * The <code>Thread.ofVirtual()</code> method (absent if virtual threads are not supported)
+   */
+  private static final Optional<Method> ofVirtualMethod;
+
+  static {
+
+    Method ofVirtual = null;
+    Method factory = null;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      // Confirm the builder can be used (preview builds may refuse)
+      factory.invoke(ofVirtual.invoke(null));
+    } catch (Exception | LinkageError e) {
+      log.debug("Virtual threads are not available: {}", e.getClass().getSimpleName());
+      ofVirtual = null;
+      factory = null;
+    }
+
+    ofVirtualMethod = Optional.fromNullable(ofVirtual);
+    factoryMethod = Optional.fromNullable(factory);
+
+  }
+
+  /**
+   * Utilities have private constructors
+   */
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return True if the running JVM supports virtual threads (Java 21+)
+   */
+  public static boolean isSupported() {
+    return factoryMethod.isPresent();
+  }
+
+  /**
+   * @return A factory creating a new virtual thread per call, or absent if not supported
+   */
+  public static Optional<ThreadFactory> newThreadFactory() {
+
+    if (!isSupported()) {
+      return Optional.absent();
+    }
+
+    try {
+      return Optional.of((ThreadFactory) factoryMethod.get().invoke(ofVirtualMethod.get().invoke(null)));
+    } catch (Exception e) {
+      log.warn("Could not create virtual thread factory", e);
+      return Optional.absent();
+    }
+
+  }
+
+}
@@ -1,7 +1,9 @@
 package org.multibit.hd.core.config;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -46,6 +48,17 @@ public class BitcoinConfiguration {
    */
   private Map<String, String> exchangeApiKeys = Maps.newHashMap();
 
+  /**
+   * Further exchanges (e.g. "KRAKEN" from <code>ExchangeKey</code>) asked alongside the current exchange so the
+   * exchange rate is the median of their answers (empty for the current exchange alone)
+   */
+  private List<String> aggregateExchanges = Lists.newArrayList();
+
+  /**
+   * The number of exchanges that must answer before the median is taken (0 to wait for all of them)
+   */
+  private int aggregateQuorum = 0;
+
   /**
    * <p>Default constructor uses the default locale</p>
    */
@@ -73,6 +86,8 @@ public class BitcoinConfiguration {
 
     configuration.setCurrentExchange(getCurrentExchange());
     configuration.setExchangeApiKeys(getExchangeApiKeys());
+    configuration.setAggregateExchanges(Lists.newArrayList(getAggregateExchanges()));
+    configuration.setAggregateQuorum(getAggregateQuorum());
 
     return configuration;
   }
@@ -190,4 +205,26 @@ public class BitcoinConfiguration {
   public void setExchangeApiKeys(Map<String, String> exchangeApiKeys) {
     this.exchangeApiKeys = exchangeApiKeys;
   }
+
+  /**
+   * @return The further exchanges (e.g. "KRAKEN" from <code>ExchangeKey</code>) asked alongside the current exchange for an aggregate exchange rate
+   */
+  public List<String> getAggregateExchanges() {
+    return aggregateExchanges;
+  }
+
+  public void setAggregateExchanges(List<String> aggregateExchanges) {
+    this.aggregateExchanges = aggregateExchanges;
+  }
+
+  /**
+   * @return The number of exchanges that must answer before the median is taken (0 to wait for all of them)
+   */
+  public int getAggregateQuorum() {
+    return aggregateQuorum;
+  }
+
+  public void setAggregateQuorum(int aggregateQuorum) {
+    this.aggregateQuorum = aggregateQuorum;
+  }
 }
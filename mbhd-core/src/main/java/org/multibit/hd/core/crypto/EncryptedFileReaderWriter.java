@@ -11,6 +11,9 @@ import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.metrics.Histogram;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
@@ -38,6 +41,13 @@ public class EncryptedFileReaderWriter {
 
   private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
 
+  private static final Timer readTimer = Metrics.INSTANCE.timer("encrypted-file.read");
+  private static final Timer writeTimer = Metrics.INSTANCE.timer("encrypted-file.write");
+  private static final Timer encryptedCopyTimer = Metrics.INSTANCE.timer("encrypted-file.encrypted-copy");
+  private static final Timer keyDerivationTimer = Metrics.INSTANCE.timer("encrypted-file.key-derivation");
+  private static final Histogram readBytes = Metrics.INSTANCE.histogram("encrypted-file.read-bytes");
+  private static final Histogram writeBytes = Metrics.INSTANCE.histogram("encrypted-file.write-bytes");
+
   /**
    * Decrypt an AES encrypted file and return it as an inputStream
    */
@@ -51,17 +61,21 @@ public class EncryptedFileReaderWriter {
    public static byte[] readAndDecryptToByteArray(File encryptedProtobufFile, CharSequence password, byte[] salt, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
      Preconditions.checkNotNull(encryptedProtobufFile);
      Preconditions.checkNotNull(password);
+     Timer.Context context = readTimer.time();
      try {
        // Read the encrypted file in and decrypt it.
        byte[] encryptedWalletBytes = Files.toByteArray(encryptedProtobufFile);
+       readBytes.update(encryptedWalletBytes.length);
        //log.debug("Encrypted wallet bytes after load:\n" + Utils.HEX.encode(encryptedWalletBytes));
 
-       KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(salt));
-       KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+       KeyParameter keyParameter = deriveKey(password, salt);
 
        // Decrypt the wallet bytes
-       return AESUtils.decrypt(encryptedWalletBytes, keyParameter, initialisationVector);
+       byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, initialisationVector);
+       context.bytes(encryptedWalletBytes.length).stop();
+       return decryptedBytes;
      } catch (Exception e) {
+       context.fail();
        throw new EncryptedFileReaderWriterException("Cannot read and decrypt the file '" + encryptedProtobufFile.getAbsolutePath() + "'", e);
      }
    }
@@ -70,9 +84,9 @@ public class EncryptedFileReaderWriter {
    * Encrypt a byte array and output to a file, using an intermediate temporary file
    */
   public static void encryptAndWrite(byte[] unencryptedBytes, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
+    Timer.Context context = writeTimer.time();
     try {
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+      KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
 
       // Create an AES encoded version of the unencryptedBytes, using the credentials
       byte[] encryptedBytes = AESUtils.encrypt(unencryptedBytes, keyParameter, WalletManager.aesInitialisationVector());
@@ -88,10 +102,13 @@ public class EncryptedFileReaderWriter {
         ByteArrayInputStream encryptedWalletByteArrayInputStream = new ByteArrayInputStream(encryptedBytes);
         File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
         SecureFiles.writeFile(encryptedWalletByteArrayInputStream, temporaryFile, outputFile);
+        writeBytes.update(encryptedBytes.length);
+        context.bytes(encryptedBytes.length).stop();
       } else {
         throw new EncryptedFileReaderWriterException("The encryption was not reversible so aborting.");
       }
     } catch (Exception e) {
+      context.fail();
       throw new EncryptedFileReaderWriterException("Cannot encryptAndWrite", e);
     }
   }
@@ -148,13 +165,13 @@ public class EncryptedFileReaderWriter {
     Preconditions.checkNotNull(destinationFile);
     Preconditions.checkNotNull(password);
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.scryptSalt()));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    KeyParameter keyParameter = deriveKey(password, WalletManager.scryptSalt());
     return encryptAndDeleteOriginal(fileToEncrypt, destinationFile, keyParameter, WalletManager.aesInitialisationVector());
   }
 
   private static File encryptAndDeleteOriginal(File fileToEncrypt, File encryptedFilename, KeyParameter keyParameter, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
     FileOutputStream encryptedWalletOutputStream = null;
+    Timer.Context context = encryptedCopyTimer.time();
     try {
       // Read in the file
       byte[] unencryptedBytes = Files.toByteArray(fileToEncrypt);
@@ -176,6 +193,8 @@ public class EncryptedFileReaderWriter {
 
         if (encryptedFilename.length() == encryptedBytes.length) {
           SecureFiles.secureDelete(fileToEncrypt);
+          writeBytes.update(encryptedBytes.length);
+          context.bytes(encryptedBytes.length).stop();
         } else {
           // The saved file isn't the correct size - do not delete the original
           throw new EncryptedFileReaderWriterException("The saved file " + encryptedFilename + " is not the size of the encrypted bytes - not deleting the original file");
@@ -186,6 +205,7 @@ public class EncryptedFileReaderWriter {
         throw new EncryptedFileReaderWriterException("The file encryption was not reversible. Aborting. This means the file " + fileToEncrypt.getAbsolutePath() +  " is being stored unencrypted");
       }
     } catch (Exception e) {
+      context.fail();
       throw new EncryptedFileReaderWriterException("Cannot make encrypted copy for file '" + fileToEncrypt.getAbsolutePath() + "'", e);
     } finally {
       if (encryptedWalletOutputStream != null) {
@@ -199,6 +219,22 @@ public class EncryptedFileReaderWriter {
     }
   }
 
+  /**
+   * @param password The credentials
+   * @param salt     The scrypt salt
+   *
+   * @return The AES key derived using scrypt (the dominant cost of every read and write)
+   */
+  private static KeyParameter deriveKey(CharSequence password, byte[] salt) {
+    Timer.Context context = keyDerivationTimer.time();
+    try {
+      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(salt));
+      return keyCrypterScrypt.deriveKey(password);
+    } finally {
+      context.stop();
+    }
+  }
+
   public static Protos.ScryptParameters makeScryptParameters(byte[] salt) {
     Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt));
     return scryptParametersBuilder.build();
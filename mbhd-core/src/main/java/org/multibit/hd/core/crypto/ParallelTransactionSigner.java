@@ -0,0 +1,220 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * <p>Signer to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Signing of the inputs of large transactions (e.g. consolidating many small outputs) across all cores</li>
+ * </ul>
+ * <p>Each input of a SIGHASH_ALL transaction can be hashed and signed independently. The bitcoinj
+ * <code>Transaction.hashForSignature()</code> temporarily modifies the transaction so each worker
+ * operates on its own copy. Signatures use RFC 6979 deterministic nonces so the result is identical
+ * to the sequential bitcoinj signer.</p>
+ * <p>Only pay-to-address and pay-to-pubkey inputs are supported. If any input is of another type, or its
+ * key cannot be found, nothing is signed and the caller should fall back to <code>Wallet.signTransaction()</code>.</p>
+ *
+ * @since 0.1.0
+ */
+public class ParallelTransactionSigner {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelTransactionSigner.class);
+
+  /**
+   * Below this number of inputs the cost of copying the transaction outweighs the benefit
+   */
+  public static final int MINIMUM_PARALLEL_INPUTS = 16;
+
+  private static final Object executorLock = new Object();
+
+  private static ListeningExecutorService sharedExecutor = null;
+
+  private final NetworkParameters networkParameters;
+
+  private final ListeningExecutorService executorService;
+
+  private final int parallelism;
+
+  /**
+   * <p>Create a signer using a shared pool with one thread per core</p>
+   *
+   * @param networkParameters The network parameters
+   */
+  public ParallelTransactionSigner(NetworkParameters networkParameters) {
+    this(networkParameters, getOrCreateSharedExecutor(), Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param networkParameters The network parameters
+   * @param executorService   The executor service to perform the signing
+   * @param parallelism       The number of independent tasks to split the inputs across
+   */
+  public ParallelTransactionSigner(NetworkParameters networkParameters, ListeningExecutorService executorService, int parallelism) {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+    Preconditions.checkNotNull(executorService, "'executorService' must be present");
+    Preconditions.checkArgument(parallelism > 0, "'parallelism' must be positive");
+
+    this.networkParameters = networkParameters;
+    this.executorService = executorService;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @param transaction The transaction
+   *
+   * @return True if the transaction has enough inputs to benefit from parallel signing
+   */
+  public boolean isWorthwhile(Transaction transaction) {
+    return parallelism > 1 && transaction.getInputs().size() >= MINIMUM_PARALLEL_INPUTS;
+  }
+
+  /**
+   * <p>Sign all inputs of the transaction using SIGHASH_ALL</p>
+   *
+   * @param transaction The transaction with all inputs connected to their outputs
+   * @param wallet      The wallet providing the keys
+   * @param aesKey      The AES key to decrypt the keys (null if the wallet is not encrypted)
+   *
+   * @return True if all inputs were signed, false if the transaction is unsupported (no inputs are changed)
+   *
+   * @throws ExecutionException   If a signing task fails
+   * @throws InterruptedException If signing is interrupted
+   */
+  public boolean signInputs(Transaction transaction, Wallet wallet, final KeyParameter aesKey) throws ExecutionException, InterruptedException {
+
+    Preconditions.checkNotNull(transaction, "'transaction' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    final int inputCount = transaction.getInputs().size();
+
+    // Resolve the keys up front so an unsupported input leaves the transaction untouched
+    final ECKey[] keys = new ECKey[inputCount];
+    final byte[][] connectedScripts = new byte[inputCount][];
+    final boolean[] payToAddress = new boolean[inputCount];
+
+    for (int i = 0; i < inputCount; i++) {
+
+      TransactionOutput connectedOutput = transaction.getInput(i).getConnectedOutput();
+      if (connectedOutput == null) {
+        log.debug("Input {} is not connected - cannot sign in parallel", i);
+        return false;
+      }
+
+      Script scriptPubKey = connectedOutput.getScriptPubKey();
+      if (scriptPubKey.isSentToAddress()) {
+        keys[i] = wallet.findKeyFromPubHash(scriptPubKey.getPubKeyHash());
+        payToAddress[i] = true;
+      } else if (scriptPubKey.isSentToRawPubKey()) {
+        keys[i] = wallet.findKeyFromPubKey(scriptPubKey.getPubKey());
+      }
+
+      if (keys[i] == null) {
+        log.debug("No key for input {} - cannot sign in parallel", i);
+        return false;
+      }
+
+      connectedScripts[i] = scriptPubKey.getProgram();
+    }
+
+    // Each task works on its own copy of the unsigned transaction
+    final byte[] unsignedTransaction = transaction.bitcoinSerialize();
+
+    int tasks = Math.min(parallelism, inputCount);
+    int chunkSize = (inputCount + tasks - 1) / tasks;
+
+    List<ListenableFuture<Script[]>> futures = Lists.newArrayList();
+    for (int start = 0; start < inputCount; start += chunkSize) {
+
+      final int from = start;
+      final int to = Math.min(start + chunkSize, inputCount);
+
+      futures.add(executorService.submit(
+        new Callable<Script[]>() {
+          @Override
+          public Script[] call() throws Exception {
+            return signRange(unsignedTransaction, from, to, keys, connectedScripts, payToAddress, aesKey);
+          }
+        }));
+    }
+
+    List<Script[]> results = Futures.allAsList(futures).get();
+
+    // Apply the input scripts in order
+    int index = 0;
+    for (Script[] scriptSigs : results) {
+      for (Script scriptSig : scriptSigs) {
+        transaction.getInput(index).setScriptSig(scriptSig);
+        index++;
+      }
+    }
+
+    log.debug("Signed {} inputs across {} tasks", inputCount, futures.size());
+
+    return true;
+  }
+
+  /**
+   * @return The input scripts for inputs [from, to)
+   */
+  private Script[] signRange(
+    byte[] unsignedTransaction,
+    int from,
+    int to,
+    ECKey[] keys,
+    byte[][] connectedScripts,
+    boolean[] payToAddress,
+    KeyParameter aesKey
+  ) {
+
+    Transaction copy = new Transaction(networkParameters, unsignedTransaction);
+
+    Script[] scriptSigs = new Script[to - from];
+    for (int i = from; i < to; i++) {
+
+      Sha256Hash hash = copy.hashForSignature(i, connectedScripts[i], Transaction.SigHash.ALL, false);
+      TransactionSignature signature = new TransactionSignature(keys[i].sign(hash, aesKey), Transaction.SigHash.ALL, false);
+
+      if (payToAddress[i]) {
+        scriptSigs[i - from] = ScriptBuilder.createInputScript(signature, keys[i]);
+      } else {
+        scriptSigs[i - from] = ScriptBuilder.createInputScript(signature);
+      }
+    }
+
+    return scriptSigs;
+  }
+
+  private static ListeningExecutorService getOrCreateSharedExecutor() {
+
+    synchronized (executorLock) {
+      if (sharedExecutor == null) {
+        sharedExecutor = SafeExecutors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), "transaction-signing");
+      }
+      return sharedExecutor;
+    }
+
+  }
+
+}
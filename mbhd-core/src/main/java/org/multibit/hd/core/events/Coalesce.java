@@ -0,0 +1,28 @@
+package org.multibit.hd.core.events;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Annotation to provide the following to event classes:</p>
+ * <ul>
+ * <li>Declaration that only the latest event of this class within the window needs to be delivered</li>
+ * </ul>
+ * <p>All instances share the same key. Use <code>EventCoalescer.register()</code> to coalesce by a property of the event.</p>
+ *
+ * @since 0.1.0
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Coalesce {
+
+  /**
+   * @return The window in milliseconds over which events are coalesced
+   */
+  long windowMillis();
+
+}
@@ -1,14 +1,15 @@
 package org.multibit.hd.core.events;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
-import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.dto.BitcoinNetworkStatus;
 import org.multibit.hd.core.dto.BitcoinNetworkSummary;
 import org.multibit.hd.core.dto.ExchangeSummary;
 import org.multibit.hd.core.dto.HistoryEntry;
@@ -19,14 +20,16 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.util.Currency;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>Factory to provide the following to application API:</p>
  * <ul>
  * <li>Entry point to broadcast core events</li>
+ * <li>Isolation of each subscriber so that a slow subscriber cannot stall the network or other subscribers</li>
  * </ul>
  *
  * @since 0.0.1
@@ -35,10 +38,13 @@ public class CoreEvents {
 
   private static final Logger log = LoggerFactory.getLogger(CoreEvents.class);
 
-  private static boolean waitingToFireSlowTransactionSeenEvent = false;
-  private static final Object lockObject = new Object();
+  /**
+   * The window over which blockchain download progress events are coalesced
+   */
+  private static final long NETWORK_PROGRESS_WINDOW_MILLIS = 250;
 
   // Provide a CoreEvent thread pool to ensure non-UI events are isolated from the EDT
+  // Each subscriber is drained by at most one of these threads at a time
   private static ListeningExecutorService eventExecutor = SafeExecutors.newFixedThreadPool(10, "core-events");
 
   // Provide a slower transaction seen thread that is isolated from the EDT
@@ -46,16 +52,75 @@ public class CoreEvents {
   private static volatile Optional<ListeningScheduledExecutorService> txSeenExecutorOptional = Optional.absent();
   private static boolean creatingTxSeenExecutor = false;
   private static final Object txSeenExecutorLock = new Object();
+  private static final AtomicInteger txSeenQueueDepth = new AtomicInteger();
 
   /**
-   * Use Guava to handle subscribers to events
+   * Queue events for each subscriber so that a slow subscriber cannot stall the posting thread or other subscribers
    */
-  private static final EventBus coreEventBus = new EventBus(ExceptionHandler.newSubscriberExceptionHandler());
+  private static final IsolatingEventBus coreEventBus = new IsolatingEventBus(
+    "core-events",
+    eventExecutor,
+    ExceptionHandler.newSubscriberExceptionHandler()
+  );
+
+  /**
+   * Deliver only the latest of high frequency events at the end of a window
+   */
+  private static final EventCoalescer coreEventCoalescer = new EventCoalescer(
+    "core-events",
+    SafeExecutors.newSingleThreadScheduledExecutor("core-events-coalescer"),
+    new EventCoalescer.EventSink() {
+      @Override
+      public void post(Object event) {
+        coreEventBus.post(event);
+      }
+    }
+  );
+
+  static {
+
+    // Expose handler latencies and queue depths
+    EventBusMetrics.INSTANCE.registerMBean();
+    EventBusMetrics.INSTANCE.registerQueueDepth(
+      "core-events",
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return coreEventBus.getQueueDepth();
+        }
+      });
+    EventBusMetrics.INSTANCE.registerQueueDepth(
+      "tx-seen",
+      new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return txSeenQueueDepth.get();
+        }
+      });
+
+    // Only blockchain download progress is coalesced, status changes are always delivered
+    coreEventCoalescer.register(
+      BitcoinNetworkChangedEvent.class,
+      NETWORK_PROGRESS_WINDOW_MILLIS,
+      new Function<BitcoinNetworkChangedEvent, Object>() {
+        @Override
+        public Object apply(BitcoinNetworkChangedEvent event) {
+          BitcoinNetworkSummary summary = event.getSummary();
+          if (summary.getStatus() == BitcoinNetworkStatus.DOWNLOADING_BLOCKCHAIN
+            && summary.getPercent() > 0
+            && summary.getPercent() < 100) {
+            return BitcoinNetworkStatus.DOWNLOADING_BLOCKCHAIN;
+          }
+          return null;
+        }
+      });
+
+  }
 
   /**
-   * Keep track of the Guava event bus subscribers for a clean shutdown
+   * Keep track of the event bus subscribers for a clean shutdown
    */
-  private static final Set<Object> coreEventBusSubscribers = Sets.newHashSet();
+  private static final Set<Object> coreEventBusSubscribers = Sets.newConcurrentHashSet();
 
   /**
    * Utilities have a private constructor
@@ -66,17 +131,32 @@ public class CoreEvents {
   /**
    * <p>Subscribe to events. Repeating a subscribe will not affect the event bus.</p>
    * <p>This approach ensures all subscribers will be correctly removed during a shutdown or wizard hide event</p>
+   * <p>Events are queued for the subscriber. If it falls behind, only <code>@Coalesce</code> event types are replaced by
+   * their latest and all other events are still delivered.</p>
    *
    * @param subscriber The subscriber (use the Guava <code>@Subscribe</code> annotation to subscribe a method)
    */
   public static void subscribe(Object subscriber) {
 
+    subscribe(subscriber, OverflowPolicy.COALESCE, IsolatingEventBus.DEFAULT_QUEUE_CAPACITY);
+
+  }
+
+  /**
+   * <p>Subscribe to events with control over how many events may be waiting. Repeating a subscribe will not affect the event bus.</p>
+   *
+   * @param subscriber     The subscriber (use the Guava <code>@Subscribe</code> annotation to subscribe a method)
+   * @param overflowPolicy The action to take when the subscriber falls behind
+   * @param capacity       The number of events that may be waiting before the overflow policy applies
+   */
+  public static void subscribe(Object subscriber, OverflowPolicy overflowPolicy, int capacity) {
+
     Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
 
     if (coreEventBusSubscribers.add(subscriber)) {
       log.trace("Register: " + subscriber.getClass().getSimpleName());
       try {
-        coreEventBus.register(subscriber);
+        coreEventBus.register(subscriber, overflowPolicy, capacity);
       } catch (IllegalArgumentException e) {
         log.warn("Unexpected failure to register");
       }
@@ -123,7 +203,7 @@ public class CoreEvents {
       unsubscribe(subscriber);
     }
     allSubscribers.clear();
-    log.info("All subscribers removed");
+    log.info("All subscribers removed. Events suppressed by coalescing: {}", coreEventCoalescer.getSuppressedCounts());
 
   }
 
@@ -142,15 +222,30 @@ public class CoreEvents {
     final DateTime expires
   ) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          ExchangeRateChangedEvent event = new ExchangeRateChangedEvent(rate, currency, rateProvider, expires);
-          coreEventBus.post(event);
-          log.debug("Firing 'exchange rate changed' event: {}", event);
-        }
-      });
+    fireExchangeRateChangedEvent(rate, currency, rateProvider, expires, false);
+
+  }
+
+  /**
+   * <p>Broadcast a new "exchange rate changed" event</p>
+   *
+   * @param rate         The rate in the local currency against Bitcoin (e.g. "1000" means 1000 local = 1 bitcoin)
+   * @param currency     The local currency
+   * @param rateProvider The rate provider (e.g. "Bitstamp" or absent if unknown)
+   * @param expires      The expiry timestamp of this rate
+   * @param stale        True if the rate was cached from a previous session
+   */
+  public static void fireExchangeRateChangedEvent(
+    final BigDecimal rate,
+    final Currency currency,
+    final Optional<String> rateProvider,
+    final DateTime expires,
+    final boolean stale
+  ) {
+
+    ExchangeRateChangedEvent event = new ExchangeRateChangedEvent(rate, currency, rateProvider, expires, stale);
+    coreEventCoalescer.post(event);
+    log.debug("Firing 'exchange rate changed' event: {}", event);
 
   }
 
@@ -161,14 +256,8 @@ public class CoreEvents {
    */
   public static void fireExchangeStatusChangedEvent(final ExchangeSummary exchangeSummary) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'exchange status changed' event");
-          coreEventBus.post(new ExchangeStatusChangedEvent(exchangeSummary));
-        }
-      });
+    log.trace("Firing 'exchange status changed' event");
+    coreEventCoalescer.post(new ExchangeStatusChangedEvent(exchangeSummary));
 
   }
 
@@ -179,14 +268,8 @@ public class CoreEvents {
    */
   public static void fireTransactionCreationEvent(final TransactionCreationEvent transactionCreationEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'transactionCreation' event");
-          coreEventBus.post(transactionCreationEvent);
-        }
-      });
+    log.trace("Firing 'transactionCreation' event");
+    coreEventCoalescer.post(transactionCreationEvent);
 
   }
 
@@ -197,14 +280,8 @@ public class CoreEvents {
    */
   public static void fireBitcoinSentEvent(final BitcoinSentEvent bitcoinSentEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'bitcoin sent' event");
-          coreEventBus.post(bitcoinSentEvent);
-        }
-      });
+    log.trace("Firing 'bitcoin sent' event");
+    coreEventCoalescer.post(bitcoinSentEvent);
   }
   /**
     * <p>Broadcast BitcoinSendingEvent</p>
@@ -213,14 +290,8 @@ public class CoreEvents {
     */
    public static void fireBitcoinSendingEvent(final BitcoinSendingEvent bitcoinSendingEvent) {
 
-     eventExecutor.submit(
-       new Runnable() {
-         @Override
-         public void run() {
-           log.trace("Firing 'bitcoin sending' event");
-           coreEventBus.post(bitcoinSendingEvent);
-         }
-       });
+     log.trace("Firing 'bitcoin sending' event");
+     coreEventCoalescer.post(bitcoinSendingEvent);
    }
 
   /**
@@ -230,14 +301,8 @@ public class CoreEvents {
    */
   public static void fireWalletLoadEvent(final WalletLoadEvent walletLoadEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'walletLoadEvent' event");
-          coreEventBus.post(walletLoadEvent);
-        }
-      });
+    log.trace("Firing 'walletLoadEvent' event");
+    coreEventCoalescer.post(walletLoadEvent);
   }
 
   /**
@@ -245,14 +310,8 @@ public class CoreEvents {
    */
   public static void fireChangePasswordResultEvent(final ChangePasswordResultEvent changePasswordResultEvent) {
 
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'change password result' event");
-          coreEventBus.post(changePasswordResultEvent);
-        }
-      });
+    log.trace("Firing 'change password result' event");
+    coreEventCoalescer.post(changePasswordResultEvent);
   }
 
   /**
@@ -260,8 +319,29 @@ public class CoreEvents {
    *
    * @param transactionSeenEvent containing transaction information
    */
-  @SuppressFBWarnings({"DC_DOUBLECHECK"})
   public static void fireTransactionSeenEvent(final TransactionSeenEvent transactionSeenEvent) {
+
+    // Use the tx-seen pool
+    Optional<ListeningScheduledExecutorService> txSeenExecutor = getOrCreateTxSeenExecutor();
+    if (txSeenExecutor.isPresent()) {
+      txSeenQueueDepth.incrementAndGet();
+      txSeenExecutor.get().submit(
+              new Runnable() {
+                @Override
+                public void run() {
+                  txSeenQueueDepth.decrementAndGet();
+                  coreEventCoalescer.post(transactionSeenEvent);
+                  consolidateTransactionSeenEvents();
+                }
+              });
+    }
+  }
+
+  /**
+   * @return The tx-seen executor, created on first use
+   */
+  @SuppressFBWarnings({"DC_DOUBLECHECK"})
+  private static Optional<ListeningScheduledExecutorService> getOrCreateTxSeenExecutor() {
     // If no txSeenExecutor construct it
     if (!txSeenExecutorOptional.isPresent() && !creatingTxSeenExecutor) {
       // Create inside a synchronized
@@ -276,17 +356,7 @@ public class CoreEvents {
       }
     }
 
-    // Use the tx-seen pool
-    if (txSeenExecutorOptional.isPresent()) {
-      txSeenExecutorOptional.get().submit(
-              new Runnable() {
-                @Override
-                public void run() {
-                  coreEventBus.post(transactionSeenEvent);
-                  consolidateTransactionSeenEvents();
-                }
-              });
-    }
+    return txSeenExecutorOptional;
   }
 
   /**
@@ -295,40 +365,27 @@ public class CoreEvents {
    * @param bitcoinSendProgressEvent containing transaction broadcast progress information
    */
   public static void fireBitcoinSendProgressEvent(final BitcoinSendProgressEvent bitcoinSendProgressEvent) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          coreEventBus.post(bitcoinSendProgressEvent);
-        }
-      });
+    coreEventCoalescer.post(bitcoinSendProgressEvent);
   }
 
   /**
-   * Consolidate many transactionSeenEvents into a single call per (slow) time interval
+   * <p>Consolidate many transactionSeenEvents into a single call per (slow) time interval</p>
+   * <p>Also used directly for the depth only confidence changes of a block</p>
    */
-  private static void consolidateTransactionSeenEvents() {
-
-    synchronized (lockObject) {
-      if (!waitingToFireSlowTransactionSeenEvent) {
-        // Fire in the future
-        waitingToFireSlowTransactionSeenEvent = true;
-        txSeenExecutorOptional.get().schedule(
-                new Callable() {
-                  @Override
-                  public Object call() throws Exception {
-                    coreEventBus.post(new SlowTransactionSeenEvent());
-                    synchronized (lockObject) {
-                      waitingToFireSlowTransactionSeenEvent = false;
-                    }
-                    return null;
-                  }
-                }, 1, TimeUnit.SECONDS);
-      }
-    }
+  public static void consolidateTransactionSeenEvents() {
+
+    // The event class declares the coalescing window
+    coreEventCoalescer.post(new SlowTransactionSeenEvent());
 
   }
 
+  /**
+   * @return The number of events suppressed by coalescing by event type
+   */
+  public static Map<String, Long> getSuppressedEventCounts() {
+    return coreEventCoalescer.getSuppressedCounts();
+  }
+
   /**
    * <p>Broadcast a new "Bitcoin network changed" event</p>
    *
@@ -344,7 +401,7 @@ public class CoreEvents {
       }
     }
 
-    coreEventBus.post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
+    coreEventCoalescer.post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
 
   }
 
@@ -354,14 +411,8 @@ public class CoreEvents {
    * @param securitySummary The security summary
    */
   public static void fireSecurityEvent(final SecuritySummary securitySummary) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'security' event");
-          coreEventBus.post(new SecurityEvent(securitySummary));
-        }
-      });
+    log.trace("Firing 'security' event");
+    coreEventCoalescer.post(new SecurityEvent(securitySummary));
   }
 
   /**
@@ -370,14 +421,8 @@ public class CoreEvents {
    * @param historyEntry The history entry from the History service
    */
   public static void fireHistoryChangedEvent(final HistoryEntry historyEntry) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'history changed' event");
-          coreEventBus.post(new HistoryChangedEvent(historyEntry));
-        }
-      });
+    log.trace("Firing 'history changed' event");
+    coreEventCoalescer.post(new HistoryChangedEvent(historyEntry));
   }
 
   /**
@@ -388,28 +433,16 @@ public class CoreEvents {
    * @param shutdownType The shutdown type
    */
   public static void fireShutdownEvent(final ShutdownEvent.ShutdownType shutdownType) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.info("Firing 'shutdown' event: {}", shutdownType);
-          coreEventBus.post(new ShutdownEvent(shutdownType));
-        }
-      });
+    log.info("Firing 'shutdown' event: {}", shutdownType);
+    coreEventCoalescer.post(new ShutdownEvent(shutdownType));
   }
 
   /**
    * <p>Broadcast a new "configuration changed" event</p>
    */
   public static void fireConfigurationChangedEvent() {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'configuration changed' event");
-          coreEventBus.post(new ConfigurationChangedEvent());
-        }
-      });
+    log.trace("Firing 'configuration changed' event");
+    coreEventCoalescer.post(new ConfigurationChangedEvent());
   }
 
   /**
@@ -418,14 +451,8 @@ public class CoreEvents {
    * @param exportPerformedEvent The export performed event
    */
   public static void fireExportPerformedEvent(final ExportPerformedEvent exportPerformedEvent) {
-    eventExecutor.submit(
-      new Runnable() {
-        @Override
-        public void run() {
-          log.trace("Firing 'export performed' event");
-          coreEventBus.post(exportPerformedEvent);
-        }
-      });
+    log.trace("Firing 'export performed' event");
+    coreEventCoalescer.post(exportPerformedEvent);
   }
 
 }
@@ -0,0 +1,407 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.metrics.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Metrics to provide the following to the event buses:</p>
+ * <ul>
+ * <li>Counts and latency histograms per (event type, subscriber)</li>
+ * <li>Detection of slow handlers with a stack sample taken while the handler is still running</li>
+ * <li>Queue depths of the event executors</li>
+ * <li>Exposure through JMX and on demand output to the log</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public enum EventBusMetrics implements EventBusMetricsMXBean {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(EventBusMetrics.class);
+
+  /**
+   * The JMX object name
+   */
+  public static final String OBJECT_NAME = "org.multibit.hd:type=EventBusMetrics";
+
+  /**
+   * A handler running longer than this on the EDT is noticeable to the user
+   */
+  private static final long DEFAULT_SLOW_HANDLER_THRESHOLD_MILLIS = 200;
+
+  /**
+   * The interval between checks for slow handlers
+   */
+  private static final long WATCHDOG_INTERVAL_MILLIS = 50;
+
+  /**
+   * The number of frames included in a stack sample
+   */
+  private static final int STACK_SAMPLE_DEPTH = 25;
+
+  /**
+   * Handler durations in nanoseconds by metric key
+   */
+  private final ConcurrentMap<String, Histogram> handlerStatistics = Maps.newConcurrentMap();
+
+  private final ConcurrentMap<String, Callable<Integer>> queueDepthGauges = Maps.newConcurrentMap();
+
+  /**
+   * The innermost handler currently running by thread (each dispatch links to any handler it is nested within)
+   */
+  private final ConcurrentMap<Thread, Dispatch> inFlight = Maps.newConcurrentMap();
+
+  private final AtomicLong slowHandlerCount = new AtomicLong();
+
+  private volatile long slowHandlerThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_HANDLER_THRESHOLD_MILLIS);
+
+  private ScheduledExecutorService watchdog = null;
+
+  private boolean registered = false;
+
+  /**
+   * <p>Register with the platform MBean server (repeated calls have no effect)</p>
+   */
+  public synchronized void registerMBean() {
+
+    if (registered) {
+      return;
+    }
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(OBJECT_NAME);
+      if (!mBeanServer.isRegistered(objectName)) {
+        mBeanServer.registerMBean(this, objectName);
+      }
+      registered = true;
+    } catch (Exception e) {
+      log.warn("Could not register event bus metrics with JMX", e);
+    }
+
+  }
+
+  /**
+   * @param name  The queue name
+   * @param gauge Provides the number of events waiting
+   */
+  public void registerQueueDepth(String name, Callable<Integer> gauge) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(gauge, "'gauge' must be present");
+
+    queueDepthGauges.put(name, gauge);
+
+  }
+
+  /**
+   * <p>Prepare the metric keys for a subscriber as it registers and start the slow handler watchdog</p>
+   *
+   * @param busName    The event bus name
+   * @param subscriber The subscriber
+   * @param eventTypes The event types accepted by the subscriber
+   *
+   * @return The handler keys to pass to <code>start()</code>
+   */
+  public HandlerKeys newHandlerKeys(String busName, Object subscriber, Set<Class<?>> eventTypes) {
+
+    Preconditions.checkNotNull(busName, "'busName' must be present");
+    Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
+    Preconditions.checkNotNull(eventTypes, "'eventTypes' must be present");
+
+    ensureWatchdog();
+
+    return new HandlerKeys(busName, subscriber, eventTypes);
+  }
+
+  /**
+   * <p>Mark the start of a handler invocation on the current thread</p>
+   *
+   * @param handlerKeys The handler keys from <code>newHandlerKeys()</code>
+   * @param event       The event
+   *
+   * @return The dispatch to pass to <code>stop()</code>
+   */
+  public Dispatch start(HandlerKeys handlerKeys, Object event) {
+
+    // Only the current thread changes its own entry so the enclosing dispatch cannot change underneath
+    Thread thread = Thread.currentThread();
+    Dispatch dispatch = new Dispatch(thread, handlerKeys.getKey(event.getClass()), inFlight.get(thread));
+    inFlight.put(thread, dispatch);
+
+    return dispatch;
+  }
+
+  /**
+   * <p>Mark the end of a handler invocation</p>
+   *
+   * @param dispatch The dispatch returned by <code>start()</code>
+   */
+  public void stop(Dispatch dispatch) {
+
+    long elapsed = System.nanoTime() - dispatch.startNanos;
+    dispatch.running = false;
+
+    // Restore any enclosing handler so that it can still be reported as slow
+    if (dispatch.enclosing != null) {
+      inFlight.replace(dispatch.thread, dispatch, dispatch.enclosing);
+    } else {
+      inFlight.remove(dispatch.thread, dispatch);
+    }
+
+    Histogram statistics = handlerStatistics.get(dispatch.key);
+    if (statistics == null) {
+      handlerStatistics.putIfAbsent(dispatch.key, new Histogram());
+      statistics = handlerStatistics.get(dispatch.key);
+    }
+    statistics.update(elapsed);
+
+    if (elapsed > slowHandlerThresholdNanos) {
+      slowHandlerCount.incrementAndGet();
+      if (!dispatch.sampled) {
+        log.warn("Slow handler '{}' took {}ms", dispatch.key, TimeUnit.NANOSECONDS.toMillis(elapsed));
+      } else {
+        log.warn("Slow handler '{}' completed after {}ms", dispatch.key, TimeUnit.NANOSECONDS.toMillis(elapsed));
+      }
+    }
+
+  }
+
+  @Override
+  public String[] getHandlerStatistics() {
+
+    List<Map.Entry<String, Histogram>> entries = Lists.newArrayList(handlerStatistics.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Histogram>>() {
+      @Override
+      public int compare(Map.Entry<String, Histogram> a, Map.Entry<String, Histogram> b) {
+        return Long.compare(b.getValue().getTotal(), a.getValue().getTotal());
+      }
+    });
+
+    String[] lines = new String[entries.size()];
+    for (int i = 0; i < lines.length; i++) {
+      Histogram histogram = entries.get(i).getValue();
+      lines[i] = String.format(
+        Locale.UK,
+        "%s count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+        entries.get(i).getKey(),
+        histogram.getCount(),
+        histogram.getMean() / 1_000_000,
+        histogram.getValueAtPercentile(0.5) / 1_000_000.0,
+        histogram.getValueAtPercentile(0.99) / 1_000_000.0,
+        histogram.getMax() / 1_000_000.0
+      );
+    }
+
+    return lines;
+  }
+
+  @Override
+  public Map<String, Integer> getQueueDepths() {
+
+    Map<String, Integer> queueDepths = Maps.newTreeMap();
+    for (Map.Entry<String, Callable<Integer>> entry : queueDepthGauges.entrySet()) {
+      try {
+        queueDepths.put(entry.getKey(), entry.getValue().call());
+      } catch (Exception e) {
+        queueDepths.put(entry.getKey(), -1);
+      }
+    }
+
+    return queueDepths;
+  }
+
+  @Override
+  public long getSlowHandlerCount() {
+    return slowHandlerCount.get();
+  }
+
+  @Override
+  public long getSlowHandlerThresholdMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(slowHandlerThresholdNanos);
+  }
+
+  @Override
+  public void setSlowHandlerThresholdMillis(long thresholdMillis) {
+
+    Preconditions.checkArgument(thresholdMillis > 0, "'thresholdMillis' must be positive");
+
+    slowHandlerThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+  }
+
+  @Override
+  public void dumpToLog() {
+
+    StringBuilder sb = new StringBuilder("Event bus metrics (slow handlers: ")
+      .append(getSlowHandlerCount())
+      .append(")\nQueue depths: ")
+      .append(getQueueDepths());
+    for (String line : getHandlerStatistics()) {
+      sb.append("\n").append(line);
+    }
+
+    log.info(sb.toString());
+  }
+
+  @Override
+  public void reset() {
+
+    handlerStatistics.clear();
+    slowHandlerCount.set(0);
+
+  }
+
+  private synchronized void ensureWatchdog() {
+
+    if (watchdog != null) {
+      return;
+    }
+
+    watchdog = SafeExecutors.newSingleThreadScheduledExecutor("event-bus-watchdog");
+    watchdog.scheduleWithFixedDelay(
+      new Runnable() {
+        @Override
+        public void run() {
+          sampleSlowHandlers();
+        }
+      }, WATCHDOG_INTERVAL_MILLIS, WATCHDOG_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+  }
+
+  /**
+   * <p>Take a stack sample of each handler that has exceeded the threshold and is still running</p>
+   */
+  private void sampleSlowHandlers() {
+
+    long now = System.nanoTime();
+    for (Dispatch innermost : inFlight.values()) {
+      for (Dispatch dispatch = innermost; dispatch != null; dispatch = dispatch.enclosing) {
+        sample(dispatch, now);
+      }
+    }
+
+  }
+
+  /**
+   * @param dispatch The handler invocation
+   * @param now      The current time in nanoseconds
+   */
+  private void sample(Dispatch dispatch, long now) {
+
+    if (dispatch.sampled || !dispatch.running || now - dispatch.startNanos < slowHandlerThresholdNanos) {
+      return;
+    }
+    dispatch.sampled = true;
+
+    StackTraceElement[] stackTrace = dispatch.thread.getStackTrace();
+
+    // The handler may have completed while the stack was captured
+    if (!dispatch.running) {
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < Math.min(stackTrace.length, STACK_SAMPLE_DEPTH); i++) {
+      sb.append("\n\tat ").append(stackTrace[i]);
+    }
+
+    log.warn(
+      "Slow handler '{}' on thread '{}' running for {}ms:{}",
+      dispatch.key,
+      dispatch.thread.getName(),
+      TimeUnit.NANOSECONDS.toMillis(now - dispatch.startNanos),
+      sb
+    );
+
+  }
+
+  /**
+   * <p>The metric keys of a single subscriber by event type</p>
+   */
+  public static class HandlerKeys {
+
+    private final String busName;
+    private final String subscriberName;
+    private final ConcurrentMap<Class<?>, String> keys = Maps.newConcurrentMap();
+
+    private HandlerKeys(String busName, Object subscriber, Set<Class<?>> eventTypes) {
+
+      this.busName = busName;
+      this.subscriberName = subscriber.getClass().getName();
+
+      for (Class<?> eventType : eventTypes) {
+        keys.put(eventType, newKey(eventType));
+      }
+    }
+
+    /**
+     * @param eventType The event type being delivered
+     *
+     * @return The metric key (built on first use for subtypes of the subscribed types)
+     */
+    private String getKey(Class<?> eventType) {
+
+      String key = keys.get(eventType);
+      if (key == null) {
+        key = newKey(eventType);
+        keys.putIfAbsent(eventType, key);
+      }
+
+      return key;
+    }
+
+    private String newKey(Class<?> eventType) {
+      return busName + " " + eventType.getSimpleName() + " -> " + subscriberName;
+    }
+
+  }
+
+  /**
+   * <p>A handler invocation in progress</p>
+   */
+  public static class Dispatch {
+
+    private final Thread thread;
+    private final String key;
+    private final Dispatch enclosing;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running = true;
+    private volatile boolean sampled = false;
+
+    private Dispatch(Thread thread, String key, Dispatch enclosing) {
+      this.thread = thread;
+      this.key = key;
+      this.enclosing = enclosing;
+    }
+
+    /**
+     * @return True if a stack sample has been taken because the handler was slow
+     */
+    boolean isSampled() {
+      return sampled;
+    }
+
+  }
+
+}
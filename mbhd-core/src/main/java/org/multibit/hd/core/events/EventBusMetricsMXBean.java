@@ -0,0 +1,52 @@
+package org.multibit.hd.core.events;
+
+import java.util.Map;
+
+/**
+ * <p>Management interface to provide the following to JMX clients:</p>
+ * <ul>
+ * <li>Event handler counts and latencies for the core and view event buses</li>
+ * <li>Event queue depths</li>
+ * <li>Control of slow handler detection</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public interface EventBusMetricsMXBean {
+
+  /**
+   * @return One line per (bus, event type, subscriber) with count and latency percentiles, slowest total first
+   */
+  String[] getHandlerStatistics();
+
+  /**
+   * @return The number of events waiting for delivery by queue name
+   */
+  Map<String, Integer> getQueueDepths();
+
+  /**
+   * @return The number of handler invocations that exceeded the slow handler threshold
+   */
+  long getSlowHandlerCount();
+
+  /**
+   * @return The duration in milliseconds above which a handler is reported as slow
+   */
+  long getSlowHandlerThresholdMillis();
+
+  /**
+   * @param thresholdMillis The duration in milliseconds above which a handler is reported as slow
+   */
+  void setSlowHandlerThresholdMillis(long thresholdMillis);
+
+  /**
+   * <p>Write the handler statistics and queue depths to the log</p>
+   */
+  void dumpToLog();
+
+  /**
+   * <p>Discard all handler statistics</p>
+   */
+  void reset();
+
+}
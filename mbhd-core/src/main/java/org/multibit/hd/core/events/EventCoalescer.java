@@ -0,0 +1,339 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Coalescer to provide the following to event buses:</p>
+ * <ul>
+ * <li>Delivery of only the latest event per key at the end of a window for high frequency events</li>
+ * <li>Declaration through the <code>@Coalesce</code> annotation or registration with a key function</li>
+ * <li>A count of the events suppressed by coalescing</li>
+ * </ul>
+ * <p>Event types without a rule pass straight through. If a key function returns null the event passes straight
+ * through after any pending events of the same type, so that a significant event is never overtaken by an
+ * older coalesced one.</p>
+ * <p>Events are never posted to the sink while the coalescer lock is held. Outgoing events join a queue under the
+ * lock and one thread at a time drains it, which keeps their order without blocking other posting threads on a
+ * slow sink.</p>
+ *
+ * @since 0.1.0
+ */
+public class EventCoalescer {
+
+  private static final Logger log = LoggerFactory.getLogger(EventCoalescer.class);
+
+  /**
+   * <p>The destination for events leaving the coalescer</p>
+   */
+  public interface EventSink {
+
+    /**
+     * @param event The event to deliver
+     */
+    void post(Object event);
+
+  }
+
+  private final String name;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final EventSink sink;
+
+  /**
+   * Rules by event type including those discovered from annotations (absent if the type is not coalesced)
+   */
+  private final ConcurrentMap<Class<?>, Optional<Rule>> rules = Maps.newConcurrentMap();
+
+  /**
+   * Events waiting for the end of their window by type then key
+   */
+  private final Map<Class<?>, Map<Object, PendingEvent>> pendingEvents = Maps.newHashMap();
+
+  private final ConcurrentMap<Class<?>, AtomicLong> suppressedCounts = Maps.newConcurrentMap();
+
+  /**
+   * Events leaving the coalescer in order (guarded by the lock)
+   */
+  private final Queue<Object> outgoingEvents = new ArrayDeque<>();
+
+  /**
+   * True while a thread is draining the outgoing events (guarded by the lock)
+   */
+  private boolean draining = false;
+
+  private final Object lock = new Object();
+
+  /**
+   * @param name      The name of the coalescer (for logging)
+   * @param scheduler The scheduler used to deliver events at the end of their window
+   * @param sink      The destination for events
+   */
+  public EventCoalescer(String name, ScheduledExecutorService scheduler, EventSink sink) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(scheduler, "'scheduler' must be present");
+    Preconditions.checkNotNull(sink, "'sink' must be present");
+
+    this.name = name;
+    this.scheduler = scheduler;
+    this.sink = sink;
+  }
+
+  /**
+   * <p>Coalesce events of the given type by a key (overrides any <code>@Coalesce</code> annotation)</p>
+   *
+   * @param eventType    The exact event type
+   * @param windowMillis The window in milliseconds
+   * @param keyFunction  The function providing the key (null to deliver the event immediately)
+   */
+  @SuppressWarnings("unchecked")
+  public <T> void register(Class<T> eventType, long windowMillis, Function<? super T, ?> keyFunction) {
+
+    Preconditions.checkNotNull(eventType, "'eventType' must be present");
+    Preconditions.checkArgument(windowMillis > 0, "'windowMillis' must be positive");
+    Preconditions.checkNotNull(keyFunction, "'keyFunction' must be present");
+
+    rules.put(eventType, Optional.of(new Rule(windowMillis, (Function<Object, ?>) keyFunction)));
+
+  }
+
+  /**
+   * @param event The event to deliver now or at the end of its window
+   */
+  public void post(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    final Class<?> eventType = event.getClass();
+    Optional<Rule> rule = getRule(eventType);
+    if (!rule.isPresent()) {
+      sink.post(event);
+      return;
+    }
+
+    final Object key = rule.get().keyFunction.apply(event);
+
+    final boolean drain;
+    synchronized (lock) {
+
+      Map<Object, PendingEvent> pendingForType = pendingEvents.get(eventType);
+      if (pendingForType == null) {
+        pendingForType = Maps.newLinkedHashMap();
+        pendingEvents.put(eventType, pendingForType);
+      }
+
+      if (key == null) {
+        // Preserve ordering with anything already waiting
+        for (Object pendingKey : pendingForType.keySet().toArray()) {
+          deliver(eventType, pendingKey);
+        }
+        outgoingEvents.offer(event);
+        drain = startDraining();
+
+      } else {
+
+        PendingEvent pendingEvent = pendingForType.get(key);
+        if (pendingEvent != null) {
+          pendingEvent.event = event;
+          pendingEvent.suppressed++;
+          return;
+        }
+
+        pendingForType.put(key, new PendingEvent(event));
+        try {
+          scheduler.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                final boolean drain;
+                synchronized (lock) {
+                  deliver(eventType, key);
+                  drain = startDraining();
+                }
+                if (drain) {
+                  drainOutgoingEvents();
+                }
+              }
+            }, rule.get().windowMillis, TimeUnit.MILLISECONDS);
+          return;
+        } catch (RejectedExecutionException e) {
+          // Shutting down so deliver immediately
+          deliver(eventType, key);
+          drain = startDraining();
+        }
+      }
+
+    }
+
+    if (drain) {
+      drainOutgoingEvents();
+    }
+
+  }
+
+  /**
+   * @return The total number of events suppressed by coalescing
+   */
+  public long getSuppressedCount() {
+
+    long total = 0;
+    for (AtomicLong count : suppressedCounts.values()) {
+      total += count.get();
+    }
+
+    return total;
+  }
+
+  /**
+   * @return The number of events suppressed by coalescing by event type simple name
+   */
+  public Map<String, Long> getSuppressedCounts() {
+
+    Map<String, Long> counts = Maps.newTreeMap();
+    for (Map.Entry<Class<?>, AtomicLong> entry : suppressedCounts.entrySet()) {
+      counts.put(entry.getKey().getSimpleName(), entry.getValue().get());
+    }
+
+    return counts;
+  }
+
+  /**
+   * <p>Claim the outgoing events for the current thread (lock must be held)</p>
+   *
+   * @return True if the current thread must drain the outgoing events, false if another thread is already draining
+   */
+  private boolean startDraining() {
+
+    if (draining || outgoingEvents.isEmpty()) {
+      return false;
+    }
+    draining = true;
+
+    return true;
+  }
+
+  /**
+   * <p>Post the outgoing events to the sink in order without holding the lock</p>
+   */
+  private void drainOutgoingEvents() {
+
+    while (true) {
+
+      Object event;
+      synchronized (lock) {
+        event = outgoingEvents.poll();
+        if (event == null) {
+          draining = false;
+          return;
+        }
+      }
+
+      try {
+        sink.post(event);
+      } catch (RuntimeException e) {
+        // Keep draining so later events are not stranded
+        log.error("Failed to post '{}' on '{}'", event.getClass().getSimpleName(), name, e);
+      }
+    }
+
+  }
+
+  /**
+   * <p>Move the pending event for the key to the outgoing events (lock must be held)</p>
+   */
+  private void deliver(Class<?> eventType, Object key) {
+
+    Map<Object, PendingEvent> pendingForType = pendingEvents.get(eventType);
+    PendingEvent pendingEvent = pendingForType == null ? null : pendingForType.remove(key);
+    if (pendingEvent == null) {
+      // Already delivered ahead of an uncoalesced event
+      return;
+    }
+
+    if (pendingEvent.suppressed > 0) {
+
+      AtomicLong count = suppressedCounts.get(eventType);
+      if (count == null) {
+        suppressedCounts.putIfAbsent(eventType, new AtomicLong());
+        count = suppressedCounts.get(eventType);
+      }
+      long total = count.addAndGet(pendingEvent.suppressed);
+
+      log.trace("Coalesced {} '{}' events on '{}' ({} in total)", pendingEvent.suppressed, eventType.getSimpleName(), name, total);
+    }
+
+    outgoingEvents.offer(pendingEvent.event);
+
+  }
+
+  /**
+   * @return The rule for the event type, discovering any annotation on first use
+   */
+  private Optional<Rule> getRule(Class<?> eventType) {
+
+    Optional<Rule> rule = rules.get(eventType);
+    if (rule == null) {
+
+      Coalesce coalesce = eventType.getAnnotation(Coalesce.class);
+      if (coalesce != null) {
+        final Class<?> sharedKey = eventType;
+        rule = Optional.of(new Rule(
+          coalesce.windowMillis(),
+          new Function<Object, Object>() {
+            @Override
+            public Object apply(Object input) {
+              return sharedKey;
+            }
+          }));
+      } else {
+        rule = Optional.absent();
+      }
+
+      Optional<Rule> existing = rules.putIfAbsent(eventType, rule);
+      if (existing != null) {
+        rule = existing;
+      }
+    }
+
+    return rule;
+  }
+
+  private static class Rule {
+
+    private final long windowMillis;
+    private final Function<Object, ?> keyFunction;
+
+    private Rule(long windowMillis, Function<Object, ?> keyFunction) {
+      this.windowMillis = windowMillis;
+      this.keyFunction = keyFunction;
+    }
+
+  }
+
+  private static class PendingEvent {
+
+    private Object event;
+    private long suppressed = 0;
+
+    private PendingEvent(Object event) {
+      this.event = event;
+    }
+
+  }
+
+}
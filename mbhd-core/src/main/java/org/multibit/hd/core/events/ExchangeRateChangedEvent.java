@@ -14,6 +14,7 @@ import java.util.Currency;
  * </ul>
  *
  * <p>This is an infrequent event</p>
+ * <p>A stale event carries the last good rate from a previous session until the exchange is reached again</p>
 
  * @since 0.0.1
  *
@@ -24,6 +25,7 @@ public class ExchangeRateChangedEvent implements CoreEvent {
   private final Currency currency;
   private final Optional<String> rateProvider;
   private final DateTime expires;
+  private final boolean stale;
 
   /**
    * @param rate         The rate with the local currency (e.g. "1000" means 1000 local = 1 bitcoin)
@@ -31,10 +33,21 @@ public class ExchangeRateChangedEvent implements CoreEvent {
    * @param expires      The expiry timestamp of this rate
    */
   public ExchangeRateChangedEvent(BigDecimal rate, Currency currency, Optional<String> rateProvider, DateTime expires) {
+    this(rate, currency, rateProvider, expires, false);
+  }
+
+  /**
+   * @param rate         The rate with the local currency (e.g. "1000" means 1000 local = 1 bitcoin)
+   * @param rateProvider The rate provider (absent if unknown)
+   * @param expires      The expiry timestamp of this rate
+   * @param stale        True if this rate was cached from a previous session rather than received from the exchange
+   */
+  public ExchangeRateChangedEvent(BigDecimal rate, Currency currency, Optional<String> rateProvider, DateTime expires, boolean stale) {
     this.rate = rate;
     this.currency = currency;
     this.rateProvider = rateProvider;
     this.expires = expires;
+    this.stale = stale;
   }
 
   /**
@@ -59,10 +72,17 @@ public class ExchangeRateChangedEvent implements CoreEvent {
   }
 
   /**
-   * @return True if this rate is still within the expiry timestamp and the rate provider is present
+   * @return True if this rate was cached from a previous session rather than received from the exchange
+   */
+  public boolean isStale() {
+    return stale;
+  }
+
+  /**
+   * @return True if this rate is not stale, is still within the expiry timestamp and the rate provider is present
    */
   public boolean isValid() {
-    return Dates.nowUtc().isBefore(expires) && rateProvider.isPresent();
+    return !stale && Dates.nowUtc().isBefore(expires) && rateProvider.isPresent();
   }
 
   public Currency getCurrency() {
@@ -76,6 +96,7 @@ public class ExchangeRateChangedEvent implements CoreEvent {
       ", currency=" + currency +
       ", exchangeName='" + rateProvider.or("None") + '\'' +
       ", expires=" + expires +
+      ", stale=" + stale +
       '}';
   }
 }
@@ -0,0 +1,179 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.SubscriberExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>Event bus to provide the following to ViewEvents:</p>
+ * <ul>
+ * <li>Synchronous delivery on the posting thread as with the Guava <code>EventBus</code></li>
+ * <li>Timing of each (event type, subscriber) through <code>EventBusMetrics</code></li>
+ * </ul>
+ * <p>Events posted by a handler are delivered after the current event has reached all subscribers, matching
+ * the Guava dispatch order.</p>
+ *
+ * @since 0.1.0
+ */
+public class InstrumentedEventBus {
+
+  private static final Logger log = LoggerFactory.getLogger(InstrumentedEventBus.class);
+
+  private final String name;
+
+  private final SubscriberExceptionHandler exceptionHandler;
+
+  private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  /**
+   * Events posted by handlers on this thread waiting for the current dispatch to complete
+   */
+  private final ThreadLocal<Queue<Object>> eventsToDispatch = new ThreadLocal<Queue<Object>>() {
+    @Override
+    protected Queue<Object> initialValue() {
+      return new ArrayDeque<>();
+    }
+  };
+
+  private final ThreadLocal<Boolean> isDispatching = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+  /**
+   * @param name             The name of the bus (for metrics)
+   * @param exceptionHandler The handler for exceptions thrown by subscribers
+   */
+  public InstrumentedEventBus(String name, SubscriberExceptionHandler exceptionHandler) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(exceptionHandler, "'exceptionHandler' must be present");
+
+    this.name = name;
+    this.exceptionHandler = exceptionHandler;
+  }
+
+  /**
+   * @param subscriber The subscriber (use the Guava <code>@Subscribe</code> annotation to subscribe a method)
+   */
+  public synchronized void register(Object subscriber) {
+
+    Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
+
+    if (find(subscriber) == null) {
+      subscribers.add(new Subscriber(subscriber));
+    }
+
+  }
+
+  /**
+   * @param subscriber The subscriber
+   *
+   * @throws IllegalArgumentException If the subscriber is not registered
+   */
+  public synchronized void unregister(Object subscriber) {
+
+    Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
+
+    Subscriber registered = find(subscriber);
+    if (registered == null || !subscribers.remove(registered)) {
+      throw new IllegalArgumentException("Missing event subscriber for an annotated method. Is " + subscriber + " registered?");
+    }
+
+  }
+
+  /**
+   * @param event The event to deliver to all subscribers accepting its type
+   */
+  public void post(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    eventsToDispatch.get().offer(event);
+
+    if (isDispatching.get()) {
+      // Delivered once the current event is complete
+      return;
+    }
+
+    isDispatching.set(true);
+    try {
+      Object next;
+      while ((next = eventsToDispatch.get().poll()) != null) {
+        dispatch(next);
+      }
+    } finally {
+      isDispatching.remove();
+      eventsToDispatch.remove();
+    }
+
+  }
+
+  /**
+   * @return The registered subscriber (identity match) or null
+   */
+  private Subscriber find(Object subscriber) {
+
+    for (Subscriber registered : subscribers) {
+      if (registered.subscriber == subscriber) {
+        return registered;
+      }
+    }
+
+    return null;
+  }
+
+  private void dispatch(Object event) {
+
+    boolean delivered = false;
+    for (Subscriber subscriber : subscribers) {
+
+      if (!subscriber.types.accepts(event.getClass())) {
+        continue;
+      }
+      delivered = true;
+
+      EventBusMetrics.Dispatch dispatch = EventBusMetrics.INSTANCE.start(subscriber.handlerKeys, event);
+      try {
+        // Exceptions are passed to the exception handler by the subscriber event bus
+        subscriber.eventBus.post(event);
+      } finally {
+        EventBusMetrics.INSTANCE.stop(dispatch);
+      }
+    }
+
+    if (!delivered) {
+      log.trace("No subscribers on '{}' for {}", name, event.getClass().getSimpleName());
+    }
+
+  }
+
+  /**
+   * <p>A subscriber with its own Guava event bus</p>
+   */
+  private class Subscriber {
+
+    private final Object subscriber;
+    private final SubscriberTypes types;
+    private final EventBus eventBus;
+    private final EventBusMetrics.HandlerKeys handlerKeys;
+
+    private Subscriber(Object subscriber) {
+      this.subscriber = subscriber;
+      this.types = new SubscriberTypes(subscriber.getClass());
+      this.eventBus = new EventBus(exceptionHandler);
+      this.eventBus.register(subscriber);
+      this.handlerKeys = EventBusMetrics.INSTANCE.newHandlerKeys(name, subscriber, types.getTypes());
+    }
+
+  }
+
+}
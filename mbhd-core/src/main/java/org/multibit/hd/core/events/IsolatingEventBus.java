@@ -0,0 +1,424 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.SubscriberExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Event bus to provide the following to CoreEvents:</p>
+ * <ul>
+ * <li>Posting that only enqueues, so a slow subscriber can never stall the posting thread (e.g. a peer thread)</li>
+ * <li>A queue per subscriber, drained by at most one delivery thread at a time</li>
+ * <li>Delivery in posting order for each subscriber (and hence for each event type)</li>
+ * <li>A configurable overflow policy per subscriber (only <code>@Coalesce</code> event types are ever replaced by
+ * default)</li>
+ * <li>Timing of each (event type, subscriber) through <code>EventBusMetrics</code></li>
+ * </ul>
+ * <p>Subscribers use the Guava <code>@Subscribe</code> annotation as before. Each subscriber is registered with its
+ * own Guava <code>EventBus</code> which is only ever posted to from the subscriber queue.</p>
+ *
+ * @since 0.1.0
+ */
+public class IsolatingEventBus {
+
+  private static final Logger log = LoggerFactory.getLogger(IsolatingEventBus.class);
+
+  /**
+   * The default number of events a subscriber may have waiting before the overflow policy applies
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 1_000;
+
+  /**
+   * The maximum number of events delivered in one task before yielding the delivery thread to other subscribers
+   */
+  private static final int DELIVERY_BATCH_SIZE = 64;
+
+  /**
+   * Identifies the queue being drained by the current thread to avoid blocking on itself
+   */
+  private static final ThreadLocal<SubscriberQueue> drainingQueue = new ThreadLocal<>();
+
+  private final String name;
+
+  private final Executor deliveryExecutor;
+
+  private final SubscriberExceptionHandler exceptionHandler;
+
+  private final ConcurrentMap<Object, SubscriberQueue> subscriberQueues = Maps.newConcurrentMap();
+
+  /**
+   * @param name              The name of the bus (for logging)
+   * @param deliveryExecutor  The executor shared by all subscriber queues for delivery
+   * @param exceptionHandler  The handler for exceptions thrown by subscribers
+   */
+  public IsolatingEventBus(String name, Executor deliveryExecutor, SubscriberExceptionHandler exceptionHandler) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(deliveryExecutor, "'deliveryExecutor' must be present");
+    Preconditions.checkNotNull(exceptionHandler, "'exceptionHandler' must be present");
+
+    this.name = name;
+    this.deliveryExecutor = deliveryExecutor;
+    this.exceptionHandler = exceptionHandler;
+  }
+
+  /**
+   * @param subscriber     The subscriber (use the Guava <code>@Subscribe</code> annotation to subscribe a method)
+   * @param overflowPolicy The action to take when the subscriber falls behind
+   * @param capacity       The number of events that may be waiting before the overflow policy applies
+   *
+   * @return True if the subscriber was registered, false if it was already registered
+   */
+  public boolean register(Object subscriber, OverflowPolicy overflowPolicy, int capacity) {
+
+    Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
+    Preconditions.checkNotNull(overflowPolicy, "'overflowPolicy' must be present");
+    Preconditions.checkArgument(capacity > 0, "'capacity' must be positive");
+
+    SubscriberQueue subscriberQueue = new SubscriberQueue(subscriber, overflowPolicy, capacity);
+
+    return subscriberQueues.putIfAbsent(subscriber, subscriberQueue) == null;
+  }
+
+  /**
+   * <p>Remove the subscriber. No further events are queued for it and those still waiting are dropped (an event
+   * already being delivered completes).</p>
+   *
+   * @param subscriber The subscriber
+   *
+   * @return True if the subscriber was unregistered, false if it was not registered
+   */
+  public boolean unregister(Object subscriber) {
+
+    Preconditions.checkNotNull(subscriber, "'subscriber' must be present");
+
+    SubscriberQueue subscriberQueue = subscriberQueues.remove(subscriber);
+    if (subscriberQueue == null) {
+      return false;
+    }
+
+    subscriberQueue.close();
+
+    return true;
+  }
+
+  /**
+   * <p>Queue the event for all subscribers accepting its type</p>
+   *
+   * @param event The event
+   */
+  public void post(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    boolean delivered = false;
+    for (SubscriberQueue subscriberQueue : subscriberQueues.values()) {
+      if (subscriberQueue.accepts(event.getClass())) {
+        subscriberQueue.offer(event);
+        delivered = true;
+      }
+    }
+
+    if (!delivered) {
+      log.trace("No subscribers on '{}' for {}", name, event.getClass().getSimpleName());
+    }
+
+  }
+
+  /**
+   * @return The total number of events dropped or replaced by overflow policies
+   */
+  public long getDroppedCount() {
+
+    long dropped = 0;
+    for (SubscriberQueue subscriberQueue : subscriberQueues.values()) {
+      dropped += subscriberQueue.getDroppedCount();
+    }
+
+    return dropped;
+  }
+
+  /**
+   * @return The number of events waiting for delivery across all subscribers
+   */
+  public int getQueueDepth() {
+
+    int depth = 0;
+    for (SubscriberQueue subscriberQueue : subscriberQueues.values()) {
+      depth += subscriberQueue.size();
+    }
+
+    return depth;
+  }
+
+  /**
+   * @return The number of events waiting for delivery by subscriber class name
+   */
+  public Map<String, Integer> getQueueDepths() {
+
+    Map<String, Integer> queueDepths = Maps.newTreeMap();
+    for (SubscriberQueue subscriberQueue : subscriberQueues.values()) {
+      String key = subscriberQueue.subscriber.getClass().getName();
+      Integer depth = queueDepths.get(key);
+      queueDepths.put(key, (depth == null ? 0 : depth) + subscriberQueue.size());
+    }
+
+    return queueDepths;
+  }
+
+  /**
+   * <p>The bounded queue and delivery state for a single subscriber</p>
+   */
+  private class SubscriberQueue implements Runnable {
+
+    private final Object subscriber;
+    private final OverflowPolicy overflowPolicy;
+    private final int capacity;
+
+    private final EventBus subscriberEventBus;
+    private final SubscriberTypes types;
+    private final EventBusMetrics.HandlerKeys handlerKeys;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Object> events = new ArrayDeque<>();
+
+    private boolean scheduled = false;
+    private boolean closed = false;
+    private long droppedCount = 0;
+    private long overCapacityCount = 0;
+
+    private SubscriberQueue(Object subscriber, OverflowPolicy overflowPolicy, int capacity) {
+
+      this.subscriber = subscriber;
+      this.overflowPolicy = overflowPolicy;
+      this.capacity = capacity;
+
+      this.subscriberEventBus = new EventBus(exceptionHandler);
+      this.subscriberEventBus.register(subscriber);
+      this.types = new SubscriberTypes(subscriber.getClass());
+      this.handlerKeys = EventBusMetrics.INSTANCE.newHandlerKeys(name, subscriber, types.getTypes());
+    }
+
+    private boolean accepts(Class<?> eventType) {
+      return types.accepts(eventType);
+    }
+
+    private void offer(Object event) {
+
+      lock.lock();
+      try {
+
+        if (closed) {
+          return;
+        }
+
+        if (events.size() >= capacity) {
+          makeRoom(event);
+        }
+
+        if (closed) {
+          return;
+        }
+
+        events.addLast(event);
+
+        if (!scheduled) {
+          scheduled = true;
+          schedule();
+        }
+
+      } finally {
+        lock.unlock();
+      }
+
+    }
+
+    /**
+     * <p>Apply the overflow policy (lock must be held)</p>
+     */
+    private void makeRoom(Object event) {
+
+      switch (overflowPolicy) {
+        case COALESCE:
+          if (event.getClass().isAnnotationPresent(Coalesce.class)) {
+            // Only the latest of a coalescable type matters
+            Iterator<Object> iterator = events.descendingIterator();
+            while (iterator.hasNext()) {
+              if (iterator.next().getClass() == event.getClass()) {
+                iterator.remove();
+                droppedCount++;
+                return;
+              }
+            }
+          }
+          // Never lose any other event so let the queue grow past its capacity
+          exceedCapacity(event);
+          break;
+        case DROP_OLDEST:
+          dropOldest();
+          break;
+        case BLOCK:
+          if (drainingQueue.get() == this) {
+            // Posting from within our own handler would never complete
+            dropOldest();
+            break;
+          }
+          while (events.size() >= capacity && !closed) {
+            notFull.awaitUninterruptibly();
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unknown overflow policy: " + overflowPolicy);
+      }
+
+    }
+
+    private void dropOldest() {
+
+      Object dropped = events.pollFirst();
+      droppedCount++;
+
+      if (droppedCount == 1 || droppedCount % 1_000 == 0) {
+        log.warn(
+          "Subscriber '{}' on '{}' is falling behind. Dropped {} events (latest {})",
+          subscriber.getClass().getSimpleName(),
+          name,
+          droppedCount,
+          dropped == null ? "?" : dropped.getClass().getSimpleName()
+        );
+      }
+    }
+
+    private void exceedCapacity(Object event) {
+
+      overCapacityCount++;
+
+      if (overCapacityCount == 1 || overCapacityCount % 1_000 == 0) {
+        log.warn(
+          "Subscriber '{}' on '{}' is falling behind. Queued {} events beyond capacity of {} (latest {})",
+          subscriber.getClass().getSimpleName(),
+          name,
+          overCapacityCount,
+          capacity,
+          event.getClass().getSimpleName()
+        );
+      }
+    }
+
+    /**
+     * <p>Hand the queue to the delivery executor (lock must be held)</p>
+     */
+    private void schedule() {
+
+      try {
+        deliveryExecutor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // Shutting down so nothing further will be delivered
+        log.debug("Delivery rejected for '{}' on '{}'", subscriber.getClass().getSimpleName(), name);
+        scheduled = false;
+      }
+
+    }
+
+    @Override
+    public void run() {
+
+      drainingQueue.set(this);
+      try {
+
+        for (int i = 0; i < DELIVERY_BATCH_SIZE; i++) {
+
+          Object event;
+          lock.lock();
+          try {
+            event = events.pollFirst();
+            if (event == null) {
+              scheduled = false;
+              return;
+            }
+            notFull.signalAll();
+          } finally {
+            lock.unlock();
+          }
+
+          // Exceptions are passed to the exception handler by the subscriber event bus
+          EventBusMetrics.Dispatch dispatch = EventBusMetrics.INSTANCE.start(handlerKeys, event);
+          try {
+            subscriberEventBus.post(event);
+          } finally {
+            EventBusMetrics.INSTANCE.stop(dispatch);
+          }
+        }
+
+        // Yield to other subscribers sharing the delivery threads
+        lock.lock();
+        try {
+          if (events.isEmpty()) {
+            scheduled = false;
+          } else {
+            schedule();
+          }
+        } finally {
+          lock.unlock();
+        }
+
+      } finally {
+        drainingQueue.remove();
+      }
+
+    }
+
+    /**
+     * <p>Stop queueing new events and drop those still waiting</p>
+     */
+    private void close() {
+
+      lock.lock();
+      try {
+        closed = true;
+        events.clear();
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+
+    }
+
+    private int size() {
+
+      lock.lock();
+      try {
+        return events.size();
+      } finally {
+        lock.unlock();
+      }
+
+    }
+
+    private long getDroppedCount() {
+
+      lock.lock();
+      try {
+        return droppedCount;
+      } finally {
+        lock.unlock();
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,32 @@
+package org.multibit.hd.core.events;
+
+/**
+ * <p>Enum to provide the following to the event bus:</p>
+ * <ul>
+ * <li>The action to take when a subscriber queue is full</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Replace the most recent queued event of the same type if the type is marked with <code>@Coalesce</code>, otherwise
+   * queue the event beyond the capacity so that nothing is lost
+   */
+  COALESCE,
+
+  /**
+   * Drop the oldest queued event
+   */
+  DROP_OLDEST,
+
+  /**
+   * Block the posting thread until the subscriber catches up (never use for subscribers to network events)
+   */
+  BLOCK,
+
+  // End of enum
+  ;
+
+}
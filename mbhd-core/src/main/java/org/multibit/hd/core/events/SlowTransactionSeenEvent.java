@@ -9,6 +9,7 @@ package org.multibit.hd.core.events;
  *
  * @since 0.0.1
  */
+@Coalesce(windowMillis = 1_000)
 public class SlowTransactionSeenEvent implements CoreEvent {
 
   public SlowTransactionSeenEvent() {
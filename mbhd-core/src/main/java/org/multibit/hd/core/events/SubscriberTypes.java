@@ -0,0 +1,97 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Utility to provide the following to event buses:</p>
+ * <ul>
+ * <li>Discovery of the event types accepted by a subscriber</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+class SubscriberTypes {
+
+  /**
+   * The event types accepted by each subscriber class
+   */
+  private static final ConcurrentMap<Class<?>, ImmutableSet<Class<?>>> subscribedTypes = Maps.newConcurrentMap();
+
+  /**
+   * The event types accepted by this subscriber class
+   */
+  private final ImmutableSet<Class<?>> types;
+
+  /**
+   * The outcome of previous checks by event type
+   */
+  private final ConcurrentMap<Class<?>, Boolean> acceptedTypes = Maps.newConcurrentMap();
+
+  /**
+   * @param subscriberClass The subscriber class
+   */
+  SubscriberTypes(Class<?> subscriberClass) {
+    this.types = getSubscribedTypes(subscriberClass);
+  }
+
+  /**
+   * @return The event types accepted by the subscriber
+   */
+  ImmutableSet<Class<?>> getTypes() {
+    return types;
+  }
+
+  /**
+   * @param eventType The event type
+   *
+   * @return True if the subscriber has a method accepting the event type
+   */
+  boolean accepts(Class<?> eventType) {
+
+    Boolean accepted = acceptedTypes.get(eventType);
+    if (accepted == null) {
+      accepted = false;
+      for (Class<?> type : types) {
+        if (type.isAssignableFrom(eventType)) {
+          accepted = true;
+          break;
+        }
+      }
+      acceptedTypes.put(eventType, accepted);
+    }
+
+    return accepted;
+  }
+
+  /**
+   * @param subscriberClass The subscriber class
+   *
+   * @return The parameter types of all public <code>@Subscribe</code> methods (as found by Guava)
+   */
+  private static ImmutableSet<Class<?>> getSubscribedTypes(Class<?> subscriberClass) {
+
+    ImmutableSet<Class<?>> types = subscribedTypes.get(subscriberClass);
+    if (types == null) {
+
+      ImmutableSet.Builder<Class<?>> builder = ImmutableSet.builder();
+      for (Class<?> type : TypeToken.of(subscriberClass).getTypes().rawTypes()) {
+        for (Method method : type.getMethods()) {
+          if (method.isAnnotationPresent(Subscribe.class) && method.getParameterTypes().length == 1) {
+            builder.add(method.getParameterTypes()[0]);
+          }
+        }
+      }
+      types = builder.build();
+      subscribedTypes.putIfAbsent(subscriberClass, types);
+    }
+
+    return types;
+  }
+
+}
@@ -0,0 +1,148 @@
+package org.multibit.hd.core.exchanges;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Value object to provide the following to exchange caches:</p>
+ * <ul>
+ * <li>Persistent form of the currencies offered by each exchange</li>
+ * <li>Persistent form of the last good exchange rate for each exchange and local currency</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public class ExchangeCache {
+
+  private Map<String, CachedCurrencies> currencies = Maps.newLinkedHashMap();
+
+  private Map<String, CachedRate> rates = Maps.newLinkedHashMap();
+
+  /**
+   * @return The cached currencies keyed by exchange key name (e.g. "BITSTAMP")
+   */
+  public Map<String, CachedCurrencies> getCurrencies() {
+    return currencies;
+  }
+
+  public void setCurrencies(Map<String, CachedCurrencies> currencies) {
+    this.currencies = currencies;
+  }
+
+  /**
+   * @return The cached rates keyed by exchange key name and local currency code (e.g. "BITSTAMP/USD")
+   */
+  public Map<String, CachedRate> getRates() {
+    return rates;
+  }
+
+  public void setRates(Map<String, CachedRate> rates) {
+    this.rates = rates;
+  }
+
+  /**
+   * <p>The ISO 4217 currency codes offered by an exchange</p>
+   */
+  public static class CachedCurrencies {
+
+    private long timestamp;
+
+    private List<String> currencyCodes = Lists.newArrayList();
+
+    /**
+     * @return The time the exchange was asked (milliseconds since the epoch, UTC)
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    /**
+     * @return The sorted ISO 4217 currency codes (e.g. "EUR", "USD")
+     */
+    public List<String> getCurrencyCodes() {
+      return currencyCodes;
+    }
+
+    public void setCurrencyCodes(List<String> currencyCodes) {
+      this.currencyCodes = currencyCodes;
+    }
+  }
+
+  /**
+   * <p>The last good exchange rate received from an exchange</p>
+   */
+  public static class CachedRate {
+
+    private String currencyCode;
+
+    private String rate;
+
+    private String rateProvider;
+
+    private long timestamp;
+
+    private long expires;
+
+    /**
+     * @return The local currency code (e.g. "USD")
+     */
+    public String getCurrencyCode() {
+      return currencyCode;
+    }
+
+    public void setCurrencyCode(String currencyCode) {
+      this.currencyCode = currencyCode;
+    }
+
+    /**
+     * @return The rate in the local currency as a plain string to preserve the scale (e.g. "1000.00")
+     */
+    public String getRate() {
+      return rate;
+    }
+
+    public void setRate(String rate) {
+      this.rate = rate;
+    }
+
+    /**
+     * @return The rate provider (e.g. "Bitstamp")
+     */
+    public String getRateProvider() {
+      return rateProvider;
+    }
+
+    public void setRateProvider(String rateProvider) {
+      this.rateProvider = rateProvider;
+    }
+
+    /**
+     * @return The time the rate was received (milliseconds since the epoch, UTC)
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    /**
+     * @return The time the rate expired or will expire (milliseconds since the epoch, UTC)
+     */
+    public long getExpires() {
+      return expires;
+    }
+
+    public void setExpires(long expires) {
+      this.expires = expires;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package org.multibit.hd.core.exchanges;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.multibit.hd.core.config.Yaml;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.utils.Dates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.List;
+
+/**
+ * <p>Utility to provide the following to exchange ticker and application event services:</p>
+ * <ul>
+ * <li>On-disk cache of the currencies offered by each exchange (refreshed after {@link #CURRENCIES_TTL_HOURS})</li>
+ * <li>On-disk cache of the last good exchange rate so fiat values are available immediately at startup</li>
+ * </ul>
+ * <p>The cache is a YAML file in the application directory. It is never required: a missing or unreadable file
+ * simply behaves as an empty cache.</p>
+ *
+ * @since 0.1.0
+ */
+public class ExchangeCaches {
+
+  private static final Logger log = LoggerFactory.getLogger(ExchangeCaches.class);
+
+  /**
+   * The exchange cache file name in the application directory
+   */
+  public static final String EXCHANGE_CACHE_NAME = "exchange-cache.yaml";
+
+  /**
+   * Exchanges rarely change their currency offerings so a daily check is sufficient
+   */
+  public static final int CURRENCIES_TTL_HOURS = 24;
+
+  /**
+   * The in-memory copy of the cache file (null until first used)
+   */
+  private static ExchangeCache exchangeCache = null;
+
+  /**
+   * Utilities have private constructors
+   */
+  private ExchangeCaches() {
+  }
+
+  /**
+   * @param exchangeKey  The exchange key
+   * @param allowExpired True if currencies older than {@link #CURRENCIES_TTL_HOURS} are acceptable (e.g. the exchange is down)
+   *
+   * @return The sorted ISO 4217 currency codes offered by the exchange if cached
+   */
+  public static synchronized Optional<List<String>> getCurrencyCodes(ExchangeKey exchangeKey, boolean allowExpired) {
+
+    Preconditions.checkNotNull(exchangeKey, "'exchangeKey' must be present");
+
+    ExchangeCache.CachedCurrencies cachedCurrencies = getOrLoadExchangeCache().getCurrencies().get(exchangeKey.name());
+    if (cachedCurrencies == null || cachedCurrencies.getCurrencyCodes().isEmpty()) {
+      return Optional.absent();
+    }
+
+    DateTime expires = new DateTime(cachedCurrencies.getTimestamp()).plusHours(CURRENCIES_TTL_HOURS);
+    if (!allowExpired && Dates.nowUtc().isAfter(expires)) {
+      return Optional.absent();
+    }
+
+    return Optional.<List<String>>of(Lists.newArrayList(cachedCurrencies.getCurrencyCodes()));
+  }
+
+  /**
+   * <p>Cache the currencies just received from the exchange</p>
+   *
+   * @param exchangeKey   The exchange key
+   * @param currencyCodes The sorted ISO 4217 currency codes offered by the exchange
+   */
+  public static synchronized void putCurrencyCodes(ExchangeKey exchangeKey, Collection<String> currencyCodes) {
+
+    Preconditions.checkNotNull(exchangeKey, "'exchangeKey' must be present");
+    Preconditions.checkNotNull(currencyCodes, "'currencyCodes' must be present");
+
+    ExchangeCache.CachedCurrencies cachedCurrencies = new ExchangeCache.CachedCurrencies();
+    cachedCurrencies.setTimestamp(Dates.nowUtc().getMillis());
+    cachedCurrencies.setCurrencyCodes(Lists.newArrayList(currencyCodes));
+
+    getOrLoadExchangeCache().getCurrencies().put(exchangeKey.name(), cachedCurrencies);
+
+    writeExchangeCache();
+  }
+
+  /**
+   * @param exchangeKey   The exchange key
+   * @param localCurrency The local currency
+   *
+   * @return The last good rate received from the exchange for the local currency if cached
+   */
+  public static synchronized Optional<ExchangeCache.CachedRate> getLastRate(ExchangeKey exchangeKey, Currency localCurrency) {
+
+    Preconditions.checkNotNull(exchangeKey, "'exchangeKey' must be present");
+    Preconditions.checkNotNull(localCurrency, "'localCurrency' must be present");
+
+    ExchangeCache.CachedRate cachedRate = getOrLoadExchangeCache().getRates().get(rateKey(exchangeKey, localCurrency));
+    if (cachedRate == null || cachedRate.getRate() == null || cachedRate.getRateProvider() == null) {
+      return Optional.absent();
+    }
+
+    return Optional.of(cachedRate);
+  }
+
+  /**
+   * <p>Cache the rate just received from the exchange</p>
+   *
+   * @param exchangeKey   The exchange key
+   * @param localCurrency The local currency
+   * @param rate          The rate in the local currency (e.g. "1000" means 1000 local = 1 bitcoin)
+   * @param rateProvider  The rate provider (e.g. "Bitstamp")
+   * @param expires       The expiry timestamp of this rate
+   */
+  public static synchronized void putLastRate(ExchangeKey exchangeKey, Currency localCurrency, BigDecimal rate, String rateProvider, DateTime expires) {
+
+    Preconditions.checkNotNull(exchangeKey, "'exchangeKey' must be present");
+    Preconditions.checkNotNull(localCurrency, "'localCurrency' must be present");
+    Preconditions.checkNotNull(rate, "'rate' must be present");
+    Preconditions.checkNotNull(rateProvider, "'rateProvider' must be present");
+    Preconditions.checkNotNull(expires, "'expires' must be present");
+
+    ExchangeCache.CachedRate cachedRate = new ExchangeCache.CachedRate();
+    cachedRate.setCurrencyCode(localCurrency.getCurrencyCode());
+    cachedRate.setRate(rate.toPlainString());
+    cachedRate.setRateProvider(rateProvider);
+    cachedRate.setTimestamp(Dates.nowUtc().getMillis());
+    cachedRate.setExpires(expires.getMillis());
+
+    getOrLoadExchangeCache().getRates().put(rateKey(exchangeKey, localCurrency), cachedRate);
+
+    writeExchangeCache();
+  }
+
+  /**
+   * <p>Forget the in-memory copy so the next use reads the cache file again (e.g. after a change of application directory)</p>
+   */
+  public static synchronized void reset() {
+    exchangeCache = null;
+  }
+
+  /**
+   * @return The cache file in the current application directory
+   */
+  private static File getExchangeCacheFile() {
+    return new File(InstallationManager.getOrCreateApplicationDataDirectory(), EXCHANGE_CACHE_NAME);
+  }
+
+  private static String rateKey(ExchangeKey exchangeKey, Currency localCurrency) {
+    return exchangeKey.name() + "/" + localCurrency.getCurrencyCode();
+  }
+
+  private static ExchangeCache getOrLoadExchangeCache() {
+
+    if (exchangeCache != null) {
+      return exchangeCache;
+    }
+
+    Optional<ExchangeCache> loaded = Optional.absent();
+
+    File exchangeCacheFile = getExchangeCacheFile();
+    if (exchangeCacheFile.exists()) {
+      try (InputStream is = new FileInputStream(exchangeCacheFile)) {
+        loaded = Yaml.readYaml(is, ExchangeCache.class);
+      } catch (IOException e) {
+        // The cache is only an optimisation so start again
+        log.warn("Could not read exchange cache: {}", e.getMessage());
+      }
+    }
+
+    exchangeCache = loaded.isPresent() ? loaded.get() : new ExchangeCache();
+
+    return exchangeCache;
+  }
+
+  /**
+   * <p>Write through a temporary file so a crash never leaves a partial cache</p>
+   */
+  private static void writeExchangeCache() {
+
+    File exchangeCacheFile = getExchangeCacheFile();
+    File temporaryFile = new File(exchangeCacheFile.getAbsolutePath() + ".tmp");
+
+    try {
+      try (FileOutputStream fos = new FileOutputStream(temporaryFile)) {
+        Yaml.writeYaml(fos, exchangeCache);
+      }
+      try {
+        Files.move(temporaryFile.toPath(), exchangeCacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile.toPath(), exchangeCacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      // The cache is only an optimisation so carry on without it
+      log.warn("Could not write exchange cache: {}", e.getMessage());
+    }
+
+  }
+
+}
@@ -2,10 +2,12 @@ package org.multibit.hd.core.files;
 
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.store.CheckpointIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -61,6 +63,10 @@ public class ZipFiles {
             // Do not include the block chain (to save space)
             continue;
           }
+          if (isCheckpoints(fileName)) {
+            // Do not include the checkpoints (linked to the shared installation copy) or their index
+            continue;
+          }
           addFileToZip(srcFolder, fileName, zip, includeBlockStore);
         }
       }
@@ -108,9 +114,12 @@ public class ZipFiles {
           }
           String name = entry.getName();
 
+          // Remove any existing file first so that writing never passes through a hard link (e.g. checkpoints)
+          File target = new File(directoryToExtractTo + File.separator + name);
+          Files.deleteIfExists(target.toPath());
+
           writeFile(zipFile.getInputStream(entry),
-            new BufferedOutputStream(new FileOutputStream(
-              directoryToExtractTo + File.separator + name))
+            new BufferedOutputStream(new FileOutputStream(target))
           );
         }
       }
@@ -164,11 +173,25 @@ public class ZipFiles {
           // Do not include the block writeContacts (to save space)
           continue;
         }
+        if (isCheckpoints(fileName)) {
+          // Do not include the checkpoints (linked to the shared installation copy) or their index
+          continue;
+        }
         addFileToZip(path, srcFolder + File.separator + fileName, zip, includeBlockStore);
       }
     }
   }
 
+  /**
+   * @param fileName The file name
+   *
+   * @return True if the file is the checkpoints or the checkpoint index
+   */
+  private static boolean isCheckpoints(String fileName) {
+    return fileName.endsWith(InstallationManager.CHECKPOINTS_SUFFIX)
+      || fileName.endsWith(InstallationManager.CHECKPOINTS_SUFFIX + CheckpointIndex.INDEX_SUFFIX);
+  }
+
   /**
    * Work out the directory part of a filename
    *
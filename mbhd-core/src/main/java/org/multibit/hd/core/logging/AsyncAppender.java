@@ -1,30 +1,74 @@
 package org.multibit.hd.core.logging;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
-import ch.qos.logback.core.AppenderBase;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Queues;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p>Appender to provide the following to logging framework:</p>
  * <ul>
- * <li>Asynchronous logging</li>
+ * <li>Asynchronous logging through a bounded, preallocated ring buffer</li>
+ * <li>Batched delivery to the delegate with a single flush per batch</li>
+ * <li>An overflow policy that drops low level events first and never drops WARN or above</li>
+ * <li>Delivery of queued events on stop and at JVM shutdown</li>
+ * <li>Occupancy and dropped event counters</li>
  * </ul>
+ * <p>Once the buffer reaches the discarding threshold events at or below the discarding level (DEBUG by
+ * default) are dropped. When the buffer is full all events below WARN are dropped and WARN or above wait
+ * for space.</p>
  *
  * @since 0.0.1
- *         
+ *         
  */
-public class AsyncAppender extends AppenderBase<ILoggingEvent> implements Runnable {
+public class AsyncAppender extends UnsynchronizedAppenderBase<ILoggingEvent> implements Runnable {
+
+  /**
+   * The default buffer capacity (a power of two)
+   */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /**
+   * The maximum number of events delivered to the delegate before a flush
+   */
   private static final int BATCH_SIZE = 1000;
 
+  /**
+   * The percentage of the capacity above which events at or below the discarding level are dropped
+   */
+  private static final int DISCARDING_THRESHOLD_PERCENT = 80;
+
+  /**
+   * The time allowed for queued events to be delivered during a stop
+   */
+  private static final long STOP_TIMEOUT_MILLIS = 1000;
+
   public static Appender<ILoggingEvent> wrap(Appender<ILoggingEvent> delegate) {
-    final AsyncAppender appender = new AsyncAppender(delegate);
+    return wrap(delegate, DEFAULT_CAPACITY, Level.DEBUG);
+  }
+
+  /**
+   * @param delegate        The appender receiving the events
+   * @param capacity        The buffer capacity (rounded up to a power of two)
+   * @param discardingLevel Events at or below this level are dropped first when the buffer is nearly full
+   *
+   * @return The started appender
+   */
+  public static AsyncAppender wrap(Appender<ILoggingEvent> delegate, int capacity, Level discardingLevel) {
+    final AsyncAppender appender = new AsyncAppender(delegate, capacity, discardingLevel);
     appender.start();
     return appender;
   }
@@ -35,23 +79,137 @@ public class AsyncAppender extends AppenderBase<ILoggingEvent> implements Runnab
       .build();
 
   private final Appender<ILoggingEvent> delegate;
-  private final BlockingQueue<ILoggingEvent> queue;
-  private final List<ILoggingEvent> batch;
   private final Thread dispatcher;
+  private final Thread shutdownHook;
   private volatile boolean running;
 
-  private AsyncAppender(Appender<ILoggingEvent> delegate) {
+  /**
+   * True if the delegate output stream is flushed once per batch rather than per event
+   */
+  private final boolean batchFlush;
+
+  private final ILoggingEvent[] ring;
+  private final int mask;
+  private final int discardingThreshold;
+  private final int discardingLevel;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+
+  /**
+   * Guarded by the lock
+   */
+  private long head = 0;
+  private long tail = 0;
+
+  /**
+   * The number of queued events (written under the lock, read without it for the fast drop check)
+   */
+  private volatile int count = 0;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong blockedCount = new AtomicLong();
+
+  private AsyncAppender(Appender<ILoggingEvent> delegate, int capacity, Level discardingLevel) {
+
+    Preconditions.checkNotNull(delegate, "'delegate' must be present");
+    Preconditions.checkArgument(capacity > 0, "'capacity' must be positive");
+    Preconditions.checkNotNull(discardingLevel, "'discardingLevel' must be present");
+
     this.delegate = delegate;
-    this.queue = Queues.newLinkedBlockingQueue();
-    this.batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+    int size = Integer.highestOneBit(capacity);
+    this.ring = new ILoggingEvent[size < capacity ? size << 1 : size];
+    this.mask = ring.length - 1;
+    this.discardingThreshold = ring.length * DISCARDING_THRESHOLD_PERCENT / 100;
+    this.discardingLevel = discardingLevel.toInt();
     this.dispatcher = THREAD_FACTORY.newThread(this);
+    this.shutdownHook = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        AsyncAppender.this.stop();
+      }
+    }, "async-log-appender-shutdown");
+    this.batchFlush = disableImmediateFlush(delegate);
     setContext(delegate.getContext());
   }
 
+  /**
+   * @return The number of events the buffer can hold
+   */
+  public int getCapacity() {
+    return ring.length;
+  }
+
+  /**
+   * @return The number of events waiting for delivery
+   */
+  public int getQueueOccupancy() {
+    return count;
+  }
+
+  /**
+   * @return The number of events dropped because the buffer was nearly full
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return The number of WARN or above events that waited for space in a full buffer
+   */
+  public long getBlockedCount() {
+    return blockedCount.get();
+  }
+
   @Override
   protected void append(ILoggingEvent eventObject) {
+
+    int level = eventObject.getLevel().toInt();
+
+    // Drop before doing any deferred processing work
+    if (level < Level.WARN_INT) {
+      int queued = count;
+      if (queued >= ring.length || (level <= discardingLevel && queued >= discardingThreshold)) {
+        droppedCount.incrementAndGet();
+        return;
+      }
+    }
+
     eventObject.prepareForDeferredProcessing();
-    queue.add(eventObject);
+
+    lock.lock();
+    try {
+      if (count == ring.length) {
+        if (level < Level.WARN_INT) {
+          droppedCount.incrementAndGet();
+          return;
+        }
+        blockedCount.incrementAndGet();
+        while (count == ring.length) {
+          if (!running || Thread.currentThread() == dispatcher) {
+            // Nothing will make space so deliver directly rather than lose the event
+            lock.unlock();
+            try {
+              delegate.doAppend(eventObject);
+            } finally {
+              lock.lock();
+            }
+            return;
+          }
+          notFull.awaitUninterruptibly();
+        }
+      }
+
+      ring[(int) (tail++ & mask)] = eventObject;
+      count++;
+      if (count == 1) {
+        notEmpty.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+
   }
 
   @Override
@@ -59,30 +217,147 @@ public class AsyncAppender extends AppenderBase<ILoggingEvent> implements Runnab
     super.start();
     this.running = true;
     dispatcher.start();
+    try {
+      Runtime.getRuntime().addShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // Already shutting down
+    }
   }
 
   @Override
   public void stop() {
+
+    if (!running) {
+      return;
+    }
+
     this.running = false;
+
+    lock.lock();
+    try {
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    // Allow the dispatcher to deliver the remaining events
+    try {
+      if (Thread.currentThread() != dispatcher) {
+        dispatcher.join(STOP_TIMEOUT_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // Already shutting down
+      }
+    }
+
     super.stop();
   }
 
   @Override
   public void run() {
-    while (running) {
-      try {
-        batch.add(queue.take());
-        queue.drainTo(batch, BATCH_SIZE - 1);
 
-        for (ILoggingEvent event : batch) {
-          delegate.doAppend(event);
+    final ILoggingEvent[] batch = new ILoggingEvent[BATCH_SIZE];
+
+    while (true) {
+      int size = take(batch);
+      if (size == 0) {
+        // Stopped and empty
+        break;
+      }
+
+      for (int i = 0; i < size; i++) {
+        delegate.doAppend(batch[i]);
+        batch[i] = null;
+      }
+
+      flush();
+    }
+
+  }
+
+  /**
+   * <p>Wait for events and move up to a batch of them out of the ring</p>
+   *
+   * @param batch The batch to fill
+   *
+   * @return The number of events in the batch (zero only when stopped with nothing queued)
+   */
+  private int take(ILoggingEvent[] batch) {
+
+    lock.lock();
+    try {
+      while (count == 0) {
+        if (!running) {
+          return 0;
+        }
+        try {
+          notEmpty.await(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // Keep going until stopped
+          Thread.interrupted();
         }
+      }
 
-        batch.clear();
-      } catch (InterruptedException ignored) {
-        Thread.currentThread().interrupt();
+      int size = Math.min(count, batch.length);
+      for (int i = 0; i < size; i++) {
+        int index = (int) (head++ & mask);
+        batch[i] = ring[index];
+        ring[index] = null;
       }
+      count -= size;
+      notFull.signalAll();
+
+      return size;
+    } finally {
+      lock.unlock();
     }
+
   }
-}
 
+  /**
+   * <p>Flush the delegate output stream once per batch</p>
+   */
+  private void flush() {
+
+    if (!batchFlush) {
+      return;
+    }
+
+    OutputStream outputStream = ((OutputStreamAppender<ILoggingEvent>) delegate).getOutputStream();
+    if (outputStream != null) {
+      try {
+        outputStream.flush();
+      } catch (IOException e) {
+        addError("Failed to flush delegate", e);
+      }
+    }
+
+  }
+
+  /**
+   * @param delegate The delegate appender
+   *
+   * @return True if the delegate writes to a stream which will now be flushed per batch rather than per event
+   */
+  private static boolean disableImmediateFlush(Appender<ILoggingEvent> delegate) {
+
+    if (delegate instanceof OutputStreamAppender) {
+      Encoder<ILoggingEvent> encoder = ((OutputStreamAppender<ILoggingEvent>) delegate).getEncoder();
+      if (encoder instanceof LayoutWrappingEncoder) {
+        ((LayoutWrappingEncoder<ILoggingEvent>) encoder).setImmediateFlush(false);
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+}
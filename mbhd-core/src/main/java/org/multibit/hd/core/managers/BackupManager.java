@@ -23,6 +23,8 @@ import org.multibit.hd.core.exceptions.ExceptionHandler;
 import org.multibit.hd.core.exceptions.WalletLoadException;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.files.ZipFiles;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,6 +72,13 @@ public enum BackupManager {
 
   private static final Logger log = LoggerFactory.getLogger(BackupManager.class);
 
+  private static final Timer rollingBackupTimer = Metrics.INSTANCE.timer("backup.create-rolling");
+  private static final Timer localBackupTimer = Metrics.INSTANCE.timer("backup.create-local");
+  private static final Timer cloudBackupTimer = Metrics.INSTANCE.timer("backup.create-cloud");
+  private static final Timer zipTimer = Metrics.INSTANCE.timer("backup.zip");
+  private static final Timer loadRollingBackupTimer = Metrics.INSTANCE.timer("backup.load-rolling");
+  private static final Timer loadZipBackupTimer = Metrics.INSTANCE.timer("backup.load-zip");
+
   // Where wallets are stored
   private File applicationDataDirectory = null;
 
@@ -260,49 +269,55 @@ public enum BackupManager {
     Preconditions.checkNotNull(walletSummary.getWalletId(), "'walletId' must be present");
     createApplicationDataDirectoryIfNotSet();
 
-    // Find the wallet root directory for this wallet id
-    File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(
-      applicationDataDirectory, WalletManager.createWalletRoot(walletSummary.getWalletId())
-    );
+    Timer.Context context = rollingBackupTimer.time();
+    try {
+      // Find the wallet root directory for this wallet id
+      File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(
+        applicationDataDirectory, WalletManager.createWalletRoot(walletSummary.getWalletId())
+      );
 
-    if (!walletRootDirectory.exists()) {
-      throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot create rolling backup.");
-    }
+      if (!walletRootDirectory.exists()) {
+        throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot create rolling backup.");
+      }
 
-    String rollingBackupDirectoryName = walletRootDirectory
-      + File.separator
-      + BackupManager.ROLLING_BACKUP_DIRECTORY_NAME;
-    SecureFiles.verifyOrCreateDirectory(new File(rollingBackupDirectoryName));
+      String rollingBackupDirectoryName = walletRootDirectory
+        + File.separator
+        + BackupManager.ROLLING_BACKUP_DIRECTORY_NAME;
+      SecureFiles.verifyOrCreateDirectory(new File(rollingBackupDirectoryName));
 
-    String walletBackupFilename = rollingBackupDirectoryName
-      + File.separator
-      + WalletManager.MBHD_WALLET_PREFIX
-      + WALLET_ID_SEPARATOR
-      + Dates.formatBackupDate(Dates.nowUtc())
-      + WalletManager.MBHD_WALLET_SUFFIX;
+      String walletBackupFilename = rollingBackupDirectoryName
+        + File.separator
+        + WalletManager.MBHD_WALLET_PREFIX
+        + WALLET_ID_SEPARATOR
+        + Dates.formatBackupDate(Dates.nowUtc())
+        + WalletManager.MBHD_WALLET_SUFFIX;
 
-    File walletBackupFile = new File(walletBackupFilename);
-    log.debug("Creating rolling-backup\n'{}'", walletBackupFilename);
-    walletSummary.getWallet().saveToFile(walletBackupFile);
-    log.debug("Created rolling-backup successfully. Size = {}", walletBackupFile.length());
+      File walletBackupFile = new File(walletBackupFilename);
+      log.debug("Creating rolling-backup\n'{}'", walletBackupFilename);
+      walletSummary.getWallet().saveToFile(walletBackupFile);
+      log.debug("Created rolling-backup successfully. Size = {}", walletBackupFile.length());
 
-    File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
-    log.debug("Created rolling-backup AES copy successfully as file:\n'{}'", encryptedAESCopy.getAbsolutePath());
+      File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
+      log.debug("Created rolling-backup AES copy successfully as file:\n'{}'", encryptedAESCopy.getAbsolutePath());
 
-    List<File> rollingBackups = getRollingBackups(walletSummary.getWalletId());
+      List<File> rollingBackups = getRollingBackups(walletSummary.getWalletId());
 
-    // If there are more than the maximum number of rolling backups, secure delete the eldest
-    if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS) {
-      // Delete the eldest
-      SecureFiles.secureDelete(rollingBackups.get(0));
-    }
+      // If there are more than the maximum number of rolling backups, secure delete the eldest
+      if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS) {
+        // Delete the eldest
+        SecureFiles.secureDelete(rollingBackups.get(0));
+      }
+
+      // If there are even more than that trim off another one - over time this will gently reduce the number to the maximum
+      if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS + 1) {
+        // Delete the second eldest
+        SecureFiles.secureDelete(rollingBackups.get(1));
+      }
 
-    // If there are even more than that trim off another one - over time this will gently reduce the number to the maximum
-    if (rollingBackups.size() > MAXIMUM_NUMBER_OF_ROLLING_BACKUPS + 1) {
-      // Delete the second eldest
-      SecureFiles.secureDelete(rollingBackups.get(1));
+      return walletBackupFile;
+    } finally {
+      context.stop();
     }
-    return walletBackupFile;
   }
 
   /**
@@ -317,38 +332,43 @@ public enum BackupManager {
     Preconditions.checkNotNull(walletId);
     createApplicationDataDirectoryIfNotSet();
 
-    // Find the wallet root directory for this wallet id
-    File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
+    Timer.Context context = localBackupTimer.time();
+    try {
+      // Find the wallet root directory for this wallet id
+      File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
 
-    if (!walletRootDirectory.exists()) {
-      throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot backup.");
-    }
+      if (!walletRootDirectory.exists()) {
+        throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot backup.");
+      }
 
-    WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
+      WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
 
-    File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
-    SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
+      File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
+      SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-      + WALLET_ID_SEPARATOR
-      + walletId.toFormattedString()
-      + WALLET_ID_SEPARATOR
-      + Dates.formatBackupDate(Dates.nowUtc())
-      + BACKUP_ZIP_FILE_EXTENSION;
-    String localBackupFilename = localBackupDirectory.getAbsolutePath() + File.separator + backupFilename;
-
-    log.debug("Creating local zip-backup\n'{}'", localBackupFilename);
-    ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), localBackupFilename, false);
-    File localBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(
-      new File(localBackupFilename),
-      (String) password,
-      walletSummary.getEncryptedBackupKey());
-    log.debug("Created encrypted local zip-backup successfully. Size = {} bytes", localBackupEncryptedFilename.length());
-
-    // Thin the local backup directory
-    thinBackupDirectory(walletId, localBackupDirectory);
-
-    return localBackupEncryptedFilename;
+      String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
+        + WALLET_ID_SEPARATOR
+        + walletId.toFormattedString()
+        + WALLET_ID_SEPARATOR
+        + Dates.formatBackupDate(Dates.nowUtc())
+        + BACKUP_ZIP_FILE_EXTENSION;
+      String localBackupFilename = localBackupDirectory.getAbsolutePath() + File.separator + backupFilename;
+
+      log.debug("Creating local zip-backup\n'{}'", localBackupFilename);
+      zipFolder(walletRootDirectory, localBackupFilename);
+      File localBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(
+        new File(localBackupFilename),
+        (String) password,
+        walletSummary.getEncryptedBackupKey());
+      log.debug("Created encrypted local zip-backup successfully. Size = {} bytes", localBackupEncryptedFilename.length());
+
+      // Thin the local backup directory
+      thinBackupDirectory(walletId, localBackupDirectory);
+
+      return localBackupEncryptedFilename;
+    } finally {
+      context.stop();
+    }
   }
 
   /**
@@ -363,41 +383,46 @@ public enum BackupManager {
     Preconditions.checkNotNull(walletId);
     createApplicationDataDirectoryIfNotSet();
 
-    // Find the wallet root directory for this wallet id
-    File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
+    Timer.Context context = cloudBackupTimer.time();
+    try {
+      // Find the wallet root directory for this wallet id
+      File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
 
-    if (!walletRootDirectory.exists()) {
-      throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot backup.");
-    }
+      if (!walletRootDirectory.exists()) {
+        throw new IOException("Directory " + walletRootDirectory + " does not exist. Cannot backup.");
+      }
 
-    WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
+      WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
 
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-      + WALLET_ID_SEPARATOR
-      + walletId.toFormattedString()
-      + WALLET_ID_SEPARATOR
-      + Dates.formatBackupDate(Dates.nowUtc())
-      + BACKUP_ZIP_FILE_EXTENSION;
-
-    if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
-      String cloudBackupFilename = cloudBackupDirectory.get().getAbsolutePath() + File.separator + backupFilename;
-      log.debug("Creating cloud zip-backup '" + cloudBackupFilename + "'");
-      ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), cloudBackupFilename, false);
-      File cloudBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(
-        new File(cloudBackupFilename),
-        (String) password,
-        walletSummary.getEncryptedBackupKey());
+      String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
+        + WALLET_ID_SEPARATOR
+        + walletId.toFormattedString()
+        + WALLET_ID_SEPARATOR
+        + Dates.formatBackupDate(Dates.nowUtc())
+        + BACKUP_ZIP_FILE_EXTENSION;
 
-      log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
+      if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
+        String cloudBackupFilename = cloudBackupDirectory.get().getAbsolutePath() + File.separator + backupFilename;
+        log.debug("Creating cloud zip-backup '" + cloudBackupFilename + "'");
+        zipFolder(walletRootDirectory, cloudBackupFilename);
+        File cloudBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(
+          new File(cloudBackupFilename),
+          (String) password,
+          walletSummary.getEncryptedBackupKey());
 
-      // Thin the local backup directory
-      thinBackupDirectory(walletId, cloudBackupDirectory.get());
+        log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
 
-      return cloudBackupEncryptedFilename;
-    } else {
-      log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
-      return null;
+        // Thin the local backup directory
+        thinBackupDirectory(walletId, cloudBackupDirectory.get());
+
+        return cloudBackupEncryptedFilename;
+      } else {
+        log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
+        return null;
+      }
+    } finally {
+      context.stop();
     }
   }
 
@@ -420,30 +445,35 @@ public enum BackupManager {
     } else {
       Wallet wallet = null;
       File fileLoaded = null;
-
-      // Try loading each rolling backup in turn, newest first
-      for (int i = rollingBackupFiles.size(); i > 0; i--) {
-        try {
-          wallet = WalletManager.INSTANCE.loadWalletFromFile(rollingBackupFiles.get(i - 1), password);
-          log.debug("Wallet read in from rolling backup file:\n'{}'", wallet.toString());
-          fileLoaded = rollingBackupFiles.get(i - 1);
-          break;
-        } catch (Exception e) {
-          // Log the initial error (and then carry on to the next rolling backup
-          log.error("Could not load rolling backup:\n'{}'", rollingBackupFiles.get(i - 1).getAbsolutePath(), e);
+      Timer.Context context = loadRollingBackupTimer.time();
+      try {
+        // Try loading each rolling backup in turn, newest first
+        for (int i = rollingBackupFiles.size(); i > 0; i--) {
+          try {
+            wallet = WalletManager.INSTANCE.loadWalletFromFile(rollingBackupFiles.get(i - 1), password);
+            log.debug("Wallet read in from rolling backup file:\n'{}'", wallet.toString());
+            fileLoaded = rollingBackupFiles.get(i - 1);
+            break;
+          } catch (Exception e) {
+            // Log the initial error (and then carry on to the next rolling backup
+            log.error("Could not load rolling backup:\n'{}'", rollingBackupFiles.get(i - 1).getAbsolutePath(), e);
+          }
         }
-      }
 
-      if (wallet == null) {
-        // No rolling backup was successfully loaded
-        throw new WalletLoadException("Could not load any rolling backup successfully.");
-      } else {
-        // Emit WalletLoadedEvent for notification on GUI
-        if (fileLoaded != null) {
-          log.debug("Loaded backup wallet file:\n'{}'", fileLoaded.getAbsolutePath());
-          CoreEvents.fireWalletLoadEvent(new WalletLoadEvent(Optional.of(walletId), false, CoreMessageKey.BACKUP_WALLET_WAS_LOADED, null, Optional.of(fileLoaded)));
+        if (wallet == null) {
+          // No rolling backup was successfully loaded
+          context.fail();
+          throw new WalletLoadException("Could not load any rolling backup successfully.");
+        } else {
+          // Emit WalletLoadedEvent for notification on GUI
+          if (fileLoaded != null) {
+            log.debug("Loaded backup wallet file:\n'{}'", fileLoaded.getAbsolutePath());
+            CoreEvents.fireWalletLoadEvent(new WalletLoadEvent(Optional.of(walletId), false, CoreMessageKey.BACKUP_WALLET_WAS_LOADED, null, Optional.of(fileLoaded)));
+          }
+          return wallet;
         }
-        return wallet;
+      } finally {
+        context.stop();
       }
     }
   }
@@ -475,6 +505,7 @@ public enum BackupManager {
    */
   public WalletId loadZipBackup(File backupFileToLoad, KeyParameter backupAESKey) throws IOException {
     File temporaryFile = null;
+    Timer.Context context = loadZipBackupTimer.time();
     try {
       // Work out the walletId of the backup file being loaded
       String backupFilename = backupFileToLoad.getName();
@@ -508,8 +539,14 @@ public enum BackupManager {
       // Unzip the backup into the wallet root directory - this overwrites files if already present (hence the backup just done)
       ZipFiles.unzip(temporaryFile.getAbsolutePath(), walletRootDirectory.getAbsolutePath());
 
+      // Older backups include the checkpoints so restore the link to the shared copy
+      File checkpointsFile = new File(walletRootDirectory.getAbsolutePath() + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
+      InstallationManager.copyCheckpointsTo(checkpointsFile);
+
+      context.stop();
       return walletId;
     } catch (Exception e) {
+      context.fail();
       throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
     } finally {
       if (temporaryFile != null) {
@@ -518,6 +555,19 @@ public enum BackupManager {
     }
   }
 
+  /**
+   * @param walletRootDirectory The wallet directory to zip
+   * @param zipFilename         The zip file to create
+   */
+  private void zipFolder(File walletRootDirectory, String zipFilename) throws IOException {
+    Timer.Context context = zipTimer.time();
+    try {
+      ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), zipFilename, false);
+    } finally {
+      context.stop();
+    }
+  }
+
   /**
    * Thin the wallet backups when they reach the MAXIMUM_NUMBER_OF_BACKUPS setting.
    * Thinning is done by removing the most quickly replaced backup, except for the first and last few
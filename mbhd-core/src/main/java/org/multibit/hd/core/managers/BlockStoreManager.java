@@ -3,38 +3,87 @@ package org.multibit.hd.core.managers;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.bitcoinj.core.CheckpointManager;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.SPVBlockStore;
+import org.multibit.hd.core.files.SecureFiles;
+import org.multibit.hd.core.store.CheckpointIndex;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * <p>Manager to provide the following to BitcoinNetworkService:</p>
  * <ul>
  * <li>Create a blockstore</li>
+ * <li>Capture and restore block store snapshots to avoid re-downloading headers during replay</li>
  * </ul>
+ * <p>A snapshot is a standalone SPV block store holding the chain head and its ancestors back to the
+ * most recent difficulty transition. Snapshots contain only block headers so they can be shared between wallets.</p>
  */
 public class BlockStoreManager {
 
   private static final Logger log = LoggerFactory.getLogger(BlockStoreManager.class);
 
+  /**
+   * The name of the directory holding block store snapshots
+   */
+  public static final String SNAPSHOT_DIRECTORY = "spvchain-snapshots";
+
+  /**
+   * The maximum number of snapshots to keep (oldest are removed first)
+   */
+  private static final int MAXIMUM_SNAPSHOTS = 4;
+
+  /**
+   * The minimum number of blocks between snapshots (about a week)
+   */
+  private static final int MINIMUM_SNAPSHOT_SPACING = 1008;
+
+  /**
+   * Snapshot file names are "network-height-time.spvchain"
+   */
+  private static final Pattern SNAPSHOT_NAME = Pattern.compile("([a-z]+)-(\\d+)-(\\d+)" + Pattern.quote(InstallationManager.SPV_BLOCKCHAIN_SUFFIX));
+
   private final NetworkParameters networkParameters;
 
+  private final Optional<File> snapshotDirectory;
+
   /**
    * @param networkParameters The Bitcoin network parameters
    */
   public BlockStoreManager(NetworkParameters networkParameters) {
 
+    this(networkParameters, Optional.<File>absent());
+
+  }
+
+  /**
+   * @param networkParameters The Bitcoin network parameters
+   * @param snapshotDirectory The directory holding block store snapshots (absent to disable snapshots)
+   */
+  public BlockStoreManager(NetworkParameters networkParameters, Optional<File> snapshotDirectory) {
+
     Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+    Preconditions.checkNotNull(snapshotDirectory, "'snapshotDirectory' must be present");
 
     this.networkParameters = networkParameters;
+    this.snapshotDirectory = snapshotDirectory;
   }
 
   /**
@@ -73,6 +122,23 @@ public class BlockStoreManager {
 
     }
 
+    // Work out the date to checkpoint from
+    final Date effectiveCheckpointDate;
+    if (checkpointDate == null) {
+      // Brand new block store - managers from today. This
+      // will go back to the last managers.
+      effectiveCheckpointDate = blockStoreCreatedNew ? new Date() : null;
+    } else {
+      // Use managers date (block replay).
+      effectiveCheckpointDate = checkpointDate;
+    }
+
+    // A snapshot closer to the checkpoint date than the checkpoints avoids re-downloading headers
+    boolean restoredFromSnapshot = false;
+    if (blockStoreCreatedNew && effectiveCheckpointDate != null) {
+      restoredFromSnapshot = restoreSnapshot(blockStoreFile, checkpointsFile, effectiveCheckpointDate.getTime() / 1000);
+    }
+
     log.debug("Get or create SPV block store (pass 1):\n'{}'", blockStoreFile.getAbsolutePath());
     BlockStore blockStore;
     try {
@@ -90,6 +156,7 @@ public class BlockStoreManager {
         log.info("Deleting SPV block store (pass 2) from file:\n'{}'", blockStoreFile.getAbsolutePath());
         log.info("isWritable: '{}' isDeletedOK: '{}'", isWritable, isDeletedOk);
         blockStoreCreatedNew = true;
+        restoredFromSnapshot = false;
 
         blockStore = new SPVBlockStore(networkParameters, blockStoreFile);
       } catch (BlockStoreException bse2) {
@@ -102,28 +169,220 @@ public class BlockStoreManager {
     log.debug("Block store in place. Created new: {}", blockStoreCreatedNew);
 
     // Load the existing checkpoint file and checkpoint from today.
-    if (checkpointsFile.exists()) {
+    if (!restoredFromSnapshot && effectiveCheckpointDate != null && checkpointsFile.exists() && checkpointsFile.length() > 0) {
+      checkpoint(blockStore, checkpointsFile, effectiveCheckpointDate.getTime() / 1000);
+    }
+
+    return blockStore;
+
+  }
+
+  /**
+   * <p>Checkpoint the block store using the memory-mapped checkpoint index, falling back to streaming
+   * the checkpoints file if the index is not available</p>
+   *
+   * @param blockStore      The block store to checkpoint
+   * @param checkpointsFile The checkpoints file
+   * @param timeSeconds     The checkpoint time in seconds since the epoch
+   *
+   * @throws BlockStoreException
+   * @throws IOException
+   */
+  private void checkpoint(BlockStore blockStore, File checkpointsFile, long timeSeconds) throws BlockStoreException, IOException {
+
+    try {
+      CheckpointIndex checkpointIndex = CheckpointIndex.openOrCreate(checkpointsFile);
+      log.debug("Checkpointing from index with {} entries", checkpointIndex.size());
+      checkpointIndex.checkpoint(networkParameters, blockStore, timeSeconds);
+      return;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Checkpoint index unavailable - streaming checkpoints instead", e);
+    }
+
+    log.debug("Checkpoints exist attempting to stream from:\n'{}'", checkpointsFile.getAbsolutePath());
+
+    try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
+      CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, timeSeconds);
+    }
+
+  }
+  /**
+   * <p>Capture a snapshot of the given block store at its current chain head</p>
+   * <p>The snapshot is skipped if it would be too close to the most recent existing snapshot</p>
+   *
+   * @param blockStore The block store (usually just after the block chain download has completed)
+   *
+   * @return The snapshot file if one was created
+   *
+   * @throws BlockStoreException If the block store could not be read
+   * @throws IOException         If the snapshot could not be written
+   */
+  public Optional<File> captureSnapshot(BlockStore blockStore) throws BlockStoreException, IOException {
+
+    Preconditions.checkNotNull(blockStore, "'blockStore' must be present");
+
+    if (!snapshotDirectory.isPresent()) {
+      return Optional.absent();
+    }
+
+    StoredBlock chainHead = blockStore.getChainHead();
+    if (chainHead == null) {
+      return Optional.absent();
+    }
 
-      log.debug("Checkpoints exist attempting to stream from:\n'{}'", checkpointsFile.getAbsolutePath());
+    List<Snapshot> snapshots = listSnapshots();
+    if (!snapshots.isEmpty() && chainHead.getHeight() - snapshots.get(snapshots.size() - 1).height < MINIMUM_SNAPSHOT_SPACING) {
+      log.debug("Skipping block store snapshot at height {} - too close to previous", chainHead.getHeight());
+      return Optional.absent();
+    }
+
+    // Walk back to the most recent difficulty transition so the chain can continue to be verified
+    List<StoredBlock> blocks = Lists.newArrayList();
+    StoredBlock cursor = chainHead;
+    while (cursor != null) {
+      blocks.add(cursor);
+      if (cursor.getHeight() % networkParameters.getInterval() == 0) {
+        break;
+      }
+      cursor = cursor.getPrev(blockStore);
+    }
+    if (cursor == null) {
+      log.debug("Skipping block store snapshot at height {} - no difficulty transition available", chainHead.getHeight());
+      return Optional.absent();
+    }
+
+    File directory = SecureFiles.verifyOrCreateDirectory(snapshotDirectory.get());
+    File snapshotFile = new File(directory, snapshotName(chainHead));
+    File tempFile = SecureFiles.createTemporaryFilename(InstallationManager.MBHD_PREFIX, ".tmp", directory);
+
+    SPVBlockStore snapshotStore = new SPVBlockStore(networkParameters, tempFile);
+    try {
+      // Oldest first to preserve the ring order
+      for (StoredBlock block : Lists.reverse(blocks)) {
+        snapshotStore.put(block);
+      }
+      snapshotStore.setChainHead(chainHead);
+    } finally {
+      snapshotStore.close();
+    }
 
-      try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
+    try {
+      Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      SecureFiles.secureDelete(tempFile);
+      throw e;
+    }
+
+    log.debug("Captured block store snapshot of {} blocks at height {}", blocks.size(), chainHead.getHeight());
 
-        Preconditions.checkNotNull(checkpointsInputStream, "'stream' must be present");
+    // Remove the oldest snapshots
+    snapshots = listSnapshots();
+    for (int i = 0; i < snapshots.size() - MAXIMUM_SNAPSHOTS; i++) {
+      log.debug("Removing block store snapshot at height {}", snapshots.get(i).height);
+      Files.deleteIfExists(snapshots.get(i).file.toPath());
+    }
+
+    return Optional.of(snapshotFile);
+  }
+
+  /**
+   * <p>Restore the closest snapshot at or before the checkpoint time if it is later than the best checkpoint</p>
+   *
+   * @param blockStoreFile  The block store file to replace
+   * @param checkpointsFile The checkpoints file
+   * @param timeSeconds     The checkpoint time in seconds since the epoch
+   *
+   * @return True if a snapshot was restored
+   */
+  private boolean restoreSnapshot(File blockStoreFile, File checkpointsFile, long timeSeconds) {
+
+    if (!snapshotDirectory.isPresent()) {
+      return false;
+    }
+
+    // Apply the same margin as checkpointing to allow for clock drift in block headers
+    long snapshotTime = timeSeconds - CheckpointIndex.CHECKPOINT_MARGIN_SECONDS;
+
+    Optional<Snapshot> best = Optional.absent();
+    for (Snapshot snapshot : listSnapshots()) {
+      if (snapshot.timeSeconds <= snapshotTime) {
+        best = Optional.of(snapshot);
+      }
+    }
+    if (!best.isPresent()) {
+      return false;
+    }
 
-        if (checkpointDate == null) {
-          if (blockStoreCreatedNew) {
-            // Brand new block store - managers from today. This
-            // will go back to the last managers.
-            CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, (new Date()).getTime() / 1000);
-          }
-        } else {
-          // Use managers date (block replay).
-          CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, checkpointDate.getTime() / 1000);
+    try {
+      if (checkpointsFile.exists() && checkpointsFile.length() > 0) {
+        Optional<Integer> checkpointHeight = CheckpointIndex.openOrCreate(checkpointsFile).getHeightBefore(snapshotTime);
+        if (checkpointHeight.isPresent() && checkpointHeight.get() >= best.get().height) {
+          log.debug("Checkpoint at height {} is closer than snapshot", checkpointHeight.get());
+          return false;
         }
       }
+
+      Files.copy(best.get().file.toPath(), blockStoreFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      log.debug("Restored block store snapshot at height {}", best.get().height);
+
+      return true;
+
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to restore block store snapshot - using checkpoints", e);
+      return false;
     }
 
-    return blockStore;
+  }
 
+  /**
+   * @return The snapshots for the current network in ascending height order
+   */
+  private List<Snapshot> listSnapshots() {
+
+    List<Snapshot> snapshots = Lists.newArrayList();
+
+    File[] files = snapshotDirectory.isPresent() ? snapshotDirectory.get().listFiles() : null;
+    if (files == null) {
+      return snapshots;
+    }
+
+    for (File file : files) {
+      Matcher matcher = SNAPSHOT_NAME.matcher(file.getName());
+      if (matcher.matches() && matcher.group(1).equals(networkParameters.getPaymentProtocolId())) {
+        snapshots.add(new Snapshot(file, Integer.parseInt(matcher.group(2)), Long.parseLong(matcher.group(3))));
+      }
+    }
+
+    Collections.sort(snapshots, new Comparator<Snapshot>() {
+      @Override
+      public int compare(Snapshot o1, Snapshot o2) {
+        return Integer.compare(o1.height, o2.height);
+      }
+    });
+
+    return snapshots;
+  }
+
+  private String snapshotName(StoredBlock chainHead) {
+    return networkParameters.getPaymentProtocolId()
+      + "-" + chainHead.getHeight()
+      + "-" + chainHead.getHeader().getTimeSeconds()
+      + InstallationManager.SPV_BLOCKCHAIN_SUFFIX;
+  }
+
+  /**
+   * <p>Value object describing a snapshot file</p>
+   */
+  private static class Snapshot {
+
+    private final File file;
+    private final int height;
+    private final long timeSeconds;
+
+    private Snapshot(File file, int height, long timeSeconds) {
+      this.file = file;
+      this.height = height;
+      this.timeSeconds = timeSeconds;
+    }
   }
 }
@@ -0,0 +1,483 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.AbstractWalletEventListener;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.wallet.CoinSelection;
+import org.bitcoinj.wallet.CoinSelector;
+import org.bitcoinj.wallet.DefaultCoinSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * <p>Coin selector to provide the following to the wallet:</p>
+ * <ul>
+ * <li>Unspent outputs ordered by value (largest first) then age (oldest first)</li>
+ * <li>Incremental maintenance of the ordering from wallet events rather than a sort on every send attempt</li>
+ * <li>Branch and bound search for a combination of inputs that avoids a change output</li>
+ * </ul>
+ * <p>The bitcoinj default selector sorts every candidate on each call to <code>Wallet.completeTx()</code>, and the
+ * fee calculation calls it repeatedly. This selector locates the region of interest in O(log n) and only walks the
+ * outputs it actually needs.</p>
+ * <p>Age is taken from the height at which the transaction appeared in the chain rather than its depth so that the
+ * ordering does not change with every new block. Only the candidates supplied by the wallet are ever selected: the
+ * chosen outputs are checked against them and any the wallet no longer offers are dropped from the index. The index is
+ * only rebuilt from the candidates after a reorganisation.</p>
+ *
+ * @since 0.1.0
+ */
+public class IndexedCoinSelector extends AbstractWalletEventListener implements CoinSelector {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedCoinSelector.class);
+
+  /**
+   * The excess over the target that is cheaper to give away as a fee than to create a change output for
+   */
+  public static final Coin DEFAULT_CHANGE_TOLERANCE = Transaction.MIN_NONDUST_OUTPUT;
+
+  /**
+   * The maximum number of outputs considered by the branch and bound search
+   */
+  private static final int MAXIMUM_BNB_CANDIDATES = 1_000;
+
+  /**
+   * The maximum number of branches explored before falling back to largest first
+   */
+  private static final int MAXIMUM_BNB_TRIES = 100_000;
+
+  /**
+   * Outputs in selection order
+   */
+  private final NavigableSet<IndexEntry> index = new TreeSet<>(new IndexEntryComparator());
+
+  /**
+   * Outputs by outpoint for removal and re-keying
+   */
+  private final Map<TransactionOutPoint, IndexEntry> entries = Maps.newHashMap();
+
+  private final long changeTolerance;
+
+  private boolean stale = true;
+
+  private int bnbTries;
+
+  public IndexedCoinSelector() {
+    this(DEFAULT_CHANGE_TOLERANCE);
+  }
+
+  /**
+   * @param changeTolerance The excess over the target that is acceptable without a change output
+   */
+  public IndexedCoinSelector(Coin changeTolerance) {
+
+    Preconditions.checkNotNull(changeTolerance, "'changeTolerance' must be present");
+    Preconditions.checkArgument(changeTolerance.signum() >= 0, "'changeTolerance' must not be negative");
+
+    this.changeTolerance = changeTolerance.value;
+  }
+
+  @Override
+  public synchronized CoinSelection select(Coin target, List<TransactionOutput> candidates) {
+
+    if (stale) {
+      rebuild(candidates);
+    }
+
+    boolean reconciled = false;
+    while (true) {
+
+      List<IndexEntry> selected = selectEntries(target.value);
+
+      // Only the outputs offered by the wallet may be selected (the index just orders them)
+      List<TransactionOutput> gathered = gatherOffered(selected, candidates);
+      if (gathered == null) {
+        // Outputs no longer offered have been dropped so try again
+        continue;
+      }
+
+      long total = 0;
+      for (IndexEntry entry : selected) {
+        total += entry.value;
+      }
+
+      // Only look for offered outputs missing from the index when they could make a difference
+      if (total < target.value && !reconciled) {
+        reconciled = true;
+        if (addMissing(candidates)) {
+          continue;
+        }
+      }
+
+      return new CoinSelection(Coin.valueOf(total), gathered);
+    }
+  }
+
+  @Override
+  public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+    update(wallet, tx);
+  }
+
+  @Override
+  public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+    update(wallet, tx);
+  }
+
+  @Override
+  public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+    update(wallet, tx);
+  }
+
+  @Override
+  public synchronized void onReorganize(Wallet wallet) {
+    // Heights and spends may all have changed so resynchronise on the next selection
+    stale = true;
+  }
+
+  /**
+   * @return The number of indexed outputs
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * <p>Apply the changes made by a transaction to the index</p>
+   *
+   * @param wallet The wallet
+   * @param tx     The transaction
+   */
+  private synchronized void update(Wallet wallet, Transaction tx) {
+
+    if (stale) {
+      // A full resynchronisation is pending anyway
+      return;
+    }
+
+    boolean dead = tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD;
+
+    // Outputs spent by this transaction are no longer available
+    if (!dead && !tx.isCoinBase()) {
+      for (TransactionInput input : tx.getInputs()) {
+        remove(input.getOutpoint());
+      }
+    }
+
+    for (TransactionOutput output : tx.getOutputs()) {
+      TransactionOutPoint outPoint = new TransactionOutPoint(output.getParams(), output.getIndex(), tx);
+      remove(outPoint);
+      if (!dead && output.isAvailableForSpending() && output.isMineOrWatched(wallet)) {
+        add(new IndexEntry(outPoint, output));
+      }
+    }
+
+  }
+
+  /**
+   * @param candidates The spend candidates provided by the wallet
+   */
+  private void rebuild(List<TransactionOutput> candidates) {
+
+    log.debug("Rebuilding coin selector index from {} candidates", candidates.size());
+
+    index.clear();
+    entries.clear();
+
+    for (TransactionOutput output : candidates) {
+      add(new IndexEntry(output.getOutPointFor(), output));
+    }
+
+    stale = false;
+  }
+
+  /**
+   * @param target The target value in satoshis
+   *
+   * @return The selected entries in order of preference
+   */
+  private List<IndexEntry> selectEntries(long target) {
+
+    // Exact match (within tolerance) avoids a change output
+    List<IndexEntry> selected = selectBranchAndBound(target);
+
+    if (selected == null) {
+      selected = selectSmallestSufficient(target);
+    }
+
+    if (selected == null) {
+      selected = selectLargestFirst(target);
+    }
+
+    return selected;
+  }
+
+  /**
+   * <p>Check the selected entries against the candidates, dropping any the wallet no longer offers from the index</p>
+   *
+   * @param selected   The selected entries
+   * @param candidates The spend candidates provided by the wallet
+   *
+   * @return The candidate outputs for the selected entries, or null if any were not offered
+   */
+  private List<TransactionOutput> gatherOffered(List<IndexEntry> selected, List<TransactionOutput> candidates) {
+
+    Map<TransactionOutPoint, TransactionOutput> offered = Maps.newLinkedHashMap();
+    for (IndexEntry entry : selected) {
+      offered.put(entry.outPoint, null);
+    }
+
+    // Stop as soon as every selected entry has been found
+    int found = 0;
+    for (Iterator<TransactionOutput> iterator = candidates.iterator(); found < offered.size() && iterator.hasNext(); ) {
+      TransactionOutput output = iterator.next();
+      TransactionOutPoint outPoint = output.getOutPointFor();
+      if (offered.containsKey(outPoint) && offered.put(outPoint, output) == null) {
+        found++;
+      }
+    }
+
+    if (found == offered.size()) {
+      return Lists.newArrayList(offered.values());
+    }
+
+    for (Map.Entry<TransactionOutPoint, TransactionOutput> entry : offered.entrySet()) {
+      if (entry.getValue() == null) {
+        log.debug("Dropping output no longer offered by the wallet '{}'", entry.getKey());
+        remove(entry.getKey());
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @param candidates The spend candidates provided by the wallet
+   *
+   * @return True if any candidates were missing from the index and have been added
+   */
+  private boolean addMissing(List<TransactionOutput> candidates) {
+
+    boolean added = false;
+    for (TransactionOutput output : candidates) {
+      TransactionOutPoint outPoint = output.getOutPointFor();
+      if (!entries.containsKey(outPoint)) {
+        add(new IndexEntry(outPoint, output));
+        added = true;
+      }
+    }
+
+    return added;
+  }
+
+  private void add(IndexEntry entry) {
+    entries.put(entry.outPoint, entry);
+    index.add(entry);
+  }
+
+  private void remove(TransactionOutPoint outPoint) {
+    IndexEntry entry = entries.remove(outPoint);
+    if (entry != null) {
+      index.remove(entry);
+    }
+  }
+
+  /**
+   * @param target The target value in satoshis
+   *
+   * @return The outputs summing to within the change tolerance of the target, or null if none found
+   */
+  private List<IndexEntry> selectBranchAndBound(long target) {
+
+    // Outputs larger than the upper bound can never take part
+    long upperBound = target + changeTolerance;
+    List<IndexEntry> window = Lists.newArrayList();
+    for (IndexEntry entry : index.tailSet(IndexEntry.probe(upperBound, Integer.MIN_VALUE), true)) {
+      if (entry.isSelectable()) {
+        window.add(entry);
+        if (window.size() == MAXIMUM_BNB_CANDIDATES) {
+          break;
+        }
+      }
+    }
+
+    // Remaining value from each position onwards for pruning
+    long[] remaining = new long[window.size() + 1];
+    for (int i = window.size() - 1; i >= 0; i--) {
+      remaining[i] = remaining[i + 1] + window.get(i).value;
+    }
+    if (remaining[0] < target) {
+      return null;
+    }
+
+    bnbTries = 0;
+    boolean[] included = new boolean[window.size()];
+    if (!search(window, remaining, included, 0, 0, target, upperBound)) {
+      return null;
+    }
+
+    List<IndexEntry> selected = Lists.newArrayList();
+    for (int i = 0; i < included.length; i++) {
+      if (included[i]) {
+        selected.add(window.get(i));
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * <p>Depth first search including the largest outputs first</p>
+   *
+   * @return True if a solution has been recorded in the included flags
+   */
+  private boolean search(List<IndexEntry> window, long[] remaining, boolean[] included, int position, long total, long target, long upperBound) {
+
+    if (total >= target) {
+      return total <= upperBound;
+    }
+    if (position == window.size() || total + remaining[position] < target || ++bnbTries > MAXIMUM_BNB_TRIES) {
+      return false;
+    }
+
+    long value = window.get(position).value;
+    if (total + value <= upperBound) {
+      included[position] = true;
+      if (search(window, remaining, included, position + 1, total + value, target, upperBound)) {
+        return true;
+      }
+      included[position] = false;
+    }
+
+    return search(window, remaining, included, position + 1, total, target, upperBound);
+  }
+
+  /**
+   * @param target The target value in satoshis
+   *
+   * @return The single smallest output covering the target, or null if none
+   */
+  private List<IndexEntry> selectSmallestSufficient(long target) {
+
+    Iterator<IndexEntry> iterator = index.headSet(IndexEntry.probe(target, Integer.MAX_VALUE), true).descendingIterator();
+    while (iterator.hasNext()) {
+      IndexEntry entry = iterator.next();
+      if (entry.value >= target && entry.isSelectable()) {
+        return Lists.newArrayList(entry);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @param target The target value in satoshis
+   *
+   * @return The largest outputs until the target is reached (all selectable outputs if it cannot be reached)
+   */
+  private List<IndexEntry> selectLargestFirst(long target) {
+
+    List<IndexEntry> selected = Lists.newArrayList();
+    long total = 0;
+    for (IndexEntry entry : index) {
+      if (total >= target) {
+        break;
+      }
+      if (entry.isSelectable()) {
+        selected.add(entry);
+        total += entry.value;
+      }
+    }
+
+    return selected;
+  }
+
+  /**
+   * <p>Immutable snapshot of the ordering keys of an output</p>
+   */
+  private static class IndexEntry {
+
+    private final TransactionOutPoint outPoint;
+    private final TransactionOutput output;
+    private final long value;
+    private final int height;
+    private final String hash;
+    private final long outPointIndex;
+
+    private IndexEntry(TransactionOutPoint outPoint, TransactionOutput output) {
+      this.outPoint = outPoint;
+      this.output = output;
+      this.value = output.getValue().value;
+
+      Transaction parent = output.getParentTransaction();
+      if (parent != null && parent.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.BUILDING) {
+        this.height = parent.getConfidence().getAppearedAtChainHeight();
+      } else {
+        // Unconfirmed outputs are the newest
+        this.height = Integer.MAX_VALUE;
+      }
+
+      this.hash = outPoint.getHash().toString();
+      this.outPointIndex = outPoint.getIndex();
+    }
+
+    private IndexEntry(long value, int height, String hash) {
+      this.outPoint = null;
+      this.output = null;
+      this.value = value;
+      this.height = height;
+      this.hash = hash;
+      this.outPointIndex = 0;
+    }
+
+    /**
+     * @return An entry positioned at the start (lowest height) or end (highest height) of the given value
+     */
+    private static IndexEntry probe(long value, int height) {
+      return new IndexEntry(value, height, height == Integer.MIN_VALUE ? "" : "\uffff");
+    }
+
+    private boolean isSelectable() {
+      return output.isAvailableForSpending() && DefaultCoinSelector.isSelectable(output.getParentTransaction());
+    }
+
+  }
+
+  /**
+   * <p>Largest value first, then oldest first, then by outpoint for a total ordering</p>
+   */
+  private static class IndexEntryComparator implements Comparator<IndexEntry> {
+
+    @Override
+    public int compare(IndexEntry a, IndexEntry b) {
+
+      int result = Long.compare(b.value, a.value);
+      if (result != 0) {
+        return result;
+      }
+      result = Integer.compare(a.height, b.height);
+      if (result != 0) {
+        return result;
+      }
+      result = a.hash.compareTo(b.hash);
+      if (result != 0) {
+        return result;
+      }
+      return Long.compare(a.outPointIndex, b.outPointIndex);
+    }
+
+  }
+
+}
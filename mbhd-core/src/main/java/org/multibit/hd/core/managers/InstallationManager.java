@@ -1,6 +1,8 @@
 package org.multibit.hd.core.managers;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.multibit.hd.core.events.ShutdownEvent;
@@ -9,13 +11,14 @@ import org.multibit.hd.core.utils.OSUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.Permission;
 import java.security.PermissionCollection;
 import java.util.Map;
@@ -177,7 +180,10 @@ public class InstallationManager {
   }
 
   /**
-   * Copy the checkpoints file from the MultiBitHD installation to the specified filename
+   * <p>Provide the checkpoints file from the MultiBitHD installation at the specified filename</p>
+   * <p>A single shared copy is held in the application data directory and each wallet directory receives a
+   * hard link to it where the file system allows, falling back to a copy. An existing file is replaced
+   * only if its content differs from the shared copy.</p>
    *
    * @param destinationCheckpointsFile The sink to receive the source checkpoints file
    */
@@ -185,55 +191,126 @@ public class InstallationManager {
 
     Preconditions.checkNotNull(destinationCheckpointsFile, "'checkpointsFile' must be present");
 
-    // TODO overwrite if larger/ newer
-    if (!destinationCheckpointsFile.exists() || destinationCheckpointsFile.length() == 0) {
+    File sharedCheckpointsFile = getOrCreateSharedCheckpointsFile();
 
-      log.debug("Copying checkpoints to '{}'", destinationCheckpointsFile);
+    if (destinationCheckpointsFile.getAbsoluteFile().equals(sharedCheckpointsFile.getAbsoluteFile())) {
+      log.debug("Checkpoints are the shared copy.");
+      return;
+    }
 
-      // Work out the source checkpoints (put into the program installation directory by the installer)
-      File currentWorkingDirectory = new File(".");
-      File sourceBlockCheckpointsFile = new File(currentWorkingDirectory.getAbsolutePath() + File.separator + MBHD_PREFIX + CHECKPOINTS_SUFFIX);
+    if (destinationCheckpointsFile.exists() && destinationCheckpointsFile.length() > 0) {
 
-      // Prepare an input stream to the checkpoints
-      final InputStream sourceCheckpointsStream;
-      if (sourceBlockCheckpointsFile.exists()) {
-        // Use the file system
-        log.debug("Using source checkpoints from working directory.");
-        sourceCheckpointsStream = new FileInputStream(sourceBlockCheckpointsFile);
-      } else {
-        // Use the classpath
-        log.debug("Using source checkpoints from classpath.");
-        sourceCheckpointsStream = InstallationManager.class.getResourceAsStream("/mbhd.checkpoints");
+      if (Files.isSameFile(destinationCheckpointsFile.toPath(), sharedCheckpointsFile.toPath())) {
+        log.debug("Checkpoints already linked to shared copy.");
+        return;
       }
 
-      // Create the output stream
-      long bytes;
-      try (FileOutputStream sinkCheckpointsStream = new FileOutputStream(destinationCheckpointsFile)) {
-
-        // Copy the checkpoints
-        bytes = ByteStreams.copy(sourceCheckpointsStream, sinkCheckpointsStream);
-
-        // Clean up
-        sourceCheckpointsStream.close();
-        sinkCheckpointsStream.flush();
-        sinkCheckpointsStream.close();
-      } finally {
-        if (sourceCheckpointsStream != null) {
-          sourceCheckpointsStream.close();
-        }
+      if (isSameContent(destinationCheckpointsFile, sharedCheckpointsFile)) {
+        log.debug("Checkpoints already exist.");
+        return;
       }
 
-      log.debug("New checkpoints are {} bytes in length.", bytes);
+      log.debug("Checkpoints differ from shared copy - replacing");
+    }
 
-      if (bytes < 13_000) {
-        log.warn("Checkpoints are short.");
-      }
+    Files.deleteIfExists(destinationCheckpointsFile.toPath());
+
+    try {
+      Files.createLink(destinationCheckpointsFile.toPath(), sharedCheckpointsFile.toPath());
+      log.debug("Linked checkpoints to '{}'", destinationCheckpointsFile);
+    } catch (IOException | UnsupportedOperationException e) {
+      // Some file systems (e.g. FAT32, network shares) do not support hard links
+      log.debug("Hard link not supported ({}) - copying checkpoints to '{}'", e.getMessage(), destinationCheckpointsFile);
+      // Keep the modification time so later checks can avoid hashing
+      Files.copy(sharedCheckpointsFile.toPath(), destinationCheckpointsFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+  }
+
+  /**
+   * <p>Compare the size and modification time first and only hash the content if they are inconclusive</p>
+   *
+   * @param copy     The copied file
+   * @param original The original file
+   *
+   * @return True if the files have the same content
+   *
+   * @throws IOException If the files could not be read
+   */
+  private static boolean isSameContent(File copy, File original) throws IOException {
+
+    if (copy.length() != original.length()) {
+      return false;
+    }
+
+    if (copy.lastModified() == original.lastModified()) {
+      return true;
+    }
+
+    return hashOf(copy).equals(hashOf(original));
+  }
+
+  /**
+   * <p>Get the single shared copy of the installation checkpoints in the application data directory,
+   * refreshing it if the installation provides different checkpoints (e.g. after an upgrade)</p>
+   *
+   * @return The shared checkpoints file
+   *
+   * @throws IOException If the checkpoints could not be read or written
+   */
+  public static synchronized File getOrCreateSharedCheckpointsFile() throws IOException {
 
+    File sharedCheckpointsFile = new File(getOrCreateApplicationDataDirectory().getAbsolutePath() + File.separator + MBHD_PREFIX + CHECKPOINTS_SUFFIX);
+
+    // Work out the source checkpoints (put into the program installation directory by the installer)
+    File currentWorkingDirectory = new File(".");
+    File sourceBlockCheckpointsFile = new File(currentWorkingDirectory.getAbsolutePath() + File.separator + MBHD_PREFIX + CHECKPOINTS_SUFFIX);
+
+    // Read the source checkpoints (they are small)
+    final byte[] sourceCheckpoints;
+    if (sourceBlockCheckpointsFile.exists() && !(sharedCheckpointsFile.exists() && Files.isSameFile(sourceBlockCheckpointsFile.toPath(), sharedCheckpointsFile.toPath()))) {
+      // Use the file system
+      log.debug("Using source checkpoints from working directory.");
+      sourceCheckpoints = Files.readAllBytes(sourceBlockCheckpointsFile.toPath());
     } else {
+      // Use the classpath
+      log.debug("Using source checkpoints from classpath.");
+      try (InputStream sourceCheckpointsStream = InstallationManager.class.getResourceAsStream("/mbhd.checkpoints")) {
+        Preconditions.checkNotNull(sourceCheckpointsStream, "'sourceCheckpointsStream' must be present");
+        sourceCheckpoints = ByteStreams.toByteArray(sourceCheckpointsStream);
+      }
+    }
 
-      log.debug("Checkpoints already exist.");
+    if (sharedCheckpointsFile.exists()
+      && sharedCheckpointsFile.length() == sourceCheckpoints.length
+      && hashOf(sharedCheckpointsFile).equals(Hashing.sha256().hashBytes(sourceCheckpoints))) {
+      return sharedCheckpointsFile;
+    }
 
+    log.debug("Writing shared checkpoints to '{}'", sharedCheckpointsFile);
+
+    // Write atomically so that existing hard links continue to see the old version until replaced
+    File tempFile = SecureFiles.createTemporaryFilename(MBHD_PREFIX, CHECKPOINTS_SUFFIX + ".tmp", sharedCheckpointsFile.getParentFile());
+    SecureFiles.writeFile(new ByteArrayInputStream(sourceCheckpoints), tempFile, sharedCheckpointsFile);
+
+    log.debug("New checkpoints are {} bytes in length.", sourceCheckpoints.length);
+
+    if (sourceCheckpoints.length < 13_000) {
+      log.warn("Checkpoints are short.");
     }
+
+    return sharedCheckpointsFile;
+  }
+
+  /**
+   * @param file The file to hash
+   *
+   * @return The SHA-256 hash of the file content
+   *
+   * @throws IOException If the file could not be read
+   */
+  private static HashCode hashOf(File file) throws IOException {
+    return com.google.common.io.Files.hash(file, Hashing.sha256());
   }
 
   /**
@@ -0,0 +1,176 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>Aggregator to provide the following to WalletManager:</p>
+ * <ul>
+ * <li>Collapse the per-transaction confidence callbacks that arrive with each new block into a single update</li>
+ * <li>Identify the transactions whose confidence type actually changed</li>
+ * </ul>
+ * <p>Each new block causes bitcoinj to report a confidence change for every pending and recent transaction
+ * in the wallet even though only the depth has changed. Relaying each of these outward causes O(wallet)
+ * work per block for every downstream consumer.</p>
+ * <p>Transactions that have not been reported for {@link #RETAINED_BATCHES} blocks (e.g. dead or removed from
+ * the wallet) are forgotten. If one is reported again it is treated as new, which costs a single extra update.</p>
+ *
+ * @since 0.1.0
+ */
+public class TransactionConfidenceAggregator {
+
+  /**
+   * The number of completed batches a transaction is remembered for without being reported
+   */
+  static final int RETAINED_BATCHES = 6;
+
+  /**
+   * The last confidence type reported for each recently reported transaction
+   */
+  private final Map<Sha256Hash, TrackedConfidence> confidenceTypes = Maps.newHashMap();
+
+  private int changedCount = 0;
+
+  private int depthOnlyCount = 0;
+
+  private int batchHeight = -1;
+
+  /**
+   * The number of batches completed (used to age out transactions)
+   */
+  private long batchCount = 0;
+
+  /**
+   * <p>Record a confidence change callback</p>
+   *
+   * @param transaction     The transaction
+   * @param bestChainHeight The wallet's last seen block height
+   *
+   * @return True if the confidence type changed (or the transaction is new) and so requires individual handling
+   */
+  public synchronized boolean record(Transaction transaction, int bestChainHeight) {
+
+    Preconditions.checkNotNull(transaction, "'transaction' must be present");
+
+    batchHeight = Math.max(batchHeight, bestChainHeight);
+
+    TransactionConfidence.ConfidenceType confidenceType = transaction.getConfidence().getConfidenceType();
+    TrackedConfidence previous = confidenceTypes.put(transaction.getHash(), new TrackedConfidence(confidenceType, batchCount));
+
+    if (previous != null && confidenceType == previous.confidenceType) {
+      depthOnlyCount++;
+      return false;
+    }
+
+    changedCount++;
+    return true;
+  }
+
+  /**
+   * <p>Remember the confidence type of a transaction reported through another callback (e.g. coins received)</p>
+   *
+   * @param transaction The transaction
+   */
+  public synchronized void remember(Transaction transaction) {
+
+    Preconditions.checkNotNull(transaction, "'transaction' must be present");
+
+    confidenceTypes.put(transaction.getHash(), new TrackedConfidence(transaction.getConfidence().getConfidenceType(), batchCount));
+  }
+
+  /**
+   * @param bestChainHeight The wallet's last seen block height
+   *
+   * @return True if the batch recorded for a different height contained depth only changes that need consolidating
+   */
+  public synchronized boolean completeIfHeightChanged(int bestChainHeight) {
+
+    if (batchHeight == -1 || batchHeight == bestChainHeight) {
+      return false;
+    }
+
+    return complete();
+  }
+
+  /**
+   * <p>Complete the current batch (typically when the wallet reports it has changed after processing a block)</p>
+   *
+   * @return True if depth only changes were recorded since the last completion (changed transactions have already
+   * been handled individually)
+   */
+  public synchronized boolean complete() {
+
+    if (changedCount == 0 && depthOnlyCount == 0) {
+      return false;
+    }
+
+    boolean consolidate = depthOnlyCount > 0;
+
+    changedCount = 0;
+    depthOnlyCount = 0;
+    batchHeight = -1;
+    batchCount++;
+
+    if (batchCount % RETAINED_BATCHES == 0) {
+      forgetUnreported();
+    }
+
+    return consolidate;
+  }
+
+  /**
+   * <p>Forget all transactions (e.g. when the current wallet changes)</p>
+   */
+  public synchronized void reset() {
+
+    confidenceTypes.clear();
+    changedCount = 0;
+    depthOnlyCount = 0;
+    batchHeight = -1;
+    batchCount = 0;
+
+  }
+
+  /**
+   * @return The number of transactions currently remembered
+   */
+  synchronized int size() {
+    return confidenceTypes.size();
+  }
+
+  /**
+   * <p>Remove transactions that have not been reported within the retained batches</p>
+   */
+  private void forgetUnreported() {
+
+    Iterator<TrackedConfidence> iterator = confidenceTypes.values().iterator();
+    while (iterator.hasNext()) {
+      if (batchCount - iterator.next().lastBatch > RETAINED_BATCHES) {
+        iterator.remove();
+      }
+    }
+
+  }
+
+  /**
+   * <p>The last reported confidence type of a transaction</p>
+   */
+  private static class TrackedConfidence {
+
+    private final TransactionConfidence.ConfidenceType confidenceType;
+    private final long lastBatch;
+
+    private TrackedConfidence(TransactionConfidence.ConfidenceType confidenceType, long lastBatch) {
+      this.confidenceType = confidenceType;
+      this.lastBatch = lastBatch;
+    }
+
+  }
+
+}
@@ -7,6 +7,8 @@ import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.exceptions.WalletSaveException;
 import org.multibit.hd.core.files.SecureFiles;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.CoreServices;
 import org.slf4j.Logger;
@@ -27,6 +29,8 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
 
   private static final Logger log = LoggerFactory.getLogger(WalletAutoSaveListener.class);
 
+  private static final Timer autoSaveTimer = Metrics.INSTANCE.timer("wallet-manager.autosave");
+
   @Override
   public void onBeforeAutoSave(File tempFile) {
 
@@ -38,6 +42,7 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
   public void onAfterAutoSave(File newlySavedFile) {
       log.debug("Wallet auto-saved to newlySavedFile:\n'{}'", newlySavedFile.getAbsolutePath());
 
+    Timer.Context context = autoSaveTimer.time();
     try {
       Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
 
@@ -74,11 +79,16 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
         backupService.rememberWalletSummaryAndPasswordForRollingBackup(walletSummary.get(), password);
         backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.get().getWalletId(), password);
         backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.get().getWalletId(), password);
+
+        context.bytes(encryptedWalletFile == null ? 0 : encryptedWalletFile.length());
       } else {
         log.error("No AES wallet encryption nor backups created as there was no wallet data to backup.");
       }
     } catch (IOException ioe) {
+      context.fail();
       throw new WalletSaveException("Could not save wallet " + newlySavedFile.getAbsolutePath(), ioe);
+    } finally {
+      context.stop();
     }
   }
 }
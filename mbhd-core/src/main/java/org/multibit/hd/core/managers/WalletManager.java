@@ -45,6 +45,8 @@ import org.multibit.hd.core.exceptions.WalletSaveException;
 import org.multibit.hd.core.exceptions.WalletVersionException;
 import org.multibit.hd.core.extensions.WalletTypeExtension;
 import org.multibit.hd.core.files.SecureFiles;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.BitcoinNetworkService;
 import org.multibit.hd.core.services.CoreServices;
@@ -86,6 +88,7 @@ public enum WalletManager implements WalletEventListener {
       Coin value = tx.getValue(wallet);
       log.debug("Received transaction {} with value {}", tx, value);
 
+      confidenceAggregator.remember(tx);
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
     }
 
@@ -93,6 +96,7 @@ public enum WalletManager implements WalletEventListener {
     public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
       // Emit an event so that GUI elements can update as required
       Coin value = tx.getValue(wallet);
+      confidenceAggregator.remember(tx);
       CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
     }
 
@@ -105,14 +109,29 @@ public enum WalletManager implements WalletEventListener {
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
       // Emit an event so that GUI elements can update as required
       if (tx != null) {
-        Coin value = tx.getValue(wallet);
-        CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
+
+        // Complete any batch left over from a previous block
+        int bestChainHeight = wallet.getLastBlockSeenHeight();
+        if (confidenceAggregator.completeIfHeightChanged(bestChainHeight)) {
+          CoreEvents.consolidateTransactionSeenEvents();
+        }
+
+        // Only relay transactions whose confidence type changed - depth changes are consolidated per block
+        if (confidenceAggregator.record(tx, bestChainHeight)) {
+          Coin value = tx.getValue(wallet);
+          CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
+        }
       }
     }
 
     @Override
     public void onWalletChanged(Wallet wallet) {
 
+      // Called after the wallet has processed a block so all confidence changes are in
+      if (confidenceAggregator.complete()) {
+        CoreEvents.consolidateTransactionSeenEvents();
+      }
+
     }
 
     @Override
@@ -133,6 +152,15 @@ public enum WalletManager implements WalletEventListener {
 
   private static final Logger log = LoggerFactory.getLogger(WalletManager.class);
 
+  private static final Timer feeStateTimer = Metrics.INSTANCE.timer("fee-service.calculate-fee-state");
+  private static final Timer openTimer = Metrics.INSTANCE.timer("wallet-manager.open");
+  private static final Timer saveTimer = Metrics.INSTANCE.timer("wallet-manager.save");
+
+  /**
+   * Consolidates the per-transaction confidence callbacks received with each block
+   */
+  private static final TransactionConfidenceAggregator confidenceAggregator = new TransactionConfidenceAggregator();
+
   /**
    * The earliest possible HD wallet.
    * Set after discussions on the bitcoinj mailing list:
@@ -175,6 +203,11 @@ public enum WalletManager implements WalletEventListener {
 
   private Optional<WalletSummary> currentWalletSummary = Optional.absent();
 
+  /**
+   * Indexes the unspent outputs of the current wallet for coin selection
+   */
+  private Optional<IndexedCoinSelector> currentCoinSelector = Optional.absent();
+
   private static final SecureRandom random = new SecureRandom();
 
   /**
@@ -191,6 +224,12 @@ public enum WalletManager implements WalletEventListener {
 
   private FeeService feeService;
 
+  /**
+   * The sent by self provider for the wallet it was created for
+   */
+  private TransactionSentBySelfProvider transactionSentBySelfProvider;
+  private WalletId transactionSentBySelfProviderWalletId;
+
   private ListeningExecutorService walletExecutorService = null;
 
   /**
@@ -226,43 +265,49 @@ public enum WalletManager implements WalletEventListener {
     Preconditions.checkNotNull(walletId, "'walletId' must be present");
     Preconditions.checkNotNull(password, "'credentials' must be present");
 
-    this.currentWalletSummary = Optional.absent();
+    Timer.Context context = openTimer.time();
+    try {
+      this.currentWalletSummary = Optional.absent();
 
-    // Ensure BackupManager knows where the wallets are
-    BackupManager.INSTANCE.setApplicationDataDirectory(applicationDataDirectory);
+      // Ensure BackupManager knows where the wallets are
+      BackupManager.INSTANCE.setApplicationDataDirectory(applicationDataDirectory);
 
-    // Work out the list of available wallets in the application data directory
-    List<File> walletDirectories = findWalletDirectories(applicationDataDirectory);
+      // Work out the list of available wallets in the application data directory
+      List<File> walletDirectories = findWalletDirectories(applicationDataDirectory);
 
-    // If a wallet directory is present try to load the wallet
-    if (!walletDirectories.isEmpty()) {
-      String walletIdPath = walletId.toFormattedString();
-      // Match the wallet directory to the wallet data
-      for (File walletDirectory : walletDirectories) {
+      // If a wallet directory is present try to load the wallet
+      if (!walletDirectories.isEmpty()) {
+        String walletIdPath = walletId.toFormattedString();
+        // Match the wallet directory to the wallet data
+        for (File walletDirectory : walletDirectories) {
 
-        verifyWalletDirectory(walletDirectory);
+          verifyWalletDirectory(walletDirectory);
 
-        String walletDirectoryPath = walletDirectory.getAbsolutePath();
-        if (walletDirectoryPath.contains(walletIdPath)) {
-          // Found the required wallet directory - attempt to present the wallet
-          WalletSummary walletSummary = loadFromWalletDirectory(walletDirectory, password);
-          setCurrentWalletSummary(walletSummary);
+          String walletDirectoryPath = walletDirectory.getAbsolutePath();
+          if (walletDirectoryPath.contains(walletIdPath)) {
+            // Found the required wallet directory - attempt to present the wallet
+            WalletSummary walletSummary = loadFromWalletDirectory(walletDirectory, password);
+            setCurrentWalletSummary(walletSummary);
 
-          try {
-            // Wallet is now created - finish off other configuration
-            updateConfigurationAndCheckSync(createWalletRoot(walletId), walletDirectory, walletSummary, false, true);
-          } catch (IOException ioe) {
-            throw new WalletLoadException("Cannot load wallet with id: " + walletId, ioe);
-          }
+            try {
+              // Wallet is now created - finish off other configuration
+              updateConfigurationAndCheckSync(createWalletRoot(walletId), walletDirectory, walletSummary, false, true);
+            } catch (IOException ioe) {
+              context.fail();
+              throw new WalletLoadException("Cannot load wallet with id: " + walletId, ioe);
+            }
 
-          break;
+            break;
+          }
         }
+      } else {
+        currentWalletSummary = Optional.absent();
       }
-    } else {
-      currentWalletSummary = Optional.absent();
-    }
 
-    return currentWalletSummary;
+      return currentWalletSummary;
+    } finally {
+      context.stop();
+    }
   }
 
   /**
@@ -1354,10 +1399,21 @@ public enum WalletManager implements WalletEventListener {
       Wallet wallet = getCurrentWalletSummary().get().getWallet();
 
       // Set the transaction sent by self provider to use TransactionInfos
-      TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(getCurrentWalletSummary().get().getWalletId());
+      // (reused for the same wallet so the fee state tracked on the wallet stays valid)
+      WalletId walletId = getCurrentWalletSummary().get().getWalletId();
+      if (transactionSentBySelfProvider == null || !walletId.equals(transactionSentBySelfProviderWalletId)) {
+        transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(walletId);
+        transactionSentBySelfProviderWalletId = walletId;
+      }
       feeService.setTransactionSentBySelfProvider(transactionSentBySelfProvider);
 
-      FeeState feeState = feeService.calculateFeeState(wallet, false);
+      final FeeState feeState;
+      Timer.Context context = feeStateTimer.time();
+      try {
+        feeState = feeService.calculateFeeState(wallet, false);
+      } finally {
+        context.stop();
+      }
       if (includeOneExtraFee) {
         feeState.setFeeOwed(feeState.getFeeOwed().add(FeeService.FEE_PER_SEND));
       }
@@ -1385,6 +1441,18 @@ public enum WalletManager implements WalletEventListener {
       // Remove the previous WalletEventListener
       walletSummary.getWallet().removeEventListener(this);
 
+      // Confidence types are tracked per wallet
+      confidenceAggregator.reset();
+
+      // Replace the coin selector index of any previous wallet
+      if (currentCoinSelector.isPresent() && currentWalletSummary.isPresent() && currentWalletSummary.get().getWallet() != null) {
+        currentWalletSummary.get().getWallet().removeEventListener(currentCoinSelector.get());
+      }
+      IndexedCoinSelector coinSelector = new IndexedCoinSelector();
+      walletSummary.getWallet().setCoinSelector(coinSelector);
+      walletSummary.getWallet().addEventListener(coinSelector);
+      currentCoinSelector = Optional.of(coinSelector);
+
       // Add the wallet event listener
       walletSummary.getWallet().addEventListener(this);
     }
@@ -1814,6 +1882,7 @@ public enum WalletManager implements WalletEventListener {
         throw new WalletSaveException("The password specified is not the password for this wallet");
       }
 
+      Timer.Context context = saveTimer.time();
       try {
         File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
         File currentWalletFile = WalletManager.INSTANCE.getCurrentWalletFile(applicationDataDirectory).get();
@@ -1828,8 +1897,12 @@ public enum WalletManager implements WalletEventListener {
         backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
         backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.getWalletId(), walletSummary.getWalletPassword().getPassword());
 
+        context.bytes(encryptedAESCopy.length());
       } catch (IOException ioe) {
+        context.fail();
         log.error("Could not write wallet and backups for wallet with id '" + walletId + "' successfully. The error was '" + ioe.getMessage() + "'");
+      } finally {
+        context.stop();
       }
     }
 
@@ -0,0 +1,51 @@
+package org.multibit.hd.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Metric to provide the following to Metrics:</p>
+ * <ul>
+ * <li>A count that can be incremented and decremented from any thread</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public class Counter {
+
+  private final AtomicLong count = new AtomicLong();
+
+  Counter() {
+  }
+
+  public void inc() {
+    count.incrementAndGet();
+  }
+
+  /**
+   * @param n The amount to add
+   */
+  public void inc(long n) {
+    count.addAndGet(n);
+  }
+
+  public void dec() {
+    count.decrementAndGet();
+  }
+
+  /**
+   * @return The current count
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  void reset() {
+    count.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + count.get();
+  }
+
+}
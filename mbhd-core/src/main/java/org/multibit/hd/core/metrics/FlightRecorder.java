@@ -0,0 +1,186 @@
+package org.multibit.hd.core.metrics;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Utility to provide the following to Timer:</p>
+ * <ul>
+ * <li>Emission of a custom Java Flight Recorder event for each timed operation</li>
+ * <li>No compile time dependency on <code>jdk.jfr</code> (Java 11+) so the Java 7 target is unaffected</li>
+ * </ul>
+ * <p>A single event type, <code>org.multibit.hd.Operation</code>, is created through the <code>jdk.jfr.EventFactory</code>
+ * dynamic event API. Each event carries the component and operation (the timer name), a byte count where one
+ * applies and whether the operation failed. JFR supplies the start time, duration and thread so operations line
+ * up with GC, lock and I/O events in the same recording.</p>
+ * <p>When JFR is not present, or no recording has the event enabled, <code>begin()</code> returns null and
+ * nothing else is done.</p>
+ *
+ * @since 0.1.0
+ */
+public class FlightRecorder {
+
+  private static final Logger log = LoggerFactory.getLogger(FlightRecorder.class);
+
+  /**
+   * The JFR event name
+   */
+  public static final String EVENT_NAME = "org.multibit.hd.Operation";
+
+  /**
+   * Field indexes (in the order declared to the event factory)
+   */
+  private static final int COMPONENT_FIELD = 0;
+  private static final int OPERATION_FIELD = 1;
+  private static final int BYTES_FIELD = 2;
+  private static final int FAILED_FIELD = 3;
+
+  private static final Object eventFactory;
+  private static final Object eventType;
+  private static final Method newEventMethod;
+  private static final Method isEnabledMethod;
+  private static final Method beginMethod;
+  private static final Method shouldCommitMethod;
+  private static final Method setMethod;
+  private static final Method commitMethod;
+
+  static {
+
+    Object factory = null;
+    Object type = null;
+    Method newEvent = null;
+    Method isEnabled = null;
+    Method begin = null;
+    Method shouldCommit = null;
+    Method set = null;
+    Method commit = null;
+
+    try {
+      Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+      Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+      Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+      Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+      Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+      Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+
+      Class<?> nameClass = Class.forName("jdk.jfr.Name");
+      Class<?> labelClass = Class.forName("jdk.jfr.Label");
+      Class<?> categoryClass = Class.forName("jdk.jfr.Category");
+      Class<?> descriptionClass = Class.forName("jdk.jfr.Description");
+      Class<?> dataAmountClass = Class.forName("jdk.jfr.DataAmount");
+
+      List<Object> annotations = Lists.newArrayList(
+        annotationElement.newInstance(nameClass, EVENT_NAME),
+        annotationElement.newInstance(labelClass, "MultiBit HD Operation"),
+        annotationElement.newInstance(categoryClass, new String[]{"MultiBit HD"}),
+        annotationElement.newInstance(descriptionClass, "A timed wallet, file, backup or network operation")
+      );
+
+      List<Object> fields = Lists.newArrayList(
+        valueDescriptor.newInstance(String.class, "component", Collections.singletonList(annotationElement.newInstance(labelClass, "Component"))),
+        valueDescriptor.newInstance(String.class, "operation", Collections.singletonList(annotationElement.newInstance(labelClass, "Operation"))),
+        valueDescriptor.newInstance(long.class, "bytes", Lists.newArrayList(
+          annotationElement.newInstance(labelClass, "Bytes"),
+          annotationElement.newInstance(dataAmountClass, "BYTES")
+        )),
+        valueDescriptor.newInstance(boolean.class, "failed", Collections.singletonList(annotationElement.newInstance(labelClass, "Failed")))
+      );
+
+      factory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+      type = eventFactoryClass.getMethod("getEventType").invoke(factory);
+      newEvent = eventFactoryClass.getMethod("newEvent");
+      isEnabled = eventTypeClass.getMethod("isEnabled");
+      begin = eventClass.getMethod("begin");
+      shouldCommit = eventClass.getMethod("shouldCommit");
+      set = eventClass.getMethod("set", int.class, Object.class);
+      commit = eventClass.getMethod("commit");
+
+    } catch (Exception | LinkageError e) {
+      log.debug("Flight recorder events are not available: {}", e.getClass().getSimpleName());
+      factory = null;
+    }
+
+    eventFactory = factory;
+    eventType = type;
+    newEventMethod = newEvent;
+    isEnabledMethod = isEnabled;
+    beginMethod = begin;
+    shouldCommitMethod = shouldCommit;
+    setMethod = set;
+    commitMethod = commit;
+
+  }
+
+  /**
+   * Utilities have private constructors
+   */
+  private FlightRecorder() {
+  }
+
+  /**
+   * @return True if the running JVM supports custom flight recorder events (Java 11+)
+   */
+  public static boolean isAvailable() {
+    return eventFactory != null;
+  }
+
+  /**
+   * @return A started event, or null if no recording has the event enabled
+   */
+  static Object begin() {
+
+    if (eventFactory == null) {
+      return null;
+    }
+
+    try {
+      if (!(Boolean) isEnabledMethod.invoke(eventType)) {
+        return null;
+      }
+      Object event = newEventMethod.invoke(eventFactory);
+      beginMethod.invoke(event);
+      return event;
+    } catch (Exception e) {
+      log.debug("Could not begin flight recorder event: {}", e.getMessage());
+      return null;
+    }
+
+  }
+
+  /**
+   * @param event     The event from <code>begin()</code> (ignored if null)
+   * @param component The component (e.g. "encrypted-file")
+   * @param operation The operation (the full timer name)
+   * @param bytes     The number of bytes processed (zero if not applicable)
+   * @param failed    True if the operation did not complete normally
+   */
+  static void commit(Object event, String component, String operation, long bytes, boolean failed) {
+
+    if (event == null) {
+      return;
+    }
+
+    try {
+      if (!(Boolean) shouldCommitMethod.invoke(event)) {
+        return;
+      }
+      setMethod.invoke(event, COMPONENT_FIELD, component);
+      setMethod.invoke(event, OPERATION_FIELD, operation);
+      setMethod.invoke(event, BYTES_FIELD, bytes);
+      setMethod.invoke(event, FAILED_FIELD, failed);
+      commitMethod.invoke(event);
+    } catch (Exception e) {
+      log.debug("Could not commit flight recorder event: {}", e.getMessage());
+    }
+
+  }
+
+}
@@ -0,0 +1,19 @@
+package org.multibit.hd.core.metrics;
+
+/**
+ * <p>Interface to provide the following to Metrics:</p>
+ * <ul>
+ * <li>A value sampled on demand (e.g. a queue depth or cache size)</li>
+ * </ul>
+ * <p>Implementations are called from the reporting thread so must be thread safe and cheap.</p>
+ *
+ * @since 0.1.0
+ */
+public interface Gauge {
+
+  /**
+   * @return The current value
+   */
+  long getValue();
+
+}
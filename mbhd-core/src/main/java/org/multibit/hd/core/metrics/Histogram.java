@@ -0,0 +1,197 @@
+package org.multibit.hd.core.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Metric to provide the following to Metrics:</p>
+ * <ul>
+ * <li>Lock free recording of non-negative values from any thread</li>
+ * <li>Count, mean, minimum, maximum and percentiles</li>
+ * </ul>
+ * <p>Values are held in log-linear buckets (in the style of an HDR histogram): each power of two range is split
+ * into 64 linear sub-buckets so any recorded value is reported to within 1.6% across the full range of a long,
+ * using a fixed 30KB of memory.</p>
+ *
+ * @since 0.1.0
+ */
+public class Histogram {
+
+  /**
+   * Values below this are recorded exactly
+   */
+  private static final int SUB_BUCKET_COUNT = 128;
+
+  /**
+   * The number of linear sub-buckets for each power of two above the exact range
+   */
+  private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+  /**
+   * The exact range followed by 56 power of two ranges reaching Long.MAX_VALUE
+   */
+  static final int BUCKET_COUNT = SUB_BUCKET_COUNT + 56 * HALF_SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * <p>Create a standalone histogram (use <code>Metrics.histogram()</code> for one included in the metrics report)</p>
+   */
+  public Histogram() {
+  }
+
+  /**
+   * @param value The value to record (negative values are recorded as zero)
+   */
+  public void update(long value) {
+
+    long v = Math.max(value, 0);
+
+    buckets.incrementAndGet(bucketIndex(v));
+    count.incrementAndGet();
+    total.addAndGet(v);
+
+    long current;
+    while (v < (current = min.get()) && !min.compareAndSet(current, v)) {
+      // Retry
+    }
+    while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+      // Retry
+    }
+
+  }
+
+  /**
+   * @return The number of values recorded
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return The sum of the values recorded
+   */
+  public long getTotal() {
+    return total.get();
+  }
+
+  /**
+   * @return The smallest value recorded (zero if none)
+   */
+  public long getMin() {
+    return count.get() == 0 ? 0 : min.get();
+  }
+
+  /**
+   * @return The largest value recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return The mean of the values recorded
+   */
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : total.get() / (double) n;
+  }
+
+  /**
+   * @param percentile The percentile (e.g. 0.99)
+   *
+   * @return The highest value equivalent to the bucket containing the percentile (never more than the maximum)
+   */
+  public long getValueAtPercentile(double percentile) {
+
+    // Take a consistent total from the buckets themselves
+    long[] snapshot = new long[BUCKET_COUNT];
+    long n = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = buckets.get(i);
+      n += snapshot[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    long threshold = Math.max(1, (long) Math.ceil(n * percentile));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= threshold) {
+        return Math.min(bucketUpperBound(i), getMax());
+      }
+    }
+
+    return getMax();
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    min.set(Long.MAX_VALUE);
+    max.set(0);
+  }
+
+  /**
+   * @param value The non-negative value
+   *
+   * @return The bucket holding the value
+   */
+  static int bucketIndex(long value) {
+
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    // Shift so the value lands in [64, 128)
+    int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+
+    return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + (int) ((value >>> shift) - HALF_SUB_BUCKET_COUNT);
+  }
+
+  /**
+   * @param index The bucket index
+   *
+   * @return The largest value held in the bucket
+   */
+  static long bucketUpperBound(int index) {
+
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+
+    // Wraps to Long.MAX_VALUE for the last bucket
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format(
+      Locale.UK,
+      "count=%d min=%d mean=%.1f p50=%d p95=%d p99=%d max=%d",
+      getCount(),
+      getMin(),
+      getMean(),
+      getValueAtPercentile(0.5),
+      getValueAtPercentile(0.95),
+      getValueAtPercentile(0.99),
+      getMax()
+    );
+  }
+
+}
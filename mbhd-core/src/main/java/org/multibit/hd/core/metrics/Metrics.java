@@ -0,0 +1,320 @@
+package org.multibit.hd.core.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Registry to provide the following to the core hot paths:</p>
+ * <ul>
+ * <li>Named counters, gauges, histograms and timers</li>
+ * <li>Exposure through JMX</li>
+ * <li>A periodic report to the log</li>
+ * </ul>
+ * <p>Metrics are created on first use and live for the lifetime of the JVM so callers typically hold them in
+ * static fields:</p>
+ * <pre>
+ * private static final Timer rebuildTimer = Metrics.INSTANCE.timer("wallet-service.rebuild");
+ * </pre>
+ * <p>Names are dotted with the component first so the report groups related metrics together.</p>
+ *
+ * @since 0.1.0
+ */
+public enum Metrics implements MetricsMXBean {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+  /**
+   * The JMX object name
+   */
+  public static final String OBJECT_NAME = "org.multibit.hd:type=Metrics";
+
+  /**
+   * Often enough to follow a session without swamping the log
+   */
+  public static final long DEFAULT_REPORT_INTERVAL_SECONDS = 300;
+
+  /**
+   * All metrics by name
+   */
+  private final ConcurrentMap<String, Object> metrics = Maps.newConcurrentMap();
+
+  private ScheduledExecutorService reporter = null;
+
+  private long reportIntervalSeconds = 0;
+
+  private boolean registered = false;
+
+  /**
+   * @param name The metric name
+   *
+   * @return The counter with the given name, created if necessary
+   */
+  public Counter counter(String name) {
+    return getOrCreate(name, Counter.class);
+  }
+
+  /**
+   * @param name The metric name
+   *
+   * @return The histogram with the given name, created if necessary
+   */
+  public Histogram histogram(String name) {
+    return getOrCreate(name, Histogram.class);
+  }
+
+  /**
+   * @param name The metric name
+   *
+   * @return The timer with the given name, created if necessary
+   */
+  public Timer timer(String name) {
+    return getOrCreate(name, Timer.class);
+  }
+
+  /**
+   * @param name  The metric name
+   * @param gauge The gauge (replaces any existing gauge with the same name)
+   */
+  public void register(String name, Gauge gauge) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(gauge, "'gauge' must be present");
+
+    Object existing = metrics.get(name);
+    Preconditions.checkArgument(existing == null || existing instanceof Gauge, "'%s' is already registered as a different type", name);
+
+    registerMBean();
+    metrics.put(name, gauge);
+
+  }
+
+  /**
+   * <p>Start reporting all metrics to the log at the given interval (replacing any current reporter)</p>
+   *
+   * @param seconds The interval in seconds
+   */
+  public synchronized void startLogReporter(long seconds) {
+
+    Preconditions.checkArgument(seconds > 0, "'seconds' must be positive");
+
+    registerMBean();
+    stopLogReporter();
+
+    reportIntervalSeconds = seconds;
+    reporter = SafeExecutors.newSingleThreadScheduledExecutor("metrics-reporter");
+    reporter.scheduleAtFixedRate(
+      new Runnable() {
+        @Override
+        public void run() {
+          dumpToLog();
+        }
+      }, seconds, seconds, TimeUnit.SECONDS);
+
+  }
+
+  /**
+   * <p>Stop the periodic log reporter (repeated calls have no effect)</p>
+   */
+  public synchronized void stopLogReporter() {
+
+    if (reporter == null) {
+      return;
+    }
+
+    reporter.shutdownNow();
+    reporter = null;
+    reportIntervalSeconds = 0;
+
+  }
+
+  @Override
+  public String[] getMetrics() {
+
+    Map<String, Object> sorted = Maps.newTreeMap();
+    sorted.putAll(metrics);
+
+    String[] lines = new String[sorted.size()];
+    int i = 0;
+    for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+      lines[i++] = entry.getKey() + " " + describe(entry.getValue());
+    }
+
+    return lines;
+  }
+
+  @Override
+  public Map<String, Long> getCounters() {
+
+    Map<String, Long> counters = Maps.newTreeMap();
+    for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+      if (entry.getValue() instanceof Counter) {
+        counters.put(entry.getKey(), ((Counter) entry.getValue()).getCount());
+      }
+    }
+
+    return counters;
+  }
+
+  @Override
+  public Map<String, Long> getGauges() {
+
+    Map<String, Long> gauges = Maps.newTreeMap();
+    for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+      if (entry.getValue() instanceof Gauge) {
+        gauges.put(entry.getKey(), sample((Gauge) entry.getValue()));
+      }
+    }
+
+    return gauges;
+  }
+
+  @Override
+  public Map<String, Double> getTimerP99Millis() {
+
+    Map<String, Double> timers = Maps.newTreeMap();
+    for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+      if (entry.getValue() instanceof Timer) {
+        timers.put(entry.getKey(), ((Timer) entry.getValue()).getHistogram().getValueAtPercentile(0.99) / 1_000_000.0);
+      }
+    }
+
+    return timers;
+  }
+
+  @Override
+  public synchronized long getReportIntervalSeconds() {
+    return reportIntervalSeconds;
+  }
+
+  @Override
+  public synchronized void setReportIntervalSeconds(long seconds) {
+
+    Preconditions.checkArgument(seconds >= 0, "'seconds' must not be negative");
+
+    if (seconds == 0) {
+      stopLogReporter();
+    } else {
+      startLogReporter(seconds);
+    }
+
+  }
+
+  @Override
+  public void dumpToLog() {
+
+    String[] lines = getMetrics();
+    if (lines.length == 0) {
+      return;
+    }
+
+    StringBuilder sb = new StringBuilder("Metrics");
+    for (String line : lines) {
+      sb.append("\n").append(line);
+    }
+
+    log.info(sb.toString());
+  }
+
+  @Override
+  public void reset() {
+
+    for (Object metric : metrics.values()) {
+      if (metric instanceof Counter) {
+        ((Counter) metric).reset();
+      } else if (metric instanceof Histogram) {
+        ((Histogram) metric).reset();
+      } else if (metric instanceof Timer) {
+        ((Timer) metric).reset();
+      }
+    }
+
+  }
+
+  /**
+   * <p>Register with the platform MBean server (repeated calls have no effect)</p>
+   */
+  public synchronized void registerMBean() {
+
+    if (registered) {
+      return;
+    }
+
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(OBJECT_NAME);
+      if (!mBeanServer.isRegistered(objectName)) {
+        mBeanServer.registerMBean(this, objectName);
+      }
+      registered = true;
+    } catch (Exception e) {
+      log.warn("Could not register metrics with JMX", e);
+    }
+
+  }
+
+  /**
+   * @param name The metric name
+   * @param type The metric type
+   *
+   * @return The existing metric or a new one
+   */
+  private <T> T getOrCreate(String name, Class<T> type) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+
+    Object metric = metrics.get(name);
+    if (metric == null) {
+      registerMBean();
+      metrics.putIfAbsent(name, newMetric(name, type));
+      metric = metrics.get(name);
+    }
+
+    Preconditions.checkArgument(type.isInstance(metric), "'%s' is already registered as a different type", name);
+
+    return type.cast(metric);
+  }
+
+  private static Object newMetric(String name, Class<?> type) {
+
+    if (type == Counter.class) {
+      return new Counter();
+    }
+    if (type == Histogram.class) {
+      return new Histogram();
+    }
+    return new Timer(name);
+  }
+
+  private static String describe(Object metric) {
+
+    if (metric instanceof Gauge) {
+      return "value=" + sample((Gauge) metric);
+    }
+
+    return metric.toString();
+  }
+
+  private static long sample(Gauge gauge) {
+
+    try {
+      return gauge.getValue();
+    } catch (RuntimeException e) {
+      return -1;
+    }
+
+  }
+
+}
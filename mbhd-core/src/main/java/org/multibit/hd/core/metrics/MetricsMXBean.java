@@ -0,0 +1,56 @@
+package org.multibit.hd.core.metrics;
+
+import java.util.Map;
+
+/**
+ * <p>Management interface to provide the following to JMX clients:</p>
+ * <ul>
+ * <li>Counters, gauges, histograms and timers from the core hot paths</li>
+ * <li>Control of the periodic log reporter</li>
+ * </ul>
+ *
+ * @since 0.1.0
+ */
+public interface MetricsMXBean {
+
+  /**
+   * @return One line per metric with its current values, ordered by name
+   */
+  String[] getMetrics();
+
+  /**
+   * @return The current count by counter name
+   */
+  Map<String, Long> getCounters();
+
+  /**
+   * @return The current value by gauge name
+   */
+  Map<String, Long> getGauges();
+
+  /**
+   * @return The 99th percentile duration in milliseconds by timer name
+   */
+  Map<String, Double> getTimerP99Millis();
+
+  /**
+   * @return The interval in seconds between log reports (zero if not reporting)
+   */
+  long getReportIntervalSeconds();
+
+  /**
+   * @param seconds The interval in seconds between log reports (zero to stop reporting)
+   */
+  void setReportIntervalSeconds(long seconds);
+
+  /**
+   * <p>Write all metrics to the log</p>
+   */
+  void dumpToLog();
+
+  /**
+   * <p>Reset all counters, histograms and timers (gauges are unaffected)</p>
+   */
+  void reset();
+
+}
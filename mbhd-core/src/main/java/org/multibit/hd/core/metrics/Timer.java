@@ -0,0 +1,169 @@
+package org.multibit.hd.core.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Metric to provide the following to Metrics:</p>
+ * <ul>
+ * <li>A duration histogram with nanosecond resolution</li>
+ * <li>A count of timed operations that failed</li>
+ * <li>A Java Flight Recorder event per timed operation (see FlightRecorder)</li>
+ * </ul>
+ * <p>Typical use:</p>
+ * <pre>
+ * Timer.Context context = timer.time();
+ * try {
+ *   ...
+ * } finally {
+ *   context.stop();
+ * }
+ * </pre>
+ *
+ * @since 0.1.0
+ */
+public class Timer {
+
+  private final String name;
+
+  private final String component;
+
+  private final Histogram histogram = new Histogram();
+
+  private final AtomicLong failureCount = new AtomicLong();
+
+  /**
+   * @param name The metric name (the component is the part before the first dot)
+   */
+  Timer(String name) {
+    this.name = name;
+    int dot = name.indexOf('.');
+    this.component = dot < 0 ? name : name.substring(0, dot);
+  }
+
+  /**
+   * @return A new context timing from now until it is stopped
+   */
+  public Context time() {
+    return new Context(this);
+  }
+
+  /**
+   * @param duration The duration
+   * @param unit     The duration units
+   */
+  public void update(long duration, TimeUnit unit) {
+    histogram.update(unit.toNanos(duration));
+  }
+
+  /**
+   * <p>Count a timed operation that did not complete normally</p>
+   */
+  public void fail() {
+    failureCount.incrementAndGet();
+  }
+
+  /**
+   * @return The number of durations recorded
+   */
+  public long getCount() {
+    return histogram.getCount();
+  }
+
+  /**
+   * @return The number of operations that did not complete normally
+   */
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /**
+   * @return The durations in nanoseconds
+   */
+  public Histogram getHistogram() {
+    return histogram;
+  }
+
+  void reset() {
+    histogram.reset();
+    failureCount.set(0);
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format(
+      Locale.UK,
+      "count=%d failed=%d mean=%.3fms p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms",
+      histogram.getCount(),
+      failureCount.get(),
+      histogram.getMean() / 1_000_000,
+      histogram.getValueAtPercentile(0.5) / 1_000_000.0,
+      histogram.getValueAtPercentile(0.95) / 1_000_000.0,
+      histogram.getValueAtPercentile(0.99) / 1_000_000.0,
+      histogram.getMax() / 1_000_000.0
+    );
+  }
+
+  /**
+   * <p>A single timed operation</p>
+   */
+  public static class Context {
+
+    private final Timer timer;
+    private final long startNanos;
+    private final Object flightRecorderEvent;
+    private long bytes = 0;
+    private boolean stopped = false;
+
+    private Context(Timer timer) {
+      this.timer = timer;
+      this.flightRecorderEvent = FlightRecorder.begin();
+      this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @param bytes The number of bytes processed by the operation (reported to the flight recorder)
+     *
+     * @return This context
+     */
+    public Context bytes(long bytes) {
+      this.bytes = bytes;
+      return this;
+    }
+
+    /**
+     * <p>Record the elapsed time (repeated calls have no effect)</p>
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    public long stop() {
+      return finish(false);
+    }
+
+    /**
+     * <p>Record the elapsed time and count the operation as failed</p>
+     */
+    public void fail() {
+      finish(true);
+    }
+
+    private long finish(boolean failed) {
+
+      long elapsed = System.nanoTime() - startNanos;
+      if (!stopped) {
+        stopped = true;
+        timer.histogram.update(elapsed);
+        if (failed) {
+          timer.fail();
+        }
+        FlightRecorder.commit(flightRecorderEvent, timer.component, timer.name, bytes, failed);
+      }
+
+      return elapsed;
+    }
+
+  }
+
+}
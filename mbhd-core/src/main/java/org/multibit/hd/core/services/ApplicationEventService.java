@@ -2,15 +2,28 @@ package org.multibit.hd.core.services;
 
 import com.google.common.base.Optional;
 import com.google.common.eventbus.Subscribe;
+import org.joda.time.DateTime;
+import org.multibit.hd.core.config.BitcoinConfiguration;
+import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.RAGStatus;
 import org.multibit.hd.core.events.*;
+import org.multibit.hd.core.exchanges.ExchangeCache;
+import org.multibit.hd.core.exchanges.ExchangeCaches;
+import org.multibit.hd.core.exchanges.ExchangeKey;
+import org.multibit.hd.core.utils.Dates;
 import org.multibit.hd.hardware.core.events.HardwareWalletEvent;
 import org.multibit.hd.hardware.core.events.HardwareWalletEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.Currency;
 
 /**
  * <p>Service to provide the following to application:</p>
  * <ul>
  * <li>Tracking selected application events</li>
+ * <li>Providing the last good exchange rate from a previous session (flagged as stale) at startup</li>
  * </ul>
  * <p>Having this service allows the UI to catch up with previous events after a locale change or slow startup</p>
  *
@@ -18,6 +31,13 @@ import org.multibit.hd.hardware.core.events.HardwareWalletEvents;
  */
 public class ApplicationEventService extends AbstractService {
 
+  private static final Logger log = LoggerFactory.getLogger(ApplicationEventService.class);
+
+  /**
+   * A cached rate older than a few ticker refreshes is too far out of date to show
+   */
+  private static final int MAXIMUM_CACHED_RATE_AGE_SECONDS = 4 * ExchangeTickerService.TICKER_REFRESH_SECONDS;
+
   private Optional<ExchangeRateChangedEvent> latestExchangeRateChangedEvent = Optional.absent();
   private Optional<SecurityEvent> latestSecurityEvent = Optional.absent();
   private Optional<BitcoinNetworkChangedEvent> latestBitcoinNetworkChangedEvent = Optional.absent();
@@ -31,9 +51,62 @@ public class ApplicationEventService extends AbstractService {
     HardwareWalletEvents.subscribe(this);
     isRegistered = true;
 
+    // Show fiat values straight away rather than waiting on the exchange
+    if (!latestExchangeRateChangedEvent.isPresent()) {
+      latestExchangeRateChangedEvent = loadCachedExchangeRateChangedEvent();
+    }
+
     return false;
   }
 
+  /**
+   * @return A stale "exchange rate changed" event from the last good rate cached for the current exchange and local
+   * currency (absent if the rate is too old to show)
+   */
+  private Optional<ExchangeRateChangedEvent> loadCachedExchangeRateChangedEvent() {
+
+    if (Configurations.currentConfiguration == null) {
+      return Optional.absent();
+    }
+
+    try {
+      BitcoinConfiguration bitcoinConfiguration = Configurations.currentConfiguration.getBitcoin();
+      ExchangeKey exchangeKey = ExchangeKey.valueOf(bitcoinConfiguration.getCurrentExchange());
+      if (ExchangeKey.NONE.equals(exchangeKey)) {
+        return Optional.absent();
+      }
+      Currency localCurrency = Currency.getInstance(bitcoinConfiguration.getLocalCurrencyCode());
+
+      Optional<ExchangeCache.CachedRate> cachedRate = ExchangeCaches.getLastRate(exchangeKey, localCurrency);
+      if (!cachedRate.isPresent()) {
+        return Optional.absent();
+      }
+
+      DateTime cachedAt = new DateTime(cachedRate.get().getTimestamp());
+      if (cachedAt.plusSeconds(MAXIMUM_CACHED_RATE_AGE_SECONDS).isBefore(Dates.nowUtc())) {
+        log.debug("Ignoring cached exchange rate from {} as it is too old", cachedAt);
+        return Optional.absent();
+      }
+
+      ExchangeRateChangedEvent event = new ExchangeRateChangedEvent(
+        new BigDecimal(cachedRate.get().getRate()),
+        localCurrency,
+        Optional.of(cachedRate.get().getRateProvider()),
+        new DateTime(cachedRate.get().getExpires()),
+        true
+      );
+      log.debug("Using cached exchange rate from {}: {}", new DateTime(cachedRate.get().getTimestamp()), event);
+
+      return Optional.of(event);
+
+    } catch (IllegalArgumentException e) {
+      // Unknown exchange, currency or malformed rate so wait for the exchange
+      log.warn("Ignoring cached exchange rate: {}", e.getMessage());
+      return Optional.absent();
+    }
+
+  }
+
   @Override
   protected boolean shutdownNowInternal(ShutdownEvent.ShutdownType shutdownType) {
 
@@ -110,7 +183,8 @@ public class ApplicationEventService extends AbstractService {
         latestExchangeRateChangedEvent.get().getRate(),
         latestExchangeRateChangedEvent.get().getCurrency(),
         latestExchangeRateChangedEvent.get().getRateProvider(),
-        latestExchangeRateChangedEvent.get().getExpires()
+        latestExchangeRateChangedEvent.get().getExpires(),
+        latestExchangeRateChangedEvent.get().isStale()
       );
     }
 
@@ -21,12 +21,15 @@ import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.wallet.DeterministicKeyChain;
 import org.bitcoinj.wallet.KeyChain;
 import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.crypto.ParallelTransactionSigner;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
 import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.BlockStoreManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.network.MultiBitPeerEventListener;
 import org.multibit.hd.core.utils.Coins;
 import org.multibit.hd.hardware.core.HardwareWalletService;
@@ -72,6 +75,16 @@ public class BitcoinNetworkService extends AbstractService {
    */
   private static final int MINING_FEE_BOUNDARY = 1000;  // bytes
 
+  /**
+   * Send stage timings (failed stages are counted separately)
+   */
+  private static final Timer prepareTimer = Metrics.INSTANCE.timer("bitcoin-network.send.prepare");
+  private static final Timer keyDerivationTimer = Metrics.INSTANCE.timer("bitcoin-network.send.key-derivation");
+  private static final Timer signTimer = Metrics.INSTANCE.timer("bitcoin-network.send.sign");
+  private static final Timer commitTimer = Metrics.INSTANCE.timer("bitcoin-network.send.commit");
+  private static final Timer broadcastTimer = Metrics.INSTANCE.timer("bitcoin-network.send.broadcast");
+  private static final Timer broadcastConfirmedTimer = Metrics.INSTANCE.timer("bitcoin-network.send.broadcast-confirmed");
+
   private BlockStore blockStore;
   private PeerGroup peerGroup;  // May need to add listener as in MultiBitPeerGroup
   private BlockChain blockChain;
@@ -167,13 +180,15 @@ public class BitcoinNetworkService extends AbstractService {
       File blockStoreFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
       File checkpointsFile = SecureFiles.verifyOrCreateFile(walletParentDirectory, InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
 
+      BlockStoreManager blockStoreManager = newBlockStoreManager(applicationDataDirectory);
+
       if (replayDateOptional.isPresent()) {
         // Create a block store and checkpoint it
-        blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, replayDateOptional.get(), true);
+        blockStoreToReturn = blockStoreManager.createOrOpenBlockStore(blockStoreFile, checkpointsFile, replayDateOptional.get(), true);
       } else {
         // Load or create the blockStore - no checkpointing
         log.debug("Create new block store - no replay date");
-        blockStoreToReturn = new BlockStoreManager(networkParameters).createOrOpenBlockStore(blockStoreFile, checkpointsFile, null, false);
+        blockStoreToReturn = blockStoreManager.createOrOpenBlockStore(blockStoreFile, checkpointsFile, null, false);
         log.debug(
           "Success. Blockstore is '{}', height is {}",
           blockStoreToReturn,
@@ -197,6 +212,34 @@ public class BitcoinNetworkService extends AbstractService {
     return blockStoreToReturn;
   }
 
+  /**
+   * @param applicationDataDirectory The current application directory
+   *
+   * @return A block store manager sharing block store snapshots across all wallets
+   */
+  private BlockStoreManager newBlockStoreManager(File applicationDataDirectory) {
+
+    File snapshotDirectory = new File(applicationDataDirectory, BlockStoreManager.SNAPSHOT_DIRECTORY);
+
+    return new BlockStoreManager(networkParameters, Optional.of(snapshotDirectory));
+  }
+
+  /**
+   * <p>Capture a block store snapshot so that later replays and wallet switches can avoid re-downloading headers</p>
+   */
+  private void captureBlockStoreSnapshot() {
+
+    if (blockStore == null) {
+      return;
+    }
+
+    try {
+      newBlockStoreManager(InstallationManager.getOrCreateApplicationDataDirectory()).captureSnapshot(blockStore);
+    } catch (BlockStoreException | IOException | RuntimeException e) {
+      log.warn("Failed to capture block store snapshot", e);
+    }
+  }
+
   /**
    * @return True if the network has started and a peer group is available
    */
@@ -246,6 +289,9 @@ public class BitcoinNetworkService extends AbstractService {
             }
             CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadCompleted());
             CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkPeerCount(peerGroup.numConnectedPeers()));
+
+            // Remember the synchronized headers for future replays
+            captureBlockStoreSnapshot();
           } catch (RuntimeException re) {
             log.debug("Blockchain download was interrupted. Error was : '" + re.getMessage() + "'");
           }
@@ -357,13 +403,25 @@ public class BitcoinNetworkService extends AbstractService {
     } else {
       // Regular non Trezor signing
       // Derive and append the key parameter to unlock the wallet
-      if (!appendKeyParameter(sendRequestSummary, wallet)) {
-        return false;
+      Timer.Context keyDerivationContext = keyDerivationTimer.time();
+      try {
+        if (!appendKeyParameter(sendRequestSummary, wallet)) {
+          keyDerivationContext.fail();
+          return false;
+        }
+      } finally {
+        keyDerivationContext.stop();
       }
 
       // Attempt to sign the transaction directly
-      if (!signDirectly(sendRequestSummary, wallet)) {
-        return false;
+      Timer.Context signContext = signTimer.time();
+      try {
+        if (!signDirectly(sendRequestSummary, wallet)) {
+          signContext.fail();
+          return false;
+        }
+      } finally {
+        signContext.stop();
       }
 
       performCommitAndBroadcast(sendRequestSummary, wallet, paymentRequestDataOptional);
@@ -388,8 +446,14 @@ public class BitcoinNetworkService extends AbstractService {
   private boolean performCommitAndBroadcast(SendRequestSummary sendRequestSummary, Wallet wallet, Optional<PaymentRequestData> paymentRequestDataOptional) {
 
     // Attempt to commit the signed transaction to the wallet
-    if (!commit(sendRequestSummary, wallet)) {
-      return false;
+    Timer.Context commitContext = commitTimer.time();
+    try {
+      if (!commit(sendRequestSummary, wallet)) {
+        commitContext.fail();
+        return false;
+      }
+    } finally {
+      commitContext.stop();
     }
 
     // Link the transaction to the payment request by UUID
@@ -405,8 +469,14 @@ public class BitcoinNetworkService extends AbstractService {
     }
 
     // Attempt to broadcast it
-    if (!broadcast(sendRequestSummary)) {
-      return false;
+    Timer.Context broadcastContext = broadcastTimer.time();
+    try {
+      if (!broadcast(sendRequestSummary)) {
+        broadcastContext.fail();
+        return false;
+      }
+    } finally {
+      broadcastContext.stop();
     }
 
     // Must be OK to be here
@@ -694,6 +764,19 @@ public class BitcoinNetworkService extends AbstractService {
    * @return True if the operation was successful
    */
   public boolean prepareTransaction(SendRequestSummary sendRequestSummary) {
+    Timer.Context prepareContext = prepareTimer.time();
+    try {
+      if (!performPrepareTransaction(sendRequestSummary)) {
+        prepareContext.fail();
+        return false;
+      }
+      return true;
+    } finally {
+      prepareContext.stop();
+    }
+  }
+
+  private boolean performPrepareTransaction(SendRequestSummary sendRequestSummary) {
     log.debug("Starting the prepare transaction process");
 
     // Verify the wallet summary
@@ -971,7 +1054,10 @@ public class BitcoinNetworkService extends AbstractService {
       // Sign the transaction
       sendRequest.signInputs = true;
       log.debug("sendRequest just before signing: {} ", sendRequest);
-      wallet.signTransaction(sendRequest);
+      ParallelTransactionSigner parallelSigner = new ParallelTransactionSigner(networkParameters);
+      if (!parallelSigner.isWorthwhile(sendRequest.tx) || !parallelSigner.signInputs(sendRequest.tx, wallet, sendRequest.aesKey)) {
+        wallet.signTransaction(sendRequest);
+      }
 
       // Check the signatures are canonical - non-canonical signatures are not relayed
       for (TransactionInput txInput : sendRequest.tx.getInputs()) {
@@ -1154,6 +1240,7 @@ public class BitcoinNetworkService extends AbstractService {
       }
 
       // Broadcast to network
+      final Timer.Context broadcastConfirmedContext = broadcastConfirmedTimer.time();
       final TransactionBroadcast transactionBroadcast = peerGroup.broadcastTransaction(sendRequest.tx);
       transactionBroadcast.setProgressCallback(new TransactionBroadcast.ProgressCallback() {
         @Override
@@ -1170,6 +1257,7 @@ public class BitcoinNetworkService extends AbstractService {
         @Override
         public void onSuccess(Transaction transaction) {
           log.debug("Future says transaction '{}' has broadcast successfully", transaction.getHashAsString());
+          broadcastConfirmedContext.stop();
 
           // Declare the send a success
           CoreEvents.fireBitcoinSentEvent(
@@ -1188,6 +1276,7 @@ public class BitcoinNetworkService extends AbstractService {
         public void onFailure(Throwable throwable) {
           // This can't happen with the current code, but just in case one day that changes ...
           log.error("Future says transaction has NOT broadcast successfully. Error: '{}'", throwable);
+          broadcastConfirmedContext.fail();
 
           // Declare the send a failure
           // TODO Add i18n support for "No message" if required
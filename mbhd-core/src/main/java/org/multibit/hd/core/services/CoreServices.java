@@ -25,6 +25,7 @@ import org.multibit.hd.core.exceptions.CoreException;
 import org.multibit.hd.core.logging.LoggingFactory;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.metrics.Metrics;
 import org.multibit.hd.core.utils.BitcoinNetwork;
 import org.multibit.hd.hardware.core.HardwareWalletClient;
 import org.multibit.hd.hardware.core.HardwareWalletService;
@@ -180,6 +181,9 @@ public class CoreServices {
     // Configure logging now that we have a configuration
     new LoggingFactory(Configurations.currentConfiguration.getLogging(), "MultiBit HD").configure();
 
+    // Report the hot path metrics periodically
+    Metrics.INSTANCE.startLogReporter(Metrics.DEFAULT_REPORT_INTERVAL_SECONDS);
+
     // Start security checking service
     securityCheckingService.start();
 
@@ -298,6 +302,10 @@ public class CoreServices {
       paymentProtocolService.shutdownNow(shutdownType);
     }
 
+    // Final report of the session metrics
+    Metrics.INSTANCE.stopLogReporter();
+    Metrics.INSTANCE.dumpToLog();
+
     // Be judicious when clearing references since it leads to complex behaviour during shutdown
 
   }
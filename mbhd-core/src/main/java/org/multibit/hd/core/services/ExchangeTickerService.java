@@ -1,16 +1,25 @@
 package org.multibit.hd.core.services;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.xeiam.xchange.Exchange;
 import com.xeiam.xchange.ExchangeFactory;
 import com.xeiam.xchange.NotAvailableFromExchangeException;
 import com.xeiam.xchange.currency.CurrencyPair;
 import com.xeiam.xchange.dto.marketdata.Ticker;
+import org.joda.time.DateTime;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.BitcoinConfiguration;
 import org.multibit.hd.core.config.Configurations;
@@ -18,7 +27,10 @@ import org.multibit.hd.core.dto.ExchangeSummary;
 import org.multibit.hd.core.dto.SecuritySummary;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
+import org.multibit.hd.core.exchanges.ExchangeCaches;
 import org.multibit.hd.core.exchanges.ExchangeKey;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.utils.CurrencyUtils;
 import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
@@ -31,13 +43,24 @@ import java.math.RoundingMode;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
  * <p>Service to provide the following to application API:</p>
  * <ul>
  * <li>Access to exchange rates and market information</li>
+ * <li>Optional aggregation of the exchange rate over several exchanges</li>
  * </ul>
+ * <p>When further exchanges are configured they are asked at the same time as the current exchange and the exchange
+ * rate is the median of those that answer within {@link #AGGREGATE_TIMEOUT_SECONDS} (or of the first
+ * "aggregate quorum" to answer). A slow or failed exchange then no longer leaves the rate stale until the next
+ * refresh. Each exchange has its own <code>exchange-ticker.fetch-ticker.&lt;EXCHANGE_KEY&gt;</code> timer giving its
+ * latency and failure count, and a <code>.timeouts</code> counter alongside.</p>
+ * <p>The currencies offered by the exchange and the last good rate are cached on disk by {@link ExchangeCaches}.</p>
  *
  * @since 0.0.1
  */
@@ -52,11 +75,53 @@ public class ExchangeTickerService extends AbstractService {
    */
   public static final int TICKER_REFRESH_SECONDS = 900;
 
+  private static final Timer tickerTimer = Metrics.INSTANCE.timer("exchange-ticker.fetch-ticker");
+  private static final Timer currenciesTimer = Metrics.INSTANCE.timer("exchange-ticker.fetch-currencies");
+
+  /**
+   * The longest an aggregate exchange rate waits for the exchanges to answer
+   */
+  public static final int AGGREGATE_TIMEOUT_SECONDS = 20;
+
+  /**
+   * The BTC/USD leg of a triangulated rate is the same for every local currency so is shared for this long
+   * (OER updates its free rates hourly)
+   */
+  public static final int USD_LEG_CACHE_SECONDS = 300;
+
+  /**
+   * The BTC/USD leg of triangulated rates by exchange, shared across instances (and so local currencies)
+   */
+  private static final Cache<ExchangeKey, Ticker> usdLegCache = CacheBuilder
+    .newBuilder()
+    .expireAfterWrite(USD_LEG_CACHE_SECONDS, TimeUnit.SECONDS)
+    .build();
+
   private final ExchangeKey exchangeKey;
   private final Currency localCurrency;
 
   private final Optional<Exchange> exchange;
 
+  /**
+   * The exchanges asked for an aggregate rate (the current exchange first) or empty for the current exchange alone
+   */
+  private final Map<ExchangeKey, Exchange> aggregateExchanges;
+
+  /**
+   * The number of exchanges that must answer before the median is taken
+   */
+  private final int aggregateQuorum;
+
+  /**
+   * The executor service for asking the aggregate exchanges concurrently (absent if not aggregating)
+   */
+  private final Optional<ListeningExecutorService> aggregateExecutorService;
+
+  /**
+   * The name of the exchange (or exchanges) providing the latest ticker
+   */
+  private volatile String tickerExchangeName;
+
   /**
    * The executor service for managing one off dynamic "all currency" lookups against exchanges
    */
@@ -70,30 +135,100 @@ public class ExchangeTickerService extends AbstractService {
    */
   public ExchangeTickerService(BitcoinConfiguration bitcoinConfiguration) {
 
+    this(bitcoinConfiguration, createExchanges(bitcoinConfiguration));
+
+  }
+
+  /**
+   * @param bitcoinConfiguration The Bitcoin configuration providing exchange and currency information
+   * @param exchanges            The exchanges to use for the current exchange and any aggregate exchanges
+   */
+  ExchangeTickerService(BitcoinConfiguration bitcoinConfiguration, Map<ExchangeKey, Exchange> exchanges) {
+
     super();
 
     this.exchangeKey = ExchangeKey.valueOf(bitcoinConfiguration.getCurrentExchange());
     this.localCurrency = Currency.getInstance(bitcoinConfiguration.getLocalCurrencyCode());
+    this.exchange = Optional.fromNullable(exchanges.get(exchangeKey));
+    this.tickerExchangeName = exchangeKey.getExchangeName();
+
+    // Aggregate over the current exchange and any further exchanges that are available
+    Map<ExchangeKey, Exchange> sources = Maps.newLinkedHashMap();
+    for (ExchangeKey sourceKey : aggregateExchangeKeys(bitcoinConfiguration)) {
+      if (exchanges.containsKey(sourceKey)) {
+        sources.put(sourceKey, exchanges.get(sourceKey));
+      }
+    }
 
-    // Check for a real exchange
-    if (ExchangeKey.NONE.equals(exchangeKey)) {
+    if (sources.size() > 1) {
+      this.aggregateExchanges = ImmutableMap.copyOf(sources);
+      this.aggregateExecutorService = Optional.of(SafeExecutors.newFixedThreadPool(sources.size(), "exchange-aggregate"));
+      log.debug("Aggregating exchange rate over {}", sources.keySet());
+    } else {
+      this.aggregateExchanges = ImmutableMap.of();
+      this.aggregateExecutorService = Optional.absent();
+    }
 
-      this.exchange = Optional.absent();
+    int quorum = bitcoinConfiguration.getAggregateQuorum();
+    this.aggregateQuorum = quorum <= 0 || quorum > aggregateExchanges.size() ? aggregateExchanges.size() : quorum;
 
-    } else {
+  }
+
+  /**
+   * @param bitcoinConfiguration The Bitcoin configuration
+   *
+   * @return The current exchange followed by any further aggregate exchanges (unknown names and NONE are ignored)
+   */
+  private static Set<ExchangeKey> aggregateExchangeKeys(BitcoinConfiguration bitcoinConfiguration) {
+
+    Set<ExchangeKey> exchangeKeys = Sets.newLinkedHashSet();
+
+    ExchangeKey currentExchangeKey = ExchangeKey.valueOf(bitcoinConfiguration.getCurrentExchange());
+    if (ExchangeKey.NONE.equals(currentExchangeKey)) {
+      // Bitcoin only so nothing to aggregate
+      return exchangeKeys;
+    }
+    exchangeKeys.add(currentExchangeKey);
+
+    for (String exchangeName : bitcoinConfiguration.getAggregateExchanges()) {
+      try {
+        ExchangeKey aggregateExchangeKey = ExchangeKey.valueOf(exchangeName);
+        if (!ExchangeKey.NONE.equals(aggregateExchangeKey)) {
+          exchangeKeys.add(aggregateExchangeKey);
+        }
+      } catch (IllegalArgumentException e) {
+        log.warn("Ignoring unknown aggregate exchange '{}'", exchangeName);
+      }
+    }
+
+    return exchangeKeys;
+  }
+
+  /**
+   * @param bitcoinConfiguration The Bitcoin configuration
+   *
+   * @return A new independent Exchange for the current exchange and each aggregate exchange
+   */
+  private static Map<ExchangeKey, Exchange> createExchanges(BitcoinConfiguration bitcoinConfiguration) {
+
+    Map<ExchangeKey, Exchange> exchanges = Maps.newLinkedHashMap();
+
+    for (ExchangeKey sourceKey : aggregateExchangeKeys(bitcoinConfiguration)) {
 
       // Create a new exchange
-      String exchangeClassName = exchangeKey.getExchange().get().getExchangeSpecification().getExchangeClassName();
-      exchange = Optional.of(ExchangeFactory.INSTANCE.createExchange(exchangeClassName));
+      String exchangeClassName = sourceKey.getExchange().get().getExchangeSpecification().getExchangeClassName();
+      Exchange sourceExchange = ExchangeFactory.INSTANCE.createExchange(exchangeClassName);
 
       // Apply the Bitcoin configuration to this exchange
       Map<String, String> exchangeApiKeys = bitcoinConfiguration.getExchangeApiKeys();
-      if (exchangeApiKeys.containsKey(exchangeKey.name())) {
-        exchange.get().getExchangeSpecification().setApiKey(exchangeApiKeys.get(exchangeKey.name()));
+      if (exchangeApiKeys.containsKey(sourceKey.name())) {
+        sourceExchange.getExchangeSpecification().setApiKey(exchangeApiKeys.get(sourceKey.name()));
       }
 
+      exchanges.put(sourceKey, sourceExchange);
     }
 
+    return exchanges;
   }
 
   @Override
@@ -134,16 +269,23 @@ public class ExchangeTickerService extends AbstractService {
 
                   BigDecimal rate = ticker.getLast();
 
-                  String exchangeName = exchangeKey.getExchangeName();
+                  String exchangeName = tickerExchangeName;
+
+                  // Exchange rate will expire just after the next update (with small overlap)
+                  DateTime expires = Dates.nowUtc().plusSeconds(TICKER_REFRESH_SECONDS + 5);
 
                   CoreEvents.fireExchangeRateChangedEvent(
                     rate,
                     localCurrency,
                     Optional.of(exchangeName),
-                    // Exchange rate will expire just after the next update (with small overlap)
-                    Dates.nowUtc().plusSeconds(TICKER_REFRESH_SECONDS + 5)
+                    expires
                   );
 
+                  // Remember a good rate for the next startup
+                  if (!ExchangeKey.NONE.equals(exchangeKey) && rate != null && rate.signum() > 0) {
+                    ExchangeCaches.putLastRate(exchangeKey, localCurrency, rate, exchangeName, expires);
+                  }
+
                   log.debug("Updated '{}' ticker: '{}'", exchangeName, ticker.getLast());
 
                   previous = ticker.getLast();
@@ -200,6 +342,9 @@ public class ExchangeTickerService extends AbstractService {
       case SOFT:
         allCurrenciesExecutorService.shutdownNow();
         latestTickerExecutorService.shutdownNow();
+        if (aggregateExecutorService.isPresent()) {
+          aggregateExecutorService.get().shutdownNow();
+        }
 
         // Allow ongoing cleanup
         return true;
@@ -212,17 +357,12 @@ public class ExchangeTickerService extends AbstractService {
   }
 
   /**
-   * <p>Asynchronously get a single ticker response from the exchange</p>
+   * <p>Asynchronously get a single ticker response from the exchange (or the median of the aggregate exchanges)</p>
    *
    * @return The future ticker for wrapping with <code>Futures.addCallback</code>
    */
   public ListenableFuture<Ticker> latestTicker() {
 
-
-    // Apply any exchange quirks to the counter code (e.g. ISO "RUB" -> legacy "RUR")
-    final String exchangeCounterCode = ExchangeKey.exchangeCode(localCurrency.getCurrencyCode(), exchangeKey);
-    final String exchangeBaseCode = ExchangeKey.exchangeCode("XBT", exchangeKey);
-
     // Perform an asynchronous call to the exchange
     return latestTickerExecutorService.submit(
       new Callable<Ticker>() {
@@ -230,87 +370,256 @@ public class ExchangeTickerService extends AbstractService {
         @Override
         public Ticker call() throws Exception {
 
-          if (ExchangeKey.NONE.equals(exchangeKey)) {
-
-            return getEmptyTicker();
+          Timer.Context context = tickerTimer.time();
+          try {
+            Ticker ticker;
+            if (aggregateExchanges.isEmpty()) {
+              ticker = ExchangeKey.NONE.equals(exchangeKey) ? getEmptyTicker() : fetchTicker(exchangeKey, exchange.get());
+            } else {
+              ticker = getAggregateTicker();
+            }
+            context.stop();
+            return ticker;
+          } catch (Exception e) {
+            context.fail();
+            throw e;
           }
+        }
+
+      });
+
+  }
 
-          if (ExchangeKey.OPEN_EXCHANGE_RATES.equals(exchangeKey)) {
+  /**
+   * <p>Ask all the aggregate exchanges at once and take the median of the first quorum to answer</p>
+   *
+   * @return The aggregate ticker
+   *
+   * @throws Exception The failure of the first exchange to fail if none answered
+   */
+  private Ticker getAggregateTicker() throws Exception {
 
-            // Triangulate through USD to reach exchange rate
-            return getTriangulatedTicker();
+    CompletionService<Ticker> completionService = new ExecutorCompletionService<>(aggregateExecutorService.get());
+    Map<Future<Ticker>, ExchangeKey> futureTickers = Maps.newLinkedHashMap();
 
-          } else {
+    for (final Map.Entry<ExchangeKey, Exchange> source : aggregateExchanges.entrySet()) {
+      futureTickers.put(completionService.submit(
+        new Callable<Ticker>() {
+          @Override
+          public Ticker call() throws Exception {
 
-            // Crypto-exchange is straightforward
-            return getDirectTicker();
+            Timer.Context context = Metrics.INSTANCE.timer(sourceTimerName(source.getKey())).time();
+            try {
+              Ticker ticker = fetchTicker(source.getKey(), source.getValue());
+              context.stop();
+              return ticker;
+            } catch (Exception e) {
+              context.fail();
+              throw e;
+            }
+          }
+        }), source.getKey());
+    }
+
+    List<BigDecimal> rates = Lists.newArrayList();
+    List<String> exchangeNames = Lists.newArrayList();
+    Throwable firstFailure = null;
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(AGGREGATE_TIMEOUT_SECONDS);
+    try {
+      int answered = 0;
+      while (rates.size() < aggregateQuorum && answered < futureTickers.size()) {
+
+        Future<Ticker> futureTicker = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (futureTicker == null) {
+          // Out of time
+          break;
+        }
+        answered++;
+
+        ExchangeKey sourceKey = futureTickers.get(futureTicker);
+        try {
+          Ticker ticker = futureTicker.get();
+          if (ticker != null && ticker.getLast() != null && ticker.getLast().signum() > 0) {
+            rates.add(ticker.getLast());
+            exchangeNames.add(sourceKey.getExchangeName());
+          }
+        } catch (ExecutionException e) {
+          log.debug("Exchange '{}' failed: {}", sourceKey.getExchangeName(), e.getCause().getMessage());
+          if (firstFailure == null) {
+            firstFailure = e.getCause();
+          }
+        }
+      }
+    } finally {
+      // Anything still running has taken too long or is not needed
+      for (Map.Entry<Future<Ticker>, ExchangeKey> futureTicker : futureTickers.entrySet()) {
+        if (!futureTicker.getKey().isDone()) {
+          futureTicker.getKey().cancel(true);
+          if (System.nanoTime() - deadline >= 0) {
+            Metrics.INSTANCE.counter(sourceTimerName(futureTicker.getValue()) + ".timeouts").inc();
           }
         }
+      }
+    }
 
-        private Ticker getDirectTicker() throws IOException {
+    if (rates.isEmpty()) {
+      if (firstFailure != null) {
+        Throwables.propagateIfInstanceOf(firstFailure, Exception.class);
+        throw Throwables.propagate(firstFailure);
+      }
+      // Every exchange timed out so treat as down
+      return null;
+    }
 
-          log.debug("Direct ticker");
+    log.debug("Aggregate ticker from {} of {} exchanges: {}", rates.size(), aggregateExchanges.size(), rates);
+    tickerExchangeName = Joiner.on(", ").join(exchangeNames);
+
+    return Ticker.TickerBuilder.newInstance()
+      .withLast(median(rates))
+        // All others are zero
+      .withAsk(BigDecimal.ZERO)
+      .withBid(BigDecimal.ZERO)
+      .withHigh(BigDecimal.ZERO)
+      .withLow(BigDecimal.ZERO)
+      .withCurrencyPair(new CurrencyPair("BTC", localCurrency.getCurrencyCode()))
+      .withVolume(BigDecimal.ONE)
+      .build();
+  }
 
-          CurrencyPair directPair = new CurrencyPair(exchangeBaseCode, exchangeCounterCode);
-          return exchange.get().getPollingMarketDataService().getTicker(directPair);
+  /**
+   * @param rates The rates (at least one)
+   *
+   * @return The middle rate (or the mean of the middle two)
+   */
+  static BigDecimal median(List<BigDecimal> rates) {
 
-        }
+    List<BigDecimal> sortedRates = Lists.newArrayList(rates);
+    Collections.sort(sortedRates);
+
+    int middle = sortedRates.size() / 2;
+    if (sortedRates.size() % 2 == 1) {
+      return sortedRates.get(middle);
+    }
+
+    return sortedRates.get(middle - 1).add(sortedRates.get(middle)).divide(BigDecimal.valueOf(2));
+  }
+
+  /**
+   * @param sourceKey The exchange key
+   *
+   * @return The name of the timer for tickers from the exchange
+   */
+  static String sourceTimerName(ExchangeKey sourceKey) {
+    return "exchange-ticker.fetch-ticker." + sourceKey.name();
+  }
 
-        private Ticker getTriangulatedTicker() throws IOException {
+  /**
+   * @param sourceKey      The exchange key
+   * @param sourceExchange The exchange
+   *
+   * @return The ticker for the local currency from the exchange
+   */
+  private Ticker fetchTicker(ExchangeKey sourceKey, Exchange sourceExchange) throws IOException {
 
-          log.debug("OER triangulated ticker");
+    // Apply any exchange quirks to the counter code (e.g. ISO "RUB" -> legacy "RUR")
+    String exchangeCounterCode = ExchangeKey.exchangeCode(localCurrency.getCurrencyCode(), sourceKey);
+    String exchangeBaseCode = ExchangeKey.exchangeCode("XBT", sourceKey);
 
-          CurrencyPair localToUsdPair = new CurrencyPair(exchangeCounterCode, "USD");
-          CurrencyPair bitcoinToUsdPair = new CurrencyPair("BTC", "USD");
+    if (ExchangeKey.OPEN_EXCHANGE_RATES.equals(sourceKey)) {
 
-          // Need to triangulate through USD
-          Ticker inverseLocalToUsdTicker = exchange.get().getPollingMarketDataService().getTicker(localToUsdPair);
-          Ticker inverseBitcoinToUsdTicker = exchange.get().getPollingMarketDataService().getTicker(bitcoinToUsdPair);
+      // Triangulate through USD to reach exchange rate
+      return getTriangulatedTicker(sourceKey, sourceExchange, exchangeCounterCode);
 
-          // OER gives inverse values to reduce number of calculations
-          BigDecimal inverseLocalToUsd = inverseLocalToUsdTicker.getLast();
-          BigDecimal inverseBitcoinToUsd = inverseBitcoinToUsdTicker.getLast();
+    } else {
 
-          // Conversion rate is inverse local divided by inverse Bitcoin
-          BigDecimal conversionRate = inverseLocalToUsd.divide(inverseBitcoinToUsd, RoundingMode.HALF_EVEN);
+      // Crypto-exchange is straightforward
+      log.debug("Direct ticker");
 
-          // Infer the ticker
-          return Ticker.TickerBuilder.newInstance()
-            .withLast(conversionRate)
-              // All others are zero
-            .withAsk(BigDecimal.ZERO)
-            .withBid(BigDecimal.ZERO)
-            .withHigh(BigDecimal.ZERO)
-            .withLow(BigDecimal.ZERO)
-            .withCurrencyPair(bitcoinToUsdPair)
-            .withVolume(BigDecimal.ONE)
-            .build();
-        }
+      CurrencyPair directPair = new CurrencyPair(exchangeBaseCode, exchangeCounterCode);
+      return sourceExchange.getPollingMarketDataService().getTicker(directPair);
+    }
+  }
 
-        private Ticker getEmptyTicker() throws IOException {
+  private Ticker getTriangulatedTicker(ExchangeKey sourceKey, final Exchange sourceExchange, String exchangeCounterCode) throws IOException {
 
-          log.debug("Empty ticker");
+    log.debug("OER triangulated ticker");
 
-          CurrencyPair directPair = new CurrencyPair(exchangeBaseCode, exchangeCounterCode);
+    CurrencyPair localToUsdPair = new CurrencyPair(exchangeCounterCode, "USD");
+    final CurrencyPair bitcoinToUsdPair = new CurrencyPair("BTC", "USD");
 
-          // Infer the ticker
-          return Ticker.TickerBuilder.newInstance()
-            .withLast(BigDecimal.ZERO)
-              // All others are zero
-            .withAsk(BigDecimal.ZERO)
-            .withBid(BigDecimal.ZERO)
-            .withHigh(BigDecimal.ZERO)
-            .withLow(BigDecimal.ZERO)
-            .withCurrencyPair(directPair)
-            .withVolume(BigDecimal.ONE)
-            .build();
-        }
+    // Need to triangulate through USD
+    Ticker inverseLocalToUsdTicker = sourceExchange.getPollingMarketDataService().getTicker(localToUsdPair);
 
-      });
+    // The Bitcoin leg does not depend on the local currency so is shared
+    Ticker inverseBitcoinToUsdTicker;
+    try {
+      inverseBitcoinToUsdTicker = usdLegCache.get(
+        sourceKey, new Callable<Ticker>() {
+          @Override
+          public Ticker call() throws Exception {
+            return sourceExchange.getPollingMarketDataService().getTicker(bitcoinToUsdPair);
+          }
+        });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      // Restore the original failure for the error handling
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+
+    // OER gives inverse values to reduce number of calculations
+    BigDecimal inverseLocalToUsd = inverseLocalToUsdTicker.getLast();
+    BigDecimal inverseBitcoinToUsd = inverseBitcoinToUsdTicker.getLast();
+
+    // Conversion rate is inverse local divided by inverse Bitcoin
+    BigDecimal conversionRate = inverseLocalToUsd.divide(inverseBitcoinToUsd, RoundingMode.HALF_EVEN);
+
+    // Infer the ticker
+    return Ticker.TickerBuilder.newInstance()
+      .withLast(conversionRate)
+        // All others are zero
+      .withAsk(BigDecimal.ZERO)
+      .withBid(BigDecimal.ZERO)
+      .withHigh(BigDecimal.ZERO)
+      .withLow(BigDecimal.ZERO)
+      .withCurrencyPair(bitcoinToUsdPair)
+      .withVolume(BigDecimal.ONE)
+      .build();
+  }
+
+  private Ticker getEmptyTicker() throws IOException {
+
+    log.debug("Empty ticker");
+
+    CurrencyPair directPair = new CurrencyPair(
+      ExchangeKey.exchangeCode("XBT", exchangeKey),
+      ExchangeKey.exchangeCode(localCurrency.getCurrencyCode(), exchangeKey)
+    );
+
+    // Infer the ticker
+    return Ticker.TickerBuilder.newInstance()
+      .withLast(BigDecimal.ZERO)
+        // All others are zero
+      .withAsk(BigDecimal.ZERO)
+      .withBid(BigDecimal.ZERO)
+      .withHigh(BigDecimal.ZERO)
+      .withLow(BigDecimal.ZERO)
+      .withCurrencyPair(directPair)
+      .withVolume(BigDecimal.ONE)
+      .build();
+  }
 
+  /**
+   * <p>Forget the shared BTC/USD legs of triangulated rates</p>
+   */
+  static void invalidateUsdLegCache() {
+    usdLegCache.invalidateAll();
   }
 
   /**
+   * <p>The exchange is only asked once the currencies cached from an earlier call are older than
+   * {@link ExchangeCaches#CURRENCIES_TTL_HOURS}, and an older list is used if it cannot be reached</p>
+   *
    * @return All the currencies supported by the exchange
    */
   public ListenableFuture<String[]> allCurrencies() {
@@ -326,26 +635,49 @@ public class ExchangeTickerService extends AbstractService {
 
           Locale currentLocale = Configurations.currentConfiguration.getLocale();
 
+          // Avoid the exchange while the cached currencies are fresh
+          Optional<List<String>> cachedCurrencyCodes = ExchangeCaches.getCurrencyCodes(exchangeKey, false);
+          if (cachedCurrencyCodes.isPresent()) {
+            return localiseCurrencyCodes(cachedCurrencyCodes.get(), currentLocale);
+          }
+
           // This may involve a call to the exchange or not
           Collection<CurrencyPair> currencyPairs;
+          Timer.Context context = currenciesTimer.time();
           try {
             // Use dynamic lookup (may result in null or SSL failures)
             currencyPairs = exchange.get().getPollingMarketDataService().getExchangeSymbols();
           } catch (SSLHandshakeException e) {
+            context.fail();
             // Inform the user of a serious problem with current certificates
             CoreEvents.fireSecurityEvent(SecuritySummary.newCertificateFailed());
             // Trigger the failure handler
             throw new IllegalStateException(e.getMessage(), e);
+          } catch (IOException e) {
+            context.fail();
+            // Exchange is unreachable so an expired list is better than nothing
+            Optional<List<String>> expiredCurrencyCodes = ExchangeCaches.getCurrencyCodes(exchangeKey, true);
+            if (expiredCurrencyCodes.isPresent()) {
+              log.warn("Exchange '{}' is unreachable so using cached currencies: {}", exchangeKey.getExchangeName(), e.getMessage());
+              return localiseCurrencyCodes(expiredCurrencyCodes.get(), currentLocale);
+            }
+            throw e;
+          } finally {
+            context.stop();
           }
 
-          // Fail fast
+          // Fail fast (but prefer an expired list)
           if (currencyPairs == null || currencyPairs.isEmpty()) {
+            Optional<List<String>> expiredCurrencyCodes = ExchangeCaches.getCurrencyCodes(exchangeKey, true);
+            if (expiredCurrencyCodes.isPresent()) {
+              return localiseCurrencyCodes(expiredCurrencyCodes.get(), currentLocale);
+            }
             return new String[]{};
           }
 
           // Must have at least one currency pair to be here
 
-          SortedSet<String> allCurrencies = Sets.newTreeSet();
+          SortedSet<String> allCurrencyCodes = Sets.newTreeSet();
           for (CurrencyPair currencyPair : currencyPairs) {
 
             // Add the currency (if non-BTC we can triangulate through USD)
@@ -364,9 +696,7 @@ public class ExchangeTickerService extends AbstractService {
               // Use JVM to determine if currency is in ISO 4217
               Currency base = Currency.getInstance(baseCode);
               if (base != null) {
-                // Use JVM to provide translated name
-                String localName = Currency.getInstance(baseCode).getDisplayName(currentLocale);
-                allCurrencies.add(baseCode + " (" + localName + ")");
+                allCurrencyCodes.add(baseCode);
               }
             } catch (IllegalArgumentException e) {
               // Base code is not in ISO 4217 so attempt to locate counter currency (e.g. BTC/RUR)
@@ -374,9 +704,7 @@ public class ExchangeTickerService extends AbstractService {
                 // Use JVM to determine supported currency
                 Currency counter = Currency.getInstance(counterCode);
                 if (counter != null) {
-                  // Use JVM to provide translated name
-                  String localName = Currency.getInstance(counterCode).getDisplayName(currentLocale);
-                  allCurrencies.add(counterCode + " (" + localName + ")");
+                  allCurrencyCodes.add(counterCode);
                 }
               } catch (IllegalArgumentException e1) {
                 // Neither base nor counter code is in ISO 4217 so ignore since we're only working with fiat
@@ -384,11 +712,33 @@ public class ExchangeTickerService extends AbstractService {
             }
           }
 
+          if (!allCurrencyCodes.isEmpty()) {
+            ExchangeCaches.putCurrencyCodes(exchangeKey, allCurrencyCodes);
+          }
+
           // Return the unique list of currencies
-          return allCurrencies.toArray(new String[allCurrencies.size()]);
+          return localiseCurrencyCodes(allCurrencyCodes, currentLocale);
 
         }
 
       });
   }
+
+  /**
+   * @param currencyCodes The sorted ISO 4217 currency codes
+   * @param locale        The locale for the currency names
+   *
+   * @return The currencies with their translated names (e.g. "EUR (Euro)")
+   */
+  private static String[] localiseCurrencyCodes(Collection<String> currencyCodes, Locale locale) {
+
+    List<String> allCurrencies = Lists.newArrayList();
+    for (String currencyCode : currencyCodes) {
+      // Use JVM to provide translated name
+      String localName = Currency.getInstance(currencyCode).getDisplayName(locale);
+      allCurrencies.add(currencyCode + " (" + localName + ")");
+    }
+
+    return allCurrencies.toArray(new String[allCurrencies.size()]);
+  }
 }
\ No newline at end of file
@@ -27,6 +27,9 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.ExportManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.metrics.Histogram;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.store.Payments;
 import org.multibit.hd.core.store.PaymentsProtobufSerializer;
 import org.multibit.hd.core.store.TransactionInfo;
@@ -129,6 +132,13 @@ public class WalletService extends AbstractService {
    */
   private static final ExecutorService executorService = SafeExecutors.newSingleThreadExecutor("wallet-service");
 
+  private static final Timer rebuildTimer = Metrics.INSTANCE.timer("wallet-service.rebuild");
+  private static final Timer searchTimer = Metrics.INSTANCE.timer("wallet-service.search");
+  private static final Timer readPaymentsTimer = Metrics.INSTANCE.timer("wallet-service.read-payments");
+  private static final Timer writePaymentsTimer = Metrics.INSTANCE.timer("wallet-service.write-payments");
+  private static final Timer changePasswordTimer = Metrics.INSTANCE.timer("wallet-service.change-password");
+  private static final Histogram rebuildTransactions = Metrics.INSTANCE.histogram("wallet-service.rebuild-transactions");
+
   public WalletService(NetworkParameters networkParameters) {
 
     super();
@@ -197,6 +207,17 @@ public class WalletService extends AbstractService {
    */
   public Set<PaymentData> getPaymentDataSet() {
 
+    Timer.Context context = rebuildTimer.time();
+    try {
+      return buildPaymentDataSet();
+    } finally {
+      context.stop();
+    }
+
+  }
+
+  private Set<PaymentData> buildPaymentDataSet() {
+
     // See if there is a current wallet
     WalletManager walletManager = WalletManager.INSTANCE;
 
@@ -220,6 +241,7 @@ public class WalletService extends AbstractService {
     Set<TransactionData> transactionDataSet = Sets.newHashSet();
 
     if (transactions != null) {
+      rebuildTransactions.update(transactions.size());
       for (Transaction transaction : transactions) {
         // Adapt the transaction - adding on matching MBHDPaymentRequests and BIP70 PaymentRequests
         TransactionData transactionData = adaptTransaction(wallet, transaction);
@@ -306,6 +328,17 @@ public class WalletService extends AbstractService {
    */
   public List<PaymentData> filterPaymentsByContent(String query) {
 
+    Timer.Context context = searchTimer.time();
+    try {
+      return matchPaymentsByContent(query);
+    } finally {
+      context.stop();
+    }
+
+  }
+
+  private List<PaymentData> matchPaymentsByContent(String query) {
+
     String lowerQuery = query.toLowerCase();
 
     List<PaymentData> filteredPayments = Lists.newArrayList();
@@ -617,7 +650,8 @@ public class WalletService extends AbstractService {
 
     if (CoreServices.getApplicationEventService() != null) {
       Optional<ExchangeRateChangedEvent> exchangeRateChangedEvent = CoreServices.getApplicationEventService().getLatestExchangeRateChangedEvent();
-      if (exchangeRateChangedEvent.isPresent() && exchangeRateChangedEvent.get().getRate() != null) {
+      // A rate cached from a previous session is only for display so is never recorded against a payment
+      if (exchangeRateChangedEvent.isPresent() && !exchangeRateChangedEvent.get().isStale() && exchangeRateChangedEvent.get().getRate() != null) {
         amountFiat.setRate(Optional.of(exchangeRateChangedEvent.get().getRate().toString()));
 
         if (amountBTC != null) {
@@ -729,6 +763,7 @@ public class WalletService extends AbstractService {
 
     Preconditions.checkNotNull(backingStoreFile, "There is no backingStoreFile. Please initialise WalletService.");
 
+    Timer.Context context = readPaymentsTimer.time();
     try {
       log.debug("Reading payments from\n'{}'", backingStoreFile.getAbsolutePath());
 
@@ -783,9 +818,11 @@ public class WalletService extends AbstractService {
 
       log.debug("Reading payments completed\nTransaction infos: {}\nMBHD payment requests: {}\nBIP70 payment requests: {}",
               transactionInfoMap.values().size(), mbhdPaymentRequestDataMap.values().size(), paymentRequestDataMap.values().size());
-
     } catch (EncryptedFileReaderWriterException e) {
+      context.fail();
       ExceptionHandler.handleThrowable(new PaymentsLoadException("Could not load payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
+    } finally {
+      context.stop();
     }
   }
 
@@ -796,6 +833,7 @@ public class WalletService extends AbstractService {
     Preconditions.checkNotNull(backingStoreFile, "'backingStoreFile' must be present. Initialise WalletService.");
     Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
 
+    Timer.Context context = writePaymentsTimer.time();
     try {
       log.debug("Writing payments to\n'{}'", backingStoreFile.getAbsolutePath());
       log.trace("Writing TransactionInfoMap: {}", transactionInfoMap);
@@ -816,7 +854,10 @@ public class WalletService extends AbstractService {
 
       log.debug("Writing payments completed\nTransaction infos: {}\nMBHD payment requests: {}\nBIP70 payment requests: {}",
               transactionInfoMap.values().size(), mbhdPaymentRequestDataMap.values().size(), paymentRequestDataMap.values().size());
+
+      context.stop();
     } catch (Exception e) {
+      context.fail();
       log.error("Could not write to payments db\n'{}'", backingStoreFile.getAbsolutePath(), e);
       throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
     }
@@ -1160,6 +1201,7 @@ public class WalletService extends AbstractService {
         return;
       }
 
+      Timer.Context context = changePasswordTimer.time();
       try {
         // Decrypt the seedDerivedAESKey using the old credentials and encrypt it with the new one
         byte[] encryptedOldBackupAESKey = walletSummary.getEncryptedBackupKey();
@@ -1229,8 +1271,10 @@ public class WalletService extends AbstractService {
 
         wallet.encrypt(newPassword);
 
+        context.stop();
         CoreEvents.fireChangePasswordResultEvent(new ChangePasswordResultEvent(true, CoreMessageKey.CHANGE_PASSWORD_SUCCESS, null));
       } catch (RuntimeException | NoSuchAlgorithmException e) {
+        context.fail();
         log.error("Failed to change password", e);
         CoreEvents.fireChangePasswordResultEvent(new ChangePasswordResultEvent(false, CoreMessageKey.CHANGE_PASSWORD_ERROR, new Object[]{e.getMessage()}));
       }
@@ -1262,7 +1306,8 @@ public class WalletService extends AbstractService {
 
       if (CoreServices.getApplicationEventService() != null) {
         Optional<ExchangeRateChangedEvent> exchangeRateChangedEvent = CoreServices.getApplicationEventService().getLatestExchangeRateChangedEvent();
-        if (exchangeRateChangedEvent.isPresent() && exchangeRateChangedEvent.get().getRate() != null) {
+        // A rate cached from a previous session is only for display so is never recorded against a payment
+        if (exchangeRateChangedEvent.isPresent() && !exchangeRateChangedEvent.get().isStale() && exchangeRateChangedEvent.get().getRate() != null) {
 
           amountFiat.setRate(Optional.of(exchangeRateChangedEvent.get().getRate().toString()));
           BigDecimal localAmount = Coins.toLocalAmount(
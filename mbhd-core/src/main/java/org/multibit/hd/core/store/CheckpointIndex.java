@@ -0,0 +1,417 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Compact binary index over a bitcoinj binary checkpoints file to provide the following to BlockStoreManager:</p>
+ * <ul>
+ * <li>Binary search for the checkpoint before a given date without streaming the whole file</li>
+ * <li>Random access to the single compact stored block required to checkpoint a block store</li>
+ * </ul>
+ * <p>The index is a sorted array of (time, height, offset) entries held in a sibling ".idx" file that is
+ * memory-mapped read only. It is rebuilt automatically if the checkpoints file changes.</p>
+ * <p>Instances are shared between all files with the same underlying file key so hard linked
+ * checkpoint files in different wallet directories use the same mapping.</p>
+ *
+ * @since 0.1.0
+ */
+public class CheckpointIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(CheckpointIndex.class);
+
+  /**
+   * The suffix added to the checkpoints file name to give the index file name
+   */
+  public static final String INDEX_SUFFIX = ".idx";
+
+  /**
+   * The bitcoinj binary checkpoints header
+   */
+  private static final String BINARY_MAGIC = "CHECKPOINTS 1";
+
+  /**
+   * The index file header ("MBHDCPX" plus a format version)
+   */
+  private static final byte[] INDEX_MAGIC = "MBHDCPX1".getBytes(Charsets.US_ASCII);
+
+  /**
+   * Magic, source length, source last modified, entry count
+   */
+  private static final int HEADER_SIZE = INDEX_MAGIC.length + 8 + 8 + 4;
+
+  /**
+   * Time (seconds), height, offset into the checkpoints file
+   */
+  private static final int ENTRY_SIZE = 4 + 4 + 4;
+
+  /**
+   * Each bitcoinj signature is a 65 byte compact ECDSA signature
+   */
+  private static final int SIGNATURE_SIZE = 65;
+
+  /**
+   * The offset of the block time within a compact stored block (chain work, height, header version, previous hash, merkle root)
+   */
+  private static final int TIME_OFFSET = 12 + 4 + 4 + 32 + 32;
+
+  /**
+   * bitcoinj always checkpoints a week before the requested time to allow for clock drift in block headers
+   */
+  public static final long CHECKPOINT_MARGIN_SECONDS = 86_400 * 7;
+
+  private static final ConcurrentMap<Object, CheckpointIndex> indexCache = Maps.newConcurrentMap();
+
+  private final File checkpointsFile;
+  private final ByteBuffer index;
+  private final int size;
+
+  /**
+   * @param checkpointsFile The checkpoints file that has been indexed
+   * @param index           The index buffer positioned at the first entry
+   * @param size            The number of entries
+   */
+  private CheckpointIndex(File checkpointsFile, ByteBuffer index, int size) {
+    this.checkpointsFile = checkpointsFile;
+    this.index = index;
+    this.size = size;
+  }
+
+  /**
+   * <p>Get a checkpoint index for the given checkpoints file, building or rebuilding the index file if required</p>
+   *
+   * @param checkpointsFile The bitcoinj binary checkpoints file (may be hard linked)
+   *
+   * @return The checkpoint index
+   *
+   * @throws IOException If the checkpoints file is not a valid binary checkpoints file
+   */
+  public static CheckpointIndex openOrCreate(File checkpointsFile) throws IOException {
+
+    Preconditions.checkNotNull(checkpointsFile, "'checkpointsFile' must be present");
+
+    BasicFileAttributes attributes = Files.readAttributes(checkpointsFile.toPath(), BasicFileAttributes.class);
+
+    // Hard linked files share a file key so can share the same mapping (Windows may not provide one)
+    Object cacheKey = attributes.fileKey() == null ? checkpointsFile.getCanonicalFile() : attributes.fileKey();
+
+    CheckpointIndex cached = indexCache.get(cacheKey);
+    if (cached != null && cached.matches(attributes)) {
+      return cached;
+    }
+
+    CheckpointIndex checkpointIndex = mapOrBuild(checkpointsFile, attributes);
+    indexCache.put(cacheKey, checkpointIndex);
+
+    return checkpointIndex;
+
+  }
+
+  /**
+   * @return The number of checkpoints in the index
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * <p>Replicates <code>CheckpointManager.checkpoint()</code> using the index to locate the checkpoint</p>
+   *
+   * @param networkParameters The network parameters
+   * @param blockStore        The block store to receive the checkpoint as its chain head
+   * @param timeSeconds       The time (seconds since epoch) to checkpoint from
+   *
+   * @throws IOException         If the checkpoints file cannot be read
+   * @throws BlockStoreException If the block store cannot be updated
+   */
+  public void checkpoint(NetworkParameters networkParameters, BlockStore blockStore, long timeSeconds) throws IOException, BlockStoreException {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+    Preconditions.checkNotNull(blockStore, "'blockStore' must be present");
+
+    long checkpointTime = timeSeconds - CHECKPOINT_MARGIN_SECONDS;
+    Preconditions.checkArgument(checkpointTime > 0, "'timeSeconds' must be after the epoch");
+
+    StoredBlock checkpoint = getCheckpointBefore(networkParameters, checkpointTime);
+
+    log.debug("Checkpointing block store at height {}", checkpoint.getHeight());
+
+    blockStore.put(checkpoint);
+    blockStore.setChainHead(checkpoint);
+
+  }
+
+  /**
+   * @param networkParameters The network parameters
+   * @param timeSeconds       The time (seconds since epoch)
+   *
+   * @return The latest checkpoint at or before the given time, or the genesis block if none
+   *
+   * @throws IOException If the checkpoints file cannot be read
+   */
+  public StoredBlock getCheckpointBefore(NetworkParameters networkParameters, long timeSeconds) throws IOException {
+
+    Optional<Integer> entry = floorEntry(timeSeconds);
+
+    if (!entry.isPresent()) {
+      Block genesis = networkParameters.getGenesisBlock().cloneAsHeader();
+      return new StoredBlock(genesis, genesis.getWork(), 0);
+    }
+
+    return readStoredBlock(networkParameters, offsetAt(entry.get()));
+
+  }
+
+  /**
+   * @param timeSeconds The time (seconds since epoch)
+   *
+   * @return The height of the latest checkpoint at or before the given time if present
+   */
+  public Optional<Integer> getHeightBefore(long timeSeconds) {
+
+    Optional<Integer> entry = floorEntry(timeSeconds);
+    if (entry.isPresent()) {
+      return Optional.of(heightAt(entry.get()));
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * @param timeSeconds The time (seconds since epoch)
+   *
+   * @return The position of the last entry with a time at or before the given time
+   */
+  private Optional<Integer> floorEntry(long timeSeconds) {
+
+    int low = 0;
+    int high = size - 1;
+    int floor = -1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (timeAt(mid) <= timeSeconds) {
+        floor = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    return floor < 0 ? Optional.<Integer>absent() : Optional.of(floor);
+  }
+
+  private long timeAt(int entry) {
+    return index.getInt(HEADER_SIZE + entry * ENTRY_SIZE) & 0xFFFFFFFFL;
+  }
+
+  private int heightAt(int entry) {
+    return index.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 4);
+  }
+
+  private int offsetAt(int entry) {
+    return index.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+  }
+
+  /**
+   * @param attributes The current checkpoints file attributes
+   *
+   * @return True if the index was built from a checkpoints file with these attributes
+   */
+  private boolean matches(BasicFileAttributes attributes) {
+    return index.getLong(INDEX_MAGIC.length) == attributes.size()
+      && index.getLong(INDEX_MAGIC.length + 8) == attributes.lastModifiedTime().toMillis();
+  }
+
+  /**
+   * @param networkParameters The network parameters
+   * @param offset            The offset of the compact stored block within the checkpoints file
+   *
+   * @return The stored block
+   *
+   * @throws IOException If the checkpoints file cannot be read
+   */
+  private StoredBlock readStoredBlock(NetworkParameters networkParameters, int offset) throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+
+    try (RandomAccessFile raf = new RandomAccessFile(checkpointsFile, "r")) {
+      FileChannel channel = raf.getChannel();
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new IOException("Checkpoints file truncated at offset " + offset);
+        }
+      }
+    }
+
+    buffer.flip();
+
+    return StoredBlock.deserializeCompact(networkParameters, buffer);
+
+  }
+
+  /**
+   * @param checkpointsFile The checkpoints file
+   * @param attributes      The checkpoints file attributes
+   *
+   * @return A checkpoint index backed by a memory-mapped index file where possible
+   *
+   * @throws IOException If the checkpoints file cannot be indexed
+   */
+  private static CheckpointIndex mapOrBuild(File checkpointsFile, BasicFileAttributes attributes) throws IOException {
+
+    File indexFile = new File(checkpointsFile.getAbsolutePath() + INDEX_SUFFIX);
+
+    if (indexFile.exists()) {
+      try {
+        MappedByteBuffer mapped = map(indexFile);
+        CheckpointIndex existing = new CheckpointIndex(checkpointsFile, mapped, mapped.getInt(HEADER_SIZE - 4));
+        if (hasMagic(mapped) && existing.matches(attributes)) {
+          log.debug("Using existing checkpoint index with {} entries", existing.size());
+          return existing;
+        }
+      } catch (IOException | IndexOutOfBoundsException e) {
+        log.warn("Checkpoint index is unreadable and will be rebuilt", e);
+      }
+    }
+
+    ByteBuffer built = build(checkpointsFile, attributes);
+    int size = built.getInt(HEADER_SIZE - 4);
+
+    // Write the index atomically then map it
+    try {
+      File tempFile = new File(indexFile.getAbsolutePath() + ".tmp");
+      try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+        raf.setLength(0);
+        raf.getChannel().write(built.duplicate());
+      }
+      Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+      log.debug("Created checkpoint index with {} entries:\n'{}'", size, indexFile.getAbsolutePath());
+
+      return new CheckpointIndex(checkpointsFile, map(indexFile), size);
+
+    } catch (IOException e) {
+      // A mapped index cannot be replaced on some platforms so fall back to the in-memory version
+      log.warn("Could not write checkpoint index - using in-memory version", e);
+      return new CheckpointIndex(checkpointsFile, built, size);
+    }
+
+  }
+
+  /**
+   * @param checkpointsFile The bitcoinj binary checkpoints file
+   * @param attributes      The checkpoints file attributes
+   *
+   * @return A buffer containing the complete index
+   *
+   * @throws IOException If the checkpoints file is not a valid binary checkpoints file
+   */
+  private static ByteBuffer build(File checkpointsFile, BasicFileAttributes attributes) throws IOException {
+
+    long[] entries;
+
+    try (DataInputStream dis = new DataInputStream(new FileInputStream(checkpointsFile))) {
+
+      byte[] header = new byte[BINARY_MAGIC.length()];
+      dis.readFully(header);
+      if (!BINARY_MAGIC.equals(new String(header, Charsets.US_ASCII))) {
+        throw new IOException("Checkpoints file is not in the binary format");
+      }
+
+      int numSignatures = dis.readInt();
+      Preconditions.checkState(numSignatures >= 0, "Negative number of signatures");
+      dis.skipBytes(numSignatures * SIGNATURE_SIZE);
+
+      int numCheckpoints = dis.readInt();
+      Preconditions.checkState(numCheckpoints > 0, "No checkpoints");
+
+      int offset = BINARY_MAGIC.length() + 4 + numSignatures * SIGNATURE_SIZE + 4;
+
+      // Pack (time, position) to sort by time without allocating an object per entry
+      entries = new long[numCheckpoints];
+      int[] heights = new int[numCheckpoints];
+      int[] offsets = new int[numCheckpoints];
+      byte[] compact = new byte[StoredBlock.COMPACT_SERIALIZED_SIZE];
+
+      for (int i = 0; i < numCheckpoints; i++) {
+        dis.readFully(compact);
+        ByteBuffer buffer = ByteBuffer.wrap(compact);
+        heights[i] = buffer.getInt(12);
+        offsets[i] = offset;
+        // Block header time is little endian
+        long time = (compact[TIME_OFFSET] & 0xFFL)
+          | (compact[TIME_OFFSET + 1] & 0xFFL) << 8
+          | (compact[TIME_OFFSET + 2] & 0xFFL) << 16
+          | (compact[TIME_OFFSET + 3] & 0xFFL) << 24;
+        entries[i] = time << 32 | i;
+        offset += StoredBlock.COMPACT_SERIALIZED_SIZE;
+      }
+
+      Arrays.sort(entries);
+
+      ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + numCheckpoints * ENTRY_SIZE);
+      index.put(INDEX_MAGIC);
+      index.putLong(attributes.size());
+      index.putLong(attributes.lastModifiedTime().toMillis());
+      index.putInt(numCheckpoints);
+      for (long entry : entries) {
+        int position = (int) entry;
+        index.putInt((int) (entry >>> 32));
+        index.putInt(heights[position]);
+        index.putInt(offsets[position]);
+      }
+      index.flip();
+
+      return index;
+    }
+
+  }
+
+  private static MappedByteBuffer map(File indexFile) throws IOException {
+
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+      // The mapping remains valid after the channel is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+
+  }
+
+  private static boolean hasMagic(ByteBuffer buffer) {
+
+    if (buffer.limit() < HEADER_SIZE) {
+      return false;
+    }
+    for (int i = 0; i < INDEX_MAGIC.length; i++) {
+      if (buffer.get(i) != INDEX_MAGIC[i]) {
+        return false;
+      }
+    }
+
+    return buffer.limit() == HEADER_SIZE + buffer.getInt(HEADER_SIZE - 4) * ENTRY_SIZE;
+  }
+
+}
@@ -0,0 +1,202 @@
+package org.multibit.hd.core.concurrent;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class SafeExecutorsTest {
+
+  private ListeningExecutorService executorService;
+
+  @After
+  public void tearDown() throws Exception {
+
+    ExecutorRegistry.INSTANCE.setThreadBudget(ExecutorRegistry.DEFAULT_THREAD_BUDGET);
+    SafeExecutors.setVirtualThreads(false);
+
+    if (executorService != null) {
+      executorService.shutdownNow();
+    }
+
+  }
+
+  @Test
+  public void testStatisticsRecorded() throws Exception {
+
+    executorService = SafeExecutors.newFixedThreadPool(2, "test-statistics");
+
+    for (int i = 0; i < 10; i++) {
+      executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          Uninterruptibles.sleepUninterruptibly(5, TimeUnit.MILLISECONDS);
+        }
+      }).get();
+    }
+
+    ExecutorStatistics statistics = find("test-statistics");
+    assertThat(statistics.toString()).startsWith("test-statistics platform threads=");
+
+    // Completion is recorded after the future is done so wait for the workers to finish
+    executorService.shutdown();
+    assertThat(executorService.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(statistics.getCompletedCount()).isEqualTo(10);
+    assertThat(statistics.getMeanRunMillis()).isGreaterThanOrEqualTo(4.0);
+    assertThat(statistics.getRejectedCount()).isEqualTo(0);
+
+    // Terminated executors are no longer tracked
+    assertThat(find("test-statistics")).isNull();
+
+  }
+
+  @Test
+  public void testAbortWhenQueueFull() throws Exception {
+
+    CountDownLatch release = new CountDownLatch(1);
+    executorService = SafeExecutors.newFixedThreadPool(1, "test-abort", 2, BackPressurePolicy.ABORT);
+
+    // One running and two queued
+    for (int i = 0; i < 3; i++) {
+      executorService.submit(newBlockingTask(release));
+    }
+
+    try {
+      executorService.submit(newBlockingTask(release));
+      fail("Expected rejection");
+    } catch (RejectedExecutionException e) {
+      // Expected
+    }
+
+    assertThat(find("test-abort").getRejectedCount()).isEqualTo(1);
+    assertThat(find("test-abort").getQueuedCount()).isEqualTo(2);
+
+    release.countDown();
+
+  }
+
+  @Test
+  public void testDiscardOldestCancelsQueuedTask() throws Exception {
+
+    CountDownLatch release = new CountDownLatch(1);
+    executorService = SafeExecutors.newFixedThreadPool(1, "test-discard", 1, BackPressurePolicy.DISCARD_OLDEST);
+
+    executorService.submit(newBlockingTask(release));
+    Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+
+    ListenableFuture<?> oldest = executorService.submit(newBlockingTask(release));
+    ListenableFuture<?> latest = executorService.submit(newBlockingTask(release));
+
+    // The caller of the oldest task is told it will not run
+    assertThat(oldest.isCancelled()).isTrue();
+
+    release.countDown();
+    latest.get(5, TimeUnit.SECONDS);
+
+  }
+
+  @Test
+  public void testBlockRejectsAfterShutdown() throws Exception {
+
+    final CountDownLatch release = new CountDownLatch(1);
+    executorService = SafeExecutors.newFixedThreadPool(1, "test-block", 1, BackPressurePolicy.BLOCK);
+
+    // One running and one queued
+    executorService.submit(newBlockingTask(release));
+    executorService.submit(newBlockingTask(release));
+
+    final CountDownLatch rejected = new CountDownLatch(1);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          executorService.submit(newBlockingTask(release));
+        } catch (RejectedExecutionException e) {
+          rejected.countDown();
+        }
+      }
+    });
+    producer.start();
+    Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+
+    // Draining the queue makes space for the waiting producer after the executor has shut down
+    assertThat(executorService.shutdownNow()).hasSize(1);
+
+    assertThat(rejected.await(5, TimeUnit.SECONDS)).isTrue();
+
+    release.countDown();
+
+  }
+
+  @Test
+  public void testThreadBudget() throws Exception {
+
+    int allocated = ExecutorRegistry.INSTANCE.getAllocatedThreads();
+    ExecutorRegistry.INSTANCE.setThreadBudget(allocated + 2);
+
+    // The budget is advisory so the pool is never shrunk
+    executorService = SafeExecutors.newFixedThreadPool(5, "test-budget");
+    assertThat(find("test-budget").getThreads()).isEqualTo(5);
+    assertThat(ExecutorRegistry.INSTANCE.getAllocatedThreads()).isEqualTo(allocated + 5);
+
+    // Threads are returned to the budget when the pool terminates
+    executorService.shutdown();
+    assertThat(executorService.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(ExecutorRegistry.INSTANCE.getAllocatedThreads()).isEqualTo(allocated);
+
+  }
+
+  @Test
+  public void testVirtualThreadsFallBackToPlatform() throws Exception {
+
+    SafeExecutors.setVirtualThreads(true);
+
+    executorService = SafeExecutors.newSingleThreadExecutor("test-virtual");
+    String threadName = executorService.submit(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return Thread.currentThread().getName();
+      }
+    }).get(5, TimeUnit.SECONDS);
+
+    if (VirtualThreads.isSupported()) {
+      assertThat(threadName).startsWith("safe-virtual-test-virtual-");
+      assertThat(find("test-virtual").isVirtual()).isTrue();
+    } else {
+      assertThat(threadName).startsWith("safe-fixed-test-virtual-");
+      assertThat(find("test-virtual").isVirtual()).isFalse();
+    }
+
+  }
+
+  private Runnable newBlockingTask(final CountDownLatch release) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        Uninterruptibles.awaitUninterruptibly(release);
+      }
+    };
+  }
+
+  private ExecutorStatistics find(String name) {
+
+    for (ExecutorStatistics statistics : ExecutorRegistry.INSTANCE.getStatistics()) {
+      if (statistics.getName().equals(name)) {
+        return statistics;
+      }
+    }
+
+    return null;
+  }
+
+}
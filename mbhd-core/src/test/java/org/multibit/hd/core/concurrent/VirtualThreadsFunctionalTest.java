@@ -0,0 +1,121 @@
+package org.multibit.hd.core.concurrent;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark of an I/O bound pool with and without virtual threads (memory and task latency)</p>
+ * <p>On runtimes without virtual thread support both runs use platform threads.</p>
+ */
+public class VirtualThreadsFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreadsFunctionalTest.class);
+
+  /**
+   * Large enough that platform thread stacks show in the measurement
+   */
+  private static final int POOL_SIZE = 500;
+
+  private static final int TASKS = 5_000;
+
+  /**
+   * Simulated network round trip
+   */
+  private static final long IO_MILLIS = 20;
+
+  @After
+  public void tearDown() throws Exception {
+
+    SafeExecutors.setVirtualThreads(false);
+    ExecutorRegistry.INSTANCE.setThreadBudget(ExecutorRegistry.DEFAULT_THREAD_BUDGET);
+
+  }
+
+  @Test
+  public void testPlatformAgainstVirtual() throws Exception {
+
+    log.info("Virtual threads supported: {}", VirtualThreads.isSupported());
+
+    // Allow the full platform pool for the comparison
+    ExecutorRegistry.INSTANCE.setThreadBudget(ExecutorRegistry.DEFAULT_THREAD_BUDGET + POOL_SIZE);
+
+    run("platform", false);
+    run("virtual", true);
+
+  }
+
+  private void run(String mode, boolean virtual) throws Exception {
+
+    SafeExecutors.setVirtualThreads(virtual);
+    System.gc();
+
+    long threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+    long heapBefore = usedHeap();
+
+    ListeningExecutorService executorService = SafeExecutors.newFixedThreadPool(POOL_SIZE, "benchmark-" + mode);
+
+    long start = System.nanoTime();
+    List<ListenableFuture<Long>> futures = Lists.newArrayList();
+    for (int i = 0; i < TASKS; i++) {
+      final long submitted = System.nanoTime();
+      futures.add(executorService.submit(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+          Uninterruptibles.sleepUninterruptibly(IO_MILLIS, TimeUnit.MILLISECONDS);
+          return System.nanoTime() - submitted;
+        }
+      }));
+    }
+
+    // Sample while all workers exist
+    Uninterruptibles.sleepUninterruptibly(IO_MILLIS, TimeUnit.MILLISECONDS);
+    long threadsDuring = ManagementFactory.getThreadMXBean().getThreadCount();
+    long heapDuring = usedHeap();
+
+    List<Long> latencies = Futures.allAsList(futures).get(5, TimeUnit.MINUTES);
+    long elapsed = System.nanoTime() - start;
+
+    executorService.shutdownNow();
+
+    long[] sorted = new long[latencies.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = latencies.get(i);
+    }
+    Arrays.sort(sorted);
+
+    log.info(
+      "{}: {} tasks in {}ms, latency p50={}ms p99={}ms, platform threads +{}, heap +{}KB",
+      mode,
+      TASKS,
+      TimeUnit.NANOSECONDS.toMillis(elapsed),
+      TimeUnit.NANOSECONDS.toMillis(sorted[sorted.length / 2]),
+      TimeUnit.NANOSECONDS.toMillis(sorted[(int) (sorted.length * 0.99)]),
+      threadsDuring - threadsBefore,
+      (heapDuring - heapBefore) / 1024
+    );
+
+    assertThat(latencies.size()).isEqualTo(TASKS);
+
+  }
+
+  private long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+}
@@ -0,0 +1,81 @@
+package org.multibit.hd.core.crypto;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark comparing sequential and parallel signing of large transactions</p>
+ */
+public class ParallelTransactionSignerFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelTransactionSignerFunctionalTest.class);
+
+  private static final int[] INPUT_COUNTS = new int[]{10, 100, 1000};
+
+  private static final int ITERATIONS = 5;
+
+  private final NetworkParameters networkParameters = MainNetParams.get();
+
+  @Test
+  public void testSigningThroughput() throws Exception {
+
+    Wallet wallet = new Wallet(networkParameters);
+    ParallelTransactionSigner parallelSigner = new ParallelTransactionSigner(networkParameters);
+
+    for (int inputCount : INPUT_COUNTS) {
+
+      // Warm up both signers
+      byte[] expected = signSequentially(wallet, inputCount);
+      byte[] actual = signInParallel(parallelSigner, wallet, inputCount);
+      assertThat(Arrays.equals(actual, expected)).isTrue();
+
+      long sequentialNanos = 0;
+      long parallelNanos = 0;
+      for (int i = 0; i < ITERATIONS; i++) {
+
+        long start = System.nanoTime();
+        signSequentially(wallet, inputCount);
+        sequentialNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        signInParallel(parallelSigner, wallet, inputCount);
+        parallelNanos += System.nanoTime() - start;
+      }
+
+      log.info(
+        "Inputs: {} Sequential: {}ms Parallel: {}ms Cores: {}",
+        inputCount,
+        sequentialNanos / ITERATIONS / 1_000_000,
+        parallelNanos / ITERATIONS / 1_000_000,
+        Runtime.getRuntime().availableProcessors()
+      );
+    }
+
+  }
+
+  private byte[] signSequentially(Wallet wallet, int inputCount) {
+
+    Transaction transaction = ParallelTransactionSignerTest.newSpendingTransaction(networkParameters, wallet, inputCount);
+    wallet.signTransaction(Wallet.SendRequest.forTx(transaction));
+
+    return transaction.bitcoinSerialize();
+  }
+
+  private byte[] signInParallel(ParallelTransactionSigner parallelSigner, Wallet wallet, int inputCount) throws Exception {
+
+    Transaction transaction = ParallelTransactionSignerTest.newSpendingTransaction(networkParameters, wallet, inputCount);
+    assertThat(parallelSigner.signInputs(transaction, wallet, null)).isTrue();
+
+    return transaction.bitcoinSerialize();
+  }
+
+}
@@ -0,0 +1,114 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ParallelTransactionSignerTest {
+
+  private final NetworkParameters networkParameters = MainNetParams.get();
+
+  private Wallet wallet;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(networkParameters);
+
+  }
+
+  @Test
+  public void testMatchesSequentialSigning() throws Exception {
+
+    Transaction expected = newSpendingTransaction(networkParameters, wallet, 40);
+    Transaction actual = newSpendingTransaction(networkParameters, wallet, 40);
+
+    Wallet.SendRequest sendRequest = Wallet.SendRequest.forTx(expected);
+    wallet.signTransaction(sendRequest);
+
+    ParallelTransactionSigner testObject = new ParallelTransactionSigner(
+      networkParameters,
+      SafeExecutors.newFixedThreadPool(4, "test-signing"),
+      4
+    );
+
+    assertThat(testObject.isWorthwhile(actual)).isTrue();
+    assertThat(testObject.signInputs(actual, wallet, null)).isTrue();
+
+    // Deterministic signatures give identical transactions
+    assertThat(Arrays.equals(actual.bitcoinSerialize(), expected.bitcoinSerialize())).isTrue();
+
+    for (TransactionInput input : actual.getInputs()) {
+      input.verify();
+    }
+
+  }
+
+  @Test
+  public void testUnknownKeyLeavesTransactionUnsigned() throws Exception {
+
+    Transaction transaction = newSpendingTransaction(networkParameters, wallet, 20);
+
+    // Add an input paying to a key the wallet does not hold
+    Transaction foreign = new Transaction(networkParameters);
+    foreign.addOutput(Coin.CENT, new ECKey().toAddress(networkParameters));
+    transaction.addInput(foreign.getOutput(0));
+
+    ParallelTransactionSigner testObject = new ParallelTransactionSigner(
+      networkParameters,
+      MoreExecutors.sameThreadExecutor(),
+      2
+    );
+
+    assertThat(testObject.signInputs(transaction, wallet, null)).isFalse();
+
+    for (TransactionInput input : transaction.getInputs()) {
+      assertThat(input.getScriptBytes().length).isEqualTo(0);
+    }
+
+  }
+
+  /**
+   * @param networkParameters The network parameters
+   * @param wallet            The wallet providing the keys
+   * @param inputCount        The number of inputs
+   *
+   * @return An unsigned transaction spending the given number of outputs received by the wallet
+   */
+  static Transaction newSpendingTransaction(NetworkParameters networkParameters, Wallet wallet, int inputCount) {
+
+    // Funding transaction is deterministic so repeated calls give identical spends
+    Transaction funding = new Transaction(networkParameters);
+    funding.addInput(new TransactionInput(networkParameters, funding, new byte[]{0x51}));
+    for (int i = 0; i < inputCount; i++) {
+      ECKey key = wallet.currentReceiveKey();
+      if (i % 2 == 0) {
+        funding.addOutput(Coin.CENT, key.toAddress(networkParameters));
+      } else {
+        // Exercise pay-to-pubkey inputs as well
+        funding.addOutput(Coin.CENT, key);
+      }
+    }
+
+    Transaction spend = new Transaction(networkParameters);
+    for (int i = 0; i < inputCount; i++) {
+      spend.addInput(funding.getOutput(i));
+    }
+    spend.addOutput(Coin.CENT.multiply(inputCount), wallet.currentReceiveAddress());
+
+    return spend;
+  }
+
+}
@@ -0,0 +1,156 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class EventCoalescerTest {
+
+  private final List<Object> delivered = Collections.synchronizedList(Lists.newArrayList());
+
+  private ListeningScheduledExecutorService scheduler;
+
+  private EventCoalescer testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    scheduler = SafeExecutors.newSingleThreadScheduledExecutor("test-coalescer");
+    testObject = new EventCoalescer(
+      "test",
+      scheduler,
+      new EventCoalescer.EventSink() {
+        @Override
+        public void post(Object event) {
+          delivered.add(event);
+        }
+      });
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    scheduler.shutdownNow();
+
+  }
+
+  @Test
+  public void testAnnotatedEventKeepsLatest() throws Exception {
+
+    for (int i = 0; i < 5; i++) {
+      testObject.post(new AnnotatedEvent(i));
+    }
+
+    // Uncoalesced types pass straight through
+    testObject.post("immediate");
+    assertThat(delivered).containsExactly("immediate");
+
+    Uninterruptibles.sleepUninterruptibly(300, TimeUnit.MILLISECONDS);
+
+    assertThat(delivered).hasSize(2);
+    assertThat(((AnnotatedEvent) delivered.get(1)).value).isEqualTo(4);
+    assertThat(testObject.getSuppressedCount()).isEqualTo(4);
+    assertThat(testObject.getSuppressedCounts().get("AnnotatedEvent")).isEqualTo(4L);
+
+  }
+
+  @Test
+  public void testUncoalescedEventIsNotOvertaken() throws Exception {
+
+    testObject.register(
+      Integer.class,
+      10_000,
+      new Function<Integer, Object>() {
+        @Override
+        public Object apply(Integer input) {
+          // Negative values are significant
+          return input < 0 ? null : input % 2;
+        }
+      });
+
+    testObject.post(1);
+    testObject.post(2);
+    testObject.post(3);
+    testObject.post(-1);
+
+    // Pending events are delivered ahead of the significant one
+    assertThat(delivered).containsExactly(3, 2, -1);
+    assertThat(testObject.getSuppressedCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testSlowSinkDoesNotBlockPosting() throws Exception {
+
+    final CountDownLatch sinkEntered = new CountDownLatch(1);
+    final CountDownLatch releaseSink = new CountDownLatch(1);
+
+    final EventCoalescer slowCoalescer = new EventCoalescer(
+      "slow",
+      scheduler,
+      new EventCoalescer.EventSink() {
+        @Override
+        public void post(Object event) {
+          if (Integer.valueOf(-1).equals(event)) {
+            sinkEntered.countDown();
+            Uninterruptibles.awaitUninterruptibly(releaseSink);
+          }
+          delivered.add(event);
+        }
+      });
+    slowCoalescer.register(
+      Integer.class,
+      10_000,
+      new Function<Integer, Object>() {
+        @Override
+        public Object apply(Integer input) {
+          return input < 0 ? null : input;
+        }
+      });
+
+    Thread slowPoster = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        slowCoalescer.post(-1);
+      }
+    });
+    slowPoster.start();
+    assertThat(sinkEntered.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // The sink is busy but coalescing continues and later significant events queue behind it
+    slowCoalescer.post(1);
+    slowCoalescer.post(-2);
+    assertThat(delivered).isEmpty();
+
+    releaseSink.countDown();
+    slowPoster.join(5_000);
+
+    assertThat(delivered).containsExactly(-1, 1, -2);
+
+  }
+
+  @Coalesce(windowMillis = 100)
+  private static class AnnotatedEvent {
+
+    private final int value;
+
+    private AnnotatedEvent(int value) {
+      this.value = value;
+    }
+
+  }
+
+}
@@ -0,0 +1,146 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.eventbus.SubscriberExceptionContext;
+import com.google.common.eventbus.SubscriberExceptionHandler;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class InstrumentedEventBusTest {
+
+  private InstrumentedEventBus testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    EventBusMetrics.INSTANCE.reset();
+
+    testObject = new InstrumentedEventBus(
+      "test-view-events",
+      new SubscriberExceptionHandler() {
+        @Override
+        public void handleException(Throwable exception, SubscriberExceptionContext context) {
+          throw new IllegalStateException(exception);
+        }
+      });
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    EventBusMetrics.INSTANCE.reset();
+
+  }
+
+  @Test
+  public void testNestedPostIsBreadthFirst() throws Exception {
+
+    final List<Object> received = Lists.newArrayList();
+
+    Object first = new Object() {
+      @Subscribe
+      public void onInteger(Integer event) {
+        received.add("first " + event);
+        if (event == 1) {
+          testObject.post(2);
+        }
+      }
+    };
+    Object second = new Object() {
+      @Subscribe
+      public void onInteger(Integer event) {
+        received.add("second " + event);
+      }
+    };
+
+    testObject.register(first);
+    testObject.register(second);
+
+    testObject.post(1);
+
+    // The nested event is delivered after the first event reaches every subscriber (as with Guava)
+    assertThat(received).containsExactly("first 1", "second 1", "first 2", "second 2");
+
+  }
+
+  @Test
+  public void testHandlerStatisticsRecorded() throws Exception {
+
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    testObject.register(subscriber);
+
+    testObject.post(1);
+    testObject.post(2);
+    testObject.post("ignored");
+
+    assertThat(subscriber.received).containsExactly(1, 2);
+
+    String[] statistics = EventBusMetrics.INSTANCE.getHandlerStatistics();
+    assertThat(statistics.length).isEqualTo(1);
+    assertThat(statistics[0]).startsWith("test-view-events Integer -> " + RecordingSubscriber.class.getName() + " count=2");
+
+  }
+
+  @Test
+  public void testNestedDispatchKeepsEnclosingHandler() throws Exception {
+
+    long thresholdMillis = EventBusMetrics.INSTANCE.getSlowHandlerThresholdMillis();
+    EventBusMetrics.INSTANCE.setSlowHandlerThresholdMillis(1);
+    try {
+
+      EventBusMetrics.HandlerKeys handlerKeys = EventBusMetrics.INSTANCE.newHandlerKeys(
+        "test-nested",
+        new RecordingSubscriber(),
+        Collections.<Class<?>>singleton(Integer.class)
+      );
+
+      // A handler on one bus posting synchronously to another on the same thread
+      EventBusMetrics.Dispatch outer = EventBusMetrics.INSTANCE.start(handlerKeys, 1);
+      EventBusMetrics.Dispatch inner = EventBusMetrics.INSTANCE.start(handlerKeys, 2);
+      EventBusMetrics.INSTANCE.stop(inner);
+
+      // The watchdog still finds the enclosing handler once the nested one completes
+      for (int i = 0; i < 100 && !outer.isSampled(); i++) {
+        Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+      }
+      assertThat(outer.isSampled()).isTrue();
+
+      EventBusMetrics.INSTANCE.stop(outer);
+
+    } finally {
+      EventBusMetrics.INSTANCE.setSlowHandlerThresholdMillis(thresholdMillis);
+    }
+
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnregisterUnknownSubscriber() throws Exception {
+
+    testObject.register(new RecordingSubscriber());
+
+    testObject.unregister(new RecordingSubscriber());
+
+  }
+
+  public static class RecordingSubscriber {
+
+    final List<Object> received = Lists.newArrayList();
+
+    @Subscribe
+    public void onEvent(Integer event) {
+      received.add(event);
+    }
+
+  }
+
+}
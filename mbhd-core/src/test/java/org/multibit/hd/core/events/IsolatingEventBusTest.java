@@ -0,0 +1,172 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.eventbus.SubscriberExceptionContext;
+import com.google.common.eventbus.SubscriberExceptionHandler;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IsolatingEventBusTest {
+
+  private ListeningExecutorService executorService;
+
+  private IsolatingEventBus testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    executorService = SafeExecutors.newFixedThreadPool(2, "test-events");
+    testObject = new IsolatingEventBus(
+      "test-events",
+      executorService,
+      new SubscriberExceptionHandler() {
+        @Override
+        public void handleException(Throwable exception, SubscriberExceptionContext context) {
+          throw new IllegalStateException(exception);
+        }
+      });
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    executorService.shutdownNow();
+
+  }
+
+  @Test
+  public void testSlowSubscriberDoesNotBlock() throws Exception {
+
+    BlockedSubscriber slow = new BlockedSubscriber();
+    RecordingSubscriber fast = new RecordingSubscriber(100);
+
+    testObject.register(slow, OverflowPolicy.DROP_OLDEST, 10);
+    testObject.register(fast, OverflowPolicy.DROP_OLDEST, 1_000);
+
+    // Posting returns immediately even though the slow subscriber is stuck
+    for (int i = 0; i < 100; i++) {
+      testObject.post(i);
+    }
+
+    assertThat(fast.latch.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // Delivery order is preserved
+    for (int i = 0; i < 100; i++) {
+      assertThat(fast.received.get(i)).isEqualTo(i);
+    }
+
+    // The slow subscriber kept only the most recent events
+    assertThat(testObject.getDroppedCount()).isGreaterThanOrEqualTo(89);
+
+    slow.release.countDown();
+
+  }
+
+  @Test
+  public void testCoalesceOnlyReplacesMarkedTypes() throws Exception {
+
+    BlockedSubscriber slow = new BlockedSubscriber();
+    testObject.register(slow, OverflowPolicy.COALESCE, 3);
+
+    // Wait for the first event to be taken for delivery
+    testObject.post(0);
+    assertThat(slow.started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    LatestEvent firstLatest = new LatestEvent();
+    LatestEvent secondLatest = new LatestEvent();
+
+    testObject.post("first");
+    testObject.post(firstLatest);
+    testObject.post(1);
+
+    // Full so the queued coalescable event is replaced
+    testObject.post(secondLatest);
+    assertThat(testObject.getQueueDepths().get(BlockedSubscriber.class.getName())).isEqualTo(3);
+    assertThat(testObject.getDroppedCount()).isEqualTo(1);
+
+    // Other types are never lost
+    testObject.post(2);
+    assertThat(testObject.getQueueDepths().get(BlockedSubscriber.class.getName())).isEqualTo(4);
+    assertThat(testObject.getDroppedCount()).isEqualTo(1);
+
+    slow.release.countDown();
+    Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+
+    assertThat(slow.received).containsExactly(0, "first", 1, secondLatest, 2);
+
+  }
+
+  @Test
+  public void testUnregisterDropsQueuedEvents() throws Exception {
+
+    BlockedSubscriber slow = new BlockedSubscriber();
+    testObject.register(slow, OverflowPolicy.BLOCK, 10);
+
+    testObject.post(0);
+    assertThat(slow.started.await(5, TimeUnit.SECONDS)).isTrue();
+    testObject.post(1);
+
+    assertThat(testObject.unregister(slow)).isTrue();
+    assertThat(testObject.unregister(slow)).isFalse();
+
+    // Nothing further is queued
+    testObject.post(2);
+
+    slow.release.countDown();
+    Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+
+    // Only the event already being delivered completes
+    assertThat(slow.received).containsExactly(0);
+
+  }
+
+  @Coalesce(windowMillis = 100)
+  public static class LatestEvent {
+  }
+
+  public static class RecordingSubscriber {
+
+    final List<Object> received = Collections.synchronizedList(Lists.newArrayList());
+    final CountDownLatch latch;
+
+    RecordingSubscriber(int expected) {
+      latch = new CountDownLatch(expected);
+    }
+
+    @Subscribe
+    public void onEvent(Integer event) {
+      received.add(event);
+      latch.countDown();
+    }
+
+  }
+
+  public static class BlockedSubscriber {
+
+    final List<Object> received = Collections.synchronizedList(Lists.newArrayList());
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Subscribe
+    public void onEvent(Object event) {
+      started.countDown();
+      Uninterruptibles.awaitUninterruptibly(release);
+      received.add(event);
+    }
+
+  }
+
+}
@@ -0,0 +1,85 @@
+package org.multibit.hd.core.exchanges;
+
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+import org.multibit.hd.core.managers.InstallationManager;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ExchangeCachesTest {
+
+  private static final DateTime NOW = new DateTime(2015, 1, 1, 12, 0, 0, 0, DateTimeZone.UTC);
+
+  @Before
+  public void setUp() throws Exception {
+
+    File temporaryDirectory = SecureFiles.createTemporaryDirectory();
+    InstallationManager.setCurrentApplicationDataDirectory(temporaryDirectory);
+    ExchangeCaches.reset();
+
+    DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    DateTimeUtils.setCurrentMillisSystem();
+    ExchangeCaches.reset();
+
+  }
+
+  @Test
+  public void testCurrencyCodesExpire() throws Exception {
+
+    assertThat(ExchangeCaches.getCurrencyCodes(ExchangeKey.BITSTAMP, true).isPresent()).isFalse();
+
+    ExchangeCaches.putCurrencyCodes(ExchangeKey.BITSTAMP, Lists.newArrayList("EUR", "USD"));
+
+    // Simulate a restart
+    ExchangeCaches.reset();
+    assertThat(ExchangeCaches.getCurrencyCodes(ExchangeKey.BITSTAMP, false).get()).containsExactly("EUR", "USD");
+    assertThat(ExchangeCaches.getCurrencyCodes(ExchangeKey.KRAKEN, true).isPresent()).isFalse();
+
+    // Expired currencies are only available on request
+    DateTimeUtils.setCurrentMillisFixed(NOW.plusHours(ExchangeCaches.CURRENCIES_TTL_HOURS).plusMinutes(1).getMillis());
+    assertThat(ExchangeCaches.getCurrencyCodes(ExchangeKey.BITSTAMP, false).isPresent()).isFalse();
+    assertThat(ExchangeCaches.getCurrencyCodes(ExchangeKey.BITSTAMP, true).get()).containsExactly("EUR", "USD");
+
+  }
+
+  @Test
+  public void testLastRateSurvivesRestart() throws Exception {
+
+    Currency usd = Currency.getInstance("USD");
+    DateTime expires = NOW.plusMinutes(15);
+
+    ExchangeCaches.putLastRate(ExchangeKey.BITSTAMP, usd, new BigDecimal("250.10"), "Bitstamp", expires);
+
+    // Simulate a restart
+    ExchangeCaches.reset();
+    ExchangeCache.CachedRate cachedRate = ExchangeCaches.getLastRate(ExchangeKey.BITSTAMP, usd).get();
+
+    assertThat(new BigDecimal(cachedRate.getRate())).isEqualTo(new BigDecimal("250.10"));
+    assertThat(cachedRate.getCurrencyCode()).isEqualTo("USD");
+    assertThat(cachedRate.getRateProvider()).isEqualTo("Bitstamp");
+    assertThat(cachedRate.getTimestamp()).isEqualTo(NOW.getMillis());
+    assertThat(cachedRate.getExpires()).isEqualTo(expires.getMillis());
+
+    // Other exchanges and currencies have their own rates
+    assertThat(ExchangeCaches.getLastRate(ExchangeKey.KRAKEN, usd).isPresent()).isFalse();
+    assertThat(ExchangeCaches.getLastRate(ExchangeKey.BITSTAMP, Currency.getInstance("EUR")).isPresent()).isFalse();
+
+  }
+
+}
@@ -0,0 +1,207 @@
+package org.multibit.hd.core.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.google.common.collect.Queues;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark comparing the bounded batching appender with the previous unbounded queue</p>
+ */
+public class AsyncAppenderFunctionalTest {
+
+  private static final org.slf4j.Logger log = LoggerFactory.getLogger(AsyncAppenderFunctionalTest.class);
+
+  private static final int THREADS = 4;
+  private static final int EVENTS_PER_THREAD = 250_000;
+
+  @Test
+  public void testThroughput() throws Exception {
+
+    // Warm up both paths
+    run(false);
+    run(true);
+
+    long[] unbounded = run(false);
+    long[] bounded = run(true);
+
+    log.info(
+      "Unbounded queue: {} events/s from producers, {} flushes",
+      unbounded[0],
+      unbounded[1]
+    );
+    log.info(
+      "Bounded ring buffer: {} events/s from producers, {} flushes, {} dropped",
+      bounded[0],
+      bounded[1],
+      bounded[2]
+    );
+
+    assertThat(bounded[1]).isLessThan(unbounded[1]);
+
+  }
+
+  /**
+   * @param bounded True to use the bounded appender
+   *
+   * @return Producer events per second, delegate flush count and dropped count
+   */
+  private long[] run(boolean bounded) throws Exception {
+
+    LoggerContext loggerContext = new LoggerContext();
+    final Logger logger = loggerContext.getLogger(AsyncAppenderFunctionalTest.class);
+
+    final CountingOutputStream outputStream = new CountingOutputStream();
+
+    PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+    encoder.setContext(loggerContext);
+    encoder.setPattern("%-5level [%thread] %logger: %message%n");
+    encoder.start();
+
+    OutputStreamAppender<ILoggingEvent> delegate = new OutputStreamAppender<>();
+    delegate.setContext(loggerContext);
+    delegate.setEncoder(encoder);
+    delegate.setOutputStream(outputStream);
+    delegate.start();
+
+    final Appender<ILoggingEvent> appender = bounded ? AsyncAppender.wrap(delegate) : UnboundedAsyncAppender.wrap(delegate);
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(THREADS);
+
+    for (int t = 0; t < THREADS; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+              appender.doAppend(new LoggingEvent(
+                AsyncAppenderFunctionalTest.class.getName(),
+                logger,
+                i % 4 == 0 ? Level.DEBUG : Level.INFO,
+                "Event {}",
+                null,
+                new Object[]{i}
+              ));
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+    done.await();
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    appender.stop();
+
+    long dropped = bounded ? ((AsyncAppender) appender).getDroppedCount() : 0;
+
+    return new long[]{
+      (long) (THREADS * (double) EVENTS_PER_THREAD / elapsedNanos * 1_000_000_000),
+      outputStream.flushes.get(),
+      dropped
+    };
+  }
+
+  /**
+   * Discards output while counting flushes
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+
+    @Override
+    public void flush() {
+      flushes.incrementAndGet();
+    }
+  }
+
+  /**
+   * The previous implementation: an unbounded queue with a flush per event
+   */
+  private static class UnboundedAsyncAppender extends AppenderBase<ILoggingEvent> implements Runnable {
+
+    static Appender<ILoggingEvent> wrap(Appender<ILoggingEvent> delegate) {
+      UnboundedAsyncAppender appender = new UnboundedAsyncAppender(delegate);
+      appender.start();
+      return appender;
+    }
+
+    private final Appender<ILoggingEvent> delegate;
+    private final BlockingQueue<ILoggingEvent> queue = Queues.newLinkedBlockingQueue();
+    private final Thread dispatcher = new Thread(this);
+    private volatile boolean running;
+
+    private UnboundedAsyncAppender(Appender<ILoggingEvent> delegate) {
+      this.delegate = delegate;
+      setContext(delegate.getContext());
+      dispatcher.setDaemon(true);
+    }
+
+    @Override
+    protected void append(ILoggingEvent eventObject) {
+      eventObject.prepareForDeferredProcessing();
+      queue.add(eventObject);
+    }
+
+    @Override
+    public void start() {
+      super.start();
+      running = true;
+      dispatcher.start();
+    }
+
+    @Override
+    public void stop() {
+      // Wait for the backlog so the flush counts are comparable
+      while (!queue.isEmpty()) {
+        Thread.yield();
+      }
+      running = false;
+      dispatcher.interrupt();
+      super.stop();
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          delegate.doAppend(queue.take());
+        } catch (InterruptedException e) {
+          running = false;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,201 @@
+package org.multibit.hd.core.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AsyncAppenderTest {
+
+  private LoggerContext loggerContext;
+  private Logger logger;
+
+  private GatedAppender delegate;
+  private AsyncAppender testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    loggerContext = new LoggerContext();
+    logger = loggerContext.getLogger(AsyncAppenderTest.class);
+
+    delegate = new GatedAppender();
+    delegate.setContext(loggerContext);
+    delegate.start();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    delegate.open();
+    if (testObject != null) {
+      testObject.stop();
+    }
+
+  }
+
+  @Test
+  public void testDeliversInOrder() throws Exception {
+
+    delegate.open();
+    testObject = AsyncAppender.wrap(delegate, 16, Level.DEBUG);
+
+    // WARN is never dropped so a small buffer makes the producer wait
+    for (int i = 0; i < 100; i++) {
+      testObject.doAppend(newEvent(Level.WARN, "Event " + i));
+    }
+
+    testObject.stop();
+
+    assertThat(delegate.getMessages()).hasSize(100);
+    for (int i = 0; i < 100; i++) {
+      assertThat(delegate.getMessages().get(i)).isEqualTo("Event " + i);
+    }
+
+  }
+
+  @Test
+  public void testCapacityRoundedToPowerOfTwo() throws Exception {
+
+    testObject = AsyncAppender.wrap(delegate, 100, Level.DEBUG);
+
+    assertThat(testObject.getCapacity()).isEqualTo(128);
+
+  }
+
+  @Test
+  public void testDropPolicy() throws Exception {
+
+    testObject = AsyncAppender.wrap(delegate, 16, Level.DEBUG);
+
+    // The dispatcher takes the first event and is held by the delegate
+    testObject.doAppend(newEvent(Level.INFO, "Held"));
+    assertThat(delegate.awaitFirst()).isTrue();
+
+    // Fill to the discarding threshold (80% of 16 is 12)
+    for (int i = 0; i < 12; i++) {
+      testObject.doAppend(newEvent(Level.INFO, "Info " + i));
+    }
+    assertThat(testObject.getQueueOccupancy()).isEqualTo(12);
+
+    // DEBUG is now dropped but INFO is accepted until full
+    testObject.doAppend(newEvent(Level.DEBUG, "Dropped debug"));
+    assertThat(testObject.getDroppedCount()).isEqualTo(1);
+
+    for (int i = 12; i < 16; i++) {
+      testObject.doAppend(newEvent(Level.INFO, "Info " + i));
+    }
+    assertThat(testObject.getQueueOccupancy()).isEqualTo(16);
+
+    // Full so INFO is dropped
+    testObject.doAppend(newEvent(Level.INFO, "Dropped info"));
+    assertThat(testObject.getDroppedCount()).isEqualTo(2);
+
+    // WARN waits for space rather than being dropped
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        testObject.doAppend(newEvent(Level.WARN, "Warning"));
+      }
+    });
+    producer.start();
+    producer.join(200);
+    assertThat(producer.isAlive()).isTrue();
+
+    delegate.open();
+    producer.join(5000);
+    assertThat(producer.isAlive()).isFalse();
+
+    testObject.stop();
+
+    List<String> messages = delegate.getMessages();
+    assertThat(messages).hasSize(18);
+    assertThat(messages).excludes("Dropped debug", "Dropped info");
+    assertThat(messages.get(17)).isEqualTo("Warning");
+    assertThat(testObject.getBlockedCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testStopDeliversQueuedEvents() throws Exception {
+
+    testObject = AsyncAppender.wrap(delegate, 1024, Level.DEBUG);
+
+    for (int i = 0; i < 500; i++) {
+      testObject.doAppend(newEvent(Level.INFO, "Event " + i));
+    }
+
+    // Release the delegate once the stop has started
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        delegate.open();
+      }
+    }).start();
+
+    testObject.stop();
+
+    assertThat(delegate.getMessages()).hasSize(500);
+    assertThat(testObject.getQueueOccupancy()).isEqualTo(0);
+
+  }
+
+  private ILoggingEvent newEvent(Level level, String message) {
+    return new LoggingEvent(AsyncAppenderTest.class.getName(), logger, level, message, null, null);
+  }
+
+  /**
+   * Records messages once opened, holding the dispatcher until then
+   */
+  private static class GatedAppender extends AppenderBase<ILoggingEvent> {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final CountDownLatch first = new CountDownLatch(1);
+    private final List<String> messages = Lists.newArrayList();
+
+    @Override
+    protected void append(ILoggingEvent eventObject) {
+
+      first.countDown();
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      messages.add(eventObject.getFormattedMessage());
+
+    }
+
+    void open() {
+      gate.countDown();
+    }
+
+    boolean awaitFirst() throws InterruptedException {
+      return first.await(5, TimeUnit.SECONDS);
+    }
+
+    synchronized List<String> getMessages() {
+      return Lists.newArrayList(messages);
+    }
+
+  }
+
+}
@@ -0,0 +1,95 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.SPVBlockStore;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+import org.multibit.hd.core.store.CheckpointIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockStoreManagerTest {
+
+  private final NetworkParameters networkParameters = MainNetParams.get();
+
+  private File temporaryDirectory;
+
+  private File checkpointsFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    temporaryDirectory = SecureFiles.createTemporaryDirectory();
+    checkpointsFile = new File(temporaryDirectory, "mbhd.checkpoints");
+
+    try (InputStream is = BlockStoreManagerTest.class.getResourceAsStream("/mbhd.checkpoints");
+         FileOutputStream fos = new FileOutputStream(checkpointsFile)) {
+      ByteStreams.copy(is, fos);
+    }
+
+  }
+
+  @Test
+  public void testCaptureAndRestoreSnapshot() throws Exception {
+
+    File snapshotDirectory = new File(temporaryDirectory, BlockStoreManager.SNAPSHOT_DIRECTORY);
+    BlockStoreManager testObject = new BlockStoreManager(networkParameters, Optional.of(snapshotDirectory));
+
+    // Checkpoints are at difficulty transitions so provide a valid snapshot
+    File sourceFile = new File(temporaryDirectory, "source.spvchain");
+    BlockStore source = new SPVBlockStore(networkParameters, sourceFile);
+    long sourceTime = new DateTime(2014, 1, 1, 0, 0, DateTimeZone.UTC).getMillis() / 1000;
+    CheckpointIndex.openOrCreate(checkpointsFile).checkpoint(networkParameters, source, sourceTime);
+    int sourceHeight = source.getChainHead().getHeight();
+
+    Optional<File> snapshot = testObject.captureSnapshot(source);
+    source.close();
+
+    assertThat(snapshot.isPresent()).isTrue();
+    assertThat(snapshot.get().getName()).startsWith("main-" + sourceHeight + "-");
+
+    // A second capture at the same height is skipped
+    source = new SPVBlockStore(networkParameters, sourceFile);
+    assertThat(testObject.captureSnapshot(source).isPresent()).isFalse();
+    source.close();
+
+    // Without usable checkpoints the snapshot is restored for a later replay date
+    File emptyCheckpointsFile = new File(temporaryDirectory, "empty.checkpoints");
+    assertThat(emptyCheckpointsFile.createNewFile()).isTrue();
+
+    File replayFile = new File(temporaryDirectory, "replay.spvchain");
+    BlockStore replay = testObject.createOrOpenBlockStore(
+      replayFile,
+      emptyCheckpointsFile,
+      new DateTime(2014, 6, 1, 0, 0, DateTimeZone.UTC).toDate(),
+      true
+    );
+
+    assertThat(replay.getChainHead().getHeight()).isEqualTo(sourceHeight);
+    replay.close();
+
+    // A replay date before the snapshot cannot use it
+    replay = testObject.createOrOpenBlockStore(
+      replayFile,
+      emptyCheckpointsFile,
+      new DateTime(2013, 6, 1, 0, 0, DateTimeZone.UTC).toDate(),
+      true
+    );
+
+    assertThat(replay.getChainHead().getHeight()).isEqualTo(0);
+    replay.close();
+
+  }
+
+}
@@ -0,0 +1,124 @@
+package org.multibit.hd.core.managers;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.wallet.CoinSelection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexedCoinSelectorTest {
+
+  private final NetworkParameters networkParameters = MainNetParams.get();
+
+  private Wallet wallet;
+
+  private IndexedCoinSelector testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(networkParameters);
+    testObject = new IndexedCoinSelector();
+
+  }
+
+  @Test
+  public void testSelection() throws Exception {
+
+    List<TransactionOutput> candidates = Lists.newArrayList();
+    candidates.add(newOutput(Coin.CENT.multiply(10), 100));
+    candidates.add(newOutput(Coin.CENT.multiply(4), 200));
+    candidates.add(newOutput(Coin.CENT.multiply(3), 300));
+
+    // Exact match avoids change
+    CoinSelection selection = testObject.select(Coin.CENT.multiply(7), candidates);
+    assertThat(selection.valueGathered).isEqualTo(Coin.CENT.multiply(7));
+    assertThat(selection.gathered).hasSize(2);
+
+    // No combination within tolerance so the smallest sufficient output is used
+    selection = testObject.select(Coin.CENT.multiply(8), candidates);
+    assertThat(selection.valueGathered).isEqualTo(Coin.CENT.multiply(10));
+    assertThat(selection.gathered).hasSize(1);
+
+    // No single output is sufficient so the largest are used
+    selection = testObject.select(Coin.CENT.multiply(12), candidates);
+    assertThat(selection.valueGathered).isEqualTo(Coin.CENT.multiply(14));
+
+    // Insufficient funds gathers everything
+    selection = testObject.select(Coin.COIN, candidates);
+    assertThat(selection.valueGathered).isEqualTo(Coin.CENT.multiply(17));
+
+  }
+
+  @Test
+  public void testIncrementalUpdates() throws Exception {
+
+    List<TransactionOutput> candidates = Lists.newArrayList();
+    candidates.add(newOutput(Coin.CENT, 100));
+    testObject.select(Coin.CENT, candidates);
+    assertThat(testObject.size()).isEqualTo(1);
+
+    // Receiving adds the outputs belonging to the wallet
+    TransactionOutput received = newOutput(Coin.CENT.multiply(2), 101);
+    testObject.onCoinsReceived(wallet, received.getParentTransaction(), Coin.ZERO, Coin.ZERO);
+    assertThat(testObject.size()).isEqualTo(2);
+
+    // Spending removes the outputs consumed
+    Transaction spend = new Transaction(networkParameters);
+    spend.addInput(received);
+    spend.addOutput(Coin.CENT, new ECKey().toAddress(networkParameters));
+    testObject.onCoinsSent(wallet, spend, Coin.ZERO, Coin.ZERO);
+    assertThat(testObject.size()).isEqualTo(1);
+
+    assertThat(testObject.select(Coin.CENT, candidates).valueGathered).isEqualTo(Coin.CENT);
+
+  }
+
+  @Test
+  public void testOnlyCandidatesAreSelected() throws Exception {
+
+    TransactionOutput large = newOutput(Coin.CENT.multiply(10), 100);
+    TransactionOutput small = newOutput(Coin.CENT.multiply(2), 101);
+
+    testObject.select(Coin.CENT, Lists.newArrayList(large, small));
+    assertThat(testObject.size()).isEqualTo(2);
+
+    // A replacement output (e.g. the large one is now locked) with the same count must not bring back the old one
+    TransactionOutput other = newOutput(Coin.CENT.multiply(3), 102);
+    List<TransactionOutput> candidates = Lists.newArrayList(other, small);
+
+    CoinSelection selection = testObject.select(Coin.CENT.multiply(8), candidates);
+    assertThat(selection.gathered).excludes(large);
+    assertThat(selection.valueGathered).isEqualTo(Coin.CENT.multiply(5));
+
+    // The output no longer offered is dropped from the index
+    assertThat(testObject.size()).isEqualTo(2);
+    assertThat(testObject.select(Coin.CENT.multiply(3), candidates).gathered).containsOnly(other);
+
+  }
+
+  /**
+   * @return A confirmed output paying the wallet
+   */
+  private TransactionOutput newOutput(Coin value, int height) {
+
+    Transaction tx = new Transaction(networkParameters);
+    tx.addInput(new TransactionInput(networkParameters, tx, new byte[]{0x51}));
+    tx.addOutput(value, wallet.currentReceiveAddress());
+    tx.getConfidence().setAppearedAtChainHeight(height);
+
+    return tx.getOutput(0);
+  }
+
+}
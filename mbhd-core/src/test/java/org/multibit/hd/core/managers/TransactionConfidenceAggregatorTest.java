@@ -0,0 +1,97 @@
+package org.multibit.hd.core.managers;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionConfidence;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TransactionConfidenceAggregatorTest {
+
+  private final NetworkParameters networkParameters = MainNetParams.get();
+
+  private TransactionConfidenceAggregator testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new TransactionConfidenceAggregator();
+
+  }
+
+  @Test
+  public void testDepthChangesAreConsolidated() throws Exception {
+
+    Transaction tx1 = newTransaction(1);
+    Transaction tx2 = newTransaction(2);
+
+    tx1.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.PENDING);
+    tx2.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+
+    // First appearance is always a change (and is handled individually)
+    assertThat(testObject.record(tx1, 100)).isTrue();
+    assertThat(testObject.record(tx2, 100)).isTrue();
+    assertThat(testObject.complete()).isFalse();
+
+    // Next block: tx1 confirms, tx2 only gets deeper
+    tx1.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+    assertThat(testObject.record(tx1, 101)).isTrue();
+    assertThat(testObject.record(tx2, 101)).isFalse();
+    assertThat(testObject.complete()).isTrue();
+
+    // Nothing further to report
+    assertThat(testObject.complete()).isFalse();
+
+  }
+
+  @Test
+  public void testCompleteIfHeightChanged() throws Exception {
+
+    Transaction tx1 = newTransaction(1);
+    tx1.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+    testObject.remember(tx1);
+
+    assertThat(testObject.record(tx1, 200)).isFalse();
+    assertThat(testObject.completeIfHeightChanged(200)).isFalse();
+    assertThat(testObject.completeIfHeightChanged(201)).isTrue();
+
+  }
+
+  @Test
+  public void testUnreportedTransactionsAreForgotten() throws Exception {
+
+    Transaction dead = newTransaction(1);
+    Transaction building = newTransaction(2);
+
+    dead.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.DEAD);
+    building.getConfidence().setConfidenceType(TransactionConfidence.ConfidenceType.BUILDING);
+
+    testObject.record(dead, 100);
+    testObject.record(building, 100);
+    testObject.complete();
+    assertThat(testObject.size()).isEqualTo(2);
+
+    // Only the building transaction is reported as the chain grows
+    for (int i = 1; i <= TransactionConfidenceAggregator.RETAINED_BATCHES * 2; i++) {
+      testObject.record(building, 100 + i);
+      testObject.complete();
+    }
+
+    assertThat(testObject.size()).isEqualTo(1);
+
+  }
+
+  private Transaction newTransaction(long value) {
+
+    Transaction tx = new Transaction(networkParameters);
+    tx.addOutput(Coin.valueOf(value), new ECKey());
+
+    return tx;
+  }
+
+}
@@ -0,0 +1,71 @@
+package org.multibit.hd.core.metrics;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FlightRecorderTest {
+
+  @Test
+  public void testTimerEmitsEvent() throws Exception {
+
+    // JFR is reached through reflection so this only runs on Java 11+
+    Assume.assumeTrue(FlightRecorder.isAvailable());
+
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Object recording = recordingClass.newInstance();
+    recordingClass.getMethod("enable", String.class).invoke(recording, FlightRecorder.EVENT_NAME);
+    recordingClass.getMethod("start").invoke(recording);
+
+    Timer timer = Metrics.INSTANCE.timer("flight-recorder-test.write");
+    timer.time().bytes(1234).stop();
+    timer.time().fail();
+
+    recordingClass.getMethod("stop").invoke(recording);
+
+    File file = File.createTempFile("flight-recorder-test", ".jfr");
+    file.deleteOnExit();
+    try {
+      recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+    } finally {
+      recordingClass.getMethod("close").invoke(recording);
+    }
+
+    Class<?> recordingFileClass = Class.forName("jdk.jfr.consumer.RecordingFile");
+    Class<?> recordedEventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+    Method getEventType = recordedEventClass.getMethod("getEventType");
+    Method getValue = recordedEventClass.getMethod("getValue", String.class);
+    Method getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+
+    List<?> events = (List<?>) recordingFileClass.getMethod("readAllEvents", Path.class).invoke(null, file.toPath());
+
+    int succeeded = 0;
+    int failed = 0;
+    for (Object event : events) {
+      if (!FlightRecorder.EVENT_NAME.equals(getName.invoke(getEventType.invoke(event)))) {
+        continue;
+      }
+      if (!"flight-recorder-test.write".equals(getValue.invoke(event, "operation"))) {
+        continue;
+      }
+      assertThat(getValue.invoke(event, "component")).isEqualTo("flight-recorder-test");
+      if ((Boolean) getValue.invoke(event, "failed")) {
+        failed++;
+      } else {
+        assertThat(getValue.invoke(event, "bytes")).isEqualTo(1234L);
+        succeeded++;
+      }
+    }
+
+    assertThat(succeeded).isEqualTo(1);
+    assertThat(failed).isEqualTo(1);
+
+  }
+
+}
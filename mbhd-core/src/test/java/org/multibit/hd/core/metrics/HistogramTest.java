@@ -0,0 +1,82 @@
+package org.multibit.hd.core.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class HistogramTest {
+
+  @Test
+  public void testBucketBoundaries() throws Exception {
+
+    // Exact below 128
+    for (long value = 0; value < 128; value++) {
+      assertThat(Histogram.bucketIndex(value)).isEqualTo((int) value);
+      assertThat(Histogram.bucketUpperBound((int) value)).isEqualTo(value);
+    }
+
+    // Each value lies within its bucket to within 1/64
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long value = Math.abs(random.nextLong() >>> random.nextInt(63));
+      int index = Histogram.bucketIndex(value);
+      long upper = Histogram.bucketUpperBound(index);
+
+      assertThat(index).isLessThan(Histogram.BUCKET_COUNT);
+      assertThat(upper).isGreaterThanOrEqualTo(value);
+      assertThat((double) (upper - value)).isLessThanOrEqualTo(value / 64.0);
+    }
+
+    // The extremes
+    assertThat(Histogram.bucketIndex(Long.MAX_VALUE)).isEqualTo(Histogram.BUCKET_COUNT - 1);
+    assertThat(Histogram.bucketUpperBound(Histogram.BUCKET_COUNT - 1)).isEqualTo(Long.MAX_VALUE);
+
+  }
+
+  @Test
+  public void testPercentiles() throws Exception {
+
+    Histogram testObject = new Histogram();
+
+    for (long value = 1; value <= 10_000; value++) {
+      testObject.update(value);
+    }
+
+    assertThat(testObject.getCount()).isEqualTo(10_000);
+    assertThat(testObject.getMin()).isEqualTo(1);
+    assertThat(testObject.getMax()).isEqualTo(10_000);
+    assertThat(testObject.getMean()).isEqualTo(5_000.5);
+
+    assertWithin(testObject.getValueAtPercentile(0.5), 5_000);
+    assertWithin(testObject.getValueAtPercentile(0.99), 9_900);
+    assertThat(testObject.getValueAtPercentile(1.0)).isEqualTo(10_000);
+
+  }
+
+  @Test
+  public void testEmptyAndReset() throws Exception {
+
+    Histogram testObject = new Histogram();
+
+    assertThat(testObject.getMin()).isEqualTo(0);
+    assertThat(testObject.getValueAtPercentile(0.99)).isEqualTo(0);
+
+    testObject.update(-5);
+    testObject.update(1_000_000);
+    assertThat(testObject.getMin()).isEqualTo(0);
+    assertThat(testObject.getCount()).isEqualTo(2);
+
+    testObject.reset();
+    assertThat(testObject.getCount()).isEqualTo(0);
+    assertThat(testObject.getMax()).isEqualTo(0);
+
+  }
+
+  private static void assertWithin(long actual, long expected) {
+    assertThat(actual).isGreaterThanOrEqualTo(expected);
+    assertThat((double) actual).isLessThanOrEqualTo(expected * (1 + 1 / 64.0));
+  }
+
+}
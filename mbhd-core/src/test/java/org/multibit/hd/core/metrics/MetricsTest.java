@@ -0,0 +1,100 @@
+package org.multibit.hd.core.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+public class MetricsTest {
+
+  @Test
+  public void testGetOrCreate() throws Exception {
+
+    Counter counter = Metrics.INSTANCE.counter("metrics-test.counter");
+    counter.inc();
+    counter.inc(4);
+    counter.dec();
+
+    assertThat(Metrics.INSTANCE.counter("metrics-test.counter")).isSameAs(counter);
+    assertThat(Metrics.INSTANCE.getCounters().get("metrics-test.counter")).isEqualTo(4L);
+
+  }
+
+  @Test
+  public void testTypeConflict() throws Exception {
+
+    Metrics.INSTANCE.timer("metrics-test.conflict");
+
+    try {
+      Metrics.INSTANCE.counter("metrics-test.conflict");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertThat(e.getMessage()).contains("metrics-test.conflict");
+    }
+
+  }
+
+  @Test
+  public void testTimer() throws Exception {
+
+    Timer timer = Metrics.INSTANCE.timer("metrics-test.timer");
+
+    timer.update(5, TimeUnit.MILLISECONDS);
+
+    Timer.Context context = timer.time();
+    assertThat(context.stop()).isGreaterThanOrEqualTo(0);
+    // Repeated stops have no effect
+    context.stop();
+
+    timer.time().fail();
+
+    assertThat(timer.getCount()).isEqualTo(3);
+    assertThat(timer.getFailureCount()).isEqualTo(1);
+    assertThat(timer.getHistogram().getMax()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(5));
+    assertThat(Metrics.INSTANCE.getTimerP99Millis().get("metrics-test.timer")).isGreaterThanOrEqualTo(5.0);
+
+  }
+
+  @Test
+  public void testGaugesAndReport() throws Exception {
+
+    Metrics.INSTANCE.register("metrics-test.gauge", new Gauge() {
+      @Override
+      public long getValue() {
+        return 42;
+      }
+    });
+    Metrics.INSTANCE.register("metrics-test.broken-gauge", new Gauge() {
+      @Override
+      public long getValue() {
+        throw new IllegalStateException("Broken");
+      }
+    });
+
+    assertThat(Metrics.INSTANCE.getGauges().get("metrics-test.gauge")).isEqualTo(42L);
+    assertThat(Metrics.INSTANCE.getGauges().get("metrics-test.broken-gauge")).isEqualTo(-1L);
+
+    boolean found = false;
+    for (String line : Metrics.INSTANCE.getMetrics()) {
+      if (line.equals("metrics-test.gauge value=42")) {
+        found = true;
+      }
+    }
+    assertThat(found).isTrue();
+
+  }
+
+  @Test
+  public void testLogReporter() throws Exception {
+
+    Metrics.INSTANCE.setReportIntervalSeconds(60);
+    assertThat(Metrics.INSTANCE.getReportIntervalSeconds()).isEqualTo(60);
+
+    Metrics.INSTANCE.setReportIntervalSeconds(0);
+    assertThat(Metrics.INSTANCE.getReportIntervalSeconds()).isEqualTo(0);
+
+  }
+
+}
@@ -0,0 +1,233 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.xeiam.xchange.BaseExchange;
+import com.xeiam.xchange.Exchange;
+import com.xeiam.xchange.ExchangeSpecification;
+import com.xeiam.xchange.currency.CurrencyPair;
+import com.xeiam.xchange.dto.marketdata.OrderBook;
+import com.xeiam.xchange.dto.marketdata.Ticker;
+import com.xeiam.xchange.dto.marketdata.Trades;
+import com.xeiam.xchange.service.polling.PollingMarketDataService;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.config.BitcoinConfiguration;
+import org.multibit.hd.core.exchanges.ExchangeKey;
+import org.multibit.hd.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ExchangeTickerServiceTest {
+
+  private Map<ExchangeKey, Exchange> exchanges;
+
+  @Before
+  public void setUp() throws Exception {
+
+    exchanges = Maps.newLinkedHashMap();
+    ExchangeTickerService.invalidateUsdLegCache();
+
+  }
+
+  @Test
+  public void testMedian() throws Exception {
+
+    assertThat(ExchangeTickerService.median(Lists.newArrayList(new BigDecimal("3"), new BigDecimal("1"), new BigDecimal("2")))).isEqualTo(new BigDecimal("2"));
+    assertThat(ExchangeTickerService.median(Lists.newArrayList(new BigDecimal("4"), new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("3")))).isEqualTo(new BigDecimal("2.5"));
+    assertThat(ExchangeTickerService.median(Lists.newArrayList(new BigDecimal("7")))).isEqualTo(new BigDecimal("7"));
+
+  }
+
+  @Test
+  public void testAggregateTickerIgnoresOutlierAndFailure() throws Exception {
+
+    long failuresBefore = Metrics.INSTANCE.timer(ExchangeTickerService.sourceTimerName(ExchangeKey.BITFINEX)).getFailureCount();
+
+    newDirectExchange(ExchangeKey.BITSTAMP, "USD", new BigDecimal("100"), 0);
+    newDirectExchange(ExchangeKey.KRAKEN, "USD", new BigDecimal("110"), 0);
+    newDirectExchange(ExchangeKey.BTC_E, "USD", new BigDecimal("1000"), 0);
+    newExchange(ExchangeKey.BITFINEX).put(
+      new CurrencyPair("BTC", "USD"), new Callable<Ticker>() {
+        @Override
+        public Ticker call() throws Exception {
+          throw new IOException("Exchange down");
+        }
+      });
+
+    ExchangeTickerService testObject = new ExchangeTickerService(newBitcoinConfiguration("USD", 0), exchanges);
+
+    Ticker ticker = testObject.latestTicker().get(30, TimeUnit.SECONDS);
+
+    assertThat(ticker.getLast()).isEqualTo(new BigDecimal("110"));
+    assertThat(Metrics.INSTANCE.timer(ExchangeTickerService.sourceTimerName(ExchangeKey.BITFINEX)).getFailureCount()).isEqualTo(failuresBefore + 1);
+
+  }
+
+  @Test
+  public void testQuorumDoesNotWaitForSlowExchange() throws Exception {
+
+    newDirectExchange(ExchangeKey.BITSTAMP, "USD", new BigDecimal("100"), 0);
+    newDirectExchange(ExchangeKey.KRAKEN, "USD", new BigDecimal("110"), 0);
+    newDirectExchange(ExchangeKey.BTC_E, "USD", new BigDecimal("1000"), 10_000);
+
+    ExchangeTickerService testObject = new ExchangeTickerService(newBitcoinConfiguration("USD", 2), exchanges);
+
+    long start = System.nanoTime();
+    Ticker ticker = testObject.latestTicker().get(30, TimeUnit.SECONDS);
+
+    assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)).isLessThan(5);
+    assertThat(ticker.getLast()).isEqualTo(new BigDecimal("105"));
+
+  }
+
+  @Test
+  public void testTriangulationSharesUsdLegAcrossCurrencies() throws Exception {
+
+    FakeMarketDataService oerService = newExchange(ExchangeKey.OPEN_EXCHANGE_RATES);
+    oerService.put(new CurrencyPair("BTC", "USD"), newTicker("BTC", "USD", new BigDecimal("0.004")), 0);
+    oerService.put(new CurrencyPair("EUR", "USD"), newTicker("EUR", "USD", new BigDecimal("0.8")), 0);
+    oerService.put(new CurrencyPair("GBP", "USD"), newTicker("GBP", "USD", new BigDecimal("0.6")), 0);
+
+    BitcoinConfiguration eurConfiguration = newBitcoinConfiguration("EUR", 0);
+    eurConfiguration.setCurrentExchange(ExchangeKey.OPEN_EXCHANGE_RATES.name());
+    eurConfiguration.getAggregateExchanges().clear();
+    BitcoinConfiguration gbpConfiguration = eurConfiguration.deepCopy();
+    gbpConfiguration.setLocalCurrencyCode("GBP");
+
+    assertThat(new ExchangeTickerService(eurConfiguration, exchanges).latestTicker().get(30, TimeUnit.SECONDS).getLast()).isEqualTo(new BigDecimal("200.0"));
+    assertThat(new ExchangeTickerService(gbpConfiguration, exchanges).latestTicker().get(30, TimeUnit.SECONDS).getLast()).isEqualTo(new BigDecimal("150.0"));
+
+    assertThat(oerService.getCallCount(new CurrencyPair("BTC", "USD"))).isEqualTo(1);
+
+  }
+
+  private BitcoinConfiguration newBitcoinConfiguration(String localCurrencyCode, int aggregateQuorum) {
+
+    BitcoinConfiguration bitcoinConfiguration = new BitcoinConfiguration();
+    bitcoinConfiguration.setCurrentExchange(ExchangeKey.BITSTAMP.name());
+    bitcoinConfiguration.setLocalCurrencyCode(localCurrencyCode);
+    for (ExchangeKey exchangeKey : exchanges.keySet()) {
+      bitcoinConfiguration.getAggregateExchanges().add(exchangeKey.name());
+    }
+    bitcoinConfiguration.setAggregateQuorum(aggregateQuorum);
+
+    return bitcoinConfiguration;
+  }
+
+  private FakeMarketDataService newExchange(ExchangeKey exchangeKey) {
+
+    FakeMarketDataService marketDataService = new FakeMarketDataService();
+    exchanges.put(exchangeKey, new FakeExchange(marketDataService));
+
+    return marketDataService;
+  }
+
+  private void newDirectExchange(ExchangeKey exchangeKey, String counterCode, BigDecimal rate, long delayMillis) {
+    newExchange(exchangeKey).put(new CurrencyPair("BTC", counterCode), newTicker("BTC", counterCode, rate), delayMillis);
+  }
+
+  private Ticker newTicker(String baseCode, String counterCode, BigDecimal last) {
+
+    return Ticker.TickerBuilder
+      .newInstance()
+      .withCurrencyPair(new CurrencyPair(baseCode, counterCode))
+      .withBid(BigDecimal.ZERO)
+      .withAsk(BigDecimal.ZERO)
+      .withLast(last)
+      .withHigh(BigDecimal.ZERO)
+      .withLow(BigDecimal.ZERO)
+      .withTimestamp(new Date())
+      .withVolume(BigDecimal.ZERO).build();
+  }
+
+  /**
+   * <p>An exchange answering from a fake market data service</p>
+   */
+  private static class FakeExchange extends BaseExchange {
+
+    private FakeExchange(PollingMarketDataService pollingMarketDataService) {
+      this.pollingMarketDataService = pollingMarketDataService;
+    }
+
+    @Override
+    public ExchangeSpecification getDefaultExchangeSpecification() {
+      return new ExchangeSpecification(FakeExchange.class);
+    }
+  }
+
+  /**
+   * <p>Market data answering tickers by currency pair and counting the calls</p>
+   */
+  private static class FakeMarketDataService implements PollingMarketDataService {
+
+    private final ConcurrentMap<CurrencyPair, Callable<Ticker>> tickers = Maps.newConcurrentMap();
+
+    private final ConcurrentMap<CurrencyPair, AtomicInteger> callCounts = Maps.newConcurrentMap();
+
+    private void put(CurrencyPair currencyPair, Callable<Ticker> ticker) {
+      tickers.put(currencyPair, ticker);
+      callCounts.put(currencyPair, new AtomicInteger());
+    }
+
+    private void put(CurrencyPair currencyPair, final Ticker ticker, final long delayMillis) {
+      put(
+        currencyPair, new Callable<Ticker>() {
+          @Override
+          public Ticker call() throws Exception {
+            Uninterruptibles.sleepUninterruptibly(delayMillis, TimeUnit.MILLISECONDS);
+            return ticker;
+          }
+        });
+    }
+
+    private int getCallCount(CurrencyPair currencyPair) {
+      return callCounts.get(currencyPair).get();
+    }
+
+    @Override
+    public Ticker getTicker(CurrencyPair currencyPair, Object... args) throws IOException {
+
+      Callable<Ticker> ticker = tickers.get(currencyPair);
+      if (ticker == null) {
+        throw new IllegalArgumentException("Unsupported currency pair " + currencyPair);
+      }
+      callCounts.get(currencyPair).incrementAndGet();
+
+      try {
+        return ticker.call();
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public OrderBook getOrderBook(CurrencyPair currencyPair, Object... args) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Trades getTrades(CurrencyPair currencyPair, Object... args) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<CurrencyPair> getExchangeSymbols() {
+      return tickers.keySet();
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.CheckpointManager;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.files.SecureFiles;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CheckpointIndexTest {
+
+  private final NetworkParameters networkParameters = MainNetParams.get();
+
+  private File checkpointsFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File temporaryDirectory = SecureFiles.createTemporaryDirectory();
+    checkpointsFile = new File(temporaryDirectory.getAbsolutePath() + File.separator + "mbhd.checkpoints");
+
+    try (InputStream is = CheckpointIndexTest.class.getResourceAsStream("/mbhd.checkpoints");
+         FileOutputStream fos = new FileOutputStream(checkpointsFile)) {
+      ByteStreams.copy(is, fos);
+    }
+
+  }
+
+  @Test
+  public void testMatchesCheckpointManager() throws Exception {
+
+    CheckpointIndex testObject = CheckpointIndex.openOrCreate(checkpointsFile);
+
+    assertThat(new File(checkpointsFile.getAbsolutePath() + CheckpointIndex.INDEX_SUFFIX).exists()).isTrue();
+
+    CheckpointManager checkpointManager;
+    try (FileInputStream fis = new FileInputStream(checkpointsFile)) {
+      checkpointManager = new CheckpointManager(networkParameters, fis);
+    }
+
+    assertThat(testObject.size()).isEqualTo(checkpointManager.numCheckpoints());
+
+    // Sample from shortly after genesis to well beyond the last checkpoint
+    for (long time = 1_231_006_600L; time < 1_600_000_000L; time += 2_592_000L) {
+
+      StoredBlock expected = checkpointManager.getCheckpointBefore(time);
+      StoredBlock actual = testObject.getCheckpointBefore(networkParameters, time);
+
+      assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+      assertThat(actual.getHeader().getHash()).isEqualTo(expected.getHeader().getHash());
+    }
+
+  }
+
+  @Test
+  public void testReopenUsesExistingIndex() throws Exception {
+
+    CheckpointIndex first = CheckpointIndex.openOrCreate(checkpointsFile);
+    CheckpointIndex second = CheckpointIndex.openOrCreate(checkpointsFile);
+
+    assertThat(second).isSameAs(first);
+    assertThat(second.getHeightBefore(0).isPresent()).isFalse();
+
+  }
+
+}
@@ -23,6 +23,7 @@ import org.multibit.hd.ui.events.view.ViewEvents;
 import org.multibit.hd.ui.platform.GenericApplicationFactory;
 import org.multibit.hd.ui.platform.GenericApplicationSpecification;
 import org.multibit.hd.ui.services.ExternalDataListeningService;
+import org.multibit.hd.ui.utils.EdtWatchdog;
 import org.multibit.hd.ui.views.MainView;
 import org.multibit.hd.ui.views.SplashScreen;
 import org.multibit.hd.ui.views.themes.ThemeKey;
@@ -130,6 +131,9 @@ public class MultiBitHD {
     // Prepare the JVM (Nimbus, system properties etc)
     initialiseJVM();
 
+    // Attribute any UI freezes to code paths in the logs
+    EdtWatchdog.install();
+
     // Start core services (logging, security alerts, configuration, Bitcoin URI handling etc)
     initialiseCore(args);
 
@@ -154,6 +158,8 @@ public class MultiBitHD {
 
     mainController = null;
 
+    EdtWatchdog.logSessionReport();
+
     // final purge in case anything gets missed
     ViewEvents.unsubscribeAll();
     ControllerEvents.unsubscribeAll();
@@ -4,6 +4,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import javazoom.jl.decoder.JavaLayerException;
 import javazoom.jl.player.Player;
+import org.multibit.hd.core.concurrent.BackPressurePolicy;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.Configurations;
 import org.spongycastle.util.io.Streams;
@@ -34,7 +35,10 @@ public class Sounds {
    */
   private static final String PAYMENT_RECEIVED = "receive-bitcoin";
 
-  private static final ExecutorService executorService = SafeExecutors.newSingleThreadExecutor("play-received");
+  /**
+   * A burst of payments (e.g. during a sync) only needs one sound playing and one waiting
+   */
+  private static final ExecutorService executorService = SafeExecutors.newFixedThreadPool(1, "play-received", 1, BackPressurePolicy.DISCARD_OLDEST);
 
   /**
    * Utilities have no public constructor
@@ -2,6 +2,7 @@ package org.multibit.hd.ui.events.view;
 
 import org.bitcoinj.core.Coin;
 import com.google.common.base.Optional;
+import org.multibit.hd.core.events.Coalesce;
 
 import java.math.BigDecimal;
 
@@ -10,10 +11,12 @@ import java.math.BigDecimal;
  * <ul>
  * <li>Indicates a balance change has occurred</li>
  * </ul>
+ * <p>Only the latest balance within a repaint interval is delivered.</p>
  *
  * @since 0.0.1
  *
  */
+@Coalesce(windowMillis = 200)
 public class BalanceChangedEvent implements ViewEvent {
 
   private final Coin coinBalance;
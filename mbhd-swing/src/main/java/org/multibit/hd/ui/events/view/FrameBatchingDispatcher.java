@@ -0,0 +1,208 @@
+package org.multibit.hd.ui.events.view;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.events.EventCoalescer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Dispatcher to provide the following to ViewEvents:</p>
+ * <ul>
+ * <li>Accumulation of events fired off the EDT into a single EDT task per frame</li>
+ * <li>Replacement of a pending event by a later event of the same type for state style events</li>
+ * <li>Counts of posted events, frames and coalesced events</li>
+ * </ul>
+ * <p>A burst of events from a background thread (e.g. during a blockchain sync) then costs one EDT task per
+ * frame rather than one per event. Events are delivered in the order they were posted except that a coalesced
+ * event takes the position of its latest replacement.</p>
+ *
+ * @since 0.1.0
+ */
+public class FrameBatchingDispatcher {
+
+  private static final Logger log = LoggerFactory.getLogger(FrameBatchingDispatcher.class);
+
+  /**
+   * Approximately one frame at 60Hz
+   */
+  public static final long DEFAULT_FRAME_MILLIS = 16;
+
+  private final Executor edtExecutor;
+
+  private final ScheduledExecutorService frameTimer;
+
+  private final EventCoalescer.EventSink sink;
+
+  private final long frameNanos;
+
+  /**
+   * Event types where only the latest pending event is of interest
+   */
+  private final Set<Class<?>> coalescedTypes = Sets.newCopyOnWriteArraySet();
+
+  /**
+   * Events waiting for the next frame keyed by type (coalesced) or a unique key (not coalesced)
+   */
+  private Map<Object, Object> pendingEvents = Maps.newLinkedHashMap();
+
+  private boolean frameScheduled = false;
+
+  private long lastFrameNanos;
+
+  private final Object lock = new Object();
+
+  private final AtomicLong postedCount = new AtomicLong();
+  private final AtomicLong frameCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  private final Runnable drainTask = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  private final Runnable frameTask = new Runnable() {
+    @Override
+    public void run() {
+      edtExecutor.execute(drainTask);
+    }
+  };
+
+  /**
+   * @param edtExecutor The executor for the EDT (normally <code>SwingUtilities.invokeLater()</code>)
+   * @param frameTimer  The scheduler used to wait for the start of the next frame
+   * @param sink        The destination for events (called on the EDT)
+   * @param frameMillis The minimum interval between EDT tasks
+   */
+  public FrameBatchingDispatcher(
+    Executor edtExecutor,
+    ScheduledExecutorService frameTimer,
+    EventCoalescer.EventSink sink,
+    long frameMillis
+  ) {
+
+    Preconditions.checkNotNull(edtExecutor, "'edtExecutor' must be present");
+    Preconditions.checkNotNull(frameTimer, "'frameTimer' must be present");
+    Preconditions.checkNotNull(sink, "'sink' must be present");
+    Preconditions.checkArgument(frameMillis > 0, "'frameMillis' must be positive");
+
+    this.edtExecutor = edtExecutor;
+    this.frameTimer = frameTimer;
+    this.sink = sink;
+    this.frameNanos = TimeUnit.MILLISECONDS.toNanos(frameMillis);
+    this.lastFrameNanos = System.nanoTime() - frameNanos;
+  }
+
+  /**
+   * <p>Only the latest pending event of a coalesced type is delivered in a frame. This is only safe for events
+   * that describe a complete state (e.g. progress, balance) rather than a change.</p>
+   *
+   * @param eventType The event type to coalesce
+   */
+  public void coalesce(Class<?> eventType) {
+
+    Preconditions.checkNotNull(eventType, "'eventType' must be present");
+
+    coalescedTypes.add(eventType);
+
+  }
+
+  /**
+   * @param event The event to deliver on the EDT in the next frame
+   */
+  public void post(Object event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    postedCount.incrementAndGet();
+
+    boolean scheduleFrame;
+    long delayNanos;
+    synchronized (lock) {
+
+      if (coalescedTypes.contains(event.getClass())) {
+        // Move to the end so the latest event keeps its place relative to others
+        if (pendingEvents.remove(event.getClass()) != null) {
+          coalescedCount.incrementAndGet();
+        }
+        pendingEvents.put(event.getClass(), event);
+      } else {
+        pendingEvents.put(new Object(), event);
+      }
+
+      scheduleFrame = !frameScheduled;
+      frameScheduled = true;
+      delayNanos = Math.max(0, lastFrameNanos + frameNanos - System.nanoTime());
+    }
+
+    if (scheduleFrame) {
+      try {
+        if (delayNanos == 0) {
+          // An isolated event is not held back
+          edtExecutor.execute(drainTask);
+        } else {
+          frameTimer.schedule(frameTask, delayNanos, TimeUnit.NANOSECONDS);
+        }
+      } catch (RejectedExecutionException e) {
+        log.debug("Frame timer is shut down. Delivering events directly.");
+        edtExecutor.execute(drainTask);
+      }
+    }
+
+  }
+
+  /**
+   * @return The number of events posted
+   */
+  public long getPostedCount() {
+    return postedCount.get();
+  }
+
+  /**
+   * @return The number of EDT tasks used to deliver the posted events
+   */
+  public long getFrameCount() {
+    return frameCount.get();
+  }
+
+  /**
+   * @return The number of events replaced by a later event of the same type before delivery
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * <p>Deliver all pending events (called on the EDT)</p>
+   */
+  private void drain() {
+
+    Map<Object, Object> events;
+    synchronized (lock) {
+      events = pendingEvents;
+      pendingEvents = Maps.newLinkedHashMap();
+      frameScheduled = false;
+      lastFrameNanos = System.nanoTime();
+    }
+
+    frameCount.incrementAndGet();
+
+    for (Object event : events.values()) {
+      // Exceptions are passed to the exception handler by the event bus
+      sink.post(event);
+    }
+
+  }
+
+}
@@ -3,9 +3,11 @@ package org.multibit.hd.ui.events.view;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
-import com.google.common.eventbus.EventBus;
 import org.bitcoinj.core.Coin;
+import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.core.events.EventCoalescer;
+import org.multibit.hd.core.events.InstrumentedEventBus;
 import org.multibit.hd.core.exceptions.ExceptionHandler;
 import org.multibit.hd.ui.events.controller.ShowScreenEvent;
 import org.multibit.hd.ui.models.AlertModel;
@@ -20,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.math.BigDecimal;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * <p>Factory to provide the following to application API:</p>
@@ -42,10 +45,48 @@ public class ViewEvents {
   private static final Logger log = LoggerFactory.getLogger(ViewEvents.class);
 
   /**
-   * Use Guava to handle subscribers to events
+   * Use Guava to handle subscribers to events (timed per handler through EventBusMetrics)
    * Do not use this method directly, instead
    */
-  private static final EventBus viewEventBus = new EventBus(ExceptionHandler.newSubscriberExceptionHandler());
+  private static final InstrumentedEventBus viewEventBus = new InstrumentedEventBus("view-events", ExceptionHandler.newSubscriberExceptionHandler());
+
+  /**
+   * Deliver events fired off the EDT in a single EDT task per frame
+   */
+  private static final FrameBatchingDispatcher viewEventDispatcher = new FrameBatchingDispatcher(
+    new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        SwingUtilities.invokeLater(command);
+      }
+    },
+    SafeExecutors.newSingleThreadScheduledExecutor("view-events-frame"),
+    new EventCoalescer.EventSink() {
+      @Override
+      public void post(Object event) {
+        viewEventBus.post(event);
+      }
+    },
+    FrameBatchingDispatcher.DEFAULT_FRAME_MILLIS
+  );
+
+  /**
+   * Deliver only the latest of high frequency events at the end of a window (always on the EDT)
+   */
+  private static final EventCoalescer viewEventCoalescer = new EventCoalescer(
+    "view-events",
+    SafeExecutors.newSingleThreadScheduledExecutor("view-events-coalescer"),
+    new EventCoalescer.EventSink() {
+      @Override
+      public void post(Object event) {
+        if (SwingUtilities.isEventDispatchThread()) {
+          viewEventBus.post(event);
+        } else {
+          viewEventDispatcher.post(event);
+        }
+      }
+    }
+  );
 
   /**
    * Keep track of the Guava event bus subscribers for a clean shutdown
@@ -57,6 +98,16 @@ public class ViewEvents {
    */
   public static final int SLOWDOWN_UPDATE_TIME = 4000; // milliseconds
 
+  static {
+
+    // Only the latest state is displayed so earlier events in the same frame can be discarded
+    viewEventDispatcher.coalesce(BalanceChangedEvent.class);
+    viewEventDispatcher.coalesce(ProgressChangedEvent.class);
+    viewEventDispatcher.coalesce(SystemStatusChangedEvent.class);
+    viewEventDispatcher.coalesce(WalletDetailChangedEvent.class);
+
+  }
+
   /**
    * Utilities have a private constructor
    */
@@ -123,7 +174,13 @@ public class ViewEvents {
       unsubscribe(subscriber);
     }
     allSubscribers.clear();
-    log.info("All subscribers removed");
+    log.info("All subscribers removed. Events suppressed by coalescing: {}", viewEventCoalescer.getSuppressedCounts());
+    log.info(
+      "Off EDT events: {} delivered in {} frames ({} coalesced)",
+      viewEventDispatcher.getPostedCount(),
+      viewEventDispatcher.getFrameCount(),
+      viewEventDispatcher.getCoalescedCount()
+    );
 
   }
 
@@ -141,27 +198,15 @@ public class ViewEvents {
   ) {
 
     log.trace("Firing 'balance changed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(
-        new BalanceChangedEvent(
-          coinBalance,
-          localBalance,
-          rateProvider
-        ));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(
-            new BalanceChangedEvent(
-              coinBalance,
-              localBalance,
-              rateProvider
-            ));
-        }
-      });
+    if (!SwingUtilities.isEventDispatchThread()) {
+      log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
     }
+    viewEventCoalescer.post(
+      new BalanceChangedEvent(
+        coinBalance,
+        localBalance,
+        rateProvider
+      ));
 
   }
 
@@ -174,17 +219,7 @@ public class ViewEvents {
   public static void fireSystemStatusChangedEvent(final String localisedMessage, final RAGStatus severity) {
 
     log.trace("Firing 'system status changed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new SystemStatusChangedEvent(localisedMessage, severity));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new SystemStatusChangedEvent(localisedMessage, severity));
-        }
-      });
-    }
+    post(new SystemStatusChangedEvent(localisedMessage, severity));
 
   }
 
@@ -197,17 +232,7 @@ public class ViewEvents {
   public static void fireProgressChangedEvent(final String localisedMessage, final int percent) {
 
     log.trace("Firing 'progress changed' event: '{}'", percent);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ProgressChangedEvent(localisedMessage, percent));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ProgressChangedEvent(localisedMessage, percent));
-        }
-      });
-    }
+    post(new ProgressChangedEvent(localisedMessage, percent));
 
   }
 
@@ -219,17 +244,7 @@ public class ViewEvents {
   public static void fireAlertAddedEvent(final AlertModel alertModel) {
 
     log.trace("Firing 'alert added' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new AlertAddedEvent(alertModel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new AlertAddedEvent(alertModel));
-        }
-      });
-    }
+    post(new AlertAddedEvent(alertModel));
 
   }
 
@@ -239,17 +254,7 @@ public class ViewEvents {
   public static void fireSwitchWalletEvent() {
 
     log.debug("Firing 'switch wallet' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new SwitchWalletEvent());
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new SwitchWalletEvent());
-        }
-      });
-    }
+    post(new SwitchWalletEvent());
 
   }
 
@@ -259,17 +264,7 @@ public class ViewEvents {
   public static void fireAlertRemovedEvent() {
 
     log.trace("Firing 'alert removed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new AlertRemovedEvent());
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new AlertRemovedEvent());
-        }
-      });
-    }
+    post(new AlertRemovedEvent());
 
   }
 
@@ -279,17 +274,7 @@ public class ViewEvents {
   public static void fireWalletDetailChangedEvent(final WalletDetail walletDetail) {
 
     log.trace("Firing 'walletDetailChanged' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WalletDetailChangedEvent(walletDetail));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WalletDetailChangedEvent(walletDetail));
-        }
-      });
-    }
+    post(new WalletDetailChangedEvent(walletDetail));
 
   }
 
@@ -307,17 +292,7 @@ public class ViewEvents {
   ) {
 
     log.trace("Firing 'wizard button enabled {}' event: {}", panelName, enabled);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardButtonEnabledEvent(panelName, wizardButton, enabled));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardButtonEnabledEvent(panelName, wizardButton, enabled));
-        }
-      });
-    }
+    post(new WizardButtonEnabledEvent(panelName, wizardButton, enabled));
   }
 
   /**
@@ -334,17 +309,7 @@ public class ViewEvents {
   ) {
 
     log.trace("Firing 'wizard hide' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardHideEvent(panelName, wizardModel, isExitCancel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardHideEvent(panelName, wizardModel, isExitCancel));
-        }
-      });
-    }
+    post(new WizardHideEvent(panelName, wizardModel, isExitCancel));
 
   }
 
@@ -357,17 +322,7 @@ public class ViewEvents {
   public static void fireWizardPopoverHideEvent(final String panelName, final boolean isExitCancel) {
 
     log.trace("Firing 'wizard popover hide' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardPopoverHideEvent(panelName, isExitCancel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardPopoverHideEvent(panelName, isExitCancel));
-        }
-      });
-    }
+    post(new WizardPopoverHideEvent(panelName, isExitCancel));
 
   }
 
@@ -380,17 +335,7 @@ public class ViewEvents {
   public static void fireWizardDeferredHideEvent(final String panelName, final boolean isExitCancel) {
 
     log.trace("Firing 'wizard deferred hide' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new WizardDeferredHideEvent(panelName, isExitCancel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new WizardDeferredHideEvent(panelName, isExitCancel));
-        }
-      });
-    }
+    post(new WizardDeferredHideEvent(panelName, isExitCancel));
 
   }
 
@@ -403,17 +348,7 @@ public class ViewEvents {
   public static void fireComponentChangedEvent(final String panelName, final Optional componentModel) {
 
     log.trace("Firing 'component changed' event");
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ComponentChangedEvent(panelName, componentModel));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ComponentChangedEvent(panelName, componentModel));
-        }
-      });
-    }
+    post(new ComponentChangedEvent(panelName, componentModel));
 
   }
 
@@ -426,17 +361,7 @@ public class ViewEvents {
   public static void fireVerificationStatusChangedEvent(final String panelName, final boolean status) {
 
     log.trace("Firing 'verification status changed' event: {}", status);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new VerificationStatusChangedEvent(panelName, status));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new VerificationStatusChangedEvent(panelName, status));
-        }
-      });
-    }
+    post(new VerificationStatusChangedEvent(panelName, status));
 
   }
 
@@ -449,17 +374,7 @@ public class ViewEvents {
   public static void fireViewChangedEvent(final ViewKey viewKey, final boolean visible) {
 
     log.trace("Firing 'view changed' event: {}", visible);
-    if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ViewChangedEvent(viewKey, visible));
-    } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ViewChangedEvent(viewKey, visible));
-        }
-      });
-    }
+    post(new ViewChangedEvent(viewKey, visible));
   }
 
   /**
@@ -469,16 +384,22 @@ public class ViewEvents {
    */
   public static void fireShowDetailScreenEvent(final Screen detailScreen) {
     log.trace("Firing 'show detail screen' event");
+    post(new ShowScreenEvent(detailScreen));
+  }
+
+  /**
+   * <p>Post directly on the EDT, otherwise deliver in the next frame</p>
+   *
+   * @param event The event
+   */
+  private static void post(Object event) {
+
     if (SwingUtilities.isEventDispatchThread()) {
-      viewEventBus.post(new ShowScreenEvent(detailScreen));
+      viewEventBus.post(event);
     } else {
-      SwingUtilities.invokeLater(new Runnable() {
-        @Override
-        public void run() {
-          log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
-          viewEventBus.post(new ShowScreenEvent(detailScreen));
-        }
-      });
+      log.warn("This event must be on the Swing event dispatch thread (EDT). Fix this to avoid broken UI.");
+      viewEventDispatcher.post(event);
     }
+
   }
-}
\ No newline at end of file
+}
@@ -10,6 +10,7 @@ import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import org.joda.time.DateTime;
+import org.multibit.hd.core.concurrent.BackPressurePolicy;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.dto.RAGStatus;
 import org.multibit.hd.core.utils.Dates;
@@ -55,8 +56,8 @@ public class Gravatars {
   // Maintain a multi-threaded shared reference to a failure mode
   private static AtomicReference<Optional<DateTime>> lastFailedDownload = new AtomicReference<>(Optional.<DateTime>absent());
 
-  // Keep an image thread pool
-  private static final ListeningExecutorService gravatarExecutorService = SafeExecutors.newFixedThreadPool(10, "gravatar");
+  // Keep an image thread pool (a large contact list discards the oldest requests which then show the "no network" image)
+  private static final ListeningExecutorService gravatarExecutorService = SafeExecutors.newFixedThreadPool(10, "gravatar", 1000, BackPressurePolicy.DISCARD_OLDEST);
 
   // Maintain an image cache
   private static LoadingCache<String, Optional<BufferedImage>> cache = CacheBuilder
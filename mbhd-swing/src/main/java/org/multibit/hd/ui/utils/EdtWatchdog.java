@@ -0,0 +1,470 @@
+package org.multibit.hd.ui.utils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Watchdog to provide the following to the UI:</p>
+ * <ul>
+ * <li>Timing of every EDT event dispatch through a custom <code>EventQueue</code></li>
+ * <li>Stack samples of the EDT taken from a sampler thread while a dispatch exceeds the stall threshold</li>
+ * <li>Aggregation of the hot frames per stall and across the session, reported through the log</li>
+ * </ul>
+ * <p>A nested dispatch (e.g. from a modal dialog) restarts the timing of the outer dispatch since the EDT is
+ * still pumping events.</p>
+ *
+ * @since 0.1.0
+ */
+public class EdtWatchdog {
+
+  private static final Logger log = LoggerFactory.getLogger(EdtWatchdog.class);
+
+  /**
+   * A dispatch longer than this is noticeable as a freeze
+   */
+  public static final long DEFAULT_STALL_THRESHOLD_MILLIS = 250;
+
+  /**
+   * The interval between checks of the EDT (and between stack samples during a stall)
+   */
+  private static final long SAMPLE_INTERVAL_MILLIS = 50;
+
+  /**
+   * The number of samples (about 5 seconds) after which an ongoing stall is reported as a hang
+   */
+  private static final int HANG_REPORT_SAMPLES = 100;
+
+  /**
+   * The number of hot frames to include in a report
+   */
+  private static final int REPORT_FRAMES = 10;
+
+  /**
+   * Frames from this package are reported ahead of library frames
+   */
+  private static final String APPLICATION_PACKAGE = "org.multibit.";
+
+  private static EdtWatchdog installed = null;
+
+  private final long stallThresholdNanos;
+
+  private final WatchdogEventQueue eventQueue = new WatchdogEventQueue();
+
+  private final ScheduledExecutorService sampler;
+
+  /**
+   * Written by the EDT, read by the sampler (zero when idle)
+   */
+  private volatile long dispatchStartNanos = 0;
+  private volatile AWTEvent dispatchEvent = null;
+  private volatile Thread edt = null;
+
+  /**
+   * Dispatches that exceeded the threshold waiting to be reported by the sampler
+   */
+  private final ConcurrentLinkedQueue<CompletedStall> completedStalls = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The stall being sampled (sampler thread only)
+   */
+  private Stall currentStall = null;
+
+  /**
+   * The start of the last stall reported by the sampler (sampler thread only)
+   */
+  private long lastReportedStartNanos = 0;
+
+  /**
+   * Sample counts by frame across all stalls
+   */
+  private final ConcurrentMap<String, AtomicInteger> sessionFrames = Maps.newConcurrentMap();
+
+  private final AtomicLong stallCount = new AtomicLong();
+  private final AtomicLong sampleCount = new AtomicLong();
+  private final AtomicLong longestStallNanos = new AtomicLong();
+
+  /**
+   * @param stallThresholdMillis The dispatch duration above which the EDT is considered stalled
+   */
+  EdtWatchdog(long stallThresholdMillis) {
+
+    Preconditions.checkArgument(stallThresholdMillis > 0, "'stallThresholdMillis' must be positive");
+
+    this.stallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(stallThresholdMillis);
+    this.sampler = SafeExecutors.newSingleThreadScheduledExecutor("edt-watchdog");
+  }
+
+  /**
+   * <p>Install the watchdog on the system event queue (repeated calls have no effect)</p>
+   *
+   * @return The installed watchdog
+   */
+  public static synchronized EdtWatchdog install() {
+
+    if (installed == null) {
+      installed = new EdtWatchdog(DEFAULT_STALL_THRESHOLD_MILLIS);
+      installed.start();
+      log.debug("EDT watchdog installed with threshold {}ms", DEFAULT_STALL_THRESHOLD_MILLIS);
+    }
+
+    return installed;
+  }
+
+  /**
+   * <p>Write the session report to the log if the watchdog is installed</p>
+   */
+  public static synchronized void logSessionReport() {
+
+    if (installed != null) {
+      installed.dumpToLog();
+    }
+
+  }
+
+  /**
+   * <p>Push the event queue and start sampling</p>
+   */
+  void start() {
+
+    Toolkit.getDefaultToolkit().getSystemEventQueue().push(eventQueue);
+
+    sampler.scheduleWithFixedDelay(
+      new Runnable() {
+        @Override
+        public void run() {
+          sample();
+        }
+      }, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+  }
+
+  /**
+   * <p>Remove the event queue and stop sampling</p>
+   */
+  void stop() {
+
+    eventQueue.uninstall();
+    sampler.shutdownNow();
+
+  }
+
+  /**
+   * @return The number of dispatches that exceeded the threshold
+   */
+  public long getStallCount() {
+    return stallCount.get();
+  }
+
+  /**
+   * @return The number of EDT stack samples taken during stalls
+   */
+  public long getSampleCount() {
+    return sampleCount.get();
+  }
+
+  /**
+   * @return The hottest frames across the session with their sample counts, application frames first
+   */
+  public List<String> getSessionHotFrames() {
+    return hotFrames(sessionFrames);
+  }
+
+  /**
+   * <p>Write the session report to the log</p>
+   */
+  public void dumpToLog() {
+
+    if (stallCount.get() == 0) {
+      log.info("EDT watchdog: no stalls over {}ms", TimeUnit.NANOSECONDS.toMillis(stallThresholdNanos));
+      return;
+    }
+
+    log.info(
+      "EDT watchdog: {} stalls over {}ms (longest {}ms), {} samples. Hot frames:{}",
+      stallCount.get(),
+      TimeUnit.NANOSECONDS.toMillis(stallThresholdNanos),
+      TimeUnit.NANOSECONDS.toMillis(longestStallNanos.get()),
+      sampleCount.get(),
+      format(getSessionHotFrames())
+    );
+
+  }
+
+  /**
+   * <p>Called by the sampler to take a stack sample of a stalled EDT and report completed stalls</p>
+   */
+  private void sample() {
+
+    // Report any stall that has completed
+    CompletedStall completed;
+    while ((completed = completedStalls.poll()) != null) {
+      stallCount.incrementAndGet();
+      updateLongest(completed.durationNanos);
+
+      if (currentStall != null && currentStall.startNanos == completed.startNanos) {
+        currentStall.durationNanos = completed.durationNanos;
+        reportCurrentStall();
+      } else if (completed.startNanos != lastReportedStartNanos) {
+        // Completed before a sample could be taken
+        log.warn(
+          "EDT stalled for {}ms dispatching {}",
+          TimeUnit.NANOSECONDS.toMillis(completed.durationNanos),
+          describe(completed.event)
+        );
+      }
+    }
+
+    long start = dispatchStartNanos;
+    long now = System.nanoTime();
+
+    if (start != 0 && now - start > stallThresholdNanos) {
+
+      if (currentStall == null || currentStall.startNanos != start) {
+        reportCurrentStall();
+        currentStall = new Stall(start, dispatchEvent);
+      }
+
+      Thread thread = edt;
+      StackTraceElement[] stackTrace = thread == null ? new StackTraceElement[0] : thread.getStackTrace();
+
+      // The dispatch may have completed while the stack was captured
+      if (dispatchStartNanos == start) {
+        currentStall.add(stackTrace);
+        addToSession(stackTrace);
+
+        if (currentStall.samples == HANG_REPORT_SAMPLES) {
+          // Report a hang now in case it never completes
+          log.warn(
+            "EDT blocked for {}ms dispatching {}. Hot frames so far:{}",
+            TimeUnit.NANOSECONDS.toMillis(now - start),
+            describe(currentStall.event),
+            format(hotFrames(currentStall.frames))
+          );
+        }
+      }
+    }
+
+  }
+
+  private void reportCurrentStall() {
+
+    if (currentStall == null) {
+      return;
+    }
+
+    long duration = currentStall.durationNanos > 0 ? currentStall.durationNanos : System.nanoTime() - currentStall.startNanos;
+    log.warn(
+      "EDT stalled for {}ms dispatching {} ({} samples). Hot frames:{}",
+      TimeUnit.NANOSECONDS.toMillis(duration),
+      describe(currentStall.event),
+      currentStall.samples,
+      format(hotFrames(currentStall.frames))
+    );
+
+    lastReportedStartNanos = currentStall.startNanos;
+    currentStall = null;
+  }
+
+  private void addToSession(StackTraceElement[] stackTrace) {
+
+    sampleCount.incrementAndGet();
+    for (String frame : distinctFrames(stackTrace)) {
+      AtomicInteger count = sessionFrames.get(frame);
+      if (count == null) {
+        sessionFrames.putIfAbsent(frame, new AtomicInteger());
+        count = sessionFrames.get(frame);
+      }
+      count.incrementAndGet();
+    }
+
+  }
+
+  private void updateLongest(long durationNanos) {
+
+    long longest;
+    do {
+      longest = longestStallNanos.get();
+    } while (durationNanos > longest && !longestStallNanos.compareAndSet(longest, durationNanos));
+
+  }
+
+  /**
+   * @param stackTrace The stack trace
+   *
+   * @return Each frame once (so recursion does not inflate a sample), ignoring the event queue machinery
+   */
+  private static Set<String> distinctFrames(StackTraceElement[] stackTrace) {
+
+    Set<String> frames = Sets.newLinkedHashSet();
+    for (StackTraceElement element : stackTrace) {
+      String className = element.getClassName();
+      if (className.startsWith("java.awt.EventDispatchThread")
+        || className.startsWith("java.awt.EventQueue")
+        || className.startsWith(EdtWatchdog.class.getName() + "$")) {
+        continue;
+      }
+      // Avoid the module prefix added by later JVMs
+      frames.add(className + "." + element.getMethodName() + "(" + element.getFileName() + ":" + element.getLineNumber() + ")");
+    }
+
+    return frames;
+  }
+
+  /**
+   * @param frames Sample counts by frame
+   *
+   * @return The hottest frames as "count frame", application frames before library frames
+   */
+  private static List<String> hotFrames(Map<String, ? extends Number> frames) {
+
+    List<Map.Entry<String, ? extends Number>> entries = Lists.newArrayList();
+    for (Map.Entry<String, ? extends Number> entry : frames.entrySet()) {
+      entries.add(entry);
+    }
+
+    Collections.sort(entries, new Comparator<Map.Entry<String, ? extends Number>>() {
+      @Override
+      public int compare(Map.Entry<String, ? extends Number> a, Map.Entry<String, ? extends Number> b) {
+        boolean aApplication = a.getKey().startsWith(APPLICATION_PACKAGE);
+        boolean bApplication = b.getKey().startsWith(APPLICATION_PACKAGE);
+        if (aApplication != bApplication) {
+          return aApplication ? -1 : 1;
+        }
+        return Long.compare(b.getValue().longValue(), a.getValue().longValue());
+      }
+    });
+
+    List<String> hotFrames = Lists.newArrayList();
+    for (int i = 0; i < Math.min(entries.size(), REPORT_FRAMES); i++) {
+      hotFrames.add(entries.get(i).getValue() + " " + entries.get(i).getKey());
+    }
+
+    return hotFrames;
+  }
+
+  private static String format(List<String> hotFrames) {
+
+    StringBuilder sb = new StringBuilder();
+    for (String hotFrame : hotFrames) {
+      sb.append("\n\t").append(hotFrame);
+    }
+
+    return sb.toString();
+  }
+
+  private static String describe(AWTEvent event) {
+
+    if (event == null) {
+      return "unknown event";
+    }
+
+    // Invocation events name the runnable which identifies the code path
+    return event.getClass().getSimpleName() + "[" + event.paramString() + "]";
+  }
+
+  /**
+   * <p>Event queue timing each dispatch on the EDT</p>
+   */
+  private class WatchdogEventQueue extends EventQueue {
+
+    private int depth = 0;
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+
+      depth++;
+      edt = Thread.currentThread();
+
+      dispatchStartNanos = System.nanoTime();
+      dispatchEvent = event;
+
+      try {
+        super.dispatchEvent(event);
+      } finally {
+        // Measured from the end of any nested dispatch
+        long start = dispatchStartNanos;
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > stallThresholdNanos) {
+          completedStalls.offer(new CompletedStall(start, elapsed, event));
+        }
+
+        depth--;
+        // An outer dispatch resumes timing from here since the EDT was pumping events meanwhile
+        dispatchStartNanos = depth > 0 ? System.nanoTime() : 0;
+        dispatchEvent = null;
+      }
+
+    }
+
+    private void uninstall() {
+      pop();
+    }
+
+  }
+
+  /**
+   * <p>A stall in progress with its samples</p>
+   */
+  private static class Stall {
+
+    private final long startNanos;
+    private final AWTEvent event;
+    private final Map<String, Integer> frames = Maps.newHashMap();
+    private int samples = 0;
+    private long durationNanos = 0;
+
+    private Stall(long startNanos, AWTEvent event) {
+      this.startNanos = startNanos;
+      this.event = event;
+    }
+
+    private void add(StackTraceElement[] stackTrace) {
+
+      samples++;
+      for (String frame : distinctFrames(stackTrace)) {
+        Integer count = frames.get(frame);
+        frames.put(frame, count == null ? 1 : count + 1);
+      }
+
+    }
+
+  }
+
+  /**
+   * <p>A dispatch that exceeded the threshold</p>
+   */
+  private static class CompletedStall {
+
+    private final long startNanos;
+    private final long durationNanos;
+    private final AWTEvent event;
+
+    private CompletedStall(long startNanos, long durationNanos, AWTEvent event) {
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.event = event;
+    }
+
+  }
+
+}
@@ -108,6 +108,18 @@ public class ChangePasswordPanelView extends AbstractWizardPanelView<ChangePassw
 
   }
 
+  @Override
+  public void unsubscribe() {
+
+    super.unsubscribe();
+
+    // Allow any change in progress to complete then release the thread
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+
+  }
+
   @Override
   protected void initialiseButtons(AbstractWizard<ChangePasswordWizardModel> wizard) {
 
@@ -72,6 +72,16 @@ public class ChangePinWizardModel extends AbstractHardwareWalletWizardModel<Chan
     super(state);
   }
 
+  @Override
+  public void unsubscribe() {
+
+    super.unsubscribe();
+
+    // Allow any request in progress to complete then release the thread
+    trezorRequestService.shutdown();
+
+  }
+
   @Override
   public String getPanelName() {
     return state.name();
@@ -121,6 +121,16 @@ public class CredentialsWizardModel extends AbstractHardwareWalletWizardModel<Cr
     this.credentialsRequestType = credentialsRequestType;
   }
 
+  @Override
+  public void unsubscribe() {
+
+    super.unsubscribe();
+
+    // Allow any unlock in progress to complete then release the thread
+    unlockWalletService.shutdown();
+
+  }
+
   @Override
   public String getPanelName() {
     return state.name();
@@ -17,6 +17,8 @@ import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.HttpsManager;
 import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.metrics.Metrics;
+import org.multibit.hd.core.metrics.Timer;
 import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.CoreServices;
 import org.multibit.hd.core.utils.Dates;
@@ -313,7 +315,12 @@ public class CreateWalletReportPanelView extends AbstractWizardPanelView<Welcome
 
         // Perform a BRIT exchange
         FeeService feeService = CoreServices.createFeeService();
-        feeService.performExchangeWithMatcher(seed, walletSummary.getWallet());
+        Timer.Context context = Metrics.INSTANCE.timer("fee-service.matcher-exchange").time();
+        try {
+          feeService.performExchangeWithMatcher(seed, walletSummary.getWallet());
+        } finally {
+          context.stop();
+        }
 
       }
 
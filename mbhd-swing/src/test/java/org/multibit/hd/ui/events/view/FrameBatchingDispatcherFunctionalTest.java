@@ -0,0 +1,151 @@
+package org.multibit.hd.ui.events.view;
+
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.dto.RAGStatus;
+import org.multibit.hd.core.events.EventCoalescer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>Benchmark of EDT tasks per second for a burst of view events fired off the EDT during a simulated sync</p>
+ */
+public class FrameBatchingDispatcherFunctionalTest {
+
+  private static final Logger log = LoggerFactory.getLogger(FrameBatchingDispatcherFunctionalTest.class);
+
+  /**
+   * Events per block for progress, status, balance and wallet detail
+   */
+  private static final int BLOCKS = 20_000;
+
+  /**
+   * Simulated handler cost on the EDT (layout and repaint)
+   */
+  private static final long HANDLER_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /**
+   * Blocks arriving between pauses of 1ms on the network thread
+   */
+  private static final int BLOCKS_PER_MILLI = 20;
+
+  @Test
+  public void testEdtTasksPerSecond() throws Exception {
+
+    final AtomicLong edtTasks = new AtomicLong();
+    final AtomicLong handled = new AtomicLong();
+
+    final EventCoalescer.EventSink sink = new EventCoalescer.EventSink() {
+      @Override
+      public void post(Object event) {
+        handled.incrementAndGet();
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < HANDLER_NANOS) {
+          // Busy wait to simulate layout
+        }
+      }
+    };
+
+    // Current approach of one EDT task per event
+    long start = System.nanoTime();
+    for (int i = 0; i < BLOCKS; i++) {
+      pace(i);
+      for (final Object event : syncEvents(i)) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            edtTasks.incrementAndGet();
+            sink.post(event);
+          }
+        });
+      }
+    }
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    report("invokeLater per event", edtTasks.get(), handled.get(), System.nanoTime() - start);
+
+    edtTasks.set(0);
+    handled.set(0);
+
+    // Frame batched
+    ScheduledExecutorService frameTimer = SafeExecutors.newSingleThreadScheduledExecutor("benchmark-frame");
+    FrameBatchingDispatcher dispatcher = new FrameBatchingDispatcher(
+      new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              edtTasks.incrementAndGet();
+              command.run();
+            }
+          });
+        }
+      },
+      frameTimer,
+      sink,
+      FrameBatchingDispatcher.DEFAULT_FRAME_MILLIS
+    );
+    dispatcher.coalesce(ProgressChangedEvent.class);
+    dispatcher.coalesce(SystemStatusChangedEvent.class);
+    dispatcher.coalesce(Long.class);
+
+    start = System.nanoTime();
+    for (int i = 0; i < BLOCKS; i++) {
+      pace(i);
+      for (Object event : syncEvents(i)) {
+        dispatcher.post(event);
+      }
+    }
+    // Allow the final frame to drain
+    while (dispatcher.getPostedCount() - dispatcher.getCoalescedCount() > handled.get()) {
+      Thread.sleep(5);
+    }
+    report("frame batched", edtTasks.get(), handled.get(), System.nanoTime() - start);
+
+    frameTimer.shutdownNow();
+
+    assertThat(dispatcher.getFrameCount()).isLessThan(BLOCKS);
+
+  }
+
+  private void pace(int block) throws InterruptedException {
+    if (block % BLOCKS_PER_MILLI == 0) {
+      Thread.sleep(1);
+    }
+  }
+
+  private Object[] syncEvents(int block) {
+    return new Object[]{
+      new ProgressChangedEvent("Synchronizing", block * 100 / BLOCKS),
+      new SystemStatusChangedEvent("Synchronizing", RAGStatus.AMBER),
+      (long) block
+    };
+  }
+
+  private void report(String name, long tasks, long handled, long elapsedNanos) {
+
+    double seconds = elapsedNanos / 1e9;
+    log.info(
+      "{}: {} EDT tasks ({} tasks/s), {} handler calls in {}ms",
+      name,
+      tasks,
+      (long) (tasks / seconds),
+      handled,
+      TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+    );
+
+  }
+
+}
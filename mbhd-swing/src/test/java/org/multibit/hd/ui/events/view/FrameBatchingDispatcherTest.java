@@ -0,0 +1,131 @@
+package org.multibit.hd.ui.events.view;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.events.EventCoalescer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FrameBatchingDispatcherTest {
+
+  private ScheduledExecutorService frameTimer;
+
+  private final List<Runnable> edtTasks = Collections.synchronizedList(Lists.<Runnable>newArrayList());
+
+  private final List<Object> delivered = Lists.newArrayList();
+
+  private FrameBatchingDispatcher testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    frameTimer = SafeExecutors.newSingleThreadScheduledExecutor("test-frame");
+
+    testObject = new FrameBatchingDispatcher(
+      new Executor() {
+        @Override
+        public void execute(Runnable command) {
+          // Hold the task until the test runs it as the EDT
+          edtTasks.add(command);
+        }
+      },
+      frameTimer,
+      new EventCoalescer.EventSink() {
+        @Override
+        public void post(Object event) {
+          delivered.add(event);
+        }
+      },
+      50
+    );
+    testObject.coalesce(Integer.class);
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    frameTimer.shutdownNow();
+
+  }
+
+  @Test
+  public void testBurstDeliveredInSingleTask() throws Exception {
+
+    testObject.post("a");
+    testObject.post(1);
+    testObject.post("b");
+    testObject.post(2);
+    testObject.post(3);
+
+    assertThat(edtTasks.size()).isEqualTo(1);
+    runEdtTasks();
+
+    // The latest Integer takes the place of the earlier ones
+    assertThat(delivered).containsExactly("a", "b", 3);
+    assertThat(testObject.getPostedCount()).isEqualTo(5);
+    assertThat(testObject.getFrameCount()).isEqualTo(1);
+    assertThat(testObject.getCoalescedCount()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testNextFrameWaitsForFrameInterval() throws Exception {
+
+    testObject.post("a");
+    runEdtTasks();
+
+    // Within the frame so the task is scheduled rather than submitted
+    testObject.post("b");
+    testObject.post("c");
+    assertThat(edtTasks).isEmpty();
+
+    Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+    assertThat(edtTasks.size()).isEqualTo(1);
+    runEdtTasks();
+
+    assertThat(delivered).containsExactly("a", "b", "c");
+    assertThat(testObject.getFrameCount()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testFrameTimerShutdownDeliversDirectly() throws Exception {
+
+    testObject.post("a");
+    runEdtTasks();
+
+    frameTimer.shutdownNow();
+
+    testObject.post("b");
+    assertThat(edtTasks.size()).isEqualTo(1);
+    runEdtTasks();
+
+    assertThat(delivered).containsExactly("a", "b");
+
+  }
+
+  private void runEdtTasks() {
+
+    List<Runnable> tasks;
+    synchronized (edtTasks) {
+      tasks = Lists.newArrayList(edtTasks);
+      edtTasks.clear();
+    }
+    for (Runnable task : tasks) {
+      task.run();
+    }
+
+  }
+
+}
@@ -0,0 +1,82 @@
+package org.multibit.hd.ui.utils;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class EdtWatchdogTest {
+
+  private EdtWatchdog testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new EdtWatchdog(100);
+    testObject.start();
+
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.stop();
+
+  }
+
+  @Test
+  public void testStallAttributedToHandler() throws Exception {
+
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        slowHandler();
+      }
+    });
+
+    // Allow the sampler to report the completed stall
+    Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+
+    assertThat(testObject.getStallCount()).isEqualTo(1);
+    assertThat(testObject.getSampleCount()).isGreaterThan(0);
+
+    // Application frames are reported first
+    assertThat(testObject.getSessionHotFrames().get(0)).contains("EdtWatchdogTest");
+
+    boolean found = false;
+    for (String frame : testObject.getSessionHotFrames()) {
+      found |= frame.contains("slowHandler");
+    }
+    assertThat(found).isTrue();
+
+  }
+
+  @Test
+  public void testFastDispatchIgnored() throws Exception {
+
+    for (int i = 0; i < 100; i++) {
+      SwingUtilities.invokeAndWait(new Runnable() {
+        @Override
+        public void run() {
+          // Do nothing
+        }
+      });
+    }
+
+    Uninterruptibles.sleepUninterruptibly(150, TimeUnit.MILLISECONDS);
+
+    assertThat(testObject.getStallCount()).isEqualTo(0);
+    assertThat(testObject.getSampleCount()).isEqualTo(0);
+
+  }
+
+  private void slowHandler() {
+    Uninterruptibles.sleepUninterruptibly(500, TimeUnit.MILLISECONDS);
+  }
+
+}